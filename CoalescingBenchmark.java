@@ -0,0 +1,90 @@
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rmi.*;
+
+/** Measures the effect of write coalescing on many concurrent callers.
+
+	<p>
+	Callers share one stub and make sequential
+	<code>PingpongInterface.pingpong</code> calls. For each number of callers,
+	the benchmark runs once with every request flushed at once and once with
+	each coalescing window, and reports the call throughput and the mean
+	latency. Nagle's algorithm is disabled throughout, so that the only
+	coalescing is the stub's own.
+
+	<p>
+	Usage: <code>java CoalescingBenchmark [calls per caller]</code>.
+ */
+public class CoalescingBenchmark
+{
+	private static final int[] CALLERS = {1, 4, 16, 64};
+	/** Coalescing windows measured, in microseconds. Zero flushes each request at once. */
+	private static final int[] WINDOWS = {0, 50, 100, 200};
+	private static final int LIMIT = 16 * 1024;
+	private static final int PORT = 7500;
+
+	public static void main(String[] args) throws Exception{
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+		InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+		Skeleton<PingpongInterface> skeleton =
+			new Skeleton<PingpongInterface>(PingpongInterface.class, new PingpongImpl(), address,
+			                                TransportOptions.latency());
+		skeleton.start();
+
+		System.out.println("callers   window us   calls/s   mean us");
+		try{
+			for(int callers : CALLERS){
+				for(int window : WINDOWS){
+					TransportOptions options = TransportOptions.latency().withWriteCoalescing(window, LIMIT);
+					run(Stub.create(PingpongInterface.class, address, options), callers, calls / 4, window, false);
+					run(Stub.create(PingpongInterface.class, address, options), callers, calls, window, true);
+					ConnectionPool.getDefault().clear();
+				}
+			}
+		}finally{
+			skeleton.stop();
+		}
+	}
+
+	private static void run(final PingpongInterface stub, int callers, final int calls, int window, boolean report)
+			throws Exception{
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(callers);
+		final AtomicLong latency = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		for(int i = 0; i < callers; i++){
+			Thread caller = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					try{
+						start.await();
+						for(int call = 0; call < calls; call++){
+							long begin = System.nanoTime();
+							stub.pingpong("ping", call);
+							latency.addAndGet(System.nanoTime() - begin);
+						}
+					}catch(Exception e){
+						failures.incrementAndGet();
+					}finally{
+						done.countDown();
+					}
+				}
+			});
+			caller.setDaemon(true);
+			caller.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		if(!report) return;
+		long total = (long) callers * calls;
+		System.out.printf("%7d %11d %9.0f %9.1f%s%n", callers, window, total / (elapsed / 1e9), latency.get() / 1e3 / total,
+		                  failures.get() > 0 ? "   (" + failures.get() + " callers failed)" : "");
+	}
+}
@@ -0,0 +1,114 @@
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import rmi.*;
+
+/** Measures the per-call cost of dispatching a call to the server object.
+
+	<p>
+	Three ways of finding the called method and invoking it are timed on an
+	interface with overloaded and inherited methods: a reflective lookup on
+	every call, as skeletons once did with <code>getMethod</code> and
+	<code>setAccessible</code>; a scan of the interface's methods comparing
+	signatures; and a call through a stub created from a running skeleton in
+	the same JVM, which the skeleton resolves with its dispatch table and
+	carries out with the method's invoker. The last also includes the stub's
+	proxy and the copying of arguments and result, which a direct call on the
+	server object, timed as well, does not. Each round reports the mean time
+	per call; the first rounds warm up the JIT compiler.
+
+	<p>
+	Usage: <code>java DispatchBenchmark [calls]</code>.
+ */
+public class DispatchBenchmark
+{
+	private static final int ROUNDS = 5;
+	private static final int PORT = 7800;
+
+	public interface BaseInterface
+	{
+		public int pingpong(int num) throws RMIException;
+		public String pingpong(String ping) throws RMIException;
+	}
+
+	public interface DispatchInterface extends BaseInterface
+	{
+		public String pingpong(String ping, int num) throws RMIException;
+		public long pingpong(long num) throws RMIException;
+		public void reset() throws RMIException;
+	}
+
+	private static class DispatchServer implements DispatchInterface
+	{
+		@Override
+		public int pingpong(int num){ return num; }
+		@Override
+		public String pingpong(String ping){ return ping; }
+		@Override
+		public String pingpong(String ping, int num){ return ping; }
+		@Override
+		public long pingpong(long num){ return num; }
+		@Override
+		public void reset(){ }
+	}
+
+	public static void main(String[] args) throws Exception{
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		DispatchServer server = new DispatchServer();
+		Method called = DispatchInterface.class.getMethod("pingpong", String.class, int.class);
+		Skeleton<DispatchInterface> skeleton = new Skeleton<DispatchInterface>(DispatchInterface.class, server,
+		                                                                       new InetSocketAddress("localhost", PORT));
+		skeleton.start();
+		long sink = 0;
+		try{
+			DispatchInterface stub = Stub.create(DispatchInterface.class, skeleton);
+
+			System.out.println("round   getMethod ns   scan ns   skeleton ns   direct ns");
+			for(int round = 1; round <= ROUNDS; round++){
+				long begin = System.nanoTime();
+				for(int call = 0; call < calls; call++){
+					Method method = DispatchInterface.class.getMethod(called.getName(), called.getParameterTypes());
+					method.setAccessible(true);
+					sink += ((String) method.invoke(server, "ping", call)).length();
+				}
+				long lookup = System.nanoTime() - begin;
+
+				begin = System.nanoTime();
+				for(int call = 0; call < calls; call++){
+					Method method = null;
+					for(Method candidate : DispatchInterface.class.getMethods()){
+						if(candidate.getName().equals(called.getName())
+						   && Arrays.equals(candidate.getParameterTypes(), called.getParameterTypes())){
+							method = candidate;
+							break;
+						}
+					}
+					method.setAccessible(true);
+					sink += ((String) method.invoke(server, "ping", call)).length();
+				}
+				long scan = System.nanoTime() - begin;
+
+				begin = System.nanoTime();
+				for(int call = 0; call < calls; call++){
+					sink += stub.pingpong("ping", call).length();
+				}
+				long dispatched = System.nanoTime() - begin;
+
+				DispatchInterface direct = server;
+				begin = System.nanoTime();
+				for(int call = 0; call < calls; call++){
+					sink += direct.pingpong("ping", call).length();
+				}
+				long plain = System.nanoTime() - begin;
+
+				System.out.printf("%5d   %12.1f   %7.1f   %11.1f   %9.1f%n", round, (double) lookup / calls,
+				                  (double) scan / calls, (double) dispatched / calls, (double) plain / calls);
+			}
+		}finally{
+			skeleton.stop();
+		}
+		if(sink == 0) System.out.println();
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import rmi.*;
+
+/** Measures the throughput of sending files as <code>FileRegion</code>
+	arguments and results, against sending them as byte arrays.
+
+	<p>
+	For each size from 1 MB to 1 GB, the client sends a region of a file of
+	that size to the server, which maps it and sums its bytes, and asks the
+	server for a region of the file, which it maps and sums in turn. The same
+	bytes are then sent as a <code>byte[]</code> argument, read into memory
+	from the file first, up to 16 MB: a serialized array must fit in a single
+	frame, which is limited to 64 MB, so larger arrays cannot be sent. Each
+	transfer is timed from the call to its return, including writing the
+	temporary file on the receiving side, and reported in MB/s.
+
+	<p>
+	Usage: <code>java FileRegionBenchmark [largest MB]</code>.
+ */
+public class FileRegionBenchmark
+{
+	private static final int PORT = 7700;
+	private static final long MB = 1024 * 1024;
+	private static final long LARGEST_ARRAY = 16 * MB;
+
+	public interface FilesInterface
+	{
+		public long upload(FileRegion region) throws RMIException;
+		public FileRegion download(long length) throws RMIException;
+		public long array(byte[] bytes) throws RMIException;
+	}
+
+	private static class FilesServer implements FilesInterface
+	{
+		private final Path file;
+
+		FilesServer(Path file){
+			this.file = file;
+		}
+
+		@Override
+		public long upload(FileRegion region){
+			try{
+				return sum(region);
+			}catch(IOException e){
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public FileRegion download(long length){
+			return new FileRegion(file, 0, length);
+		}
+
+		@Override
+		public long array(byte[] bytes){
+			long sum = 0;
+			for(byte b : bytes){
+				sum += b;
+			}
+			return sum;
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		long largest = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * MB;
+
+		Path file = Files.createTempFile("region-benchmark", null);
+		try{
+			fill(file, largest);
+			InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+			Skeleton<FilesInterface> skeleton = new Skeleton<FilesInterface>(FilesInterface.class, new FilesServer(file),
+			                                                                 address);
+			skeleton.start();
+			try{
+				FilesInterface stub = Stub.create(FilesInterface.class, address);
+				// Warm up every path before measuring.
+				run(stub, file, MB, false);
+
+				System.out.println("     MB   upload MB/s   download MB/s   byte[] MB/s");
+				for(long size = MB; size <= largest; size *= size < 16 * MB ? 16 : 4){
+					run(stub, file, size, true);
+				}
+			}finally{
+				skeleton.stop();
+				ConnectionPool.getDefault().clear();
+			}
+		}finally{
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static void run(FilesInterface stub, Path file, long size, boolean report) throws Exception{
+		FileRegion region = new FileRegion(file, 0, size);
+		long expected = sum(region);
+
+		long begin = System.nanoTime();
+		if(stub.upload(region) != expected) throw new IllegalStateException("upload corrupted");
+		double upload = rate(size, System.nanoTime() - begin);
+
+		begin = System.nanoTime();
+		FileRegion received = stub.download(size);
+		double download = rate(size, System.nanoTime() - begin);
+		try{
+			if(sum(received) != expected) throw new IllegalStateException("download corrupted");
+		}finally{
+			Files.deleteIfExists(received.getPath());
+		}
+
+		String array = "-";
+		if(size <= LARGEST_ARRAY){
+			byte[] bytes = new byte[(int) size];
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			try(RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")){
+				begin = System.nanoTime();
+				while(buffer.hasRemaining()){
+					in.getChannel().read(buffer, buffer.position());
+				}
+				if(stub.array(bytes) != expected) throw new IllegalStateException("array corrupted");
+			}
+			array = String.format("%.0f", rate(size, System.nanoTime() - begin));
+		}
+		if(!report) return;
+		System.out.printf("%7d %13.0f %15.0f %13s%n", size / MB, upload, download, array);
+	}
+
+	private static void fill(Path file, long size) throws IOException{
+		byte[] block = new byte[(int) MB];
+		for(int index = 0; index < block.length; index++){
+			block[index] = (byte) (index % 251);
+		}
+		try(RandomAccessFile out = new RandomAccessFile(file.toFile(), "rw")){
+			for(long written = 0; written < size; written += block.length){
+				out.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		}
+	}
+
+	private static long sum(FileRegion region) throws IOException{
+		long sum = 0;
+		for(long position = 0; position < region.getLength(); position += Integer.MAX_VALUE){
+			ByteBuffer bytes = new FileRegion(region.getPath(), region.getOffset() + position,
+			                                  Math.min(Integer.MAX_VALUE, region.getLength() - position)).map();
+			while(bytes.hasRemaining()){
+				sum += bytes.get();
+			}
+		}
+		return sum;
+	}
+
+	private static double rate(long size, long nanos){
+		return size / (double) MB / (nanos / 1e9);
+	}
+}
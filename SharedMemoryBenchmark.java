@@ -0,0 +1,79 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import rmi.*;
+
+/** Compares the call latency of the shared memory transport with loopback TCP.
+
+	<p>
+	A single caller makes sequential <code>PingpongInterface.pingpong</code>
+	calls, first over loopback TCP and then over shared memory with each wait
+	strategy. Each run is preceded by a warm-up, and reports the mean and
+	median round-trip latency and the 99th percentile.
+
+	<p>
+	The spinning strategies need a processor each for the stub's reader thread
+	and the skeleton's connection thread in addition to the caller; on a machine
+	with fewer processors they are slower than parking.
+
+	<p>
+	Usage: <code>java SharedMemoryBenchmark [calls]</code>.
+ */
+public class SharedMemoryBenchmark
+{
+	private static final int PORT = 7300;
+
+	public static void main(String[] args) throws Exception{
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		System.out.println("transport      mean us   p50 us   p99 us");
+		run("tcp", new InetSocketAddress("localhost", PORT), calls);
+
+		for(SharedMemoryAddress.WaitStrategy wait : SharedMemoryAddress.WaitStrategy.values()){
+			Path directory = Files.createTempDirectory("rmi-bench");
+			try{
+				run("shm-" + wait.name().toLowerCase(), new SharedMemoryAddress(directory, wait,
+				    SharedMemoryAddress.DEFAULT_RING_CAPACITY), calls);
+			}finally{
+				Files.deleteIfExists(directory);
+			}
+		}
+	}
+
+	private static void run(String name, SocketAddress address, int calls) throws Exception{
+		Skeleton<PingpongInterface> skeleton =
+			new Skeleton<PingpongInterface>(PingpongInterface.class, new PingpongImpl(), address);
+		skeleton.start();
+
+		PingpongInterface stub;
+		if(address instanceof SharedMemoryAddress)
+			stub = Stub.create(PingpongInterface.class, (SharedMemoryAddress) address);
+		else
+			stub = Stub.create(PingpongInterface.class, (InetSocketAddress) address);
+
+		for(int i = 0; i < calls / 2; i++){
+			stub.pingpong("ping", i);
+		}
+
+		long[] latencies = new long[calls];
+		for(int i = 0; i < calls; i++){
+			long begin = System.nanoTime();
+			stub.pingpong("ping", i);
+			latencies[i] = System.nanoTime() - begin;
+		}
+
+		skeleton.stop();
+		ConnectionPool.getDefault().clear();
+
+		long total = 0;
+		for(long latency : latencies){
+			total += latency;
+		}
+		Arrays.sort(latencies);
+		System.out.printf("%-12s %8.1f %8.1f %8.1f%n", name, total / 1e3 / calls, latencies[calls / 2] / 1e3,
+		                  latencies[calls * 99 / 100] / 1e3);
+	}
+}
@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import rmi.*;
+
+/** Compares the peak heap use of returning a large result as a list and as
+	a stream.
+
+	<p>
+	The server produces rows of about a hundred characters, either all at
+	once in a <code>List</code> or one at a time through an
+	<code>Iterator</code>, which the stub receives as the client consumes it.
+	The client counts the characters received. For each form, the benchmark
+	reports the time taken and the peak heap use during the call, summed
+	over the heap's memory pools, above the heap in use before it. Client and
+	server share the JVM, so the peak includes both sides.
+
+	<p>
+	Usage: <code>java StreamBenchmark [rows]</code>.
+ */
+public class StreamBenchmark
+{
+	private static final int PORT = 7600;
+	private static final String PADDING = new String(new char[90]).replace('\0', '.');
+
+	public interface RowsInterface
+	{
+		public List<String> list(int rows) throws RMIException;
+		public Iterator<String> stream(int rows) throws RMIException;
+	}
+
+	private static class RowsServer implements RowsInterface
+	{
+		@Override
+		public List<String> list(int rows){
+			List<String> result = new ArrayList<String>(rows);
+			for(int row = 0; row < rows; row++){
+				result.add(row(row));
+			}
+			return result;
+		}
+
+		@Override
+		public Iterator<String> stream(final int rows){
+			return new Iterator<String>(){
+				private int next = 0;
+
+				@Override
+				public boolean hasNext(){
+					return next < rows;
+				}
+
+				@Override
+				public String next(){
+					return row(next++);
+				}
+			};
+		}
+	}
+
+	private static String row(int row){
+		return String.format("%08d", row) + PADDING;
+	}
+
+	public static void main(String[] args) throws Exception{
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+		InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+		Skeleton<RowsInterface> skeleton = new Skeleton<RowsInterface>(RowsInterface.class, new RowsServer(), address);
+		skeleton.start();
+
+		System.out.println("form        rows      ms   peak MB");
+		try{
+			RowsInterface stub = Stub.create(RowsInterface.class, address);
+			// Warm up both paths before measuring.
+			run(stub, rows / 10, false, false);
+			run(stub, rows / 10, true, false);
+			run(stub, rows, false, true);
+			run(stub, rows, true, true);
+		}finally{
+			skeleton.stop();
+			ConnectionPool.getDefault().clear();
+		}
+	}
+
+	private static void run(RowsInterface stub, int rows, boolean stream, boolean report) throws Exception{
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP && pool.isValid()) pools.add(pool);
+		}
+		System.gc();
+		long before = 0;
+		for(MemoryPoolMXBean pool : pools){
+			before += pool.getUsage().getUsed();
+			pool.resetPeakUsage();
+		}
+
+		long begin = System.nanoTime();
+		long characters = 0;
+		if(stream){
+			Iterator<String> result = stub.stream(rows);
+			while(result.hasNext()){
+				characters += result.next().length();
+			}
+		}else{
+			for(String row : stub.list(rows)){
+				characters += row.length();
+			}
+		}
+		long elapsed = System.nanoTime() - begin;
+
+		long peak = 0;
+		for(MemoryPoolMXBean pool : pools){
+			peak += pool.getPeakUsage().getUsed();
+		}
+		if(characters != (long) rows * row(0).length()) throw new IllegalStateException("rows lost");
+		if(!report) return;
+		System.out.printf("%-8s %7d %7.0f %9.1f%n", stream ? "stream" : "list", rows, elapsed / 1e6,
+		                  Math.max(0, peak - before) / (1024.0 * 1024.0));
+	}
+}
@@ -0,0 +1,115 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rmi.*;
+
+/** Compares platform and virtual skeleton threads under many concurrent callers.
+
+	<p>
+	Each caller makes a number of calls to a remote method that blocks for a
+	fixed time, standing in for a server waiting on downstream I/O. For each
+	thread mode and number of callers, the benchmark reports the call
+	throughput, the mean latency and the peak number of live platform threads
+	in the JVM, the callers' own threads included.
+
+	<p>
+	Usage: <code>java VirtualThreadBenchmark [calls per caller] [delay ms]</code>.
+ */
+public class VirtualThreadBenchmark
+{
+	private static final int[] CALLERS = {1000, 10000};
+	private static final int PORT = 7200;
+
+	public interface BlockingInterface
+	{
+		public int block(int millis) throws RMIException;
+	}
+
+	private static class BlockingServer implements BlockingInterface
+	{
+		@Override
+		public int block(int millis){
+			try{
+				Thread.sleep(millis);
+			}catch(InterruptedException e){
+			}
+			return millis;
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int delay = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		boolean virtual = Skeleton.isVirtualThreadSupported();
+		if(!virtual){
+			System.out.println("virtual threads are not supported by this JVM (" +
+			                   System.getProperty("java.version") + "); measuring platform threads only");
+		}
+
+		System.out.println("mode      callers   calls/s   mean ms   peak threads");
+		int port = PORT;
+		for(int callers : CALLERS){
+			run(false, callers, calls, delay, port++);
+			if(virtual)
+				run(true, callers, calls, delay, port++);
+		}
+	}
+
+	private static void run(boolean virtual, int callers, final int calls, final int delay, int port) throws Exception{
+		InetSocketAddress address = new InetSocketAddress(port);
+		Skeleton<BlockingInterface> skeleton =
+			new Skeleton<BlockingInterface>(BlockingInterface.class, new BlockingServer(), address);
+		skeleton.setVirtualThreads(virtual);
+		skeleton.start();
+
+		final BlockingInterface stub = Stub.create(BlockingInterface.class, address);
+		stub.block(0);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(callers);
+		final AtomicLong latency = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		for(int i = 0; i < callers; i++){
+			// Callers use small stacks so that 10k of them fit comfortably in a default heap and address space.
+			Thread caller = new Thread(null, new Runnable(){
+				@Override
+				public void run(){
+					try{
+						start.await();
+						for(int j = 0; j < calls; j++){
+							long begin = System.nanoTime();
+							stub.block(delay);
+							latency.addAndGet(System.nanoTime() - begin);
+						}
+					}catch(Throwable t){
+						failures.incrementAndGet();
+					}finally{
+						done.countDown();
+					}
+				}
+			}, "caller-" + i, 64 * 1024);
+			caller.setDaemon(true);
+			caller.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		long total = (long) callers * calls;
+		System.out.printf("%-9s %7d %9.0f %9.1f %14d%s%n", virtual ? "virtual" : "platform", callers,
+		                  total / (elapsed / 1e9), latency.get() / 1e6 / total, threads.getPeakThreadCount(),
+		                  failures.get() == 0 ? "" : "   (" + failures.get() + " callers failed)");
+
+		skeleton.stop();
+		ConnectionPool.getDefault().clear();
+	}
+}
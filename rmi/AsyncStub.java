@@ -0,0 +1,128 @@
+package rmi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous view of a stub.
+ *
+ * <p>
+ * Calls made through the view do not wait for their results. Each call sends its request and returns a
+ * <code>CompletableFuture</code>, which completes with the result of the remote method, or exceptionally with the exception thrown
+ * by the remote method or with an <code>RMIException</code> if the call fails. A few threads can therefore keep many calls in
+ * flight. Calls are written as functions of the stub:
+ *
+ * <pre>
+ * AsyncStub&lt;PingpongInterface&gt; async = Stub.async(stub);
+ * CompletableFuture&lt;String&gt; pong = async.call(s -&gt; s.pingpong("ping", 1));
+ * </pre>
+ *
+ * <p>
+ * Futures are completed on the view's completion executor, so that callbacks attached to them never run on a connection's
+ * reader thread. The default executor is the common fork-join pool. A view may also have a timeout, after which a call that has
+ * not completed fails with an <code>RMIException</code>; the default timeout is the read timeout of the stub's transport options.
+ * A call that times out may still be carried out by the skeleton. Views are immutable and may be shared between threads.
+ *
+ * <p>
+ * Sending a call may block while a connection to the skeleton is opened. Calls through a view of a stub created from a running
+ * skeleton in the same JVM are carried out on the completion executor.
+ */
+public final class AsyncStub<T> {
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "rmi-async-timeout");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final T stub;
+    private final ClientHandler<T> handler;
+    private final CallRecorder<T> recorder;
+    private final Executor executor;
+    private final long timeoutMillis;
+
+    AsyncStub(T stub, ClientHandler<T> handler, CallRecorder<T> recorder, Executor executor, long timeoutMillis) {
+        this.stub = stub;
+        this.handler = handler;
+        this.recorder = recorder;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Creates the view of a stub, with the default executor and timeout. */
+    AsyncStub(T stub, ClientHandler<T> handler) {
+        this(stub, handler, new CallRecorder<T>(handler.getMyClass()), ForkJoinPool.commonPool(),
+             handler.getOptions().getReadTimeout());
+    }
+
+    /**
+     * Starts a remote call.
+     *
+     * @param call
+     *            The call, which must call exactly one method of the remote interface on the object it is given and return its
+     *            result.
+     * @return A future for the result of the call.
+     * @throws IllegalArgumentException
+     *             If <code>call</code> does not call exactly one remote method.
+     * @throws NullPointerException
+     *             If <code>call</code> is <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> call(RemoteCall<T, R> call) {
+        if (call == null) throw new NullPointerException();
+        CallRecorder.Invocation invocation = recorder.record(call);
+        final CompletableFuture<Object> result = handler.invokeAsync(invocation.method, invocation.args, executor);
+        if (timeoutMillis > 0 && !result.isDone()) {
+            final ScheduledFuture<?> timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.completeExceptionally(new RMIException("Remote call timed out"));
+                        }
+                    });
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, error) -> timeout.cancel(false));
+        }
+        return (CompletableFuture<R>) result;
+    }
+
+    /** Returns a view of the same stub that completes futures on the given executor. */
+    public AsyncStub<T> withExecutor(Executor executor) {
+        if (executor == null) throw new NullPointerException();
+        return new AsyncStub<T>(stub, handler, recorder, executor, timeoutMillis);
+    }
+
+    /**
+     * Returns a view of the same stub with the given timeout for each call.
+     *
+     * @param timeout
+     *            The timeout, or zero for none.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     * @throws IllegalArgumentException
+     *             If <code>timeout</code> is negative.
+     */
+    public AsyncStub<T> withTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout must not be negative");
+        return new AsyncStub<T>(stub, handler, recorder, executor, unit.toMillis(timeout));
+    }
+
+    /** Returns the stub of which this is a view. */
+    public T getStub() {
+        return stub;
+    }
+}
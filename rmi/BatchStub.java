@@ -0,0 +1,95 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batching view of a stub.
+ *
+ * <p>
+ * Calls added to the view are recorded rather than carried out. <code>send</code> then transmits every recorded call to the
+ * skeleton in one frame, over one round trip, and the skeleton answers them all in one frame. Each call added has a
+ * <code>CompletableFuture</code>, completed by <code>send</code> with the result of the call or with the exception it threw, so
+ * that one failing call does not affect the others:
+ *
+ * <pre>
+ * BatchStub&lt;PingpongInterface&gt; batch = Stub.batch(stub);
+ * CompletableFuture&lt;String&gt; first = batch.add(s -&gt; s.pingpong("ping", 1));
+ * CompletableFuture&lt;String&gt; second = batch.add(s -&gt; s.pingpong("ping", 2));
+ * batch.send();
+ * </pre>
+ *
+ * <p>
+ * The skeleton carries out the calls of a batch one after another, in the order in which they were added, unless the view is
+ * parallel, in which case they may be carried out concurrently by the skeleton's worker threads. After <code>send</code> the view
+ * is empty and may be used for another batch. A view is not safe for use by several threads at once.
+ */
+public final class BatchStub<T> {
+    private final T stub;
+    private final ClientHandler<T> handler;
+    private final CallRecorder<T> recorder;
+    private final boolean parallel;
+    private List<CallRecorder.Invocation> calls = new ArrayList<CallRecorder.Invocation>();
+    private List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+
+    BatchStub(T stub, ClientHandler<T> handler, boolean parallel) {
+        this.stub = stub;
+        this.handler = handler;
+        this.recorder = new CallRecorder<T>(handler.getMyClass());
+        this.parallel = parallel;
+    }
+
+    /**
+     * Adds a call to the batch.
+     *
+     * @param call
+     *            The call, which must call exactly one method of the remote interface on the object it is given and return its
+     *            result.
+     * @return A future for the result of the call, completed by <code>send</code>.
+     * @throws IllegalArgumentException
+     *             If <code>call</code> does not call exactly one remote method.
+     * @throws NullPointerException
+     *             If <code>call</code> is <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> add(RemoteCall<T, R> call) {
+        if (call == null) throw new NullPointerException();
+        calls.add(recorder.record(call));
+        CompletableFuture<Object> result = new CompletableFuture<Object>();
+        results.add(result);
+        return (CompletableFuture<R>) result;
+    }
+
+    /**
+     * Sends the calls added since the last batch was sent, and waits for all of them to complete. Does nothing if no calls have
+     * been added.
+     *
+     * @throws RMIException
+     *             If the batch as a whole cannot be carried out, in which case the future of every call in it is completed with
+     *             the same exception. The exceptions of individual calls are not thrown.
+     */
+    public void send() throws RMIException {
+        if (calls.isEmpty()) return;
+        List<CallRecorder.Invocation> sent = calls;
+        List<CompletableFuture<Object>> completed = results;
+        calls = new ArrayList<CallRecorder.Invocation>();
+        results = new ArrayList<CompletableFuture<Object>>();
+        handler.invokeBatch(sent, completed, parallel);
+    }
+
+    /** Returns the number of calls added since the last batch was sent. */
+    public int size() {
+        return calls.size();
+    }
+
+    /** Returns <code>true</code> if the skeleton may carry out the calls of a batch concurrently. */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /** Returns the stub of which this is a view. */
+    public T getStub() {
+        return stub;
+    }
+}
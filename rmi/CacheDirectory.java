@@ -0,0 +1,252 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Record of the stub connections holding results of a skeleton's calls of <code>Cached</code> methods named by
+ * <code>Invalidates</code> methods, used to remove the results from the stubs' caches when an <code>Invalidates</code> method is
+ * called.
+ *
+ * <p>
+ * A connection is recorded as holding a result when the request for it arrives, before the server object is called, so that a
+ * change made while the call is in progress is also sent to the connection; the stub then does not keep the result. Each
+ * connection is represented by the function sending it a frame. A connection stays recorded for a result until the result is
+ * removed from its cache by this directory or the connection closes, even if the stub evicts the result earlier. It is not
+ * recorded for a call that throws an exception, since the stub does not keep exceptions.
+ *
+ * <p>
+ * Each connection is recorded for at most as many results of a method as the method's <code>Cached</code> annotation lets a
+ * stub keep. When a request would exceed this, the result the connection requested least recently is removed from its cache,
+ * as if it had changed, and the connection is no longer recorded for it.
+ */
+class CacheDirectory {
+    /** For each <code>Invalidates</code> method, the identifiers of the methods whose results it changes. */
+    private final Map<Long, long[]> invalidated = new HashMap<Long, long[]>();
+    /** For each method whose results are recorded, the connections holding each result. Guarded by <code>this</code>. */
+    private final Map<Long, Map<ByteBuffer, Set<Consumer<Frame>>>> holders =
+            new HashMap<Long, Map<ByteBuffer, Set<Consumer<Frame>>>>();
+    /**
+     * For each connection, the results of each method it is recorded as holding, least recently requested first. Guarded by
+     * <code>this</code>.
+     */
+    private final Map<Consumer<Frame>, Map<Long, Set<ByteBuffer>>> held =
+            new HashMap<Consumer<Frame>, Map<Long, Set<ByteBuffer>>>();
+    /** For each method whose results are recorded, the largest number of results recorded for one connection. */
+    private final Map<Long, Integer> limits = new HashMap<Long, Integer>();
+    private final AtomicLong sent = new AtomicLong();
+
+    /** Creates an empty directory for a remote interface. */
+    CacheDirectory(Class<?> c) {
+        for (Method method : c.getMethods()) {
+            Invalidates invalidates = method.getAnnotation(Invalidates.class);
+            if (invalidates == null) continue;
+            Set<Long> changed = new LinkedHashSet<Long>();
+            for (Method cached : named(c, invalidates)) {
+                changed.add(WireCodec.methodId(cached));
+                limits.put(WireCodec.methodId(cached), cached.getAnnotation(Cached.class).maxEntries());
+            }
+            long[] ids = new long[changed.size()];
+            int index = 0;
+            for (long id : changed) {
+                ids[index++] = id;
+                holders.put(id, new HashMap<ByteBuffer, Set<Consumer<Frame>>>());
+            }
+            invalidated.put(WireCodec.methodId(method), ids);
+        }
+    }
+
+    /** Returns the methods of an interface whose results may be changed by its <code>Invalidates</code> methods. */
+    static Set<Method> invalidatedMethods(Class<?> c) {
+        Set<Method> methods = new HashSet<Method>();
+        for (Method method : c.getMethods()) {
+            Invalidates invalidates = method.getAnnotation(Invalidates.class);
+            if (invalidates != null) methods.addAll(named(c, invalidates));
+        }
+        return methods;
+    }
+
+    /** Returns the methods whose results an <code>Invalidates</code> method of an interface may change. */
+    static List<Method> invalidatedBy(Class<?> c, Method method) {
+        return named(c, method.getAnnotation(Invalidates.class));
+    }
+
+    /** Returns <code>true</code> if every name given by an <code>Invalidates</code> annotation names a cached method. */
+    static boolean check(Class<?> c, Invalidates invalidates) {
+        for (String name : invalidates.value()) {
+            boolean found = false;
+            for (Method method : c.getMethods()) {
+                if (method.getName().equals(name) && method.isAnnotationPresent(Cached.class)) found = true;
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static List<Method> named(Class<?> c, Invalidates invalidates) {
+        List<String> names = Arrays.asList(invalidates.value());
+        List<Method> methods = new ArrayList<Method>();
+        for (Method method : c.getMethods()) {
+            if (names.contains(method.getName()) && method.isAnnotationPresent(Cached.class)) methods.add(method);
+        }
+        return methods;
+    }
+
+    /** Returns <code>true</code> if results of the method are recorded. */
+    boolean isRecorded(long methodId) {
+        return holders.containsKey(methodId);
+    }
+
+    /**
+     * Returns the identifiers of the methods whose results a method changes, or <code>null</code> if it is not an
+     * <code>Invalidates</code> method. The caller must not modify the array.
+     */
+    long[] changedBy(long methodId) {
+        return invalidated.get(methodId);
+    }
+
+    /**
+     * Records that a connection will hold the result of a call. If the connection is then recorded for more results of the method
+     * than it may hold, the result it requested least recently is removed from its cache, with an <code>INVALIDATE</code> frame
+     * sent from the calling thread.
+     *
+     * @param methodId
+     *            The identifier of the method called, whose results must be recorded.
+     * @param request
+     *            The encoded request of the call, which the caller must not modify afterwards.
+     * @param holder
+     *            Sends frames to the connection.
+     */
+    void hold(long methodId, byte[] request, Consumer<Frame> holder) {
+        ByteBuffer evicted = null;
+        synchronized (this) {
+            Map<ByteBuffer, Set<Consumer<Frame>>> results = holders.get(methodId);
+            ByteBuffer key = ByteBuffer.wrap(request);
+            Set<Consumer<Frame>> connections = results.get(key);
+            if (connections == null) {
+                connections = new HashSet<Consumer<Frame>>();
+                results.put(key, connections);
+            }
+            connections.add(holder);
+
+            Set<ByteBuffer> requested = held.computeIfAbsent(holder, h -> new HashMap<Long, Set<ByteBuffer>>())
+                    .computeIfAbsent(methodId, id -> new LinkedHashSet<ByteBuffer>());
+            requested.remove(key);
+            requested.add(key);
+            if (requested.size() > limits.get(methodId)) {
+                Iterator<ByteBuffer> eldest = requested.iterator();
+                evicted = eldest.next();
+                eldest.remove();
+                forget(results, evicted, holder);
+            }
+        }
+
+        if (evicted != null) {
+            List<Frame> removed = new ArrayList<Frame>();
+            removed.add(new Frame(Frame.REQUEST, methodId, evicted.array()));
+            holder.accept(new Frame(Frame.INVALIDATE, System.currentTimeMillis(), Frame.pack((byte) 0, removed)));
+            sent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a connection will not hold the result of a call after all, because the call has thrown an exception.
+     *
+     * @param methodId
+     *            The identifier of the method called, whose results are recorded.
+     * @param request
+     *            The encoded request of the call.
+     * @param holder
+     *            Sends frames to the connection.
+     */
+    synchronized void drop(long methodId, byte[] request, Consumer<Frame> holder) {
+        Map<Long, Set<ByteBuffer>> methods = held.get(holder);
+        Set<ByteBuffer> requested = methods == null ? null : methods.get(methodId);
+        ByteBuffer key = ByteBuffer.wrap(request);
+        if (requested == null || !requested.remove(key)) return;
+        forget(holders.get(methodId), key, holder);
+    }
+
+    /** Removes a connection from the holders of a result, and the result from the directory if no connection holds it. */
+    private static void forget(Map<ByteBuffer, Set<Consumer<Frame>>> results, ByteBuffer key, Consumer<Frame> holder) {
+        Set<Consumer<Frame>> connections = results.get(key);
+        if (connections != null && connections.remove(holder) && connections.isEmpty()) results.remove(key);
+    }
+
+    /**
+     * Removes the results changed by a method from the caches of the connections holding them, if the method is an
+     * <code>Invalidates</code> method. The connections are sent an <code>INVALIDATE</code> frame each, from the calling thread.
+     *
+     * @param methodId
+     *            The identifier of the method that has been called.
+     */
+    void changed(long methodId) {
+        long[] ids = invalidated.get(methodId);
+        if (ids == null) return;
+
+        Map<Consumer<Frame>, List<Frame>> removed = new HashMap<Consumer<Frame>, List<Frame>>();
+        synchronized (this) {
+            for (long id : ids) {
+                Map<ByteBuffer, Set<Consumer<Frame>>> results = holders.get(id);
+                for (Map.Entry<ByteBuffer, Set<Consumer<Frame>>> result : results.entrySet()) {
+                    Frame frame = new Frame(Frame.REQUEST, id, result.getKey().array());
+                    for (Consumer<Frame> holder : result.getValue()) {
+                        List<Frame> frames = removed.get(holder);
+                        if (frames == null) {
+                            frames = new ArrayList<Frame>();
+                            removed.put(holder, frames);
+                        }
+                        frames.add(frame);
+                    }
+                }
+                results.clear();
+                for (Map<Long, Set<ByteBuffer>> methods : held.values()) {
+                    methods.remove(id);
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Consumer<Frame>, List<Frame>> connection : removed.entrySet()) {
+            connection.getKey().accept(new Frame(Frame.INVALIDATE, now, Frame.pack((byte) 0, connection.getValue())));
+            sent.addAndGet(connection.getValue().size());
+        }
+    }
+
+    /** Forgets a connection that has closed. */
+    synchronized void release(Consumer<Frame> holder) {
+        if (held.remove(holder) == null) return;
+        for (Map<ByteBuffer, Set<Consumer<Frame>>> results : holders.values()) {
+            Iterator<Set<Consumer<Frame>>> connections = results.values().iterator();
+            while (connections.hasNext()) {
+                Set<Consumer<Frame>> holding = connections.next();
+                if (holding.remove(holder) && holding.isEmpty()) connections.remove();
+            }
+        }
+    }
+
+    /** Returns the number of results removed from stubs' caches, counting each connection holding a result once. */
+    long getInvalidationsSent() {
+        return sent.get();
+    }
+
+    /** Returns the number of results held by stubs, counting each result once however many connections hold it. */
+    synchronized int size() {
+        int size = 0;
+        for (Map<ByteBuffer, Set<Consumer<Frame>>> results : holders.values()) {
+            size += results.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,52 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface whose results stubs may cache.
+
+    <p>
+    A cached method must be pure: while a result is cached, the stub
+    returns it for every call of the method with equal arguments instead of
+    calling the skeleton. Arguments are equal if they are encoded to the same
+    bytes for transmission. Each call served from the cache returns a fresh
+    copy of the result, so that callers may modify results as they may
+    modify those of remote calls. Exceptions are not cached.
+
+    <p>
+    The cache is kept per skeleton address and remote interface, and shared
+    by every stub for them in the JVM. Each cached method has its own
+    entries, which expire <code>ttl</code> milliseconds after they were
+    stored. Once a method has <code>maxEntries</code> entries, or its entries
+    take more than <code>maxBytes</code> bytes, the least recently used
+    entries are evicted. Entries may also be removed, and hits, misses and
+    evictions counted, through <code>Stub.cache</code>. Results of a cached
+    method named by an <code>Invalidates</code> method are also removed by
+    the skeleton when that method is called.
+
+    <p>
+    Only synchronous calls through a stub use the cache. Calls made through
+    asynchronous and batching views, and calls passed directly to a skeleton
+    in the same JVM, always reach the server object. A cached method may not
+    be <code>OneWay</code>, and must return a value; an interface with a
+    cached method that does not, or with limits that are not positive, is
+    not a remote interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cached
+{
+    /** Time, in milliseconds, for which a result is kept. */
+    long ttl() default 60000;
+
+    /** Largest number of results kept for the method. */
+    int maxEntries() default 1024;
+
+    /** Largest total size, in bytes, of the results kept for the method
+        and of the arguments that identify them. */
+    long maxBytes() default 1 << 20;
+}
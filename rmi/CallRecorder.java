@@ -0,0 +1,71 @@
+package rmi;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Turns a <code>RemoteCall</code> into the method and arguments it calls.
+ *
+ * <p>
+ * The recorder owns one object implementing the remote interface, created once. Running a <code>RemoteCall</code> on it stores the
+ * method called and its arguments, per thread, and returns a placeholder result: <code>null</code>, or zero or
+ * <code>false</code> for primitive types. A recorder may be used by any number of threads at once.
+ */
+class CallRecorder<T> implements InvocationHandler {
+    /** A recorded call. */
+    static final class Invocation {
+        final Method method;
+        final Object[] args;
+
+        Invocation(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    private final T target;
+    private final ThreadLocal<Invocation> recorded = new ThreadLocal<Invocation>();
+
+    CallRecorder(Class<T> c) {
+        target = c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[] { c }, this));
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param call
+     *            The call.
+     * @return The method called and its arguments.
+     * @throws IllegalArgumentException
+     *             If the call does not call exactly one remote method, or fails while being recorded.
+     */
+    Invocation record(RemoteCall<T, ?> call) {
+        recorded.remove();
+        try {
+            call.call(target);
+        } catch (IllegalArgumentException e) {
+            recorded.remove();
+            throw e;
+        } catch (Exception e) {
+            recorded.remove();
+            throw new IllegalArgumentException("remote call failed while being recorded", e);
+        }
+        Invocation invocation = recorded.get();
+        recorded.remove();
+        if (invocation == null) throw new IllegalArgumentException("remote call did not call a remote method");
+        return invocation;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            throw new IllegalArgumentException(method.getName() + " is not a remote method");
+        }
+        if (recorded.get() != null) throw new IllegalArgumentException("remote call called more than one remote method");
+        recorded.set(new Invocation(method, args));
+        Class<?> type = method.getReturnType();
+        return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+}
@@ -1,91 +1,608 @@
 package rmi;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ClientHandler<T> implements InvocationHandler, Serializable{
-	private InetSocketAddress address;
+	private SocketAddress address;
 	private Class<T> c;
-	public ClientHandler(InetSocketAddress address, Class<T> c){
+	private TransportOptions options = TransportOptions.defaults();
+	/** Skeleton in this JVM that the stub was created from, if any. Not serialized: a copy of the stub always uses the network. */
+	private transient Skeleton<T> local;
+	/** Cache of the results of <code>Cached</code> methods, looked up when first needed. */
+	private transient volatile ResultCache cache;
+	/** Results of <code>Versioned</code> methods retained with their tags, looked up when first needed. */
+	private transient volatile ResultCache retained;
+	/** Annotation flags of each method called through a stub. */
+	private static final Map<Method, Integer> methodFlags = new ConcurrentHashMap<Method, Integer>();
+	private static final int ONE_WAY = 1;
+	private static final int CACHED = 2;
+	private static final int VERSIONED = 4;
+	private static final int UPLOADS = 8;
+	private static final int INVALIDATES = 16;
+	public ClientHandler(SocketAddress address, Class<T> c){
 		this.address = address;
 //		System.out.println("ClientHandler" + this.address.getPort() + ":" + this.address.getHostName().toString());
 		this.c = c;
 	}
+
+	/** Creates the handler for a stub whose connections use the given transport options. */
+	ClientHandler(SocketAddress address, Class<T> c, TransportOptions options){
+		this(address, c);
+		this.options = options;
+	}
+
+	/** Creates the handler for a stub made from a skeleton in this JVM. While that skeleton is running, calls are passed to it
+	 *  directly instead of over a connection. */
+	ClientHandler(SocketAddress address, Class<T> c, TransportOptions options, Skeleton<T> local){
+		this(address, c, options);
+		this.local = local;
+	}
 	
-	public InetSocketAddress getAddress(){
+	public SocketAddress getAddress(){
 		return address;
 	}
 	
 	public Class<T> getMyClass(){
 		return c;
 	}
+
+	TransportOptions getOptions(){
+		return options;
+	}
+
+	ResultCache getCache(){
+		ResultCache current = cache;
+		if(current == null){
+			current = ResultCache.of(address, c);
+			cache = current;
+		}
+		return current;
+	}
+
+	private ResultCache getRetained(){
+		ResultCache current = retained;
+		if(current == null){
+			current = ResultCache.retained(address, c);
+			retained = current;
+		}
+		return current;
+	}
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		// TODO Auto-generated method stub
-		//before remote invokation, we should deal with the several method invocation cases like: hashcode, toString and equals
-		if(method.toString().equals("public native int java.lang.Object.hashCode()")){
-			ClientHandler handler = (ClientHandler) Proxy.getInvocationHandler(proxy);
-			return handler.address.hashCode();
-		}
-
-		if(method.toString().equals("public java.lang.String java.lang.Object.toString()")){
-			ClientHandler handler = (ClientHandler) Proxy.getInvocationHandler(proxy);
-			
-			String res = handler.getMyClass().getName() + " " + handler.getAddress().toString();
-			System.out.println(res);
-			return res;
-		}
-		
-		if(method.toString().equals("public boolean java.lang.Object.equals(java.lang.Object)")){
-			if(args[0] == null) return false;
-			ClientHandler handler1 = (ClientHandler) Proxy.getInvocationHandler(proxy);
+		// hashCode, equals and toString are declared by Object rather than by the remote interface, and are not remote calls.
+		if(method.getDeclaringClass() == Object.class) return invokeObjectMethod(method, args);
+		if(isOneWay(method)){
+			invokeOneWay(method, args);
+			return null;
+		}
+		Skeleton<T> skeleton = local;
+		if(skeleton != null && skeleton.isRunning()) return invokeLocal(skeleton, method, args);
+		if(!isInvalidating(method)) return invokeRemote(method, args);
+		try{
+			return invokeRemote(method, args);
+		}finally{
+			changed(method);
+		}
+	}
+
+	/** Carries out a call of a method that is not one-way over the network. */
+	private Object invokeRemote(Method method, Object[] args) throws Throwable {
+		if(hasUploads(method)) return invokeUpload(method, args, true);
+
+		byte[] request;
+		try{
+			request = WireCodec.encodeRequest(method, args);
+		}catch(IOException e){
+			throw new RMIException("unable to serialize method arguments", e);
+		}
+		if(ResultStream.isStream(method)) return invokeStream(method, request, true);
+		if(isVersioned(method)) return invokeVersioned(method, request);
+		if(!isCached(method)) return decodeResponse(exchange(Frame.REQUEST, request, true));
+
+		ResultCache results = getCache();
+		byte[] cached = results.get(method, request);
+		if(cached != null){
 			try{
-				ClientHandler handler2 = (ClientHandler) Proxy.getInvocationHandler(args[0]);
-				if(handler1.getMyClass().equals(handler2.getMyClass()) && (handler1.getAddress().equals(handler2.getAddress()))) return true;
-				else return false;
-			}catch(IllegalArgumentException e){
-				return false;
-			}
-		}
-		Socket socket = null;
-		ObjectInputStream in = null;
-		ObjectOutputStream out = null;
-		
-		try{
-			socket = new Socket(address.getHostName(), address.getPort());
-			out = new ObjectOutputStream(socket.getOutputStream());
-			out.flush();
-			in = new ObjectInputStream(socket.getInputStream());
-			SerializedMethod serialMethed = new SerializedMethod(method, args);
-			out.writeObject(serialMethed);
+				return WireCodec.decodeValue(cached);
+			}catch(Exception e){
+				throw new RMIException("unable to read method result", e);
+			}
+		}
+		long generation = results.getGeneration();
+		Frame response = exchange(Frame.REQUEST, request, true);
+		Object result = decodeResponse(response);
+		if(response.type == Frame.RESULT) results.put(method, request, response.payload, generation);
+		return result;
+	}
+
+	/** Removes the results that a call of an <code>Invalidates</code> method may have changed from the stubs' cache, once the call
+	 *  has been answered. The skeleton removes them too, but through the connections that received them, which need not be the
+	 *  one that carried the call: the caller could otherwise read a result older than its own change. */
+	private void changed(Method method){
+		ResultCache results = getCache();
+		for(Method cached : CacheDirectory.invalidatedBy(c, method)){
+			results.invalidate(cached);
+		}
+	}
+
+	/** Calls a <code>Versioned</code> method, sending the tag of the result retained from the last call with equal arguments, if
+	 *  any. If the skeleton answers that the result is unchanged, a copy of the retained result is returned. */
+	private Object invokeVersioned(Method method, byte[] request) throws Throwable {
+		ResultCache results = getRetained();
+		byte[] last = results.get(method, request);
+		byte[] conditional;
+		try{
+			conditional = Frame.withTag(last == null ? new byte[0] : Frame.tagOf(last), request);
+		}catch(IOException e){
+			throw new RMIException("unable to read retained method result", e);
+		}
+		Frame response = exchange(Frame.CONDITIONAL, conditional, true);
+		byte[] tagged;
+		if(response.type == Frame.TAGGED){
+			tagged = response.payload;
+			results.put(method, request, tagged);
+		}else if(response.type == Frame.NOT_MODIFIED && last != null){
+			tagged = last;
+		}else{
+			return decodeResponse(response);
+		}
+		try{
+			return WireCodec.decodeValue(Frame.withoutTag(tagged));
 		}catch(Exception e){
-			throw new RMIException("error happened when establishing connections and transmitting methods");
+			throw new RMIException("unable to read method result", e);
+		}
+	}
+
+	/** Calls a method returning a stream. The skeleton answers with a frame saying the result is a stream, whose elements are
+	 *  then received over the same connection as they are consumed; see <code>RemoteStream</code>. Failed connections are retried
+	 *  as by <code>exchange</code>: only if the request cannot be written. */
+	private Object invokeStream(Method method, byte[] request, boolean retry) throws Throwable {
+		Connection connection;
+		try{
+			connection = ConnectionPool.getDefault().acquire(address, options);
+		}catch(IOException e){
+			throw new RMIException("error happened when establishing connections and transmitting methods", e);
+		}
+		boolean reused = connection.getCompletedCalls() > 0;
+		CompletableFuture<Frame> pending;
+		try{
+			pending = connection.send(Frame.REQUEST, request);
+		}catch(IOException e){
+			if(retry && reused) return invokeStream(method, request, false);
+			throw new RMIException("Client connection exception happened", e);
+		}
+		Frame response;
+		try{
+			response = connection.await(pending);
+		}catch(SocketTimeoutException e){
+			throw new RMIException("Remote call timed out", e);
+		}catch(IOException e){
+			throw new RMIException("Client connection exception happened", e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RMIException("interrupted while waiting for the method result", e);
+		}
+		return receiveStream(method, connection, response);
+	}
+
+	/** Calls a method with stream arguments, sending their bytes after the request as the skeleton asks for them; see
+	 *  <code>Upload</code>. The read timeout applies once every argument has been sent. A reused connection that fails before
+	 *  any bytes are read from the arguments is replaced once, as by <code>exchange</code>. */
+	private Object invokeUpload(Method method, Object[] args, boolean retry) throws Throwable {
+		byte[] request;
+		try{
+			request = WireCodec.encodeRequest(method, Upload.marked(method, args));
+		}catch(IOException e){
+			throw new RMIException("unable to serialize method arguments", e);
+		}
+		Connection connection;
+		try{
+			connection = ConnectionPool.getDefault().acquire(address, options);
+		}catch(IOException e){
+			throw new RMIException("error happened when establishing connections and transmitting methods", e);
+		}
+		boolean reused = connection.getCompletedCalls() > 0;
+		Upload upload = new Upload(connection, method, args);
+		CompletableFuture<Frame> pending;
+		try{
+			pending = connection.send(Frame.REQUEST, request, upload::receive);
+		}catch(IOException e){
+			if(retry && reused) return invokeUpload(method, args, false);
+			throw new RMIException("Client connection exception happened", e);
+		}
+
+		Frame response;
+		try{
+			upload.send(pending);
+			response = connection.await(pending);
+		}catch(SocketTimeoutException e){
+			throw new RMIException("Remote call timed out", e);
+		}catch(IOException e){
+			connection.abandon(pending);
+			throw new RMIException("Client connection exception happened", e);
+		}catch(InterruptedException e){
+			connection.abandon(pending);
+			Thread.currentThread().interrupt();
+			throw new RMIException("interrupted while waiting for the method result", e);
+		}catch(RMIException e){
+			connection.abandon(pending);
+			throw e;
+		}
+		return receiveStream(method, connection, response);
+	}
+
+	/** Decodes the response to a call of a method returning a stream. A <code>STREAM</code> response is followed by the elements
+	 *  of the stream, received by a <code>RemoteStream</code>, or by the bytes of a file region, which are received into a
+	 *  temporary file before this returns; see <code>RegionReceiver</code>. */
+	private static Object receiveStream(Method method, Connection connection, Frame response) throws Throwable {
+		if(response.type != Frame.STREAM) return decodeResponse(response);
+		RegionReceiver region;
+		try{
+			if(method.getReturnType() != FileRegion.class) return RemoteStream.open(connection, response.callId);
+			region = new RegionReceiver(connection, response.callId);
+		}catch(IOException e){
+			throw new RMIException("unable to request stream elements", e);
+		}
+		return region.await();
+	}
+
+	/** Starts a remote call without waiting for its result. The returned future is completed on the given executor, with the
+	 *  result of the call or exceptionally with what <code>invoke</code> would have thrown. If the future is completed by other
+	 *  means first, such as a timeout, the response is no longer waited for. Calls of methods returning streams, taking stream
+	 *  arguments or marked <code>Invalidates</code> are carried out synchronously on the executor. */
+	CompletableFuture<Object> invokeAsync(final Method method, final Object[] args, Executor executor){
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		final Skeleton<T> skeleton = local;
+		final boolean oneWay = isOneWay(method);
+		final boolean stream = ResultStream.isStream(method) || hasUploads(method) || isInvalidating(method);
+		if(oneWay || stream || (skeleton != null && skeleton.isRunning())){
+			try{
+				executor.execute(() -> {
+					try{
+						if(oneWay) invokeOneWay(method, args);
+						result.complete(oneWay ? null : stream ? invoke(null, method, args) : invokeLocal(skeleton, method, args));
+					}catch(Throwable t){
+						result.completeExceptionally(t);
+					}
+				});
+			}catch(RejectedExecutionException e){
+				result.completeExceptionally(new RMIException("unable to schedule method call", e));
+			}
+			return result;
+		}
+
+		byte[] request;
+		try{
+			request = WireCodec.encodeRequest(method, args);
+		}catch(IOException e){
+			result.completeExceptionally(new RMIException("unable to serialize method arguments", e));
+			return result;
+		}
+		sendAsync(request, true, result, executor);
+		return result;
+	}
+
+	/** Carries out a batch of calls, completing the future of each call with its result or exception. One-way calls complete
+	 *  once the batch has been answered. Calls on a stub made from a running skeleton in this JVM are carried out in order on
+	 *  the calling thread, whatever <code>parallel</code> says.
+	 *  @throws RMIException If the batch as a whole cannot be carried out. The futures of the calls are then completed with the
+	 *                       same exception. */
+	void invokeBatch(List<CallRecorder.Invocation> calls, List<CompletableFuture<Object>> results, boolean parallel)
+			throws RMIException {
+		try{
+			Skeleton<T> skeleton = local;
+			if(skeleton != null && skeleton.isRunning()){
+				for(int index = 0; index < calls.size(); ++index){
+					CallRecorder.Invocation call = calls.get(index);
+					try{
+						if(isOneWay(call.method)) invokeOneWay(call.method, call.args);
+						results.get(index).complete(isOneWay(call.method) ? null
+						                                                  : invokeLocal(skeleton, call.method, call.args));
+					}catch(Throwable t){
+						results.get(index).completeExceptionally(t);
+					}
+				}
+				return;
+			}
+
+			List<Frame> requests = new ArrayList<Frame>(calls.size());
+			for(int index = 0; index < calls.size(); ++index){
+				CallRecorder.Invocation call = calls.get(index);
+				byte type = isOneWay(call.method) ? Frame.ONEWAY : Frame.REQUEST;
+				try{
+					requests.add(new Frame(type, index, WireCodec.encodeRequest(call.method, call.args)));
+				}catch(IOException e){
+					throw new RMIException("unable to serialize method arguments", e);
+				}
+			}
+			Frame response = exchange(Frame.BATCH, Frame.pack(parallel ? Frame.BATCH_PARALLEL : 0, requests), true);
+			if(response.type != Frame.BATCH){
+				// The skeleton refused the batch as a whole, or could not read it.
+				try{
+					decodeResponse(response);
+				}catch(RMIException e){
+					throw e;
+				}catch(Throwable t){
+					throw new RMIException("unable to read method result", t);
+				}
+				throw new RMIException("unable to read method result");
+			}
+
+			List<Frame> responses;
+			try{
+				responses = Frame.unpack(response.payload);
+			}catch(IOException e){
+				throw new RMIException("unable to read method result", e);
+			}
+			for(CallRecorder.Invocation call : calls){
+				if(isInvalidating(call.method)) changed(call.method);
+			}
+			for(Frame answer : responses){
+				if(answer.callId < 0 || answer.callId >= calls.size()) continue;
+				try{
+					results.get((int) answer.callId).complete(decodeResponse(answer));
+				}catch(Throwable t){
+					results.get((int) answer.callId).completeExceptionally(t);
+				}
+			}
+			for(int index = 0; index < calls.size(); ++index){
+				if(isOneWay(calls.get(index).method)) results.get(index).complete(null);
+				else results.get(index).completeExceptionally(new RMIException("no result for call in batch"));
+			}
+		}catch(RMIException e){
+			for(CompletableFuture<Object> result : results){
+				result.completeExceptionally(e);
+			}
+			throw e;
+		}
+	}
+
+	/** Returns <code>true</code> if the method is marked <code>OneWay</code>. */
+	private static boolean isOneWay(Method method){
+		return (flags(method) & ONE_WAY) != 0;
+	}
+
+	/** Returns <code>true</code> if the method is marked <code>Cached</code>. */
+	private static boolean isCached(Method method){
+		return (flags(method) & CACHED) != 0;
+	}
+
+	/** Returns <code>true</code> if the method is marked <code>Versioned</code>. */
+	private static boolean isVersioned(Method method){
+		return (flags(method) & VERSIONED) != 0;
+	}
+
+	/** Returns <code>true</code> if the method takes stream arguments. */
+	private static boolean hasUploads(Method method){
+		return (flags(method) & UPLOADS) != 0;
+	}
+
+	/** Returns <code>true</code> if the method is marked <code>Invalidates</code>. */
+	private static boolean isInvalidating(Method method){
+		return (flags(method) & INVALIDATES) != 0;
+	}
+
+	private static int flags(Method method){
+		Integer flags = methodFlags.get(method);
+		if(flags == null){
+			flags = (method.isAnnotationPresent(OneWay.class) ? ONE_WAY : 0)
+			        | (method.isAnnotationPresent(Cached.class) ? CACHED : 0)
+			        | (method.isAnnotationPresent(Versioned.class) ? VERSIONED : 0)
+			        | (UploadStream.hasUploads(method) ? UPLOADS : 0)
+			        | (method.isAnnotationPresent(Invalidates.class) ? INVALIDATES : 0);
+			methodFlags.put(method, flags);
 		}
-		Object ret = null;
-		ret = in.readObject();
+		return flags;
+	}
 
-		if(ret instanceof InvocationTargetException){
-			throw ((InvocationTargetException) ret).getTargetException();
+	/** Carries out a call of a one-way method, returning once the request has been written. Failures of the call itself are
+	 *  reported to the skeleton rather than thrown; only a request that cannot be sent makes the call fail. */
+	private void invokeOneWay(Method method, Object[] args) throws RMIException {
+		Skeleton<T> skeleton = local;
+		if(skeleton != null && skeleton.isRunning()){
+			Object[] copiedArgs;
+			try{
+				copiedArgs = (Object[]) ValueCopier.copy(args);
+			}catch(Exception e){
+				throw new RMIException("unable to serialize method arguments", e);
+			}
+			try{
+				skeleton.getDispatcher().invokeLocal(method, copiedArgs);
+			}catch(InvocationTargetException e){
+				skeleton.service_error(new RMIException("Exception thrown by one-way method", e.getTargetException()));
+			}catch(RMIException e){
+				// Already reported to the skeleton by the dispatcher.
+			}
+			return;
 		}
-		if(ret instanceof NoSuchMethodException){
-			throw new RMIException(((NoSuchMethodException) ret).getCause());
+
+		byte[] request;
+		try{
+			request = WireCodec.encodeRequest(method, args);
+		}catch(IOException e){
+			throw new RMIException("unable to serialize method arguments", e);
 		}
-		try {
-			in.close();
-			out.close();
-			socket.close();
-		} catch(Exception e){
-			throw new RMIException("Client connection exception happened");
+		post(request, true);
+	}
+
+	/** Turns a response frame into the result of a call, throwing the exception it carries instead if there is one. */
+	static Object decodeResponse(Frame response) throws Throwable {
+		Object ret;
+		try{
+			ret = WireCodec.decodeValue(response.payload);
+		}catch(Exception e){
+			if(response.type == Frame.FAULT) throw new RMIException("remote call failed");
+			if(response.type == Frame.OVERLOADED) throw new OverloadException("skeleton overloaded");
+			throw new RMIException("unable to read method result", e);
 		}
+		if(response.type == Frame.THROWN) throw (Throwable) ret;
+		if(response.type == Frame.FAULT) throw new RMIException((String) ret);
+		if(response.type == Frame.OVERLOADED) throw new OverloadException((String) ret);
 		return ret;
 	}
 
+	/** Implements the methods of <code>Object</code> that a proxy passes to its handler. Two stubs are equal if they implement
+	 *  the same remote interface and connect to the same address; transport options take no part. */
+	private Object invokeObjectMethod(Method method, Object[] args){
+		switch(method.getName()){
+		case "hashCode":
+			return address.hashCode();
+		case "toString":
+			return c.getName() + " " + address.toString();
+		default:
+			Object other = args[0];
+			if(other == null || !Proxy.isProxyClass(other.getClass())) return false;
+			InvocationHandler handler = Proxy.getInvocationHandler(other);
+			if(!(handler instanceof ClientHandler)) return false;
+			ClientHandler<?> that = (ClientHandler<?>) handler;
+			return c.equals(that.c) && address.equals(that.address);
+		}
+	}
+
+	/** Carries out a call on a skeleton in this JVM. Arguments, results and exceptions are copied, so that the caller and the
+	 *  server object never share mutable state, just as if the call had gone over the network. The elements of a stream are
+	 *  copied as they are consumed; stream arguments and file regions are passed as they are. */
+	private Object invokeLocal(Skeleton<T> skeleton, Method method, Object[] args) throws Throwable {
+		Object[] copiedArgs;
+		try{
+			if(hasUploads(method)){
+				copiedArgs = (Object[]) ValueCopier.copy(Upload.marked(method, args));
+				Class<?>[] types = method.getParameterTypes();
+				for(int index = 0; index < types.length; ++index){
+					if(UploadStream.isUpload(types[index])) copiedArgs[index] = args[index];
+				}
+			}else{
+				copiedArgs = (Object[]) ValueCopier.copy(args);
+			}
+		}catch(Exception e){
+			throw new RMIException("unable to serialize method arguments", e);
+		}
+
+		Object result;
+		try{
+			result = skeleton.getDispatcher().invokeLocal(method, copiedArgs);
+		}catch(InvocationTargetException e){
+			Object thrown;
+			try{
+				thrown = ValueCopier.copy(e.getTargetException());
+			}catch(Exception copyError){
+				throw new RMIException("unable to read method result", copyError);
+			}
+			throw (Throwable) thrown;
+		}
+
+		if(result != null && ResultStream.isStream(method)) return ResultStream.copying(result);
+		try{
+			return ValueCopier.copy(result);
+		}catch(Exception e){
+			throw new RMIException("unable to read method result", e);
+		}
+	}
+
+	/** Sends a frame over a pooled connection and waits for the skeleton's response.
+	 *  A connection that has already carried calls may have been closed by the skeleton since, which only closes connections on
+	 *  which no call is in progress; if the frame cannot be written to such a connection, it is sent once more on a fresh
+	 *  connection. A connection that fails once the frame has been written is not retried, as the skeleton may have received
+	 *  the call and carried it out, and neither is a call that times out. */
+	private Frame exchange(byte type, byte[] payload, boolean retry) throws RMIException {
+		Connection connection;
+		try{
+			connection = ConnectionPool.getDefault().acquire(address, options);
+		}catch(IOException e){
+			throw new RMIException("error happened when establishing connections and transmitting methods", e);
+		}
+		boolean reused = connection.getCompletedCalls() > 0;
+		CompletableFuture<Frame> pending;
+		try{
+			pending = connection.send(type, payload);
+		}catch(IOException e){
+			if(retry && reused) return exchange(type, payload, false);
+			throw new RMIException("Client connection exception happened", e);
+		}
+		try{
+			return connection.await(pending);
+		}catch(SocketTimeoutException e){
+			throw new RMIException("Remote call timed out", e);
+		}catch(IOException e){
+			throw new RMIException("Client connection exception happened", e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RMIException("interrupted while waiting for the method result", e);
+		}
+	}
+
+	/** Writes a one-way request to a pooled connection. A reused connection to which the request cannot be written is replaced
+	 *  once, as by <code>exchange</code>. */
+	private void post(byte[] request, boolean retry) throws RMIException {
+		Connection connection;
+		try{
+			connection = ConnectionPool.getDefault().acquire(address, options);
+		}catch(IOException e){
+			throw new RMIException("error happened when establishing connections and transmitting methods", e);
+		}
+		boolean reused = connection.getCompletedCalls() > 0;
+		try{
+			connection.post(Frame.ONEWAY, request);
+		}catch(IOException e){
+			if(retry && reused){
+				post(request, false);
+				return;
+			}
+			throw new RMIException("Client connection exception happened", e);
+		}
+	}
+
+	/** Sends a request over a pooled connection and arranges for its response to complete <code>result</code> on the executor.
+	 *  A reused connection to which the request cannot be written is replaced once, as by <code>exchange</code>; a connection
+	 *  that fails afterwards completes <code>result</code> exceptionally. */
+	private void sendAsync(final byte[] request, final boolean retry, final CompletableFuture<Object> result,
+			final Executor executor){
+		Connection connection;
+		try{
+			connection = ConnectionPool.getDefault().acquire(address, options);
+		}catch(IOException e){
+			result.completeExceptionally(
+				new RMIException("error happened when establishing connections and transmitting methods", e));
+			return;
+		}
+		final boolean reused = connection.getCompletedCalls() > 0;
+		final CompletableFuture<Frame> response;
+		try{
+			response = connection.send(Frame.REQUEST, request);
+		}catch(IOException e){
+			if(retry && reused) sendAsync(request, false, result, executor);
+			else result.completeExceptionally(new RMIException("Client connection exception happened", e));
+			return;
+		}
+		response.whenCompleteAsync((frame, error) -> {
+			if(result.isDone()) return;
+			if(error != null){
+				result.completeExceptionally(new RMIException("Client connection exception happened", error));
+				return;
+			}
+			try{
+				result.complete(decodeResponse(frame));
+			}catch(Throwable t){
+				result.completeExceptionally(t);
+			}
+		}, executor);
+		result.whenComplete((value, error) -> {
+			if(!response.isDone()) connection.abandon(response);
+		});
+	}
+
 }
@@ -0,0 +1,548 @@
+package rmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Persistent, multiplexed client connection to a skeleton.
+ *
+ * <p>
+ * Any number of threads may have calls in flight on one connection at the same time. Each request frame carries a call
+ * identifier unique to the connection; a reader thread owned by the connection receives response frames, which may arrive in any
+ * order, and hands each one to the caller waiting for that identifier. Frames the skeleton sends unasked, removing results from
+ * the stubs' caches, are applied by the reader thread itself. Once a call has returned a stream, the frames carrying its elements
+ * are handed to the stream's receiver, and the connection is not closed for idleness or retirement until the stream ends. The
+ * frames asking for the bytes of stream arguments are likewise handed to the receiver given when the call was sent.
+ * Connections are normally obtained from a <code>ConnectionPool</code>.
+ *
+ * <p>
+ * A connection to an <code>InetSocketAddress</code> is a TCP socket channel, and a connection to a
+ * <code>UnixDomainSocketAddress</code> a Unix domain socket channel, both used in blocking mode. A connection to a
+ * <code>SharedMemoryAddress</code> is a pair of ring buffers in shared memory.
+ */
+class Connection implements Runnable {
+    private final SocketAddress address;
+    private final TransportOptions options;
+    private final Closeable socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    /** Serializes request writes. A lock rather than a monitor, so that virtual caller threads do not pin their carriers. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /** Bytes written since the last flush. Guarded by <code>writeLock</code>. */
+    private int unflushed = 0;
+    /** Whether a thread will flush the frames of the current coalescing window. Guarded by <code>writeLock</code>. */
+    private boolean flushScheduled = false;
+    private final Map<Long, CompletableFuture<Frame>> pending = new ConcurrentHashMap<Long, CompletableFuture<Frame>>();
+    /** Receivers of the frames of open streams, by the call identifier of the call that returned each or that sends them. */
+    private final Map<Long, Consumer<Frame>> streams = new ConcurrentHashMap<Long, Consumer<Frame>>();
+    private final AtomicLong nextCallId = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final long created;
+    private volatile long lastUsed;
+    private volatile boolean closed = false;
+    private volatile boolean retired = false;
+
+    /**
+     * Opens a new connection to the given address and starts its reader thread.
+     *
+     * @param address
+     *            The address of the skeleton.
+     * @param options
+     *            Options for the socket, and the read timeout of calls.
+     * @throws IOException
+     *             If the connection cannot be established.
+     */
+    Connection(SocketAddress address, TransportOptions options) throws IOException {
+        this.address = address;
+        this.options = options;
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            // A channel rather than a plain socket, so that file regions can be sent to it with transferTo.
+            SocketChannel channel = SocketChannel.open();
+            try {
+                options.apply(channel.socket());
+                channel.socket().connect(new InetSocketAddress(inetAddress.getHostName(), inetAddress.getPort()),
+                                         options.getConnectTimeout());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            socket = channel;
+            out = new DataOutputStream(new BufferedOutputStream(outputStream(channel), bufferSize(options)));
+            in = new DataInputStream(new BufferedInputStream(inputStream(channel)));
+        } else if (address instanceof SharedMemoryAddress) {
+            SharedMemoryLink link = SharedMemoryLink.connect((SharedMemoryAddress) address);
+            socket = link;
+            out = new DataOutputStream(new BufferedOutputStream(link.getOutputStream(), bufferSize(options)));
+            in = new DataInputStream(new BufferedInputStream(link.getInputStream()));
+        } else {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                options.apply(channel);
+                channel.connect(address);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            socket = channel;
+            out = new DataOutputStream(new BufferedOutputStream(outputStream(channel), bufferSize(options)));
+            in = new DataInputStream(new BufferedInputStream(inputStream(channel)));
+        }
+        created = System.currentTimeMillis();
+        lastUsed = created;
+
+        Thread reader = new Thread(this, "rmi-connection-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a frame and returns a future for the matching response.
+     *
+     * @param type
+     *            The type of the frame to send.
+     * @param payload
+     *            The payload of the frame.
+     * @return A future completed with the response frame, or completed exceptionally with an <code>IOException</code> if the
+     *         connection fails first.
+     * @throws IOException
+     *             If the connection is closed or the frame cannot be written. The connection is closed in the latter case.
+     */
+    CompletableFuture<Frame> send(byte type, byte[] payload) throws IOException {
+        return send(type, payload, null);
+    }
+
+    /**
+     * Sends a frame whose call sends stream arguments, and returns a future for the matching response. Until the response
+     * arrives, the frames in which the skeleton asks for the arguments' bytes are handed to a receiver; if the connection closes
+     * first, the receiver is given <code>null</code>.
+     *
+     * @param type
+     *            The type of the frame to send.
+     * @param payload
+     *            The payload of the frame.
+     * @param receiver
+     *            The receiver, called by the reader thread, or <code>null</code> if the call sends no stream arguments.
+     * @return A future completed with the response frame, or completed exceptionally with an <code>IOException</code> if the
+     *         connection fails first.
+     * @throws IOException
+     *             If the connection is closed or the frame cannot be written. The connection is closed in the latter case.
+     */
+    CompletableFuture<Frame> send(byte type, byte[] payload, Consumer<Frame> receiver) throws IOException {
+        long callId = nextCallId.incrementAndGet();
+        CompletableFuture<Frame> response = new CompletableFuture<Frame>();
+        if (receiver != null) {
+            noDelay();
+            streams.put(callId, receiver);
+        }
+        pending.put(callId, response);
+        try {
+            write(new Frame(type, callId, payload));
+        } catch (IOException e) {
+            pending.remove(callId);
+            streams.remove(callId);
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Sends a frame to which the skeleton sends no response, returning once the frame has been written.
+     *
+     * @param type
+     *            The type of the frame to send.
+     * @param payload
+     *            The payload of the frame.
+     * @throws IOException
+     *             If the connection is closed or the frame cannot be written. The connection is closed in the latter case.
+     */
+    void post(byte type, byte[] payload) throws IOException {
+        write(new Frame(type, nextCallId.incrementAndGet(), payload));
+    }
+
+    /**
+     * Starts handing the frames of a stream to a receiver. Once the connection closes, the receiver is given <code>null</code>.
+     *
+     * @param callId
+     *            The call identifier of the call that returned the stream.
+     * @param receiver
+     *            The receiver, called by the reader thread.
+     */
+    void openStream(long callId, Consumer<Frame> receiver) {
+        noDelay();
+        streams.put(callId, receiver);
+        if (closed && streams.remove(callId) != null) receiver.accept(null);
+    }
+
+    /** Stops delaying small segments, since the frames of a stream flow both ways without waiting for each other. */
+    private void noDelay() {
+        if (!(socket instanceof SocketChannel)) return;
+        SocketChannel channel = (SocketChannel) socket;
+        try {
+            if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+        } catch (IOException e) {
+            // The connection has failed, which the reader thread reports to the receiver.
+        }
+    }
+
+    /** Stops handing the frames of a stream to its receiver. Later frames of the stream are discarded. */
+    void closeStream(long callId) {
+        streams.remove(callId);
+        if (retired && pending.isEmpty() && streams.isEmpty()) close();
+    }
+
+    /**
+     * Sends a frame controlling an open stream, to which the skeleton sends no response.
+     *
+     * @param type
+     *            The type of the frame, <code>DEMAND</code> or <code>CANCEL</code>.
+     * @param callId
+     *            The call identifier of the call that returned the stream.
+     * @param payload
+     *            The payload of the frame.
+     * @throws IOException
+     *             If the connection is closed or the frame cannot be written. The connection is closed in the latter case.
+     */
+    void control(byte type, long callId, byte[] payload) throws IOException {
+        write(new Frame(type, callId, payload));
+    }
+
+    /**
+     * Writes a frame, closing the connection if it cannot be written. The frame is flushed at once, unless write coalescing is
+     * enabled; see <code>TransportOptions.withWriteCoalescing</code>. The thread whose frame opens a coalescing window then waits
+     * for the window to end and flushes every frame written meanwhile; other threads return as soon as their frames are buffered,
+     * relying on it.
+     */
+    private void write(Frame frame) throws IOException {
+        lastUsed = System.currentTimeMillis();
+        long window = options.getWriteCoalescingWindow() * 1000L;
+        try {
+            if (closed) throw new EOFException("connection closed");
+            boolean leader = false;
+            writeLock.lock();
+            try {
+                frame.write(out);
+                unflushed += 4 + Frame.HEADER_SIZE + frame.payload.length;
+                if (window == 0 || unflushed >= options.getWriteCoalescingLimit()) {
+                    flush();
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    leader = true;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (!leader) return;
+
+            long deadline = System.nanoTime() + window;
+            for (long remaining = window; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+            writeLock.lock();
+            try {
+                if (flushScheduled) flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a frame whose payload ends with bytes of a file, flushing it at once. On a socket channel, the bytes go from the file
+     * to the socket with <code>transferTo</code>, without being copied through the heap.
+     *
+     * @param type
+     *            The type of the frame.
+     * @param callId
+     *            The call identifier of the frame.
+     * @param head
+     *            The start of the payload, before the bytes of the file.
+     * @param file
+     *            The file.
+     * @param position
+     *            The position of the first byte of the file to send.
+     * @param count
+     *            The number of bytes of the file to send.
+     * @throws IOException
+     *             If the connection is closed, or the frame cannot be written or the file read. The connection is closed in the
+     *             latter case.
+     */
+    void transfer(byte type, long callId, byte[] head, FileChannel file, long position, int count) throws IOException {
+        lastUsed = System.currentTimeMillis();
+        try {
+            if (closed) throw new EOFException("connection closed");
+            writeLock.lock();
+            try {
+                out.writeInt(Frame.HEADER_SIZE + head.length + count);
+                out.writeByte(type);
+                out.writeLong(callId);
+                out.write(head);
+                if (socket instanceof SocketChannel) {
+                    out.flush();
+                    for (long sent = 0; sent < count; ) {
+                        long written = file.transferTo(position + sent, count - sent, (SocketChannel) socket);
+                        if (written == 0 && position + sent >= file.size()) throw new EOFException("file shorter than region");
+                        sent += written;
+                    }
+                } else {
+                    ByteBuffer buffer = ByteBuffer.allocate(Math.min(count, 64 * 1024));
+                    for (long sent = 0; sent < count; ) {
+                        buffer.clear().limit((int) Math.min(buffer.capacity(), count - sent));
+                        if (file.read(buffer, position + sent) < 0) throw new EOFException("file shorter than region");
+                        out.write(buffer.array(), 0, buffer.position());
+                        sent += buffer.position();
+                    }
+                }
+                flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Flushes the frames written so far. Called with the write lock held. */
+    private void flush() throws IOException {
+        out.flush();
+        unflushed = 0;
+        flushScheduled = false;
+    }
+
+    /**
+     * Sends a frame and waits for the matching response.
+     *
+     * @param type
+     *            The type of the frame to send.
+     * @param payload
+     *            The payload of the frame.
+     * @return The response frame.
+     * @throws SocketTimeoutException
+     *             If the response does not arrive within the read timeout. The connection remains usable; the response, if it
+     *             arrives later, is discarded.
+     * @throws IOException
+     *             If the connection fails before the response arrives.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting.
+     */
+    Frame call(byte type, byte[] payload) throws IOException, InterruptedException {
+        return await(send(type, payload));
+    }
+
+    /**
+     * Waits for a response returned by <code>send</code>, as <code>call</code> does.
+     *
+     * @param response
+     *            The future for the response.
+     * @return The response frame.
+     * @throws SocketTimeoutException
+     *             If the response does not arrive within the read timeout. The response, if it arrives later, is discarded.
+     * @throws IOException
+     *             If the connection fails before the response arrives.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting.
+     */
+    Frame await(CompletableFuture<Frame> response) throws IOException, InterruptedException {
+        try {
+            if (options.getReadTimeout() == 0) return response.get();
+            return response.get(options.getReadTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            abandon(response);
+            throw new SocketTimeoutException("no response within " + options.getReadTimeout() + " ms");
+        }
+    }
+
+    /**
+     * Stops waiting for a response returned by <code>send</code>. The response, if it arrives later, is discarded, and the call no
+     * longer counts as in flight.
+     */
+    void abandon(CompletableFuture<Frame> response) {
+        for (Map.Entry<Long, CompletableFuture<Frame>> entry : pending.entrySet()) {
+            if (entry.getValue() == response && pending.remove(entry.getKey(), response)) streams.remove(entry.getKey());
+        }
+    }
+
+    /** Receives response frames and completes the corresponding pending calls until the connection fails or is closed. */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Frame frame = Frame.read(in);
+                if (frame.type == Frame.INVALIDATE) {
+                    ResultCache.invalidated(address, frame);
+                    continue;
+                }
+                lastUsed = System.currentTimeMillis();
+                if (frame.type == Frame.DEMAND) {
+                    // The skeleton asks for bytes of a stream argument of a call still in flight.
+                    Consumer<Frame> upload = streams.get(frame.callId);
+                    if (upload != null) upload.accept(frame);
+                    continue;
+                }
+                CompletableFuture<Frame> response = pending.remove(frame.callId);
+                if (response != null) {
+                    streams.remove(frame.callId);
+                } else {
+                    Consumer<Frame> stream = streams.get(frame.callId);
+                    if (stream != null) {
+                        stream.accept(frame);
+                        continue;
+                    }
+                }
+                completed.incrementAndGet();
+                if (response != null) response.complete(frame);
+                if (retired && pending.isEmpty() && streams.isEmpty()) break;
+            }
+        } catch (IOException e) {
+        }
+        close();
+    }
+
+    /** Returns the number of calls sent on this connection and not yet answered. */
+    int inFlight() {
+        return pending.size();
+    }
+
+    /** Returns the number of responses received on this connection. */
+    long getCompletedCalls() {
+        return completed.get();
+    }
+
+    /**
+     * Checks whether the connection has been unused for at least the given time.
+     *
+     * @param now
+     *            The current time, in milliseconds.
+     * @param idleTimeout
+     *            Maximum time the connection may stay unused, in milliseconds.
+     * @return <code>true</code> if no call is in flight and none has been sent or answered within the timeout.
+     */
+    boolean idleFor(long now, long idleTimeout) {
+        return pending.isEmpty() && streams.isEmpty() && (now - lastUsed >= idleTimeout);
+    }
+
+    /**
+     * Checks whether the connection is older than the given lifetime.
+     *
+     * @param now
+     *            The current time, in milliseconds.
+     * @param maxLifetime
+     *            Maximum age of the connection, in milliseconds.
+     * @return <code>true</code> if the connection should not be given new calls.
+     */
+    boolean olderThan(long now, long maxLifetime) {
+        return now - created >= maxLifetime;
+    }
+
+    /**
+     * Stops the connection from being given new calls. The connection closes itself once its calls in flight have been answered.
+     */
+    void retire() {
+        retired = true;
+        if (pending.isEmpty() && streams.isEmpty()) close();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    SocketAddress getAddress() {
+        return address;
+    }
+
+    /** Returns the size of the write buffer, which must hold a whole coalescing window. */
+    private static int bufferSize(TransportOptions options) {
+        return Math.max(8192, options.getWriteCoalescingLimit());
+    }
+
+    /*
+     * The streams returned by java.nio.channels.Channels hold the channel's blocking lock while reading, which would stop request
+     * frames from being written while the reader thread waits for a response. These streams use the channel directly; a blocking
+     * socket channel allows one read and one write to proceed at once.
+     */
+
+    private static InputStream inputStream(final SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    private static OutputStream outputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    /** Closes the connection, ignoring errors. Calls still in flight fail with an <code>EOFException</code>. */
+    void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+        ResultCache.disconnected(address);
+        for (Long callId : pending.keySet()) {
+            CompletableFuture<Frame> response = pending.remove(callId);
+            if (response != null) response.completeExceptionally(new EOFException("connection closed"));
+        }
+        for (Long callId : streams.keySet()) {
+            Consumer<Frame> stream = streams.remove(callId);
+            if (stream != null) stream.accept(null);
+        }
+    }
+}
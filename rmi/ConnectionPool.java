@@ -0,0 +1,296 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of persistent connections from stubs to skeletons.
+ *
+ * <p>
+ * All stubs in a JVM share the pool returned by <code>getDefault</code>. Connections are kept per destination address (and
+ * transport options, as stubs with different <code>TransportOptions</code> never share a connection) and are
+ * multiplexed: a connection carries calls from any number of threads and stubs at once. A call is placed on an existing connection
+ * to its skeleton when possible (a hit); a new connection is opened (a miss) only when there is none, or when every existing
+ * connection is busy and fewer than <code>maxConnections</code> are open to that address.
+ *
+ * <p>
+ * Connections with no calls in flight are closed once they have been unused for longer than the idle timeout. Connections older
+ * than the maximum lifetime are given no further calls and close once their calls in flight have been answered. Both of these
+ * count as evictions.
+ */
+public class ConnectionPool {
+    private static final ConnectionPool defaultPool = new ConnectionPool();
+
+    private int maxConnections = 4;
+    private long idleTimeout = 30000;
+    private long maxLifetime = 300000;
+
+    private final Map<Key, List<Connection>> open = new HashMap<Key, List<Connection>>();
+    /** Number of connections being opened to each address, counted against the maximum so that a burst of calls does not open a
+        connection per caller. */
+    private final Map<Key, Integer> opening = new HashMap<Key, Integer>();
+    private ScheduledExecutorService reaper = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Creates an empty pool with the default limits. */
+    ConnectionPool() {
+    }
+
+    /** Returns the pool shared by all stubs in this JVM. */
+    public static ConnectionPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * Sets the maximum number of connections opened to each destination address.
+     *
+     * @param maxConnections
+     *            The new limit.
+     * @throws IllegalArgumentException
+     *             If <code>maxConnections</code> is not positive.
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) throw new IllegalArgumentException("maxConnections must be positive");
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Sets how long a connection with no calls in flight may remain unused before it is closed.
+     *
+     * @param millis
+     *            The idle timeout, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If <code>millis</code> is not positive.
+     */
+    public synchronized void setIdleTimeout(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("idle timeout must be positive");
+        idleTimeout = millis;
+    }
+
+    /**
+     * Sets the maximum age of a pooled connection. Older connections are given no new calls.
+     *
+     * @param millis
+     *            The maximum lifetime, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If <code>millis</code> is not positive.
+     */
+    public synchronized void setMaxLifetime(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("max lifetime must be positive");
+        maxLifetime = millis;
+    }
+
+    public synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public synchronized long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /** Returns the number of calls placed on an already open connection. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of calls that had to open a new connection. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of connections closed because of the idle timeout or the maximum lifetime. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Returns the number of connections currently open to the given address and available for new calls. */
+    public synchronized int getConnectionCount(SocketAddress address) {
+        int count = 0;
+        for (Map.Entry<Key, List<Connection>> entry : open.entrySet()) {
+            if (entry.getKey().address.equals(address)) count += entry.getValue().size();
+        }
+        return count;
+    }
+
+    /** Removes all connections from the pool. Idle connections are closed now; the others once their calls are answered. */
+    public void clear() {
+        List<Connection> closing = new ArrayList<Connection>();
+        synchronized (this) {
+            for (List<Connection> connections : open.values()) {
+                closing.addAll(connections);
+            }
+            open.clear();
+        }
+        for (Connection connection : closing) {
+            connection.retire();
+        }
+    }
+
+    /**
+     * Returns a connection to the given address on which a new call may be placed.
+     *
+     * @param address
+     *            The address of the skeleton.
+     * @param options
+     *            The transport options of the stub. Only connections opened with equal options are shared.
+     * @return The least busy open connection to the address, or a newly opened one.
+     * @throws IOException
+     *             If a new connection is needed and cannot be opened.
+     */
+    Connection acquire(SocketAddress address, TransportOptions options) throws IOException {
+        Key key = new Key(address, options);
+        long now = System.currentTimeMillis();
+        List<Connection> expired = new ArrayList<Connection>();
+        Connection best = null;
+        synchronized (this) {
+            List<Connection> connections = open.get(key);
+            if (connections != null) {
+                Iterator<Connection> iterator = connections.iterator();
+                while (iterator.hasNext()) {
+                    Connection connection = iterator.next();
+                    if (connection.isClosed()) {
+                        iterator.remove();
+                    } else if (connection.olderThan(now, maxLifetime)) {
+                        iterator.remove();
+                        expired.add(connection);
+                    } else if (best == null || connection.inFlight() < best.inFlight()) {
+                        best = connection;
+                    }
+                }
+                if (best != null && best.inFlight() > 0 && connections.size() + openingTo(key) < maxConnections) best = null;
+            }
+            if (best == null) opening.put(key, openingTo(key) + 1);
+        }
+        evict(expired);
+        if (best != null) {
+            hits.incrementAndGet();
+            return best;
+        }
+
+        misses.incrementAndGet();
+        Connection connection;
+        try {
+            connection = new Connection(address, options);
+        } finally {
+            synchronized (this) {
+                opening.put(key, openingTo(key) - 1);
+                if (openingTo(key) == 0) opening.remove(key);
+            }
+        }
+        synchronized (this) {
+            List<Connection> connections = open.get(key);
+            if (connections == null) {
+                connections = new ArrayList<Connection>();
+                open.put(key, connections);
+            }
+            Iterator<Connection> iterator = connections.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isClosed()) iterator.remove();
+            }
+            if (connections.size() < maxConnections) {
+                connections.add(connection);
+                startReaper();
+                return connection;
+            }
+            // Other threads filled the pool while this connection was being opened: share the least busy pooled connection.
+            for (Connection pooled : connections) {
+                if (best == null || pooled.inFlight() < best.inFlight()) best = pooled;
+            }
+        }
+        connection.close();
+        return best;
+    }
+
+    /** Closes connections that have exceeded the idle timeout or the maximum lifetime. */
+    void reap() {
+        long now = System.currentTimeMillis();
+        List<Connection> expired = new ArrayList<Connection>();
+        synchronized (this) {
+            Iterator<List<Connection>> lists = open.values().iterator();
+            while (lists.hasNext()) {
+                List<Connection> connections = lists.next();
+                Iterator<Connection> iterator = connections.iterator();
+                while (iterator.hasNext()) {
+                    Connection connection = iterator.next();
+                    if (connection.isClosed()) {
+                        iterator.remove();
+                    } else if (connection.idleFor(now, idleTimeout) || connection.olderThan(now, maxLifetime)) {
+                        iterator.remove();
+                        expired.add(connection);
+                    }
+                }
+                if (connections.isEmpty()) lists.remove();
+            }
+        }
+        evict(expired);
+    }
+
+    private int openingTo(Key key) {
+        Integer count = opening.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private void evict(List<Connection> expired) {
+        for (Connection connection : expired) {
+            evictions.incrementAndGet();
+            connection.retire();
+        }
+    }
+
+    /** Starts the background thread that closes expired connections. Called with the pool lock held. */
+    private void startReaper() {
+        if (reaper != null) return;
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rmi-connection-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /** Destination of pooled connections: stubs share connections only if they use the same address and options. */
+    private static class Key {
+        final SocketAddress address;
+        final TransportOptions options;
+
+        Key(SocketAddress address, TransportOptions options) {
+            this.address = address;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).address.equals(address) && ((Key) other).options.equals(options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * address.hashCode() + options.hashCode();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Immutable map from method identifiers to the invokers of the methods of a remote interface on a server object.
+ *
+ * <p>
+ * The table is built once per skeleton and covers every method of the interface, including overloads and methods inherited from
+ * superinterfaces. Methods are made accessible and their invokers created when the table is built, so that a call needs only a
+ * lookup. A method declared with
+ * the same signature by several superinterfaces has a single entry. The table is an open-addressing hash table over the
+ * identifiers, which are themselves hashes, and so needs no boxing and no further hashing on lookup.
+ */
+class DispatchTable {
+    private final long[] ids;
+    private final MethodInvoker[] invokers;
+    private final int mask;
+
+    /**
+     * Builds the table for a remote interface.
+     *
+     * @param c
+     *            The remote interface.
+     * @param server
+     *            The object implementing the interface.
+     * @throws Error
+     *             If two methods of the interface with different signatures have the same identifier, or a method cannot be
+     *             made accessible.
+     */
+    DispatchTable(Class<?> c, Object server) {
+        Method[] declared = c.getMethods();
+        // At least twice as many slots as methods, so that probe sequences stay short.
+        int capacity = Integer.highestOneBit(Math.max(declared.length, 1)) << 2;
+        ids = new long[capacity];
+        invokers = new MethodInvoker[capacity];
+        mask = capacity - 1;
+
+        for (Method method : declared) {
+            long id = WireCodec.methodId(method);
+            int slot = slot(id);
+            while (invokers[slot] != null && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (invokers[slot] != null) {
+                Method existing = invokers[slot].getMethod();
+                if (!sameSignature(existing, method)) {
+                    throw new Error("methods " + existing + " and " + method + " have the same identifier");
+                }
+                continue;
+            }
+            method.setAccessible(true);
+            ids[slot] = id;
+            try {
+                invokers[slot] = new MethodInvoker(method, server);
+            } catch (IllegalAccessException e) {
+                throw new Error("unable to access method " + method, e);
+            }
+        }
+    }
+
+    /** Returns the invoker of the method with the given identifier, or <code>null</code> if the interface has none. */
+    MethodInvoker get(long id) {
+        int slot = slot(id);
+        MethodInvoker invoker;
+        while ((invoker = invokers[slot]) != null) {
+            if (ids[slot] == id) return invoker;
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private int slot(long id) {
+        return (int) (id ^ (id >>> 32)) & mask;
+    }
+
+    private static boolean sameSignature(Method first, Method second) {
+        return first.getName().equals(second.getName())
+                && Arrays.equals(first.getParameterTypes(), second.getParameterTypes());
+    }
+}
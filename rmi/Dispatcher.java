@@ -0,0 +1,632 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Carries out calls on behalf of a skeleton.
+ *
+ * <p>
+ * The dispatcher turns a request frame into a call on the server object and turns the outcome of the call into the response
+ * frame for the stub. It is independent of the transport that delivered the request, and may be used by any number of threads at
+ * once. Concurrent calls of an <code>Idempotent</code> method with equal arguments are carried out once, and calls of a
+ * <code>Memoized</code> method are answered from earlier results where possible. Calls of <code>Invalidates</code> methods remove
+ * the results they change from the caches of the stubs holding them. Conditional calls of <code>Versioned</code> methods whose
+ * result is unchanged are answered without calling the method. Iterators and publishers returned by the server object are sent
+ * to the stub as streams, element by element as the stub asks for them, and stream arguments are received from the stub in the
+ * same way as the server object reads them.
+ */
+class Dispatcher<T> {
+    private final Skeleton<T> skeleton;
+    private final T server;
+    private final Class<T> myClass;
+    private final DispatchTable methods;
+    private final SingleFlight flights = new SingleFlight();
+    private final ResultCache memos = new ResultCache(ResultCache.Limits::memoized);
+    private final CacheDirectory directory;
+    /** For each <code>Versioned</code> method, the identifier of its version method. */
+    private final Map<Long, Long> versions = new HashMap<Long, Long>();
+    /** Streams being sent on each connection, by the call identifier of the request that returned them. */
+    private final Map<Consumer<Frame>, Map<Long, ResultStream>> streams =
+            new ConcurrentHashMap<Consumer<Frame>, Map<Long, ResultStream>>();
+    /** Identifiers of the methods with stream arguments. */
+    private final Set<Long> uploadMethods = new HashSet<Long>();
+    /** Stream arguments being received on each connection, by call identifier and argument position. */
+    private final Map<Consumer<Frame>, Map<Long, UploadStream[]>> uploads =
+            new ConcurrentHashMap<Consumer<Frame>, Map<Long, UploadStream[]>>();
+
+    /**
+     * Creates the dispatcher of a skeleton, building the dispatch table of its remote interface.
+     *
+     * @throws Error
+     *             If the methods of the interface cannot be told apart by their identifiers.
+     */
+    Dispatcher(Skeleton<T> skeleton, T server, Class<T> myClass) {
+        this.skeleton = skeleton;
+        this.server = server;
+        this.myClass = myClass;
+        this.methods = new DispatchTable(myClass, server);
+        this.directory = new CacheDirectory(myClass);
+        for (Method method : myClass.getMethods()) {
+            if (UploadStream.hasUploads(method)) uploadMethods.add(WireCodec.methodId(method));
+            Versioned versioned = method.getAnnotation(Versioned.class);
+            if (versioned == null) continue;
+            try {
+                Method version = myClass.getMethod(versioned.value(), method.getParameterTypes());
+                versions.put(WireCodec.methodId(method), WireCodec.methodId(version));
+            } catch (NoSuchMethodException e) {
+                throw new Error("version method of " + method + " not found", e);
+            }
+        }
+    }
+
+    Skeleton<T> getSkeleton() {
+        return skeleton;
+    }
+
+    /**
+     * Performs the call described by a request frame.
+     *
+     * <p>
+     * Errors that prevent the call from being carried out are reported to the skeleton's <code>service_error</code> method, and
+     * to the stub in a <code>FAULT</code> frame. Exceptions thrown by the server object itself are returned to the stub in a
+     * <code>THROWN</code> frame. The stub expects no response to a <code>ONEWAY</code> request: exceptions thrown by the server
+     * object are then reported to <code>service_error</code> as well, and no frame is returned. The calls of a <code>BATCH</code>
+     * request are each handled in the same way, and their responses returned together in a <code>BATCH</code> frame. A
+     * <code>CONDITIONAL</code> request is answered with <code>NOT_MODIFIED</code> if the version of the result is unchanged, and
+     * otherwise with the result and its version in a <code>TAGGED</code> frame. A <code>REQUEST</code> for a method returning an
+     * <code>Iterator</code> or <code>Flow.Publisher</code> is answered with a <code>STREAM</code> frame, and the elements sent
+     * later as the stub asks for them; other requests for such methods fail, since the result cannot be encoded. Stream arguments
+     * are likewise asked for as the server object reads them, and can only be sent in a <code>REQUEST</code>.
+     *
+     * <p>
+     * If the method called has results that stubs cache and <code>Invalidates</code> methods change, the connection is recorded
+     * as holding the result, and sent an <code>INVALIDATE</code> frame when it changes.
+     *
+     * @param request
+     *            The request frame.
+     * @param holder
+     *            Sends frames to the connection on which the request arrived, or <code>null</code> if the stub's cache is not to
+     *            be kept coherent.
+     * @return The response frame, carrying the call identifier of the request, or <code>null</code> for a one-way request.
+     */
+    Frame dispatch(Frame request, Consumer<Frame> holder) {
+        if (request.type == Frame.BATCH) return dispatchBatch(request);
+        MethodInvoker memoized = memoizedInvoker(request);
+        long generation = memos.getGeneration();
+        if (memoized != null) {
+            byte[] cached = memos.get(memoized.getMethod(), request.payload);
+            if (cached != null) {
+                hold(WireCodec.methodId(memoized.getMethod()), request.type, request.payload, holder);
+                return new Frame(Frame.RESULT, request.callId, cached);
+            }
+        }
+
+        byte[] tag = null;
+        byte[] body = request.payload;
+        WireCodec.Request call;
+        try {
+            if (request.type == Frame.CONDITIONAL) {
+                tag = Frame.tagOf(body);
+                body = Frame.withoutTag(body);
+            }
+            call = WireCodec.decodeRequest(body);
+        } catch (Exception e) {
+            return fault(request, new RMIException("Unable to read method call", e));
+        }
+
+        MethodInvoker invoker = methods.get(call.methodId);
+        if (invoker == null) return fault(request, new RMIException("Interface not found"));
+        hold(call.methodId, request.type, body, holder);
+        UploadStream[] received = null;
+        if (uploadMethods.contains(call.methodId)) {
+            if (request.type != Frame.REQUEST || holder == null) {
+                return fault(request, new RMIException("Stream arguments can only be sent in a single call"));
+            }
+            try {
+                received = receiveUploads(invoker.getMethod(), call.arguments, request.callId, holder);
+            } catch (RMIException e) {
+                return fault(request, e);
+            }
+        }
+
+        byte type;
+        Object result;
+        byte[] version = null;
+        try {
+            if (tag != null) {
+                version = version(call);
+                if (Arrays.equals(version, tag)) return new Frame(Frame.NOT_MODIFIED, request.callId, new byte[0]);
+            }
+            result = flights.invoke(invoker, call.methodId, call.arguments);
+            type = Frame.RESULT;
+        } catch (InvocationTargetException e) {
+            result = e.getTargetException();
+            type = Frame.THROWN;
+            unhold(call.methodId, request.type, body, holder);
+        } catch (Exception e) {
+            unhold(call.methodId, request.type, body, holder);
+            return fault(request, new RMIException("Exception thrown in service response.", e));
+        } finally {
+            changed(call.methodId);
+            if (received != null) endUploads(received, request.callId, holder);
+        }
+
+        if (request.type == Frame.ONEWAY) {
+            if (type == Frame.THROWN) reported(new RMIException("Exception thrown by one-way method", (Throwable) result));
+            return null;
+        }
+        if (type == Frame.RESULT && result != null && request.type == Frame.REQUEST && holder != null
+                && ResultStream.isStream(invoker.getMethod())) {
+            ResultStream stream;
+            try {
+                stream = new ResultStream(this, holder, request.callId, result);
+            } catch (IOException e) {
+                return fault(request, new RMIException("Unable to read file region", e));
+            }
+            streams.computeIfAbsent(holder, h -> new ConcurrentHashMap<Long, ResultStream>()).put(request.callId, stream);
+            return new Frame(Frame.STREAM, request.callId, new byte[0]);
+        }
+        byte[] payload;
+        try {
+            payload = WireCodec.encodeValue(result);
+        } catch (Exception e) {
+            return fault(request, new RMIException("Unable to send method result", e));
+        }
+        if (memoized != null && type == Frame.RESULT) memos.put(memoized.getMethod(), request.payload, payload, generation);
+        if (version != null && type == Frame.RESULT) {
+            return new Frame(Frame.TAGGED, request.callId, Frame.withTag(version, payload));
+        }
+        return new Frame(type, request.callId, payload);
+    }
+
+    /**
+     * Replaces the marks of the stream arguments of a call with streams receiving their bytes from the stub, and asks the stub
+     * for the first bytes of each. File regions are received in full before this returns.
+     *
+     * @return The streams, by argument position.
+     * @throws RMIException
+     *             If an argument for a stream parameter is not a mark.
+     */
+    private UploadStream[] receiveUploads(Method method, Object[] arguments, long callId, Consumer<Frame> holder)
+            throws RMIException {
+        Class<?>[] types = method.getParameterTypes();
+        UploadStream[] received = new UploadStream[types.length];
+        for (int index = 0; index < types.length && index < arguments.length; ++index) {
+            if (!UploadStream.isUpload(types[index]) || arguments[index] == null) continue;
+            if (!Boolean.TRUE.equals(arguments[index])) throw new RMIException("Malformed stream argument");
+            received[index] = new UploadStream(holder, callId, index, types[index]);
+        }
+        uploads.computeIfAbsent(holder, h -> new ConcurrentHashMap<Long, UploadStream[]>()).put(callId, received);
+        for (UploadStream upload : received) {
+            if (upload != null) upload.start();
+        }
+        try {
+            for (int index = 0; index < received.length; ++index) {
+                if (received[index] != null) arguments[index] = received[index].argument(types[index]);
+            }
+        } catch (IOException e) {
+            endUploads(received, callId, holder);
+            throw new RMIException("Unable to receive file region", e);
+        }
+        return received;
+    }
+
+    /** Ends the stream arguments of a call that has returned. */
+    private void endUploads(UploadStream[] received, long callId, Consumer<Frame> holder) {
+        Map<Long, UploadStream[]> open = uploads.get(holder);
+        if (open != null) open.remove(callId, received);
+        for (UploadStream upload : received) {
+            if (upload != null) upload.finish();
+        }
+    }
+
+    /** Returns the encoded version of the result of a call of a <code>Versioned</code> method, given by its version method. */
+    private byte[] version(WireCodec.Request call) throws Exception {
+        Long versionId = versions.get(call.methodId);
+        if (versionId == null) throw new RMIException("Method is not versioned");
+        return WireCodec.encodeValue(methods.get(versionId).invoke(call.arguments));
+    }
+
+    /**
+     * Records a connection as holding the result of a request, given its type and encoded request, if results of the method
+     * called are recorded.
+     */
+    private void hold(long methodId, byte type, byte[] request, Consumer<Frame> holder) {
+        if (holder != null && type != Frame.ONEWAY && directory.isRecorded(methodId)) {
+            directory.hold(methodId, request, holder);
+        }
+    }
+
+    /** Records a connection as not holding the result of a request after all, because the call has thrown an exception. */
+    private void unhold(long methodId, byte type, byte[] request, Consumer<Frame> holder) {
+        if (holder != null && type != Frame.ONEWAY && directory.isRecorded(methodId)) {
+            directory.drop(methodId, request, holder);
+        }
+    }
+
+    /**
+     * Removes the results changed by a call of a method, if it is an <code>Invalidates</code> method: memoized results from this
+     * skeleton, as <code>invalidateMemoized</code> does, and cached results from the stubs holding them.
+     */
+    private void changed(long methodId) {
+        long[] changed = directory.changedBy(methodId);
+        if (changed == null) return;
+        for (long id : changed) {
+            MethodInvoker invoker = methods.get(id);
+            if (invoker != null && invoker.isMemoized()) {
+                flights.forget();
+                memos.invalidate(invoker.getMethod());
+            }
+        }
+        directory.changed(methodId);
+    }
+
+    /** Returns the invoker of the method called by a request if the method is <code>Memoized</code>, or <code>null</code>. */
+    private MethodInvoker memoizedInvoker(Frame request) {
+        if (request.type != Frame.REQUEST) return null;
+        try {
+            MethodInvoker invoker = methods.get(WireCodec.peekMethodId(request.payload));
+            return invoker != null && invoker.isMemoized() ? invoker : null;
+        } catch (IOException e) {
+            // Reported when the request is decoded.
+            return null;
+        }
+    }
+
+    /**
+     * Performs the calls of a batch, in order or, if the batch allows it, concurrently.
+     *
+     * <p>
+     * Concurrent calls are offered to the skeleton's worker pool; the calling thread, itself a worker, carries out every call that
+     * no other worker has started, and then waits for the rest. A batch therefore never waits for a worker that it cannot get.
+     */
+    private Frame dispatchBatch(Frame request) {
+        final List<Frame> calls;
+        try {
+            calls = Frame.unpack(request.payload);
+        } catch (IOException e) {
+            return fault(request, new RMIException("Unable to read method call", e));
+        }
+
+        final Frame[] responses = new Frame[calls.size()];
+        WorkerPool workers = skeleton.getWorkers();
+        if ((request.payload[0] & Frame.BATCH_PARALLEL) == 0 || calls.size() < 2 || workers == null) {
+            for (int index = 0; index < responses.length; ++index) {
+                responses[index] = dispatchBatched(calls.get(index));
+            }
+        } else {
+            final AtomicIntegerArray claimed = new AtomicIntegerArray(responses.length);
+            final CountDownLatch done = new CountDownLatch(responses.length);
+            for (int index = 1; index < responses.length; ++index) {
+                final int call = index;
+                workers.offer(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!claimed.compareAndSet(call, 0, 1)) return;
+                        responses[call] = dispatchBatched(calls.get(call));
+                        done.countDown();
+                    }
+                });
+            }
+            for (int index = 0; index < responses.length; ++index) {
+                if (!claimed.compareAndSet(index, 0, 1)) continue;
+                responses[index] = dispatchBatched(calls.get(index));
+                done.countDown();
+            }
+            awaitUninterruptibly(done);
+        }
+
+        List<Frame> answered = new ArrayList<Frame>(responses.length);
+        for (Frame response : responses) {
+            if (response != null) answered.add(response);
+        }
+        return new Frame(Frame.BATCH, request.callId, Frame.pack((byte) 0, answered));
+    }
+
+    /** Performs one call of a batch. Batches may not be nested. */
+    private Frame dispatchBatched(Frame call) {
+        if (call.type != Frame.REQUEST && call.type != Frame.ONEWAY) {
+            return fault(call, new RMIException("Unexpected frame type " + call.type + " in batch"));
+        }
+        return dispatch(call, null);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Performs a call made by a stub in the same JVM, without a request frame.
+     *
+     * <p>
+     * The method is looked up in the remote interface exactly as for a remote call, and errors that prevent the call from being
+     * carried out are likewise reported to the skeleton's <code>service_error</code> method. The arguments are used as given;
+     * the caller is responsible for copying them.
+     *
+     * @param method
+     *            The interface method called on the stub.
+     * @param args
+     *            The arguments of the call.
+     * @return The value returned by the server object.
+     * @throws InvocationTargetException
+     *             If the server object throws an exception, which is the cause.
+     * @throws RMIException
+     *             If the call cannot be carried out.
+     */
+    Object invokeLocal(Method method, Object[] args) throws InvocationTargetException, RMIException {
+        long methodId = WireCodec.methodId(method);
+        MethodInvoker invoker = methods.get(methodId);
+        if (invoker == null) throw reported(new RMIException("Interface not found"));
+        try {
+            if (invoker.isMemoized()) return invokeMemoized(invoker, methodId, args);
+            return flights.invoke(invoker, methodId, args);
+        } catch (InvocationTargetException e) {
+            throw e;
+        } catch (RMIException e) {
+            throw e;
+        } catch (Exception e) {
+            throw reported(new RMIException("Exception thrown in service response.", e));
+        } finally {
+            changed(methodId);
+        }
+    }
+
+    /**
+     * Performs a call of a <code>Memoized</code> method made by a stub in the same JVM, using the same results as remote calls.
+     * A result found is decoded anew, so that the caller receives its own copy.
+     */
+    private Object invokeMemoized(MethodInvoker invoker, long methodId, Object[] args)
+            throws InvocationTargetException, RMIException {
+        byte[] request;
+        try {
+            request = WireCodec.encodeRequest(invoker.getMethod(), args);
+        } catch (Exception e) {
+            throw reported(new RMIException("Unable to read method call", e));
+        }
+        long generation = memos.getGeneration();
+        byte[] cached = memos.get(invoker.getMethod(), request);
+        if (cached != null) {
+            try {
+                return WireCodec.decodeValue(cached);
+            } catch (Exception e) {
+                throw reported(new RMIException("Unable to send method result", e));
+            }
+        }
+
+        Object result;
+        try {
+            result = flights.invoke(invoker, methodId, args);
+        } catch (InvocationTargetException e) {
+            throw e;
+        } catch (Exception e) {
+            throw reported(new RMIException("Exception thrown in service response.", e));
+        }
+        try {
+            memos.put(invoker.getMethod(), request, WireCodec.encodeValue(result), generation);
+        } catch (IOException e) {
+            // The result is returned without being kept; a remote call would have failed to send it.
+        }
+        return result;
+    }
+
+    /**
+     * Removes the memoized result of a call.
+     *
+     * <p>
+     * Calls in progress do not keep their results, which may be older than the removal, and calls starting afterwards do not
+     * wait for them.
+     *
+     * @param method
+     *            The interface method called.
+     * @param args
+     *            The arguments of the call.
+     * @return <code>true</code> if a result was removed.
+     */
+    boolean invalidateMemoized(Method method, Object[] args) {
+        MethodInvoker invoker = methods.get(WireCodec.methodId(method));
+        if (invoker == null || !invoker.isMemoized()) return false;
+        try {
+            byte[] request = WireCodec.encodeRequest(method, args);
+            flights.forget();
+            return memos.invalidate(invoker.getMethod(), request);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Removes every memoized result, as <code>invalidateMemoized</code> removes one. */
+    void invalidateMemoized() {
+        flights.forget();
+        memos.invalidateAll();
+    }
+
+    /** Returns the memoized results of the skeleton's calls. */
+    ResultCache getMemoizedResults() {
+        return memos;
+    }
+
+    /** Returns the record of the results held by stubs that calls of <code>Invalidates</code> methods change. */
+    CacheDirectory getCacheDirectory() {
+        return directory;
+    }
+
+    /**
+     * Handles a <code>DEMAND</code> or <code>CANCEL</code> frame for a stream being sent on the connection on which the frame
+     * arrived, or an <code>UPLOAD</code> frame for a stream argument being received on it. Frames for streams that have already
+     * ended are ignored.
+     *
+     * @param frame
+     *            The frame.
+     * @param holder
+     *            Sends frames to the connection.
+     */
+    void control(Frame frame, Consumer<Frame> holder) {
+        if (frame.type == Frame.UPLOAD) {
+            Map<Long, UploadStream[]> open = uploads.get(holder);
+            UploadStream[] received = open == null ? null : open.get(frame.callId);
+            if (received == null) return;
+            int index = frame.payload.length < 2 ? -1 : frame.payload[1] & 0xff;
+            if (index < 0 || index >= received.length || received[index] == null) {
+                reported(new RMIException("Malformed stream argument"));
+            } else if (!received[index].receive(frame.payload)) {
+                reported(new RMIException("Stream argument overran its window"));
+            }
+            return;
+        }
+        Map<Long, ResultStream> open = streams.get(holder);
+        ResultStream stream = open == null ? null : open.get(frame.callId);
+        if (stream == null) return;
+        if (frame.type == Frame.CANCEL) {
+            open.remove(frame.callId);
+            stream.cancel();
+        } else if (frame.payload.length == 4) {
+            stream.demand(ByteBuffer.wrap(frame.payload).getInt());
+        } else {
+            reported(new RMIException("Malformed demand for stream elements"));
+        }
+    }
+
+    /**
+     * Runs the worker of a stream on the skeleton's worker pool. Streams take their threads from the pool's bound like calls do:
+     * a stream the pool cannot take is ended with an <code>OVERLOADED</code> frame, which fails it on the stub with an
+     * <code>OverloadException</code>, rather than left waiting for a worker.
+     */
+    void produce(ResultStream stream) {
+        WorkerPool workers = skeleton.getWorkers();
+        boolean accepted;
+        try {
+            accepted = workers != null && workers.submit(stream);
+        } catch (RejectedExecutionException e) {
+            accepted = false;
+        }
+        if (!accepted) stream.refuse(overloaded(stream.getCallId()));
+    }
+
+    /** Returns the number of streams being sent that have not ended or been cancelled. */
+    int getOpenStreams() {
+        int count = 0;
+        for (Map<Long, ResultStream> open : streams.values()) {
+            count += open.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code> if streams are being sent on a connection, or stream arguments received on it, given the function
+     * that sends it frames. Such a connection is not idle, even while no call is in progress.
+     */
+    boolean hasStreams(Consumer<Frame> holder) {
+        Map<Long, ResultStream> sending = streams.get(holder);
+        Map<Long, UploadStream[]> receiving = uploads.get(holder);
+        return (sending != null && !sending.isEmpty()) || (receiving != null && !receiving.isEmpty());
+    }
+
+    /** Forgets a stream that has sent its last frame. */
+    void ended(ResultStream stream, Consumer<Frame> holder) {
+        Map<Long, ResultStream> open = streams.get(holder);
+        if (open != null) open.remove(stream.getCallId(), stream);
+    }
+
+    /**
+     * Forgets a connection that has closed, given the function that sent it frames, ends the streams sent on it and fails the
+     * stream arguments received on it.
+     */
+    void release(Consumer<Frame> holder) {
+        directory.release(holder);
+        Map<Long, UploadStream[]> received = uploads.remove(holder);
+        if (received != null) {
+            for (UploadStream[] call : received.values()) {
+                for (UploadStream upload : call) {
+                    if (upload != null) upload.fail(new IOException("connection closed before the end of the stream argument"));
+                }
+            }
+        }
+        Map<Long, ResultStream> open = streams.remove(holder);
+        if (open == null) return;
+        for (ResultStream stream : open.values()) {
+            stream.cancel();
+        }
+    }
+
+    /**
+     * Builds the response to a request refused because the skeleton's worker pool is saturated. A refused one-way request is
+     * reported to the skeleton's <code>service_error</code> method instead.
+     *
+     * @param request
+     *            The refused request frame.
+     * @return An <code>OVERLOADED</code> frame carrying the call identifier of the request, or <code>null</code> for a one-way
+     *         request.
+     */
+    Frame overloaded(Frame request) {
+        if (request.type == Frame.ONEWAY) {
+            reported(new OverloadException("Skeleton for " + myClass.getName() + " is overloaded"));
+            return null;
+        }
+        return overloaded(request.callId);
+    }
+
+    /** Builds an <code>OVERLOADED</code> frame for a call. */
+    private Frame overloaded(long callId) {
+        String message = "Skeleton for " + myClass.getName() + " is overloaded";
+        byte[] payload;
+        try {
+            payload = WireCodec.encodeValue(message);
+        } catch (Exception e) {
+            payload = new byte[0];
+        }
+        return new Frame(Frame.OVERLOADED, callId, payload);
+    }
+
+    private RMIException reported(RMIException error) {
+        skeleton.service_error(error);
+        return error;
+    }
+
+    /**
+     * Reports an error to the skeleton and builds the <code>FAULT</code> frame describing it to the stub, or returns
+     * <code>null</code> for a one-way request.
+     */
+    private Frame fault(Frame request, RMIException error) {
+        if (request.type == Frame.ONEWAY) {
+            skeleton.service_error(error);
+            return null;
+        }
+        return fault(request.callId, error);
+    }
+
+    /** Reports an error to the skeleton and builds the <code>FAULT</code> frame describing it, for a call or a stream. */
+    Frame fault(long callId, RMIException error) {
+        skeleton.service_error(error);
+        byte[] payload;
+        try {
+            payload = WireCodec.encodeValue(error.getMessage());
+        } catch (Exception e) {
+            payload = new byte[0];
+        }
+        return new Frame(Frame.FAULT, callId, payload);
+    }
+}
@@ -0,0 +1,131 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A range of bytes of a file, passed to or returned from a remote method by its contents.
+ *
+ * <p>
+ * A parameter or return type of <code>FileRegion</code> is not serialized. The region's bytes are sent from the file straight to
+ * the connection, with <code>FileChannel.transferTo</code> where the connection is a socket channel, in frames of up to
+ * <code>CHUNK_BYTES</code> bytes that the receiver asks for a window at a time. The receiver writes them to a temporary file and
+ * is given a region covering the whole of that file, which it may read as it likes, for example through <code>map</code>. Memory
+ * use does not depend on the size of the region.
+ *
+ * <p>
+ * A region received as an argument is deleted once the call returns; the server object should move or copy the file if it needs
+ * it for longer. A region received as a result belongs to the caller, who should delete the file when done with it. Regions are
+ * passed as they are, without copying the file, in calls on a skeleton in the same JVM.
+ *
+ * <p>
+ * Regions may only be parameters and return types of remote methods, not parts of other values. Methods taking or returning them
+ * may not be <code>OneWay</code>, <code>Cached</code>, <code>Memoized</code> or <code>Versioned</code>.
+ */
+public final class FileRegion {
+    /** Largest number of bytes of a region sent in one frame. */
+    static final int CHUNK_BYTES = 1 << 20;
+    /** Number of bytes of a region the receiver asks for ahead of writing them. */
+    static final int WINDOW = 8 << 20;
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+
+    /**
+     * Creates a region of a file.
+     *
+     * @param path
+     *            The file.
+     * @param offset
+     *            The position of the first byte of the region.
+     * @param length
+     *            The number of bytes in the region.
+     * @throws NullPointerException
+     *             If <code>path</code> is <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>offset</code> or <code>length</code> is negative.
+     */
+    public FileRegion(Path path, long offset, long length) {
+        if (path == null) throw new NullPointerException("path is null");
+        if (offset < 0 || length < 0) throw new IllegalArgumentException("offset and length must not be negative");
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a region covering the whole of a file, as long as it is now.
+     *
+     * @param path
+     *            The file.
+     * @throws IOException
+     *             If the size of the file cannot be read.
+     */
+    public FileRegion(Path path) throws IOException {
+        this(path, 0, Files.size(path));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Maps the region into memory, read-only.
+     *
+     * @return The mapped bytes.
+     * @throws IOException
+     *             If the file cannot be opened or mapped.
+     * @throws IllegalArgumentException
+     *             If the region is longer than <code>Integer.MAX_VALUE</code> bytes.
+     */
+    public MappedByteBuffer map() throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return file.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+
+    /**
+     * Opens the file for reading the region, checking that the file holds all of it.
+     *
+     * @throws IOException
+     *             If the file cannot be opened or is shorter than the region.
+     */
+    FileChannel open() throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        if (file.size() < offset + length) {
+            file.close();
+            throw new IOException("file region extends past the end of " + path);
+        }
+        return file;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof FileRegion)) return false;
+        FileRegion that = (FileRegion) other;
+        return path.equals(that.path) && offset == that.offset && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * path.hashCode() + Long.hashCode(offset)) + Long.hashCode(length);
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion[" + path + ", offset=" + offset + ", length=" + length + "]";
+    }
+}
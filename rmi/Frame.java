@@ -0,0 +1,273 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit of transmission between stubs and skeletons.
+ *
+ * <p>
+ * Every message exchanged over a connection is a frame. A frame consists of a four-byte length, counting the bytes that follow
+ * it, a one-byte frame type, an eight-byte call identifier, and a payload. The call identifier is chosen by the stub for each
+ * request and copied by the skeleton into the response, which allows many calls to be in flight on one connection at once and
+ * responses to be sent in any order.
+ */
+class Frame {
+    /** Request from a stub: the payload is the method identifier and arguments, encoded by <code>WireCodec</code>. */
+    static final byte REQUEST = 1;
+    /** Normal completion: the payload is the encoded return value. */
+    static final byte RESULT = 2;
+    /** The remote method threw an exception: the payload is the encoded exception. */
+    static final byte THROWN = 3;
+    /** The call could not be carried out by the skeleton: the payload is an encoded error message. */
+    static final byte FAULT = 4;
+    /** The skeleton was too busy to accept the call, and did not carry it out: the payload is an encoded error message. */
+    static final byte OVERLOADED = 5;
+    /** Request for a one-way method, to which the skeleton sends no response: the payload is as for <code>REQUEST</code>. */
+    static final byte ONEWAY = 6;
+    /**
+     * Several calls sent at once, or the responses to them: the payload is a flags byte followed by the <code>REQUEST</code> or
+     * <code>ONEWAY</code> frames of the calls, or by the frames answering them, packed by <code>pack</code>. The call identifier
+     * of each packed frame is the position of the call in the batch.
+     */
+    static final byte BATCH = 7;
+    /**
+     * Sent by a skeleton, unasked, to remove results from a stub's cache: the payload is a flags byte followed by
+     * <code>REQUEST</code> frames, packed by <code>pack</code>, each carrying the method identifier as its call identifier and
+     * the encoded request whose result is removed. The call identifier is the time of the change, in milliseconds.
+     */
+    static final byte INVALIDATE = 8;
+    /**
+     * Request for a <code>Versioned</code> method: the payload is the tag of the result the stub retains, or an empty tag if it
+     * retains none, followed by the request as for <code>REQUEST</code>, joined by <code>withTag</code>.
+     */
+    static final byte CONDITIONAL = 9;
+    /** Normal completion of a <code>CONDITIONAL</code> request: the payload is the tag joined to the encoded return value. */
+    static final byte TAGGED = 10;
+    /** Answer to a <code>CONDITIONAL</code> request whose tag is current: the stub's retained result stands. No payload. */
+    static final byte NOT_MODIFIED = 11;
+    /**
+     * Normal completion of a call returning a stream: the elements follow in <code>ELEMENTS</code> frames carrying the call
+     * identifier of the request, as the stub asks for them. No payload.
+     */
+    static final byte STREAM = 12;
+    /**
+     * Sent by a stub to ask for more elements of a stream: the payload is the four-byte number of further elements wanted. Also
+     * sent by a skeleton to ask for more bytes of a stream argument: the payload is then the one-byte position of the argument
+     * followed by the four-byte number of further bytes wanted.
+     */
+    static final byte DEMAND = 13;
+    /**
+     * Elements of a stream: the payload is a flags byte followed, for each element, by the four-byte length of the element and
+     * the element encoded by <code>WireCodec</code>. A stream that fails ends with a <code>THROWN</code> or <code>FAULT</code>
+     * frame instead.
+     */
+    static final byte ELEMENTS = 14;
+    /** Sent by a stub to end a stream whose remaining elements it does not want. No payload. */
+    static final byte CANCEL = 15;
+    /**
+     * Bytes of a stream argument, sent by a stub after the request as the skeleton asks for them: the payload is a flags byte,
+     * the one-byte position of the argument, and the bytes.
+     */
+    static final byte UPLOAD = 16;
+    /**
+     * Bytes of a <code>FileRegion</code> returned by a call, sent by a skeleton after a <code>STREAM</code> frame as the stub
+     * asks for them: the payload is a flags byte followed by the bytes. The stub asks for bytes with <code>DEMAND</code> frames
+     * as for elements.
+     */
+    static final byte REGION = 17;
+
+    /** Flag of a <code>BATCH</code> request whose calls may be carried out concurrently. */
+    static final byte BATCH_PARALLEL = 1;
+    /** Flag of the <code>ELEMENTS</code>, <code>UPLOAD</code> or <code>REGION</code> frame that ends a stream. */
+    static final byte STREAM_END = 1;
+    /** Flag of the <code>UPLOAD</code> frame that ends a stream argument the stub could not read to its end. */
+    static final byte UPLOAD_FAILED = 2;
+
+    /** Number of bytes following the length field that are not payload. */
+    static final int HEADER_SIZE = 9;
+    /** Largest frame accepted from the network. */
+    static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    final byte type;
+    final long callId;
+    final byte[] payload;
+
+    Frame(byte type, long callId, byte[] payload) {
+        this.type = type;
+        this.callId = callId;
+        this.payload = payload;
+    }
+
+    /**
+     * Writes the frame to the given stream. The stream is not flushed.
+     *
+     * @param out
+     *            The stream to which the frame is written.
+     * @throws IOException
+     *             If the frame cannot be written.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(HEADER_SIZE + payload.length);
+        out.writeByte(type);
+        out.writeLong(callId);
+        out.write(payload);
+    }
+
+    /**
+     * Reads one frame from the given stream.
+     *
+     * @param in
+     *            The stream from which the frame is read.
+     * @return The frame read.
+     * @throws java.io.EOFException
+     *             If the stream ends before or within the frame.
+     * @throws IOException
+     *             If the frame cannot be read or is malformed.
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < HEADER_SIZE || length > MAX_LENGTH) throw new IOException("invalid frame length " + length);
+        byte type = in.readByte();
+        long callId = in.readLong();
+        byte[] payload = new byte[length - HEADER_SIZE];
+        in.readFully(payload);
+        return new Frame(type, callId, payload);
+    }
+
+    /**
+     * Encodes the frame, including its length field, into a buffer ready to be written to a channel.
+     *
+     * @return A buffer positioned at the start of the encoded frame.
+     */
+    ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + HEADER_SIZE + payload.length);
+        buffer.putInt(HEADER_SIZE + payload.length);
+        buffer.put(type);
+        buffer.putLong(callId);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes one frame from a buffer. The buffer must be positioned at the length field and contain the whole frame; it is left
+     * positioned after the frame.
+     *
+     * @param buffer
+     *            The buffer holding the frame.
+     * @return The frame decoded.
+     * @throws IOException
+     *             If the frame is malformed.
+     */
+    static Frame decode(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < HEADER_SIZE || length > MAX_LENGTH) throw new IOException("invalid frame length " + length);
+        byte type = buffer.get();
+        long callId = buffer.getLong();
+        byte[] payload = new byte[length - HEADER_SIZE];
+        buffer.get(payload);
+        return new Frame(type, callId, payload);
+    }
+
+    /**
+     * Packs frames into the payload of a <code>BATCH</code> or <code>INVALIDATE</code> frame.
+     *
+     * @param flags
+     *            The flags of the batch.
+     * @param frames
+     *            The frames to pack.
+     * @return The payload.
+     */
+    static byte[] pack(byte flags, List<Frame> frames) {
+        int length = 1;
+        for (Frame frame : frames) {
+            length += 4 + HEADER_SIZE + frame.payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(flags);
+        for (Frame frame : frames) {
+            buffer.putInt(HEADER_SIZE + frame.payload.length);
+            buffer.put(frame.type);
+            buffer.putLong(frame.callId);
+            buffer.put(frame.payload);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Unpacks the frames in the payload of a <code>BATCH</code> or <code>INVALIDATE</code> frame.
+     *
+     * @param payload
+     *            The payload, as built by <code>pack</code>.
+     * @return The frames, in the order in which they were packed.
+     * @throws IOException
+     *             If the payload is malformed.
+     */
+    static List<Frame> unpack(byte[] payload) throws IOException {
+        if (payload.length == 0) throw new IOException("empty batch");
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 1, payload.length - 1);
+        List<Frame> frames = new ArrayList<Frame>();
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 4 || buffer.remaining() - 4 < buffer.getInt(buffer.position())) {
+                throw new IOException("truncated frame in batch");
+            }
+            frames.add(decode(buffer));
+        }
+        return frames;
+    }
+
+    /** Joins a version tag and the rest of a payload: the payload is the four-byte length of the tag, the tag, and the rest. */
+    static byte[] withTag(byte[] tag, byte[] rest) {
+        return ByteBuffer.allocate(4 + tag.length + rest.length).putInt(tag.length).put(tag).put(rest).array();
+    }
+
+    /** Returns the version tag of a payload built by <code>withTag</code>. */
+    static byte[] tagOf(byte[] payload) throws IOException {
+        byte[] tag = new byte[tagLength(payload)];
+        System.arraycopy(payload, 4, tag, 0, tag.length);
+        return tag;
+    }
+
+    /** Returns the rest of a payload built by <code>withTag</code>, following the tag. */
+    static byte[] withoutTag(byte[] payload) throws IOException {
+        int start = 4 + tagLength(payload);
+        byte[] rest = new byte[payload.length - start];
+        System.arraycopy(payload, start, rest, 0, rest.length);
+        return rest;
+    }
+
+    private static int tagLength(byte[] payload) throws IOException {
+        if (payload.length < 4) throw new IOException("truncated version tag");
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > payload.length - 4) throw new IOException("truncated version tag");
+        return length;
+    }
+
+    /** Serializes an object, which may be <code>null</code>, with Java serialization. */
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Deserializes an object serialized by <code>serialize</code>. */
+    static Object deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
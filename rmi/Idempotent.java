@@ -0,0 +1,32 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface as idempotent.
+
+    <p>
+    An idempotent method has no effect beyond its result, and returns the
+    same result for equal arguments while a call is in progress. When
+    several calls of such a method with equal arguments are in progress on
+    a skeleton at once, the skeleton calls the server object only for the
+    first, and gives its result, or the exception it throws, to all of them.
+    Arguments are compared with <code>equals</code>, and arrays by their
+    contents. Calls are only combined while they overlap: a call arriving
+    after the server object has returned calls it again.
+
+    <p>
+    Callers of a combined call share the result object on the skeleton, but
+    each receives its own copy, as for any other call. Methods returning or
+    taking streams cannot be idempotent, since a stream cannot be shared
+    between callers: an interface marking one is not a remote interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent
+{
+}
@@ -0,0 +1,43 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface that changes the results of
+    <code>Cached</code> methods.
+
+    <p>
+    The value names the cached methods of the same interface whose results
+    the method may change; a name applies to every cached method of that
+    name. Results of the named methods are then kept coherent rather than
+    only expiring: the skeleton records which stub connections have been
+    sent which results of them, and each time a marked method returns or
+    throws on the server, whoever called it, the skeleton sends those
+    connections a message removing the results from their caches. Other
+    stubs may see the old result for as long as the message takes to reach
+    them; the delay is counted by <code>Stub.cache</code>. The caller need
+    not wait for the message, which may travel over another of its
+    connections: a stub drops the results of the named methods from its own
+    cache as soon as a call of the marked method is answered, so that the
+    caller never sees a result older than its own change. One-way calls are
+    not answered, and have no such guarantee. If a named method is also
+    <code>Memoized</code>, the skeleton's own results of it are removed as
+    well, and memoized calls in progress do not keep their results.
+
+    <p>
+    A stub also drops the results of the named methods when a connection
+    to the skeleton closes, since changes made meanwhile would not reach it.
+    An interface naming methods that are not cached, or that it does not
+    declare, is not a remote interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Invalidates
+{
+    /** Names of the cached methods whose results the method changes. */
+    String[] value();
+}
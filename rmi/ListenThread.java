@@ -1,19 +1,29 @@
 package rmi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.InetSocketAddress;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Arrays;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 
-public class ListenThread<T> implements Runnable {
+public class ListenThread<T> implements Runnable, Listener {
 
    	public volatile boolean runState;//true indicates that it starts acceptting TCP requests
 	private ServerSocket serverSocket;
@@ -22,23 +32,30 @@ public class ListenThread<T> implements Runnable {
 	private T server;
 	private Class<T> myClass;
 	private Skeleton skeleton;
-	public ListenThread(Skeleton skeleton, ServerSocket svSocket, T server, Class<T> myClass) throws RMIException {
+	private Dispatcher<T> dispatcher;
+	private WorkerPool workers;
+	private ThreadFactory connectionThreads;
+	private TransportOptions options;
+	private final Set<CommunicationThread> connections = new HashSet<CommunicationThread>();
+	public ListenThread(Skeleton skeleton, ServerSocket svSocket, T server, Class<T> myClass, WorkerPool workers,
+	                    ThreadFactory connectionThreads, TransportOptions options) throws RMIException {
 		serverSocket = svSocket;
 		runState = true;
 		this.server = server;
 		this.skeleton = skeleton;
 		this.myClass = myClass;
+		this.dispatcher = skeleton.getDispatcher();
+		this.workers = workers;
+		this.connectionThreads = connectionThreads;
+		this.options = options;
 	}
 	
 	@Override
-	public synchronized void run() {
-		// TODO Auto-generated method stub
+	public void run() {
 		while(runState){
 			try{
-				clientSockHandler = serverSocket.accept();
-//    				System.out.println("Skeleton accept one client connection:"+  clientSockHandler.getRemoteSocketAddress().toString() + ":" + clientSockHandler.getPort());
-				CommunicationThread serverHandler = new CommunicationThread(skeleton, clientSockHandler, server, myClass);
-				serverHandler.start();
+				CommunicationThread serverHandler = acceptConnection();
+				if(serverHandler != null) serverHandler.start();
 			}catch(IOException e){
 //    				System.out.println("***asdaexception");
 				if(runState) skeleton.listen_error(e);
@@ -46,6 +63,26 @@ public class ListenThread<T> implements Runnable {
 		}
 	}
 	
+	/** Waits for the next stub to connect. Returns the connection, not yet started, or <code>null</code> if the connection
+	    attempt was abandoned and the listener should wait for another. */
+	protected CommunicationThread acceptConnection() throws IOException {
+		clientSockHandler = serverSocket.accept();
+		try{
+			options.apply(clientSockHandler);
+		}catch(IOException e){
+			clientSockHandler.close();
+			throw e;
+		}
+//		System.out.println("Skeleton accept one client connection:"+  clientSockHandler.getRemoteSocketAddress().toString() + ":" + clientSockHandler.getPort());
+		return new CommunicationThread(clientSockHandler);
+	}
+
+	/** Closes the socket on which connections are accepted, making <code>acceptConnection</code> fail. */
+	protected void closeListeningSocket() throws IOException {
+		if (!serverSocket.isClosed()) serverSocket.close();
+	}
+
+	@Override
 	public synchronized void start(){
 		if(thread == null){
 			thread = new Thread(this);
@@ -55,20 +92,25 @@ public class ListenThread<T> implements Runnable {
 		}
 	}
 	
-	public synchronized void stop() {
+	@Override
+	public void stop() {
 		runState = false;
 		try {
-			serverSocket.close();
+			closeListeningSocket();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		try {
-			thread.join();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			skeleton.listen_error(e);
 		}
+		closeConnections();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return thread != null && thread.isAlive();
+	}
+
+	@Override
+	public void join() throws InterruptedException {
+		thread.join();
 	}
 	
 	public Thread getThread(){
@@ -89,68 +131,233 @@ public class ListenThread<T> implements Runnable {
 	}
 
 
-    public class CommunicationThread<T> implements Runnable{
-        private Socket clientSocket;
+    /** Closes every connection accepted by this listener. Idle connections are closed immediately; a connection in the middle
+        of a call is closed as soon as its response has been sent. */
+    public void closeConnections(){
+        List<CommunicationThread> open;
+        synchronized(connections){
+            open = new ArrayList<CommunicationThread>(connections);
+        }
+        for(CommunicationThread connection : open){
+            connection.shutdown();
+        }
+    }
+
+    @Override
+    public int getConnectionCount(){
+        synchronized(connections){
+            return connections.size();
+        }
+    }
+
+    /** Services one client connection. The connection thread reads request frames for as long as the stub keeps the connection
+        open, and hands each request to the skeleton's executor, so that calls from many stub threads can be in progress on one
+        connection at once. Responses are written by the worker threads as the calls complete, in any order. A request refused by
+        a saturated worker pool is answered at once from this thread. Frames asking for elements of a stream, or ending one, and
+        frames carrying the bytes of stream arguments, are passed to the dispatcher from this thread too. */
+    public class CommunicationThread implements Runnable{
+        private Closeable clientSocket;
+        private InputStream linkIn;
+        private OutputStream linkOut;
         private Thread thread;
-        private T server;
-        private Skeleton skeleton;
-        private Class<T> myClass;
-        public CommunicationThread(Skeleton skeleton, Socket cSocketHandler, T server, Class<T> myClass){
+        private DataOutputStream out;
+        /** Serializes response writes from the worker threads. A lock is used rather than a monitor so that virtual worker
+            threads blocked writing to the socket do not pin their carrier threads. */
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /** Guards <code>inFlight</code> and <code>closing</code>. */
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private int inFlight = 0;
+        private boolean closing = false;
+        /** Sends frames to the stub unasked, to remove results from its cache. */
+        private final Consumer<Frame> holder = this::send;
+        public CommunicationThread(Socket cSocketHandler){
             this.clientSocket = cSocketHandler;
-            this.server = server;
-            this.skeleton = skeleton;
-            this.myClass = myClass;
+        }
+
+        /** Creates a connection over a link other than a socket, given its streams. Closing the link closes the connection. */
+        public CommunicationThread(InputStream in, OutputStream out, Closeable link){
+            this.clientSocket = link;
+            this.linkIn = in;
+            this.linkOut = out;
         }
         
         @Override
         public void run() {
-            // TODO Auto-generated method stub
-            ObjectInputStream in;
-            ObjectOutputStream out;
+            DataInputStream in;
+            int received = 0;
             
             try{
-                if(clientSocket != null && !clientSocket.isClosed()){
-                    out = new ObjectOutputStream(clientSocket.getOutputStream());
-                    out.flush();
-                    in = new ObjectInputStream(clientSocket.getInputStream());            
-                    
-                    SerializedMethod method = (SerializedMethod) in.readObject();
-                    Object retObj = null;
-                    try {
-                        Method mthd = myClass.getMethod(method.name, method.paramTypes);
-                        mthd.setAccessible(true);
-                        retObj = mthd.invoke(server, method.parameters);
-                    } catch (Exception e) {
-                        if(e instanceof NoSuchMethodException){
-                            out.writeObject(e);
-                            skeleton.service_error(new RMIException("Interface not found"));
-                        }else if (e instanceof EOFException || e instanceof SocketException) {
-                        } else if(e instanceof InvocationTargetException){
-                            out.writeObject(e);
-                        }  else{
-                            skeleton.service_error(new RMIException("Exception thrown in service response."));
+                if(clientSocket instanceof Socket){
+                    linkIn = ((Socket) clientSocket).getInputStream();
+                    linkOut = ((Socket) clientSocket).getOutputStream();
+                }
+                in = new DataInputStream(new BufferedInputStream(linkIn));
+                out = new DataOutputStream(new BufferedOutputStream(linkOut));
+                
+                while(true){
+                    Frame request;
+                    if(options.getReadTimeout() > 0 && !awaitRequest(in)) break;
+                    try{
+                        request = Frame.read(in);
+                    }catch(IOException e){
+                        // The stub closing a connection between calls is the normal end of a persistent connection.
+                        if(received > 0 && (e instanceof EOFException || e instanceof SocketException)) break;
+                        throw e;
+                    }
+                    received++;
+                    if(request.type == Frame.DEMAND || request.type == Frame.CANCEL || request.type == Frame.UPLOAD){
+                        dispatcher.control(request, holder);
+                        continue;
+                    }
+                    if(request.type != Frame.REQUEST && request.type != Frame.ONEWAY && request.type != Frame.BATCH
+                       && request.type != Frame.CONDITIONAL){
+                        skeleton.service_error(new RMIException("Unexpected frame type " + request.type));
+                        continue;
+                    }
+                    if(!beginCall()) break;
+                    try{
+                        if(!workers.submit(new Call(request))){
+                            send(dispatcher.overloaded(request));
+                            endCall();
                         }
+                    }catch(RejectedExecutionException e){
+                        endCall();
+                        break;
                     }
-                    out.writeObject(retObj);
-                    in.close();
-                    out.close();
-                    clientSocket.close();
                 }
-            } catch (ClassNotFoundException e){
-                skeleton.service_error(new RMIException(e.getCause()));
-            } catch (SecurityException e) {
-                skeleton.service_error(new RMIException(e.getCause()));
             } catch(IOException e) {
-                skeleton.service_error(new RMIException(e.getCause()));
+                if(!isClosing()) skeleton.service_error(new RMIException(e));
+            } finally {
+                shutdown();
             }
         }
         
+        /** Waits for the first byte of the next request, without consuming it. Returns <code>false</code> if the read timeout
+            expires while no call is in progress and no stream is open, so that the idle connection is closed; with calls in
+            progress, or a stream the stub is still consuming or sending, the connection is not idle, and waiting continues. The
+            timeout only applies while waiting: it is lifted before the frame is read, so that a request arriving slowly is not
+            cut off part way through. */
+        private boolean awaitRequest(DataInputStream in) throws IOException{
+            Socket socket = clientSocket instanceof Socket ? (Socket) clientSocket : null;
+            if(socket != null) socket.setSoTimeout(options.getReadTimeout());
+            while(true){
+                in.mark(1);
+                try{
+                    in.read();
+                    in.reset();
+                    if(socket != null) socket.setSoTimeout(0);
+                    return true;
+                }catch(SocketTimeoutException e){
+                    stateLock.lock();
+                    try{
+                        if(inFlight == 0 && !dispatcher.hasStreams(holder)) return false;
+                    }finally{
+                        stateLock.unlock();
+                    }
+                }
+            }
+        }
+
         public void start(){
             if(thread == null){
-                thread = new Thread(this);
+                synchronized(connections){
+                    connections.add(this);
+                }
+                thread = connectionThreads.newThread(this);
                 thread.start();
             }
         }
+
+        /** Asks the connection to close. No further requests are accepted; the socket is closed now if no call is in progress,
+            and otherwise once the responses to the calls in progress have been sent. */
+        public void shutdown(){
+            stateLock.lock();
+            try{
+                closing = true;
+                if(inFlight == 0) close();
+            }finally{
+                stateLock.unlock();
+            }
+        }
+
+        private boolean isClosing(){
+            stateLock.lock();
+            try{
+                return closing;
+            }finally{
+                stateLock.unlock();
+            }
+        }
+
+        private boolean beginCall(){
+            stateLock.lock();
+            try{
+                if(closing) return false;
+                inFlight++;
+                return true;
+            }finally{
+                stateLock.unlock();
+            }
+        }
+
+        private void endCall(){
+            stateLock.lock();
+            try{
+                inFlight--;
+                if(closing && inFlight == 0) close();
+            }finally{
+                stateLock.unlock();
+            }
+        }
+
+        /** Sends a response, if there is one: one-way requests have none. A connection carrying a stream, either way, stops
+         *  delaying small segments, since frames then flow both ways without waiting for each other. */
+        private void send(Frame response){
+            if(response == null) return;
+            try{
+                if((response.type == Frame.STREAM || response.type == Frame.DEMAND) && clientSocket instanceof Socket){
+                    ((Socket) clientSocket).setTcpNoDelay(true);
+                }
+                writeLock.lock();
+                try{
+                    response.write(out);
+                    out.flush();
+                }finally{
+                    writeLock.unlock();
+                }
+            }catch(IOException e){
+                if(!isClosing()) skeleton.service_error(new RMIException("Unable to send response", e));
+            }
+        }
+
+        private void close(){
+            try{
+                clientSocket.close();
+            }catch(IOException e){
+            }
+            synchronized(connections){
+                connections.remove(this);
+            }
+            dispatcher.release(holder);
+        }
+
+        /** One call received on this connection, run by the skeleton's executor. */
+        private class Call implements Runnable{
+            private final Frame request;
+
+            Call(Frame request){
+                this.request = request;
+            }
+
+            @Override
+            public void run(){
+                try{
+                    send(dispatcher.dispatch(request, holder));
+                }finally{
+                    endCall();
+                }
+            }
+        }
     }
 
 }
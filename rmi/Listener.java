@@ -0,0 +1,33 @@
+package rmi;
+
+/**
+ * Server side of a skeleton transport.
+ *
+ * <p>
+ * A listener accepts connections from stubs, reads request frames from them, hands the requests to the skeleton's executor and
+ * sends back the responses. The skeleton creates a new listener each time it is started.
+ */
+interface Listener {
+    /** Starts the listening thread. */
+    void start();
+
+    /**
+     * Stops accepting connections and asks every open connection to close. Connections with calls in progress close once the
+     * responses to those calls have been sent.
+     */
+    void stop();
+
+    /** Returns <code>true</code> if the listening thread has been started and has not yet exited. */
+    boolean isRunning();
+
+    /**
+     * Waits for the listening thread to exit.
+     *
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting.
+     */
+    void join() throws InterruptedException;
+
+    /** Returns the number of client connections currently open. */
+    int getConnectionCount();
+}
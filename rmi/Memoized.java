@@ -0,0 +1,49 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface whose results skeletons memoize.
+
+    <p>
+    A memoized method must be pure, and is usually expensive: the skeleton
+    keeps the result of each call and answers later calls of the method
+    with equal arguments from it, without calling the server object.
+    Arguments are equal if the stubs encoded them to the same bytes. The
+    result is kept in its encoded form, so that answering a call from it
+    needs neither decoding the arguments nor encoding the result again.
+    Exceptions are not kept. Concurrent calls with equal arguments are
+    also combined, as for <code>Idempotent</code> methods, so that the
+    server object computes each result once.
+
+    <p>
+    Each skeleton keeps its own results, with separate entries for each
+    memoized method, which expire <code>ttl</code> milliseconds after they
+    were stored. Once a method has <code>maxEntries</code> entries, or its
+    entries take more than <code>maxBytes</code> bytes, the least recently
+    used entries are evicted. Entries may also be removed with
+    <code>Skeleton.invalidateMemoized</code>.
+
+    <p>
+    A memoized method may not be <code>OneWay</code>, and must return a
+    value; an interface with a memoized method that does not, or with limits
+    that are not positive, is not a remote interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Memoized
+{
+    /** Time, in milliseconds, for which a result is kept. */
+    long ttl() default 60000;
+
+    /** Largest number of results kept for the method. */
+    int maxEntries() default 1024;
+
+    /** Largest total size, in bytes, of the encoded results kept for the
+        method and of the encoded arguments that identify them. */
+    long maxBytes() default 1 << 20;
+}
@@ -0,0 +1,174 @@
+package rmi;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls one method of a server object.
+ *
+ * <p>
+ * Where possible, the invoker calls the method through a class spun by <code>LambdaMetafactory</code>, which implements one of the
+ * functional interfaces below with a direct call to the method, casting and unboxing the arguments and boxing the result. This is
+ * possible for methods with a return value and at most four parameters, declared by an interface accessible from this package.
+ * Other methods are called through a method handle adapted to take the arguments as an array and return the result as an object,
+ * or <code>null</code> for a <code>void</code> method. Unlike <code>Method.invoke</code>, neither performs access checks on each
+ * call or wraps the exceptions thrown by the server object.
+ *
+ * <p>
+ * Because neither distinguishes the exceptions of the server object from errors in its own arguments, the arguments are checked
+ * against the method's parameter types before the call, and exceptions from the call are all attributed to the server object. The
+ * argument for a primitive parameter must be an instance of exactly the parameter's wrapper class, as the arguments decoded from a
+ * stub's request always are.
+ */
+final class MethodInvoker {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    /** Largest number of parameters of a method called through a spun class. */
+    private static final int MAX_SPUN_PARAMETERS = 4;
+
+    interface Call0 {
+        Object call(Object target) throws Throwable;
+    }
+
+    interface Call1 {
+        Object call(Object target, Object a0) throws Throwable;
+    }
+
+    interface Call2 {
+        Object call(Object target, Object a0, Object a1) throws Throwable;
+    }
+
+    interface Call3 {
+        Object call(Object target, Object a0, Object a1, Object a2) throws Throwable;
+    }
+
+    interface Call4 {
+        Object call(Object target, Object a0, Object a1, Object a2, Object a3) throws Throwable;
+    }
+
+    private static final Class<?>[] CALL_INTERFACES = { Call0.class, Call1.class, Call2.class, Call3.class, Call4.class };
+
+    private final Method method;
+    private final Object server;
+    /** Instance of the spun class implementing the <code>Call</code> interface for the method's arity, or <code>null</code>. */
+    private final Object spun;
+    /** Handle used when there is no spun class. */
+    private final MethodHandle handle;
+    /** Parameter types, with primitive types replaced by their wrapper classes. */
+    private final Class<?>[] parameterTypes;
+    private final boolean[] primitive;
+    private final boolean idempotent;
+    private final boolean memoized;
+
+    /**
+     * Creates the invoker of a method.
+     *
+     * @param method
+     *            The method, which must be accessible.
+     * @param server
+     *            The object on which the method is called.
+     * @throws IllegalAccessException
+     *             If the method is not accessible.
+     */
+    MethodInvoker(Method method, Object server) throws IllegalAccessException {
+        this.method = method;
+        this.server = server;
+        this.memoized = method.isAnnotationPresent(Memoized.class);
+        this.idempotent = memoized || method.isAnnotationPresent(Idempotent.class);
+        Class<?>[] types = method.getParameterTypes();
+        parameterTypes = new Class<?>[types.length];
+        primitive = new boolean[types.length];
+        for (int index = 0; index < types.length; ++index) {
+            primitive[index] = types[index].isPrimitive();
+            parameterTypes[index] = MethodType.methodType(types[index]).wrap().returnType();
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle direct = lookup.unreflect(method);
+        spun = spin(lookup, direct, method);
+        handle = spun != null ? null : direct.bindTo(server).asSpreader(Object[].class, types.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /** Spins a class calling the method, returning an instance of it, or <code>null</code> if the method cannot be called so. */
+    private static Object spin(MethodHandles.Lookup lookup, MethodHandle direct, Method method) {
+        int arity = method.getParameterCount();
+        if (arity > MAX_SPUN_PARAMETERS || method.getReturnType() == void.class) return null;
+        Class<?> callInterface = CALL_INTERFACES[arity];
+
+        Class<?>[] erased = new Class<?>[arity + 1];
+        Class<?>[] instantiated = new Class<?>[arity + 1];
+        erased[0] = Object.class;
+        instantiated[0] = method.getDeclaringClass();
+        for (int index = 0; index < arity; ++index) {
+            erased[index + 1] = Object.class;
+            instantiated[index + 1] = MethodType.methodType(method.getParameterTypes()[index]).wrap().returnType();
+        }
+        Class<?> result = MethodType.methodType(method.getReturnType()).wrap().returnType();
+
+        try {
+            return LambdaMetafactory.metafactory(lookup, "call", MethodType.methodType(callInterface),
+                                                 MethodType.methodType(Object.class, erased), direct,
+                                                 MethodType.methodType(result, instantiated)).getTarget().invoke();
+        } catch (Throwable t) {
+            // Typically a method of an interface that the spun class, in this package, would not be allowed to call.
+            return null;
+        }
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /** Returns <code>true</code> if the method is marked <code>Idempotent</code> or <code>Memoized</code>. */
+    boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /** Returns <code>true</code> if the method is marked <code>Memoized</code>. */
+    boolean isMemoized() {
+        return memoized;
+    }
+
+    /**
+     * Calls the method.
+     *
+     * @param args
+     *            The arguments, or <code>null</code> if the method takes none.
+     * @return The value returned by the method, boxed if primitive, or <code>null</code> if the method is <code>void</code>.
+     * @throws IllegalArgumentException
+     *             If the arguments do not match the method's parameters. The method is not called in this case.
+     * @throws InvocationTargetException
+     *             If the method throws an exception, which is the cause.
+     */
+    Object invoke(Object[] args) throws InvocationTargetException {
+        if (args == null) args = NO_ARGUMENTS;
+        if (args.length != parameterTypes.length) throw new IllegalArgumentException("wrong number of arguments");
+        for (int index = 0; index < args.length; ++index) {
+            Object arg = args[index];
+            if (arg == null ? primitive[index] : !parameterTypes[index].isInstance(arg)) {
+                throw new IllegalArgumentException("argument type mismatch");
+            }
+        }
+        try {
+            if (spun == null) return (Object) handle.invokeExact(args);
+            switch (args.length) {
+            case 0:
+                return ((Call0) spun).call(server);
+            case 1:
+                return ((Call1) spun).call(server, args[0]);
+            case 2:
+                return ((Call2) spun).call(server, args[0], args[1]);
+            case 3:
+                return ((Call3) spun).call(server, args[0], args[1], args[2]);
+            default:
+                return ((Call4) spun).call(server, args[0], args[1], args[2], args[3]);
+            }
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface as one-way.
+
+    <p>
+    A call to a one-way method through a stub returns as soon as the request
+    has been written to the connection, without waiting for the skeleton. The
+    skeleton carries out the call but sends no response: exceptions thrown by
+    the server object, and errors that prevent the call from being carried
+    out, are reported only to the skeleton's <code>service_error</code>
+    method. The stub may still throw <code>RMIException</code> if the request
+    cannot be sent. Delivery is not confirmed, so a request written to a
+    connection that the skeleton is closing may be lost.
+
+    <p>
+    One-way methods must return <code>void</code>; an interface with a
+    one-way method returning a value is not a remote interface. A call made
+    through a stub created from a running skeleton in the same JVM is carried
+    out on the calling thread, as any other call on such a stub is, but
+    exceptions it throws are likewise reported to the skeleton.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OneWay
+{
+}
@@ -0,0 +1,14 @@
+package rmi;
+
+/** Thrown by a stub when the skeleton refused a call because all of its worker threads
+    were busy and its queue of waiting calls was full. The call was not carried out. */
+public class OverloadException extends RMIException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Creates an <code>OverloadException</code> with the given message string. */
+    public OverloadException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,156 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stub side of a <code>FileRegion</code> returned by a remote method: receives its bytes into a temporary file.
+ *
+ * <p>
+ * The skeleton answers the call with a <code>STREAM</code> frame and then sends the bytes in <code>REGION</code> frames, as the
+ * stub asks for them with <code>DEMAND</code> frames counting bytes. The receiver first asks for <code>FileRegion.WINDOW</code>
+ * bytes and, each time the calling thread has written half that many to the file, for as many again, so no more than a window is
+ * held in memory, however long the region. The reader thread only queues the frames; the calling thread writes them.
+ */
+class RegionReceiver {
+    private final Connection connection;
+    private final long callId;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+    /** Whether the last bytes have been received. */
+    private boolean ended = false;
+    /** Exception ending the region, if any. */
+    private Throwable failure = null;
+
+    /**
+     * Starts receiving a region, asking the skeleton for the first window of bytes.
+     *
+     * @param connection
+     *            The connection that carried the call returning the region.
+     * @param callId
+     *            The call identifier of the call.
+     * @throws IOException
+     *             If the skeleton cannot be asked for bytes.
+     */
+    RegionReceiver(Connection connection, long callId) throws IOException {
+        this.connection = connection;
+        this.callId = callId;
+        connection.openStream(callId, this::receive);
+        demand(FileRegion.WINDOW);
+    }
+
+    /** Handles a frame of the region, or the closing of the connection, on the connection's reader thread. */
+    private void receive(Frame frame) {
+        lock.lock();
+        try {
+            if (frame == null) {
+                failure = new RMIException("connection closed before the end of the file region");
+            } else if (frame.type == Frame.REGION && frame.payload.length > 0) {
+                chunks.add(frame.payload);
+                if ((frame.payload[0] & Frame.STREAM_END) != 0) ended = true;
+            } else {
+                try {
+                    ClientHandler.decodeResponse(frame);
+                    failure = new RMIException("unexpected frame type " + frame.type + " in file region");
+                } catch (Throwable thrown) {
+                    failure = thrown;
+                }
+            }
+            if (ended || failure != null) connection.closeStream(callId);
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the bytes of the region to a temporary file as they arrive.
+     *
+     * @return A region covering the whole of the file, which belongs to the caller.
+     * @throws Throwable
+     *             The exception thrown by the server object, or an <code>RMIException</code> if the region cannot be received or
+     *             written. The temporary file is then deleted.
+     */
+    FileRegion await() throws Throwable {
+        Path temporary;
+        try {
+            temporary = Files.createTempFile("rmi-region", null);
+        } catch (IOException e) {
+            cancel();
+            throw new RMIException("unable to create file for file region", e);
+        }
+        long length = 0;
+        int consumed = 0;
+        Throwable failed = null;
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (true) {
+                byte[] chunk;
+                lock.lock();
+                try {
+                    while (chunks.isEmpty() && !ended && failure == null) {
+                        arrived.await();
+                    }
+                    chunk = chunks.poll();
+                    if (chunk == null) {
+                        failed = failure;
+                        break;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(chunk, 1, chunk.length - 1);
+                while (bytes.hasRemaining()) {
+                    file.write(bytes);
+                }
+                length += chunk.length - 1;
+                consumed += chunk.length - 1;
+                if (consumed >= FileRegion.WINDOW / 2 && (chunk[0] & Frame.STREAM_END) == 0) {
+                    demand(consumed);
+                    consumed = 0;
+                }
+            }
+        } catch (IOException e) {
+            failed = new RMIException("unable to write file region", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = new RMIException("interrupted while receiving file region", e);
+        }
+        if (failed == null) return new FileRegion(temporary, 0, length);
+        cancel();
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // Left for the system to clean up with its other temporary files.
+        }
+        throw failed;
+    }
+
+    /** Stops the skeleton sending the region, if it has not ended. */
+    private void cancel() {
+        lock.lock();
+        try {
+            if (ended || failure != null) return;
+            failure = new RMIException("file region cancelled");
+        } finally {
+            lock.unlock();
+        }
+        connection.closeStream(callId);
+        try {
+            connection.control(Frame.CANCEL, callId, new byte[0]);
+        } catch (IOException e) {
+            // The connection has closed, which ends the region on the skeleton as well.
+        }
+    }
+
+    private void demand(int bytes) throws IOException {
+        connection.control(Frame.DEMAND, callId, ByteBuffer.allocate(4).putInt(bytes).array());
+    }
+}
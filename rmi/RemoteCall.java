@@ -0,0 +1,28 @@
+package rmi;
+
+/** One call of a remote method, written as a function of a stub.
+
+    <p>
+    Used to describe calls that are not made at once on the calling thread,
+    for example by <code>AsyncStub.call</code>. The function must call exactly
+    one method of the remote interface on the object it is given, and return
+    that method's result unchanged, as in
+    <code>stub -&gt; stub.pingpong("ping", 1)</code>. The object given to the
+    function only records the call: the method returns a placeholder value,
+    and the call is carried out later.
+
+    @param <T> The remote interface.
+    @param <R> The result type of the method, with primitive types replaced by
+               their wrapper classes.
+ */
+public interface RemoteCall<T, R>
+{
+    /** Calls one remote method on the given object.
+
+        @param stub The object recording the call.
+        @return The result of the method.
+        @throws Exception Exceptions declared by the remote method; never
+                          thrown while the call is recorded.
+     */
+    public R call(T stub) throws Exception;
+}
@@ -0,0 +1,396 @@
+package rmi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stub side of a stream returned by a remote method: an iterator, and a publisher, over elements received from the skeleton as
+ * they are wanted.
+ *
+ * <p>
+ * The stream first asks the skeleton for <code>WINDOW</code> elements, and then, each time half that many have been consumed,
+ * for as many again. At most a window of elements is therefore held, in their encoded form, however long the stream, and a
+ * consumer slower than the server object holds the server object back. Elements are decoded by the consuming thread as they are
+ * consumed.
+ *
+ * <p>
+ * A stream may be consumed once: either by iterating over it, or by one subscriber, to which elements are delivered on the common
+ * fork-join pool as it requests them. Exceptions thrown by the server object's iterator or publisher end the stream after the
+ * elements sent before them. The iterator throws them as they are if unchecked, and otherwise wrapped in an
+ * <code>IllegalStateException</code>, as it does an <code>RMIException</code> if the connection fails, or an
+ * <code>OverloadException</code> if the skeleton has no worker free to send more elements; the subscriber receives them through
+ * <code>onError</code>. A stream that is not consumed to its end should be closed, which stops the skeleton sending
+ * it; until then, its connection stays open.
+ *
+ * <p>
+ * The caller is given a <code>Handle</code> on the stream rather than the stream itself, since the connection refers to the
+ * stream until it ends. A handle that becomes unreachable before the stream has ended closes the stream once it is collected,
+ * unless a subscriber is consuming it: the subscriber, which the stream refers to, must cancel its subscription instead.
+ */
+class RemoteStream implements Iterator<Object>, Flow.Publisher<Object>, Closeable {
+    /** Number of elements the stream asks for ahead of the consumer. */
+    static final int WINDOW = 256;
+
+    /** Closes the streams of handles collected before their streams ended. */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Connection connection;
+    private final long callId;
+    /** Guards the state of the stream. A lock rather than a monitor, so that virtual consumer threads do not pin their carriers. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private final ArrayDeque<byte[]> elements = new ArrayDeque<byte[]>();
+    /** Whether the last element has been received. */
+    private boolean ended = false;
+    /** Exception ending the stream after the elements received, if any. */
+    private Throwable failure = null;
+    /** Whether the consumer has closed the stream, or the subscriber has been given its last signal. */
+    private boolean closed = false;
+    /** Whether the stream has been iterated over or subscribed to. */
+    private boolean used = false;
+    /** Number of elements consumed since the skeleton was last asked for more. */
+    private int consumed = 0;
+    private Flow.Subscriber<? super Object> subscriber = null;
+    private long requested = 0;
+    /** Number of times delivery to the subscriber has been asked for since it last ran out of work. */
+    private final AtomicInteger deliveries = new AtomicInteger();
+
+    /**
+     * The stream given to the caller, closing it when collected before the stream has ended. It refers to the stream, but the
+     * stream and the connection do not refer to it. Each method keeps the handle reachable until it returns, so that the stream
+     * is not closed while it is in use.
+     */
+    private static final class Handle implements Iterator<Object>, Flow.Publisher<Object>, Closeable {
+        private final RemoteStream stream;
+        private final Cleaner.Cleanable cleanable;
+
+        Handle(RemoteStream stream) {
+            this.stream = stream;
+            this.cleanable = CLEANER.register(this, stream::abandoned);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return stream.hasNext();
+            } finally {
+                Reference.reachabilityFence(this);
+            }
+        }
+
+        @Override
+        public Object next() {
+            try {
+                return stream.next();
+            } finally {
+                Reference.reachabilityFence(this);
+            }
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+            try {
+                stream.subscribe(subscriber);
+            } finally {
+                Reference.reachabilityFence(this);
+            }
+        }
+
+        @Override
+        public void close() {
+            stream.close();
+            cleanable.clean();
+        }
+    }
+
+    private RemoteStream(Connection connection, long callId) {
+        this.connection = connection;
+        this.callId = callId;
+    }
+
+    /**
+     * Starts receiving a stream, asking the skeleton for the first window of elements.
+     *
+     * @param connection
+     *            The connection that carried the call returning the stream.
+     * @param callId
+     *            The call identifier of the call.
+     * @return A handle on the stream, which is an <code>Iterator</code>, a <code>Flow.Publisher</code> and a
+     *         <code>Closeable</code>.
+     * @throws IOException
+     *             If the skeleton cannot be asked for elements.
+     */
+    static Object open(Connection connection, long callId) throws IOException {
+        RemoteStream stream = new RemoteStream(connection, callId);
+        connection.openStream(callId, stream::receive);
+        Handle handle = new Handle(stream);
+        connection.control(Frame.DEMAND, callId, ByteBuffer.allocate(4).putInt(WINDOW).array());
+        return handle;
+    }
+
+    /** Handles a frame of the stream, or the closing of the connection, on the connection's reader thread. */
+    private void receive(Frame frame) {
+        lock.lock();
+        try {
+            if (frame == null) {
+                failure = new RMIException("connection closed before the end of the stream");
+            } else if (frame.type == Frame.ELEMENTS) {
+                try {
+                    ByteBuffer payload = ByteBuffer.wrap(frame.payload, 1, frame.payload.length - 1);
+                    while (payload.hasRemaining()) {
+                        byte[] element = new byte[payload.getInt()];
+                        payload.get(element);
+                        elements.add(element);
+                    }
+                    if ((frame.payload[0] & Frame.STREAM_END) != 0) ended = true;
+                } catch (BufferUnderflowException | NegativeArraySizeException | IndexOutOfBoundsException e) {
+                    failure = new RMIException("malformed stream elements", e);
+                }
+            } else {
+                try {
+                    ClientHandler.decodeResponse(frame);
+                    failure = new RMIException("unexpected frame type " + frame.type + " in stream");
+                } catch (Throwable thrown) {
+                    failure = thrown;
+                }
+            }
+            if (ended || failure != null) connection.closeStream(callId);
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        deliver();
+    }
+
+    @Override
+    public boolean hasNext() {
+        lock.lock();
+        try {
+            if (subscriber != null) throw new IllegalStateException("stream consumed by a subscriber");
+            used = true;
+            while (elements.isEmpty() && !ended && failure == null && !closed) {
+                arrived.await();
+            }
+            if (!elements.isEmpty()) return true;
+            if (failure != null && !closed) throw unchecked(failure);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for stream element", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        byte[] element;
+        int demand;
+        lock.lock();
+        try {
+            element = elements.poll();
+            demand = consumed();
+        } finally {
+            lock.unlock();
+        }
+        demand(demand);
+        try {
+            return WireCodec.decodeValue(element);
+        } catch (Exception e) {
+            throw new IllegalStateException("unable to read stream element", e);
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        if (subscriber == null) throw new NullPointerException();
+        boolean accepted;
+        lock.lock();
+        try {
+            accepted = !used;
+            used = true;
+            if (accepted) this.subscriber = subscriber;
+        } finally {
+            lock.unlock();
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("stream already consumed"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    // The subscription is cancelled, as by cancel, and the subscriber told why.
+                    boolean cancel;
+                    lock.lock();
+                    try {
+                        cancel = !closed && !ended && failure == null;
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (cancel) cancelSending();
+                }
+                lock.lock();
+                try {
+                    if (n <= 0) {
+                        if (failure == null) failure = new IllegalArgumentException("non-positive request " + n);
+                        elements.clear();
+                        ended = true;
+                    } else {
+                        requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                deliver();
+            }
+
+            @Override
+            public void cancel() {
+                close();
+            }
+        });
+        deliver();
+    }
+
+    /** Stops the skeleton sending the stream, and discards the elements received. */
+    @Override
+    public void close() {
+        boolean cancel;
+        lock.lock();
+        try {
+            cancel = !closed && !ended && failure == null;
+            closed = true;
+            elements.clear();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (cancel) cancelSending();
+    }
+
+    /** Stops the stream receiving frames, and asks the skeleton to stop sending it. */
+    private void cancelSending() {
+        connection.closeStream(callId);
+        try {
+            connection.control(Frame.CANCEL, callId, new byte[0]);
+        } catch (IOException e) {
+            // The connection has closed, which ends the stream on the skeleton as well.
+        }
+    }
+
+    /** Closes the stream once its handle has been collected, unless a subscriber is consuming it. */
+    private void abandoned() {
+        lock.lock();
+        try {
+            if (subscriber != null) return;
+        } finally {
+            lock.unlock();
+        }
+        close();
+    }
+
+    /** Counts an element consumed, returning the number of elements to ask the skeleton for now. Called with the lock held. */
+    private int consumed() {
+        if (++consumed < WINDOW / 2 || ended || failure != null || closed) return 0;
+        int demand = consumed;
+        consumed = 0;
+        return demand;
+    }
+
+    private void demand(int elements) {
+        if (elements == 0) return;
+        try {
+            connection.control(Frame.DEMAND, callId, ByteBuffer.allocate(4).putInt(elements).array());
+        } catch (IOException e) {
+            // The connection has closed, and the stream is given its failure by the reader thread.
+        }
+    }
+
+    /** Delivers elements to the subscriber, if there is one, on the common pool. Only one delivery runs at a time. */
+    private void deliver() {
+        if (deliveries.getAndIncrement() != 0) return;
+        ForkJoinPool.commonPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                int missed = 1;
+                do {
+                    while (deliverOne()) {
+                    }
+                    missed = deliveries.addAndGet(-missed);
+                } while (missed != 0);
+            }
+        });
+    }
+
+    /** Delivers one element or the final signal to the subscriber, returning <code>false</code> if there is nothing to do. */
+    private boolean deliverOne() {
+        Flow.Subscriber<? super Object> target;
+        byte[] element = null;
+        int demand = 0;
+        Throwable error = null;
+        lock.lock();
+        try {
+            target = subscriber;
+            if (target == null || closed) return false;
+            if (requested > 0 && !elements.isEmpty()) {
+                element = elements.poll();
+                requested--;
+                demand = consumed();
+            } else if (elements.isEmpty() && (ended || failure != null)) {
+                closed = true;
+                error = failure;
+            } else {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (element == null) {
+            if (error != null) target.onError(error);
+            else target.onComplete();
+            return false;
+        }
+        demand(demand);
+        Object value;
+        try {
+            value = WireCodec.decodeValue(element);
+        } catch (Exception e) {
+            close();
+            target.onError(new RMIException("unable to read stream element", e));
+            return false;
+        }
+        target.onNext(value);
+        return true;
+    }
+
+    private static RuntimeException unchecked(Throwable failure) {
+        if (failure instanceof RuntimeException) return (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        return new IllegalStateException("stream failed", failure);
+    }
+}
@@ -0,0 +1,404 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Results of calls, kept by stubs for <code>Cached</code> and <code>Versioned</code> methods and by skeletons for
+ * <code>Memoized</code> ones.
+ *
+ * <p>
+ * Stubs have one cache per skeleton address and remote interface, shared by all stubs for them; each skeleton has its own. Results
+ * are kept as the encoded payloads of the skeleton's responses and keyed by the encoded requests, so that neither arguments nor
+ * results are shared with callers: each hit decodes a new copy of the result, or sends the payload as it is. Each method has its
+ * own least-recently-used map, bounded as its annotation says.
+ *
+ * <p>
+ * Results of methods named by <code>Invalidates</code> methods are removed from the stubs' caches when the skeleton says they
+ * have changed, in an <code>INVALIDATE</code> frame, and when a connection to the skeleton closes. A result whose call was sent
+ * before such a removal, and answered after it, is not stored, since it may be older than the change.
+ */
+class ResultCache {
+    /** Bounds of the entries of one method. A time to live of zero lets entries be kept until they are evicted. */
+    static final class Limits {
+        final long ttl;
+        final int maxEntries;
+        final long maxBytes;
+
+        Limits(long ttl, int maxEntries, long maxBytes) {
+            this.ttl = ttl;
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        /** Returns the limits given by a method's <code>Cached</code> annotation. */
+        static Limits cached(Method method) {
+            Cached cached = method.getAnnotation(Cached.class);
+            return new Limits(cached.ttl(), cached.maxEntries(), cached.maxBytes());
+        }
+
+        /** Returns the limits given by a method's <code>Memoized</code> annotation. */
+        static Limits memoized(Method method) {
+            Memoized memoized = method.getAnnotation(Memoized.class);
+            return new Limits(memoized.ttl(), memoized.maxEntries(), memoized.maxBytes());
+        }
+
+        /** Returns the limits given by a method's <code>Versioned</code> annotation. */
+        static Limits versioned(Method method) {
+            Versioned versioned = method.getAnnotation(Versioned.class);
+            return new Limits(0, versioned.maxEntries(), versioned.maxBytes());
+        }
+    }
+
+    /** Skeleton address and remote interface. */
+    private static final class Destination {
+        final SocketAddress address;
+        final Class<?> c;
+
+        Destination(SocketAddress address, Class<?> c) {
+            this.address = address;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Destination)) return false;
+            Destination destination = (Destination) other;
+            return address.equals(destination.address) && c == destination.c;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * address.hashCode() + c.hashCode();
+        }
+    }
+
+    /** Encoded request, compared by content. */
+    private static final class Key {
+        final byte[] request;
+        final int hash;
+
+        Key(byte[] request) {
+            this.request = request;
+            this.hash = Arrays.hashCode(request);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(request, ((Key) other).request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] result;
+        final long expires;
+
+        Entry(byte[] result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /** Entries of one method, in order of use. */
+    private final class MethodCache {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        private final long ttl;
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes = 0;
+
+        MethodCache(Limits limits) {
+            ttl = limits.ttl * 1000000L;
+            maxEntries = limits.maxEntries;
+            maxBytes = limits.maxBytes;
+        }
+
+        synchronized byte[] get(Key key) {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            if (ttl > 0 && System.nanoTime() - entry.expires >= 0) {
+                remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.result;
+        }
+
+        synchronized void put(Key key, byte[] result, long generation) {
+            if (generation != ResultCache.this.generation.get()) return;
+            long size = size(key, result);
+            if (size > maxBytes) return;
+            remove(key);
+            entries.put(key, new Entry(result, System.nanoTime() + ttl));
+            bytes += size;
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                Map.Entry<Key, Entry> evicted = eldest.next();
+                bytes -= size(evicted.getKey(), evicted.getValue().result);
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized boolean remove(Key key) {
+            Entry entry = entries.remove(key);
+            if (entry == null) return false;
+            bytes -= size(key, entry.result);
+            return true;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        private long size(Key key, byte[] result) {
+            return key.request.length + result.length;
+        }
+    }
+
+    private static final Map<Destination, ResultCache> caches = new ConcurrentHashMap<Destination, ResultCache>();
+    private static final Map<Destination, ResultCache> retained = new ConcurrentHashMap<Destination, ResultCache>();
+
+    private final Function<Method, Limits> limits;
+    /** Methods whose results are removed when a connection to the skeleton closes. */
+    private final Set<Method> coherent;
+    private final Map<Method, MethodCache> methods = new ConcurrentHashMap<Method, MethodCache>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    /** Number of removals of results so far, other than evictions. */
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong invalidationMessages = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param limits
+     *            Gives the limits of the entries of each method cached.
+     */
+    ResultCache(Function<Method, Limits> limits) {
+        this(limits, Collections.<Method>emptySet());
+    }
+
+    private ResultCache(Function<Method, Limits> limits, Set<Method> coherent) {
+        this.limits = limits;
+        this.coherent = coherent;
+    }
+
+    /** Returns the stubs' cache for a skeleton address and remote interface, creating it if there is none. */
+    static ResultCache of(SocketAddress address, Class<?> c) {
+        return caches.computeIfAbsent(new Destination(address, c),
+                                      destination -> new ResultCache(Limits::cached, CacheDirectory.invalidatedMethods(c)));
+    }
+
+    /**
+     * Returns the stubs' results of <code>Versioned</code> methods for a skeleton address and remote interface, creating them if
+     * there are none. Each result is kept as the payload of the <code>TAGGED</code> frame carrying it.
+     */
+    static ResultCache retained(SocketAddress address, Class<?> c) {
+        return retained.computeIfAbsent(new Destination(address, c), destination -> new ResultCache(Limits::versioned));
+    }
+
+    /**
+     * Removes the results named by an <code>INVALIDATE</code> frame from the caches for the skeleton that sent it.
+     *
+     * @param address
+     *            The address of the skeleton.
+     * @param frame
+     *            The frame received.
+     * @throws IOException
+     *             If the frame is malformed.
+     */
+    static void invalidated(SocketAddress address, Frame frame) throws IOException {
+        List<Frame> removed = Frame.unpack(frame.payload);
+        long lag = Math.max(0, System.currentTimeMillis() - frame.callId);
+        for (Map.Entry<Destination, ResultCache> cache : caches.entrySet()) {
+            if (cache.getKey().address.equals(address)) cache.getValue().invalidated(removed, lag);
+        }
+    }
+
+    /**
+     * Removes the results of methods named by <code>Invalidates</code> methods from the caches for a skeleton, when a connection
+     * to it has closed: the skeleton no longer tells the stubs when those results change.
+     */
+    static void disconnected(SocketAddress address) {
+        for (Map.Entry<Destination, ResultCache> cache : caches.entrySet()) {
+            if (cache.getKey().address.equals(address) && !cache.getValue().coherent.isEmpty()) {
+                cache.getValue().disconnected();
+            }
+        }
+    }
+
+    private void invalidated(List<Frame> removed, long lag) {
+        generation.incrementAndGet();
+        for (Frame frame : removed) {
+            for (Map.Entry<Method, MethodCache> cache : methods.entrySet()) {
+                if (WireCodec.methodId(cache.getKey()) == frame.callId) cache.getValue().remove(new Key(frame.payload));
+            }
+        }
+        invalidations.addAndGet(removed.size());
+        invalidationMessages.incrementAndGet();
+        totalLag.addAndGet(lag);
+        maxLag.accumulateAndGet(lag, Math::max);
+    }
+
+    private void disconnected() {
+        generation.incrementAndGet();
+        for (Method method : coherent) {
+            invalidate(method);
+        }
+    }
+
+    /**
+     * Looks up the result of a call.
+     *
+     * @param method
+     *            The method called, which must be cached.
+     * @param request
+     *            The encoded request of the call.
+     * @return The encoded result, which the caller must not modify, or <code>null</code> if none is cached.
+     */
+    byte[] get(Method method, byte[] request) {
+        byte[] result = methodCache(method).get(new Key(request));
+        (result == null ? misses : hits).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Stores the result of a call.
+     *
+     * @param method
+     *            The method called, which must be cached.
+     * @param request
+     *            The encoded request of the call, which the caller must not modify afterwards.
+     * @param result
+     *            The encoded result, which the caller must not modify afterwards.
+     */
+    void put(Method method, byte[] request, byte[] result) {
+        put(method, request, result, generation.get());
+    }
+
+    /**
+     * Stores the result of a call, unless results have been removed, other than by eviction, since the given generation.
+     *
+     * @param method
+     *            The method called, which must be cached.
+     * @param request
+     *            The encoded request of the call, which the caller must not modify afterwards.
+     * @param result
+     *            The encoded result, which the caller must not modify afterwards.
+     * @param generation
+     *            The generation of the cache when the call was sent.
+     */
+    void put(Method method, byte[] request, byte[] result, long generation) {
+        methodCache(method).put(new Key(request), result, generation);
+    }
+
+    /** Returns the current generation of the cache, which changes whenever results are removed other than by eviction. */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Removes the result of a call, returning <code>true</code> if there was one. Results of calls in progress are not stored
+     * afterwards, as they may be older than the removal.
+     */
+    boolean invalidate(Method method, byte[] request) {
+        generation.incrementAndGet();
+        MethodCache cache = methods.get(method);
+        return cache != null && cache.remove(new Key(request));
+    }
+
+    /** Removes every result of a method, and the results of its calls in progress. */
+    void invalidate(Method method) {
+        generation.incrementAndGet();
+        MethodCache cache = methods.get(method);
+        if (cache != null) cache.clear();
+    }
+
+    /** Removes every result, and the results of calls in progress. */
+    void invalidateAll() {
+        generation.incrementAndGet();
+        for (MethodCache cache : methods.values()) {
+            cache.clear();
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Returns the number of results that the skeleton has removed, whether or not they were still cached. */
+    long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /** Returns the mean time, in milliseconds, from a change on the skeleton until its removals reached the cache. */
+    double getMeanInvalidationLag() {
+        long messages = invalidationMessages.get();
+        return messages == 0 ? 0 : (double) totalLag.get() / messages;
+    }
+
+    /** Returns the longest time, in milliseconds, from a change on the skeleton until its removals reached the cache. */
+    long getMaxInvalidationLag() {
+        return maxLag.get();
+    }
+
+    int size() {
+        int size = 0;
+        for (MethodCache cache : methods.values()) {
+            size += cache.size();
+        }
+        return size;
+    }
+
+    long getBytes() {
+        long bytes = 0;
+        for (MethodCache cache : methods.values()) {
+            bytes += cache.bytes();
+        }
+        return bytes;
+    }
+
+    private MethodCache methodCache(Method method) {
+        MethodCache cache = methods.get(method);
+        if (cache == null) cache = methods.computeIfAbsent(method, m -> new MethodCache(limits.apply(m)));
+        return cache;
+    }
+}
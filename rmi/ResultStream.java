@@ -0,0 +1,450 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Elements of a stream returned by a remote method, sent to the stub as it asks for them.
+ *
+ * <p>
+ * The stub grants the skeleton credit for a number of elements with each <code>DEMAND</code> frame, and the skeleton takes no
+ * more elements from the server object's iterator or publisher than it has credit for. Elements are taken and sent by a worker
+ * thread, in <code>ELEMENTS</code> frames of up to <code>CHUNK_BYTES</code> bytes; a frame is also sent early when the credit is
+ * used up, when the stream ends, and when a publisher has no further element ready. Neither side therefore holds more than the
+ * stub's window of elements at once, however long the stream. The skeleton keeps the stream until it ends, until the connection
+ * closes, or until the stub cancels it with a <code>CANCEL</code> frame, which it sends when the stream is closed or is collected
+ * without having been closed.
+ *
+ * <p>
+ * A <code>FileRegion</code> result is sent the same way, except that credit is counted in bytes and the bytes are read from the
+ * file into <code>REGION</code> frames of up to <code>FileRegion.CHUNK_BYTES</code> bytes. The file is opened before the
+ * <code>STREAM</code> response is sent and closed when the stream ends.
+ */
+class ResultStream implements Runnable {
+    /** Size, in bytes, at which a frame of elements is sent without waiting for more elements. */
+    static final int CHUNK_BYTES = 32 * 1024;
+
+    private final Dispatcher<?> dispatcher;
+    private final Consumer<Frame> holder;
+    private final long callId;
+    private final Iterator<?> source;
+    /** Region returned by the server object, or <code>null</code> for a stream of elements. */
+    private final FileRegion region;
+    private final FileChannel file;
+    /** Bytes of the region sent so far. */
+    private long sent = 0;
+    /** Elements, or bytes of a region, the stub has asked for and not yet been sent. Guarded by <code>this</code>. */
+    private long credit = 0;
+    /** Whether a thread is taking elements. Guarded by <code>this</code>. */
+    private boolean running = false;
+    private volatile boolean ended = false;
+
+    /**
+     * Creates a stream of the elements of a result, which is sent nothing until the stub asks for elements.
+     *
+     * @param dispatcher
+     *            The dispatcher of the skeleton, which is told when the stream ends.
+     * @param holder
+     *            Sends frames to the stub's connection.
+     * @param callId
+     *            The call identifier of the request that returned the stream.
+     * @param result
+     *            The <code>Iterator</code>, <code>Flow.Publisher</code> or <code>FileRegion</code> returned by the server object.
+     * @throws IOException
+     *             If the result is a region whose file cannot be opened or is shorter than the region.
+     */
+    ResultStream(Dispatcher<?> dispatcher, Consumer<Frame> holder, long callId, Object result) throws IOException {
+        this.dispatcher = dispatcher;
+        this.holder = holder;
+        this.callId = callId;
+        if (result instanceof FileRegion) {
+            this.source = null;
+            this.region = (FileRegion) result;
+            this.file = region.open();
+        } else {
+            this.source = result instanceof Iterator ? (Iterator<?>) result : new PublisherIterator((Flow.Publisher<?>) result);
+            this.region = null;
+            this.file = null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if a method returns a stream: an <code>Iterator</code>, a <code>Flow.Publisher</code> or a
+     * <code>FileRegion</code>.
+     */
+    static boolean isStream(Method method) {
+        Class<?> type = method.getReturnType();
+        return type == Iterator.class || type == Flow.Publisher.class || type == FileRegion.class;
+    }
+
+    /**
+     * Returns a stream over copies of the elements of a stream returned by a call on a skeleton in the same JVM, so that the
+     * caller and the server object share no elements, just as if the stream had been sent over the network. Elements that cannot
+     * be copied end the stream with an <code>IllegalStateException</code>. A region is returned as it is.
+     */
+    static Object copying(Object result) {
+        if (result instanceof FileRegion) return result;
+        if (result instanceof Iterator) return new CopyingIterator((Iterator<?>) result);
+        final Flow.Publisher<?> source = (Flow.Publisher<?>) result;
+        return new Flow.Publisher<Object>() {
+            @Override
+            public void subscribe(final Flow.Subscriber<? super Object> subscriber) {
+                source.subscribe(new Flow.Subscriber<Object>() {
+                    private Flow.Subscription subscription;
+                    private boolean failed = false;
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        subscriber.onSubscribe(subscription);
+                    }
+
+                    @Override
+                    public void onNext(Object element) {
+                        if (failed) return;
+                        Object copied;
+                        try {
+                            copied = copy(element);
+                        } catch (IllegalStateException e) {
+                            failed = true;
+                            subscription.cancel();
+                            subscriber.onError(e);
+                            return;
+                        }
+                        subscriber.onNext(copied);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        if (!failed) subscriber.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        if (!failed) subscriber.onComplete();
+                    }
+                });
+            }
+        };
+    }
+
+    private static Object copy(Object element) {
+        try {
+            return ValueCopier.copy(element);
+        } catch (Exception e) {
+            throw new IllegalStateException("unable to copy stream element", e);
+        }
+    }
+
+    long getCallId() {
+        return callId;
+    }
+
+    /** Grants credit for more elements, or bytes of a region, starting a worker to send them if none is running. */
+    void demand(int count) {
+        synchronized (this) {
+            if (ended || count <= 0) return;
+            credit += count;
+            if (running) return;
+            running = true;
+        }
+        dispatcher.produce(this);
+    }
+
+    /** Ends the stream at the stub's request, or because its connection has closed. */
+    void cancel() {
+        ended = true;
+        if (source instanceof PublisherIterator) ((PublisherIterator) source).cancel();
+        if (file != null) close();
+    }
+
+    /** Takes and sends elements, or bytes of a region, for as long as there is credit for them. */
+    @Override
+    public void run() {
+        if (region != null) {
+            runRegion();
+            return;
+        }
+        while (sendElements()) {
+        }
+    }
+
+    /**
+     * Ends the stream with a frame refusing it, sent in place of further elements, when the skeleton has no worker to send it.
+     */
+    void refuse(Frame frame) {
+        cancel();
+        fail(frame);
+    }
+
+    /**
+     * Takes and sends elements until the credit is used up.
+     *
+     * @return <code>true</code> if more credit was granted meanwhile, and this thread should go on sending.
+     */
+    private boolean sendElements() {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(chunk);
+        chunk.write(0);
+        int count = 0;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (ended || credit == 0) {
+                        if (count > 0) break;
+                        running = false;
+                        return false;
+                    }
+                    credit--;
+                }
+                if (!source.hasNext()) {
+                    // A publisher cancelled while the worker waited for its next element wakes it with no element.
+                    if (!ended) end(chunk);
+                    return false;
+                }
+                byte[] element = WireCodec.encodeValue(source.next());
+                out.writeInt(element.length);
+                out.write(element);
+                count++;
+                if (chunk.size() >= CHUNK_BYTES || !ready()) {
+                    send(chunk, (byte) 0);
+                    count = 0;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // Elements taken before the failure are still delivered.
+            if (count > 0) send(chunk, (byte) 0);
+            fail(new Frame(Frame.THROWN, callId, encodeThrown(e)));
+            return false;
+        } catch (IOException e) {
+            fail(dispatcher.fault(callId, new RMIException("Unable to send stream element", e)));
+            return false;
+        }
+        // Credit used up with elements still unsent: send them, then look for credit granted meanwhile.
+        send(chunk, (byte) 0);
+        synchronized (this) {
+            if (ended || credit == 0) {
+                running = false;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /** Reads and sends bytes of the region for as long as there is credit for them. */
+    private void runRegion() {
+        while (true) {
+            int count;
+            synchronized (this) {
+                if (ended || (credit == 0 && sent < region.getLength())) {
+                    running = false;
+                    return;
+                }
+                count = (int) Math.min(Math.min(credit, FileRegion.CHUNK_BYTES), region.getLength() - sent);
+                credit -= count;
+            }
+            boolean last = sent + count == region.getLength();
+            byte[] payload = new byte[1 + count];
+            payload[0] = last ? Frame.STREAM_END : 0;
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(payload, 1, count);
+                while (bytes.hasRemaining()) {
+                    if (file.read(bytes, region.getOffset() + sent + bytes.position() - 1) < 0) {
+                        throw new EOFException("file shorter than region");
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                // A stream cancelled meanwhile closes the file under the read; the stub has stopped listening.
+                if (!ended) fail(dispatcher.fault(callId, new RMIException("Unable to read file region", e)));
+                return;
+            }
+            sent += count;
+            if (last) ended = true;
+            holder.accept(new Frame(Frame.REGION, callId, payload));
+            if (last) {
+                close();
+                dispatcher.ended(this, holder);
+                return;
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing more is read from it.
+        }
+    }
+
+    /** Returns <code>true</code> if the next element can be taken without waiting for it. */
+    private boolean ready() {
+        return !(source instanceof PublisherIterator) || ((PublisherIterator) source).ready();
+    }
+
+    private void send(ByteArrayOutputStream chunk, byte flags) {
+        byte[] elements = chunk.toByteArray();
+        elements[0] = flags;
+        holder.accept(new Frame(Frame.ELEMENTS, callId, elements));
+        chunk.reset();
+        chunk.write(0);
+    }
+
+    private void end(ByteArrayOutputStream chunk) {
+        ended = true;
+        send(chunk, Frame.STREAM_END);
+        dispatcher.ended(this, holder);
+    }
+
+    private void fail(Frame frame) {
+        ended = true;
+        holder.accept(frame);
+        dispatcher.ended(this, holder);
+    }
+
+    private static byte[] encodeThrown(Throwable thrown) {
+        try {
+            return WireCodec.encodeValue(thrown);
+        } catch (IOException e) {
+            try {
+                return WireCodec.encodeValue(new RMIException("stream failed: " + thrown));
+            } catch (IOException again) {
+                return new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Iterator over the elements of a publisher, taking at most a window of elements ahead of the consumer. The iterator blocks
+     * while the publisher has no element ready, until the publisher signals or the iterator is cancelled, after which it has no
+     * further elements.
+     */
+    private static final class PublisherIterator implements Iterator<Object>, Flow.Subscriber<Object> {
+        private static final int WINDOW = 64;
+        private static final Object COMPLETE = new Object();
+
+        private final BlockingQueue<Object> elements = new ArrayBlockingQueue<Object>(WINDOW + 1);
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled = false;
+        private Object next = null;
+        private int taken = 0;
+
+        PublisherIterator(Flow.Publisher<?> publisher) {
+            publisher.subscribe(this);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(WINDOW);
+        }
+
+        @Override
+        public void onNext(Object element) {
+            elements.offer(element == null ? new Failure(new NullPointerException("null element")) : element);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            elements.offer(new Failure(throwable));
+        }
+
+        @Override
+        public void onComplete() {
+            elements.offer(COMPLETE);
+        }
+
+        boolean ready() {
+            return next != null || !elements.isEmpty();
+        }
+
+        /** Cancels the subscription and wakes a thread waiting for the next element. */
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) current.cancel();
+            // The publisher may still signal; if it fills the queue meanwhile, the waiting thread is woken all the same.
+            elements.clear();
+            elements.offer(COMPLETE);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cancelled) return false;
+            if (next == null) {
+                try {
+                    next = elements.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for stream element", e);
+                }
+                if (cancelled) return false;
+            }
+            if (next instanceof Failure) {
+                Throwable cause = ((Failure) next).cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException("publisher failed", cause);
+            }
+            return next != COMPLETE;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Object element = next;
+            next = null;
+            if (++taken == WINDOW / 2) {
+                taken = 0;
+                subscription.request(WINDOW / 2);
+            }
+            return element;
+        }
+    }
+
+    /** Iterator over copies of the elements of another iterator, closing it when closed if it can be closed. */
+    private static final class CopyingIterator implements Iterator<Object>, Closeable {
+        private final Iterator<?> source;
+
+        CopyingIterator(Iterator<?> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            return copy(source.next());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source instanceof Closeable) ((Closeable) source).close();
+        }
+    }
+
+    /** Exception signalled by a publisher, queued in place of an element. */
+    private static final class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Selector-based skeleton transport.
+ *
+ * <p>
+ * A listening thread accepts connections and assigns each one to one of a fixed number of I/O threads. Each I/O thread owns a
+ * <code>Selector</code> and reads request frames from its connections without blocking; complete requests are handed to the
+ * skeleton's worker pool, or answered at once if the pool is saturated. Worker threads write responses directly to the channel
+ * when it can take them, and leave the rest to the I/O thread otherwise. The number of threads therefore does not depend on the
+ * number of connected stubs, and an idle connection costs no more than its socket and selection key.
+ *
+ * <p>
+ * If the skeleton's transport options set a read timeout, each I/O thread wakes up at least once per timeout period and closes
+ * the connections on which no call is in progress and nothing has been received for longer than the timeout.
+ *
+ * <p>
+ * Memory held for a connection is bounded by what its stub actually sends and receives. A frame that arrives in pieces is kept in
+ * a buffer that grows with the bytes received, not allocated at the length the frame declares. Once more than
+ * <code>WRITE_QUEUE_LIMIT</code> bytes of responses are queued for a stub that is not reading them, no further requests are read
+ * from it until half of them have been written.
+ */
+class SelectorListener<T> implements Listener, Runnable {
+    /** Size of the read buffer shared by the connections of one I/O thread. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Number of bytes of queued responses above which a connection's requests are no longer read. */
+    static final int WRITE_QUEUE_LIMIT = 1024 * 1024;
+
+    private final Skeleton<T> skeleton;
+    private final ServerSocketChannel serverChannel;
+    private final Dispatcher<T> dispatcher;
+    private final WorkerPool workers;
+    private final TransportOptions options;
+    private final List<IoThread> ioThreads = new ArrayList<IoThread>();
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    private Thread thread = null;
+
+    /**
+     * Creates a listener on an already bound server channel.
+     *
+     * @param skeleton
+     *            The skeleton to which errors are reported.
+     * @param serverChannel
+     *            The bound server channel.
+     * @param server
+     *            The server object.
+     * @param myClass
+     *            The remote interface.
+     * @param workers
+     *            The worker pool carrying out calls.
+     * @param ioThreadCount
+     *            The number of I/O threads.
+     * @param options
+     *            The transport options applied to accepted connections.
+     * @throws IOException
+     *             If the selectors cannot be opened.
+     */
+    SelectorListener(Skeleton<T> skeleton, ServerSocketChannel serverChannel, T server, Class<T> myClass, WorkerPool workers,
+                     int ioThreadCount, TransportOptions options) throws IOException {
+        this.skeleton = skeleton;
+        this.serverChannel = serverChannel;
+        this.dispatcher = skeleton.getDispatcher();
+        this.workers = workers;
+        this.options = options;
+        for (int index = 0; index < ioThreadCount; ++index) {
+            ioThreads.add(new IoThread(myClass.getSimpleName() + "-" + index));
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) return;
+        for (IoThread ioThread : ioThreads) {
+            ioThread.start();
+        }
+        thread = new Thread(this, "rmi-acceptor");
+        thread.start();
+    }
+
+    /** Accepts connections and distributes them among the I/O threads in turn. */
+    @Override
+    public void run() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                try {
+                    options.apply(channel);
+                    channel.configureBlocking(false);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                NioConnection connection = new NioConnection(channel);
+                connections.add(connection);
+                ioThreads.get(next).register(connection);
+                next = (next + 1) % ioThreads.size();
+            } catch (IOException e) {
+                if (running) skeleton.listen_error(e);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            skeleton.listen_error(e);
+        }
+        for (NioConnection connection : new ArrayList<NioConnection>(connections)) {
+            connection.shutdown();
+        }
+        for (IoThread ioThread : ioThreads) {
+            ioThread.selector.wakeup();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Thread multiplexing the connections assigned to it over one selector. The thread exits once the listener has been stopped
+     * and all of its connections have closed.
+     */
+    private class IoThread extends Thread {
+        private final Selector selector;
+        private final Queue<NioConnection> registrations = new ConcurrentLinkedQueue<NioConnection>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        IoThread(String name) throws IOException {
+            super("rmi-io-" + name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /** Closes the connections that have been idle for longer than the given time. */
+        private void closeIdle(long idleNanos) {
+            long now = System.nanoTime();
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = connectionOf(key);
+                if (connection.isIdleSince(now - idleNanos)) connection.shutdown();
+            }
+        }
+
+        /** Returns the connection of a key, which is always attached as a connection of this listener. */
+        @SuppressWarnings("unchecked")
+        private NioConnection connectionOf(SelectionKey key) {
+            return (NioConnection) key.attachment();
+        }
+
+        /** Hands a newly accepted connection to this thread. */
+        void register(NioConnection connection) {
+            registrations.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long timeout = options.getReadTimeout();
+            long nextSweep = System.nanoTime() + timeout * 1000000;
+            try {
+                while (running || !selector.keys().isEmpty() || !registrations.isEmpty()) {
+                    selector.select(timeout);
+
+                    NioConnection connection;
+                    while ((connection = registrations.poll()) != null) {
+                        connection.attach(this);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        connection = connectionOf(key);
+                        if (key.isValid() && key.isReadable()) connection.read(readBuffer);
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    }
+
+                    if (timeout > 0 && System.nanoTime() - nextSweep >= 0) {
+                        closeIdle(timeout * 1000000);
+                        nextSweep = System.nanoTime() + timeout * 1000000;
+                    }
+                }
+            } catch (IOException e) {
+                skeleton.listen_error(e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    connectionOf(key).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * One stub connection. Reading is done only by the connection's I/O thread; writing is done by whichever thread holds the
+     * connection's lock.
+     */
+    private class NioConnection {
+        private final SocketChannel channel;
+        private IoThread ioThread = null;
+        private SelectionKey key = null;
+        /** Frame, or frame length field, of which only a part has been received. Grows as the rest of the frame arrives. */
+        private ByteBuffer partial = null;
+        /** Size of the frame in <code>partial</code>, length field included, or 0 while only its length field is pending. */
+        private int expected = 0;
+        private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<ByteBuffer>();
+        /** Number of bytes in <code>writes</code>. Guarded by <code>this</code>. */
+        private long queued = 0;
+        /** Whether reading is suspended until queued responses are written. Guarded by <code>this</code>. */
+        private boolean paused = false;
+        private int received = 0;
+        private int inFlight = 0;
+        private boolean closing = false;
+        private boolean closed = false;
+        /** Time at which data was last received or a call last completed. */
+        private volatile long lastActive = System.nanoTime();
+        /** Sends frames to the stub unasked, to remove results from its cache. */
+        private final Consumer<Frame> holder = this::send;
+
+        NioConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Registers the channel with the selector of the given I/O thread. Called on that thread. */
+        void attach(IoThread ioThread) {
+            synchronized (this) {
+                this.ioThread = ioThread;
+                try {
+                    key = channel.register(ioThread.selector, SelectionKey.OP_READ, this);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+            }
+            if (!running) shutdown();
+        }
+
+        /**
+         * Reads whatever the channel has available and passes each complete request on, until reading is paused. Frames that fit
+         * in the shared buffer are decoded from it directly; only the unfinished frame at the end of a read is copied into a
+         * buffer of the connection's own.
+         */
+        void read(ByteBuffer buffer) {
+            lastActive = System.nanoTime();
+            try {
+                while (!isPaused()) {
+                    if (partial != null) {
+                        if (channel.read(partial) < 0) {
+                            endOfStream();
+                            return;
+                        }
+                        if (partial.hasRemaining()) return;
+                        if (expected == 0) {
+                            // Only the length field was pending: start receiving the rest of the frame.
+                            partial.flip();
+                            int length = checkLength(partial.getInt());
+                            expected = 4 + length;
+                            partial = ByteBuffer.allocate(Math.min(expected, READ_BUFFER_SIZE)).putInt(length);
+                        } else if (partial.position() < expected) {
+                            partial.flip();
+                            partial = ByteBuffer.allocate((int) Math.min(expected, 2L * partial.capacity())).put(partial);
+                        } else {
+                            partial.flip();
+                            Frame frame = Frame.decode(partial);
+                            partial = null;
+                            expected = 0;
+                            if (!receive(frame)) return;
+                        }
+                        continue;
+                    }
+
+                    buffer.clear();
+                    int count = channel.read(buffer);
+                    if (count < 0) {
+                        endOfStream();
+                        return;
+                    }
+                    if (count == 0) return;
+                    buffer.flip();
+                    while (buffer.remaining() >= 4) {
+                        int length = checkLength(buffer.getInt(buffer.position()));
+                        if (buffer.remaining() < 4 + length) break;
+                        if (!receive(Frame.decode(buffer))) return;
+                    }
+                    if (buffer.hasRemaining()) {
+                        // The rest is shorter than the shared buffer, so a buffer of that size holds it.
+                        expected = buffer.remaining() >= 4 ? 4 + buffer.getInt(buffer.position()) : 0;
+                        partial = ByteBuffer.allocate(expected == 0 ? 4 : Math.min(expected, READ_BUFFER_SIZE));
+                        partial.put(buffer);
+                    }
+                    if (count < buffer.capacity()) return;
+                }
+            } catch (IOException e) {
+                if (!isClosing()) skeleton.service_error(new RMIException(e));
+                shutdown();
+            }
+        }
+
+        private int checkLength(int length) throws IOException {
+            if (length < Frame.HEADER_SIZE || length > Frame.MAX_LENGTH) throw new IOException("invalid frame length " + length);
+            return length;
+        }
+
+        /**
+         * Handles one request, or one frame controlling a stream being sent or carrying a stream argument. Returns
+         * <code>false</code> if the connection no longer accepts requests.
+         */
+        private boolean receive(final Frame request) {
+            received++;
+            if (request.type == Frame.DEMAND || request.type == Frame.CANCEL || request.type == Frame.UPLOAD) {
+                dispatcher.control(request, holder);
+                return true;
+            }
+            if (request.type != Frame.REQUEST && request.type != Frame.ONEWAY && request.type != Frame.BATCH
+                    && request.type != Frame.CONDITIONAL) {
+                skeleton.service_error(new RMIException("Unexpected frame type " + request.type));
+                return true;
+            }
+            if (!beginCall()) return false;
+            try {
+                boolean accepted = workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            send(dispatcher.dispatch(request, holder));
+                        } finally {
+                            endCall();
+                        }
+                    }
+                });
+                if (!accepted) {
+                    send(dispatcher.overloaded(request));
+                    endCall();
+                }
+            } catch (RejectedExecutionException e) {
+                endCall();
+                shutdown();
+                return false;
+            }
+            return true;
+        }
+
+        private void endOfStream() {
+            // The stub closing a connection between calls is the normal end of a persistent connection.
+            if (received == 0 && !isClosing()) {
+                skeleton.service_error(new RMIException(new EOFException("connection closed before any request")));
+            }
+            shutdown();
+        }
+
+        /**
+         * Sends a response, if there is one: one-way requests have none. The response is written at once if nothing is queued
+         * ahead of it; whatever the channel cannot take now is queued and written by the I/O thread when the channel becomes
+         * writable. Reading stops while more than <code>WRITE_QUEUE_LIMIT</code> bytes are queued.
+         */
+        synchronized void send(Frame response) {
+            if (closed || response == null) return;
+            ByteBuffer buffer = response.encode();
+            try {
+                // Frames of a stream flow both ways without waiting for each other, so small segments must not be delayed.
+                if (response.type == Frame.STREAM || response.type == Frame.DEMAND) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                if (writes.isEmpty()) {
+                    channel.write(buffer);
+                    if (!buffer.hasRemaining()) return;
+                }
+                writes.add(buffer);
+                queued += buffer.remaining();
+                int ops = key.interestOps() | SelectionKey.OP_WRITE;
+                if (queued > WRITE_QUEUE_LIMIT && !paused) {
+                    paused = true;
+                    ops &= ~SelectionKey.OP_READ;
+                }
+                if (ops != key.interestOps()) {
+                    key.interestOps(ops);
+                    ioThread.selector.wakeup();
+                }
+            } catch (IOException e) {
+                if (!closing) skeleton.service_error(new RMIException("Unable to send response", e));
+                close();
+            }
+        }
+
+        /** Writes queued responses. Called by the I/O thread when the channel is writable. */
+        synchronized void flush() {
+            try {
+                while (!writes.isEmpty()) {
+                    ByteBuffer buffer = writes.peek();
+                    queued -= channel.write(buffer);
+                    if (paused && queued <= WRITE_QUEUE_LIMIT / 2) {
+                        paused = false;
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                    if (buffer.hasRemaining()) return;
+                    writes.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing && inFlight == 0) close();
+            } catch (IOException e) {
+                if (!closing) skeleton.service_error(new RMIException("Unable to send response", e));
+                close();
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if no call is in progress, no stream is open, no request has been partly read, and nothing
+         * has happened on the connection since the given time. Called on the I/O thread, which alone reads requests.
+         */
+        private synchronized boolean isIdleSince(long time) {
+            return inFlight == 0 && partial == null && writes.isEmpty() && lastActive - time < 0
+                    && !dispatcher.hasStreams(holder);
+        }
+
+        private synchronized boolean isPaused() {
+            return paused;
+        }
+
+        private synchronized boolean isClosing() {
+            return closing;
+        }
+
+        private synchronized boolean beginCall() {
+            if (closing) return false;
+            inFlight++;
+            return true;
+        }
+
+        private synchronized void endCall() {
+            inFlight--;
+            lastActive = System.nanoTime();
+            if (closing && inFlight == 0 && writes.isEmpty()) close();
+        }
+
+        /**
+         * Stops reading requests. The channel is closed now if no call is in progress, and otherwise once the responses to the
+         * calls in progress have been written.
+         */
+        synchronized void shutdown() {
+            closing = true;
+            if (key != null && key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (inFlight == 0 && writes.isEmpty()) close();
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            closing = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            connections.remove(this);
+            dispatcher.release(holder);
+            if (ioThread != null) ioThread.selector.wakeup();
+        }
+    }
+}
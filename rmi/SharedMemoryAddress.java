@@ -0,0 +1,109 @@
+package rmi;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Address of a skeleton reached through shared memory.
+ *
+ * <p>
+ * The address names a directory on the local host. A skeleton started with this address creates the directory if necessary and
+ * accepts connections on a Unix domain socket inside it. For each connection the stub creates a memory-mapped file in the
+ * directory, holding one single-producer, single-consumer ring buffer for requests and one for responses; the socket is then used
+ * only to detect that the other side has gone away. Frames are exchanged entirely through the mapped memory, so calls never enter
+ * the kernel while both sides are busy.
+ *
+ * <p>
+ * A thread waiting for a ring buffer follows the address's <code>WaitStrategy</code>. Spinning gives the lowest latency but keeps
+ * a processor busy for as long as each connection is open, even when idle; it is only suitable when the stub and skeleton have
+ * processors to spare. The wait strategy and ring capacity are tuning parameters of the side that uses the address: they are not
+ * part of the address's identity, so addresses for the same directory are equal whatever their settings.
+ */
+public class SharedMemoryAddress extends SocketAddress {
+    private static final long serialVersionUID = 1L;
+
+    /** Default capacity of each ring buffer, in bytes. */
+    public static final int DEFAULT_RING_CAPACITY = 256 * 1024;
+
+    /** How a thread waits for data or space in a ring buffer. */
+    public enum WaitStrategy {
+        /** Busy-wait, using the processor's spin-wait hint. */
+        SPIN,
+        /** Yield the processor between checks. */
+        YIELD,
+        /** Spin briefly, then sleep for short intervals between checks. */
+        PARK
+    }
+
+    private final String directory;
+    private final WaitStrategy waitStrategy;
+    private final int ringCapacity;
+
+    /**
+     * Creates an address for the given directory, with the <code>PARK</code> wait strategy and the default ring capacity.
+     *
+     * @param directory
+     *            The directory of the skeleton.
+     * @throws NullPointerException
+     *             If <code>directory</code> is <code>null</code>.
+     */
+    public SharedMemoryAddress(Path directory) {
+        this(directory, WaitStrategy.PARK, DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * Creates an address for the given directory.
+     *
+     * @param directory
+     *            The directory of the skeleton.
+     * @param waitStrategy
+     *            How threads wait for the ring buffers.
+     * @param ringCapacity
+     *            Capacity of each ring buffer of connections opened by stubs using this address, in bytes. Rounded up to a power
+     *            of two. Frames larger than the ring are streamed through it.
+     * @throws NullPointerException
+     *             If <code>directory</code> or <code>waitStrategy</code> is <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>ringCapacity</code> is less than 1024 or greater than 2<sup>30</sup>.
+     */
+    public SharedMemoryAddress(Path directory, WaitStrategy waitStrategy, int ringCapacity) {
+        if (directory == null || waitStrategy == null) throw new NullPointerException("One or more arguments are null");
+        if (ringCapacity < 1024 || ringCapacity > (1 << 30)) throw new IllegalArgumentException("invalid ring capacity");
+        this.directory = directory.toAbsolutePath().normalize().toString();
+        this.waitStrategy = waitStrategy;
+        this.ringCapacity = Integer.highestOneBit(ringCapacity - 1) << 1;
+    }
+
+    public Path getDirectory() {
+        return Paths.get(directory);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    /** Returns the path of the Unix domain socket on which the skeleton accepts connections. */
+    Path getSocketPath() {
+        return getDirectory().resolve("rmi.sock");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SharedMemoryAddress && ((SharedMemoryAddress) other).directory.equals(directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return directory.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + directory;
+    }
+}
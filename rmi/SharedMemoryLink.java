@@ -0,0 +1,311 @@
+package rmi;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One shared memory connection between a stub and a skeleton.
+ *
+ * <p>
+ * The two sides share a memory-mapped file holding a small header and two ring buffers: requests flow from the stub to the
+ * skeleton through the first, and responses flow back through the second. Each ring has exactly one producer and one consumer, so
+ * it is coordinated only by two counters, the total number of bytes written (the tail) and read (the head), each written by one
+ * side with release semantics and read by the other with acquire semantics. The rings carry byte streams, not messages, so frames
+ * of any size may be sent through rings of any capacity.
+ *
+ * <p>
+ * The connection is set up over a Unix domain socket in the skeleton's directory: the stub creates and maps the file, sends its
+ * name, and waits for the skeleton to acknowledge that it has mapped it too, after which the file is unlinked. The socket is kept
+ * open; a waiting thread polls it from time to time to learn that the other side has exited without closing the connection.
+ *
+ * <p>
+ * Layout of the mapped file, at byte offsets: the magic number at 0, the ring capacity at 4, and the closed flag at 64; the request
+ * ring from 128 and the response ring after it. Each ring has its tail at offset 0 and its head at offset 64, so that the two sides
+ * do not write to the same cache line, followed by its data from offset 128.
+ */
+class SharedMemoryLink implements Closeable {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x524d4953;
+    private static final int CAPACITY = 4;
+    private static final int CLOSED = 64;
+    private static final int FILE_HEADER = 128;
+    private static final int TAIL = 0;
+    private static final int HEAD = 64;
+    private static final int RING_HEADER = 128;
+
+    /** Number of busy-wait iterations before the <code>PARK</code> strategy starts to sleep. */
+    private static final int PARK_SPINS = 100;
+    /** Number of short sleeps before the <code>PARK</code> strategy considers the ring idle and sleeps for longer. */
+    private static final int PARK_SHORT = 1000;
+    private static final long PARK_SHORT_NANOS = 20000;
+    private static final long PARK_IDLE_NANOS = 1000000;
+    /** Interval between checks that the other side is still connected, while waiting. */
+    private static final long PEER_CHECK_NANOS = 100000000;
+
+    private final SocketChannel channel;
+    private final ByteBuffer memory;
+    private final SharedMemoryAddress.WaitStrategy waitStrategy;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile boolean closed = false;
+    private long lastPeerCheck = System.nanoTime();
+
+    private SharedMemoryLink(SocketChannel channel, ByteBuffer memory, SharedMemoryAddress.WaitStrategy waitStrategy,
+                             boolean stub) {
+        this.channel = channel;
+        this.memory = memory;
+        this.waitStrategy = waitStrategy;
+        int capacity = (int) INTS.get(memory, CAPACITY);
+        int requests = FILE_HEADER;
+        int responses = FILE_HEADER + RING_HEADER + capacity;
+        in = new RingInputStream(stub ? responses : requests, capacity);
+        out = new RingOutputStream(stub ? requests : responses, capacity);
+    }
+
+    /**
+     * Opens a connection to the skeleton at the given address.
+     *
+     * @param address
+     *            The address of the skeleton.
+     * @return The connection.
+     * @throws IOException
+     *             If the skeleton cannot be reached or the shared file cannot be created.
+     */
+    static SharedMemoryLink connect(SharedMemoryAddress address) throws IOException {
+        int capacity = address.getRingCapacity();
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(address.getSocketPath()));
+        Path file = null;
+        try {
+            file = Files.createTempFile(address.getDirectory(), "ring-", ".shm");
+            MappedByteBuffer memory = map(file, FILE_HEADER + 2 * ((long) RING_HEADER + capacity));
+            INTS.set(memory, CAPACITY, capacity);
+            INTS.setRelease(memory, 0, MAGIC);
+
+            byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer message = ByteBuffer.allocate(4 + name.length);
+            message.putInt(name.length).put(name).flip();
+            while (message.hasRemaining()) {
+                channel.write(message);
+            }
+            if (channel.read(ByteBuffer.allocate(1)) != 1) throw new EOFException("skeleton refused shared memory connection");
+
+            return new SharedMemoryLink(channel, memory, address.getWaitStrategy(), true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } finally {
+            if (file != null) Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Completes a connection accepted by a skeleton.
+     *
+     * @param channel
+     *            The accepted socket channel, in blocking mode.
+     * @param address
+     *            The address of the skeleton.
+     * @return The connection.
+     * @throws IOException
+     *             If the stub does not send the name of a valid shared file. The channel is closed in this case.
+     */
+    static SharedMemoryLink accept(SocketChannel channel, SharedMemoryAddress address) throws IOException {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(channel, length);
+            int size = length.getInt(0);
+            if (size <= 0 || size > 255) throw new IOException("invalid shared memory file name");
+            ByteBuffer name = ByteBuffer.allocate(size);
+            readFully(channel, name);
+            String fileName = new String(name.array(), StandardCharsets.UTF_8);
+
+            Path file = address.getDirectory().resolve(fileName);
+            if (!file.getParent().equals(address.getDirectory()) || !fileName.endsWith(".shm")) {
+                throw new IOException("invalid shared memory file name");
+            }
+            MappedByteBuffer memory = map(file, Files.size(file));
+            int capacity = (int) INTS.get(memory, CAPACITY);
+            if ((int) INTS.getAcquire(memory, 0) != MAGIC || Integer.bitCount(capacity) != 1
+                    || memory.capacity() != FILE_HEADER + 2 * ((long) RING_HEADER + capacity)) {
+                throw new IOException("invalid shared memory file");
+            }
+
+            channel.write(ByteBuffer.wrap(new byte[] { 1 }));
+            return new SharedMemoryLink(channel, memory, address.getWaitStrategy(), false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("connection closed during shared memory setup");
+        }
+    }
+
+    /** Returns the stream of bytes sent by the other side. */
+    InputStream getInputStream() {
+        return in;
+    }
+
+    /** Returns the stream of bytes sent to the other side. Only one thread may write at a time. */
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    /** Closes the connection. Threads waiting on either ring, on both sides, see the end of the stream. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        INTS.setRelease(memory, CLOSED, 1);
+        channel.close();
+    }
+
+    private boolean isClosed() {
+        return closed || (int) INTS.getAcquire(memory, CLOSED) != 0;
+    }
+
+    /** Waits a little before checking a ring buffer again, after <code>attempt</code> unsuccessful checks. */
+    private void await(int attempt) {
+        switch (waitStrategy) {
+        case SPIN:
+            Thread.onSpinWait();
+            break;
+        case YIELD:
+            Thread.yield();
+            break;
+        default:
+            if (attempt < PARK_SPINS) Thread.onSpinWait();
+            else if (attempt < PARK_SPINS + PARK_SHORT) LockSupport.parkNanos(PARK_SHORT_NANOS);
+            else LockSupport.parkNanos(PARK_IDLE_NANOS);
+        }
+        if ((attempt & 0xff) == 0xff) checkPeer();
+    }
+
+    /** Closes the connection if the other side has closed its socket, for example because its process has exited. */
+    private synchronized void checkPeer() {
+        long now = System.nanoTime();
+        if (now - lastPeerCheck < PEER_CHECK_NANOS || closed) return;
+        lastPeerCheck = now;
+        try {
+            channel.configureBlocking(false);
+            int read = channel.read(ByteBuffer.allocate(1));
+            channel.configureBlocking(true);
+            if (read < 0) close();
+        } catch (IOException e) {
+            try {
+                close();
+            } catch (IOException closeError) {
+            }
+        }
+    }
+
+    /** Consuming end of a ring buffer. */
+    private class RingInputStream extends InputStream {
+        private final int base;
+        private final int capacity;
+        private long head = 0;
+
+        RingInputStream(int base, int capacity) {
+            this.base = base;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            long tail;
+            int attempt = 0;
+            while ((tail = (long) LONGS.getAcquire(memory, base + TAIL)) == head) {
+                if (isClosed()) {
+                    if ((long) LONGS.getAcquire(memory, base + TAIL) != head) continue;
+                    return -1;
+                }
+                await(attempt++);
+            }
+            int offset = (int) (head & (capacity - 1));
+            int count = (int) Math.min(Math.min(len, tail - head), capacity - offset);
+            memory.get(base + RING_HEADER + offset, b, off, count);
+            head += count;
+            LONGS.setRelease(memory, base + HEAD, head);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min((long) LONGS.getAcquire(memory, base + TAIL) - head, Integer.MAX_VALUE);
+        }
+    }
+
+    /** Producing end of a ring buffer. */
+    private class RingOutputStream extends OutputStream {
+        private final int base;
+        private final int capacity;
+        private long tail = 0;
+
+        RingOutputStream(int base, int capacity) {
+            this.base = base;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int attempt = 0;
+            while (len > 0) {
+                if (isClosed()) throw new EOFException("connection closed");
+                long free = capacity - (tail - (long) LONGS.getAcquire(memory, base + HEAD));
+                if (free == 0) {
+                    await(attempt++);
+                    continue;
+                }
+                int offset = (int) (tail & (capacity - 1));
+                int count = (int) Math.min(Math.min(len, free), capacity - offset);
+                memory.put(base + RING_HEADER + offset, b, off, count);
+                tail += count;
+                LONGS.setRelease(memory, base + TAIL, tail);
+                off += count;
+                len -= count;
+                attempt = 0;
+            }
+        }
+    }
+}
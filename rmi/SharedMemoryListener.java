@@ -0,0 +1,67 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Listener accepting shared memory connections for a skeleton.
+ *
+ * <p>
+ * Connections are set up over a Unix domain socket in the directory named by the skeleton's <code>SharedMemoryAddress</code>, as
+ * described in <code>SharedMemoryLink</code>. Each connection is then serviced exactly like a socket connection accepted by a
+ * <code>ListenThread</code>: one thread reads requests from the connection's request ring and hands them to the skeleton's
+ * workers, which write the responses to the response ring.
+ */
+class SharedMemoryListener<T> extends ListenThread<T> {
+    private final Skeleton<T> skeleton;
+    private final SharedMemoryAddress address;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Creates the directory of the address if necessary and binds its Unix domain socket.
+     *
+     * @throws IOException
+     *             If the socket cannot be bound, for example because another skeleton is using the directory.
+     */
+    SharedMemoryListener(Skeleton<T> skeleton, SharedMemoryAddress address, T server, Class<T> myClass, WorkerPool workers,
+                         ThreadFactory connectionThreads, TransportOptions options) throws IOException, RMIException {
+        super(skeleton, null, server, myClass, workers, connectionThreads, options);
+        this.skeleton = skeleton;
+        this.address = address;
+        Files.createDirectories(address.getDirectory());
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            serverChannel.bind(UnixDomainSocketAddress.of(address.getSocketPath()), options.getBacklog());
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected CommunicationThread acceptConnection() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        SharedMemoryLink link;
+        try {
+            link = SharedMemoryLink.accept(channel, address);
+        } catch (IOException e) {
+            // A stub that fails to set up its connection affects only that connection.
+            skeleton.service_error(new RMIException("Unable to set up shared memory connection", e));
+            return null;
+        }
+        return new CommunicationThread(link.getInputStream(), link.getOutputStream(), link);
+    }
+
+    @Override
+    protected void closeListeningSocket() throws IOException {
+        if (serverChannel.isOpen()) {
+            serverChannel.close();
+            Files.deleteIfExists(address.getSocketPath());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Combines concurrent identical calls of idempotent methods into one.
+ *
+ * <p>
+ * Each call in progress is registered under its method identifier and arguments. A call that finds an equal call registered waits
+ * for that call's outcome instead of calling the server object; the first call unregisters itself before publishing its outcome,
+ * so that no call waits for an outcome that was already published. Calls of methods that are not idempotent are passed straight
+ * to their invokers.
+ */
+class SingleFlight {
+    /** Method and arguments of a call. */
+    private static final class Key {
+        final long methodId;
+        final Object[] args;
+        final int hash;
+
+        Key(long methodId, Object[] args) {
+            this.methodId = methodId;
+            this.args = args;
+            this.hash = 31 * Long.hashCode(methodId) + Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return methodId == key.methodId && Arrays.deepEquals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> flights =
+            new ConcurrentHashMap<Key, CompletableFuture<Object>>();
+
+    /**
+     * Calls a method, or waits for an equal call of it already in progress.
+     *
+     * @param invoker
+     *            The invoker of the method.
+     * @param methodId
+     *            The identifier of the method.
+     * @param args
+     *            The arguments of the call.
+     * @return The value returned by the method.
+     * @throws InvocationTargetException
+     *             If the method throws an exception, which is the cause.
+     * @throws IllegalArgumentException
+     *             If the arguments do not match the method's parameters.
+     */
+    Object invoke(MethodInvoker invoker, long methodId, Object[] args) throws InvocationTargetException {
+        if (!invoker.isIdempotent()) return invoker.invoke(args);
+
+        Key key = new Key(methodId, args);
+        CompletableFuture<Object> flight = new CompletableFuture<Object>();
+        CompletableFuture<Object> leader = flights.putIfAbsent(key, flight);
+        if (leader != null) return await(leader);
+
+        try {
+            Object result = invoker.invoke(args);
+            flights.remove(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (InvocationTargetException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Lets calls made from now on call the server object rather than wait for calls already in progress, whose outcomes may be
+     * older than a change just made. The calls in progress still complete, for their callers and the calls waiting for them.
+     */
+    void forget() {
+        flights.clear();
+    }
+
+    /** Returns the number of distinct calls of idempotent methods in progress. */
+    int inFlight() {
+        return flights.size();
+    }
+
+    private static Object await(CompletableFuture<Object> flight) throws InvocationTargetException {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvocationTargetException) throw (InvocationTargetException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+}
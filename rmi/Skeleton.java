@@ -9,7 +9,15 @@ import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.Arrays;
 
 
@@ -29,6 +37,12 @@ import java.util.Arrays;
  * desires.
  * 
  * <p>
+ * A skeleton created with a <code>UnixDomainSocketAddress</code> listens on a Unix domain socket bound to that filesystem path
+ * instead of a TCP port. This avoids the overhead of the loopback network for stubs on the same host. The socket file is removed
+ * when the skeleton stops. A skeleton created with a <code>SharedMemoryAddress</code> exchanges requests and responses with
+ * stubs on the same host through memory-mapped ring buffers.
+ * 
+ * <p>
  * Exceptions may occur at the top level in the listening and service threads. The skeleton's response to these exceptions can be
  * customized by deriving a class from <code>Skeleton</code> and overriding <code>listen_error</code> or
  * <code>service_error</code>.
@@ -37,7 +51,17 @@ public class Skeleton<T> {
     private Class<T> myInterface = null;
     private T server = null;
     private InetSocketAddress sockAddr = null;
-    private ListenThread listenThread = null;
+    private UnixDomainSocketAddress socketPath = null;
+    private SharedMemoryAddress sharedMemory = null;
+    private volatile Listener listener = null;
+    private Dispatcher<T> dispatcher = null;
+    private int ioThreads = Integer.getInteger("rmi.skeleton.iothreads", 0);
+    private volatile WorkerPool workers = null;
+    private int coreWorkers = 0;
+    private int maxWorkers = Integer.MAX_VALUE;
+    private int workerQueueCapacity = 0;
+    private boolean virtualThreads = false;
+    private TransportOptions options = TransportOptions.defaults();
 
     /**
      * Creates a <code>Skeleton</code> with no initial server address. The address will be determined by the system when
@@ -66,6 +90,7 @@ public class Skeleton<T> {
         if(!c.isInterface() || !Stub.exceptionCheck(c)) throw new Error("not an remote interface");
         myInterface = c;
         this.server = server;
+        dispatcher = new Dispatcher<T>(this, server, c);
     }
 
     /**
@@ -80,15 +105,19 @@ public class Skeleton<T> {
      * @param server
      *            An object implementing said interface. Requests for method calls are forwarded by the skeleton to this object.
      * @param address
-     *            The address at which the skeleton is to run. If <code>null</code>, the address will be chosen by the system when
+     *            The address at which the skeleton is to run: an <code>InetSocketAddress</code>, a
+     *            <code>UnixDomainSocketAddress</code> giving the path of a Unix domain socket, or a
+     *            <code>SharedMemoryAddress</code>. If <code>null</code>, the address will be chosen by the system when
      *            <code>start</code> is called.
      * @throws Error
      *             If <code>c</code> does not represent a remote interface - an interface whose methods are all marked as throwing
      *             <code>RMIException</code>.
      * @throws NullPointerException
      *             If either of <code>c</code> or <code>server</code> is <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>address</code> is of any other type.
      */
-    public Skeleton(Class<T> c, T server, InetSocketAddress address) {
+    public Skeleton(Class<T> c, T server, SocketAddress address) {
         //Null pointer check
         if (c == null || server == null) {
             throw new NullPointerException();
@@ -98,7 +127,46 @@ public class Skeleton<T> {
         /*initialize variables*/
         myInterface = c;
         this.server = server;
-        sockAddr = address;
+        dispatcher = new Dispatcher<T>(this, server, c);
+        if (address instanceof UnixDomainSocketAddress) {
+            socketPath = (UnixDomainSocketAddress) address;
+        } else if (address instanceof SharedMemoryAddress) {
+            sharedMemory = (SharedMemoryAddress) address;
+        } else if (address == null || address instanceof InetSocketAddress) {
+            sockAddr = (InetSocketAddress) address;
+        } else {
+            throw new IllegalArgumentException("unsupported address type " + address.getClass().getName());
+        }
+    }
+
+    /**
+     * Creates a <code>Skeleton</code> with the given initial server address and transport options.
+     * 
+     * <p>
+     * The options apply to the listening socket and to every connection accepted by the skeleton. Their read timeout is the time
+     * an accepted connection may stay idle before the skeleton closes it.
+     * 
+     * @param c
+     *            An object representing the class of the interface for which the skeleton server is to handle method call
+     *            requests.
+     * @param server
+     *            An object implementing said interface. Requests for method calls are forwarded by the skeleton to this object.
+     * @param address
+     *            The address at which the skeleton is to run, as for <code>Skeleton(Class, Object, SocketAddress)</code>.
+     * @param options
+     *            The transport options of the skeleton.
+     * @throws Error
+     *             If <code>c</code> does not represent a remote interface - an interface whose methods are all marked as throwing
+     *             <code>RMIException</code>.
+     * @throws NullPointerException
+     *             If any of <code>c</code>, <code>server</code> or <code>options</code> is <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>address</code> is of an unsupported type.
+     */
+    public Skeleton(Class<T> c, T server, SocketAddress address, TransportOptions options) {
+        this(c, server, address);
+        if (options == null) throw new NullPointerException();
+        this.options = options;
     }
 
     /**
@@ -155,8 +223,10 @@ public class Skeleton<T> {
      * 
      * <p>
      * A thread is created to listen for connection requests, and the method returns immediately. Additional threads are created
-     * when connections are accepted. The network address used for the server is determined by which constructor was used to
-     * create the <code>Skeleton</code> object.
+     * when connections are accepted, unless the selector transport has been chosen with <code>setIoThreads</code>. Calls received
+     * on the connections are carried out by a pool of worker threads, so that a slow call does not delay other calls arriving on
+     * the same connection. The network address used for the server is determined by which constructor was used to create the
+     * <code>Skeleton</code> object.
      * 
      * @throws RMIException
      *             When the listening socket cannot be created or bound, when the listening thread cannot be created, or when the
@@ -164,15 +234,41 @@ public class Skeleton<T> {
      */
     public synchronized void start() throws RMIException {
         // check for conditions to throw RMIException
-    	if(sockAddr == null) sockAddr = new InetSocketAddress(12345);
-        if (  ((listenThread != null) && listenThread.getThread().isAlive())) {
+    	if(sockAddr == null && socketPath == null && sharedMemory == null) sockAddr = new InetSocketAddress(12345);
+        if (listener != null && listener.isRunning()) {
             throw new RMIException("Listening thread has been started already");
         } else {
             try {
-                listenThread = new ListenThread(this, new ServerSocket(sockAddr.getPort()), server, myInterface);
-                listenThread.start();
+                workers = new WorkerPool(myInterface.getSimpleName(), coreWorkers, maxWorkers, workerQueueCapacity, virtualThreads);
+                ThreadFactory connectionThreads = virtualThreads ? VirtualThreads.factory("rmi-connection-")
+                                                                 : Executors.defaultThreadFactory();
+                if (sharedMemory != null) {
+                    listener = new SharedMemoryListener<T>(this, sharedMemory, server, myInterface, workers, connectionThreads,
+                                                           options);
+                } else if (socketPath != null) {
+                    // Unix domain sockets are only available as channels, so path-bound skeletons use the selector transport.
+                    ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                    channel.bind(socketPath, options.getBacklog());
+                    listener = new SelectorListener<T>(this, channel, server, myInterface, workers, Math.max(ioThreads, 1),
+                                                       options);
+                } else if (ioThreads > 0) {
+                    ServerSocketChannel channel = ServerSocketChannel.open();
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    if (options.getReceiveBufferSize() > 0) {
+                        channel.setOption(StandardSocketOptions.SO_RCVBUF, options.getReceiveBufferSize());
+                    }
+                    channel.bind(new InetSocketAddress(sockAddr.getPort()), options.getBacklog());
+                    listener = new SelectorListener<T>(this, channel, server, myInterface, workers, ioThreads, options);
+                } else {
+                    ServerSocket serverSocket = new ServerSocket();
+                    options.apply(serverSocket);
+                    serverSocket.bind(new InetSocketAddress(sockAddr.getPort()), options.getBacklog());
+                    listener = new ListenThread(this, serverSocket, server, myInterface, workers, connectionThreads, options);
+                }
+                listener.start();
             } catch (Exception e) {
-                throw new RMIException("Listening socket could not be created.");
+                if (workers != null) workers.shutdown();
+                throw new RMIException("Listening socket could not be created.", e);
             }
         }
     }
@@ -186,18 +282,13 @@ public class Skeleton<T> {
      * point. The server may then be restarted.
      */
     public synchronized void stop() {
-        // set run state to false and close socket connection
-        if (listenThread != null && listenThread.getThread().isAlive()) {
-            listenThread.runState = false;
-            try {
-                if (listenThread.getSocket() != null && !listenThread.getSocket().isClosed()) {
-                    listenThread.getSocket().close();
-                }
-            } catch (Exception e) {
-                listen_error(e);
-            }
+        // stop accepting connections, close idle connections and wait for the listening thread
+        if (listener != null && listener.isRunning()) {
+            listener.stop();
+            workers.shutdown();
             try {
-                listenThread.getThread().join();
+                listener.join();
+                if (socketPath != null) Files.deleteIfExists(socketPath.getPath());
                 stopped(null);
             } catch (Exception e) {
                 stopped(e);
@@ -205,12 +296,195 @@ public class Skeleton<T> {
         }
     }
 
+    /**
+     * Selects the transport used by the skeleton the next time it is started.
+     * 
+     * <p>
+     * With zero I/O threads, each accepted connection is read by a thread of its own, blocking on the socket. With a positive
+     * number, all connections are read and written by that many I/O threads using non-blocking channels and selectors, so that
+     * the number of threads does not grow with the number of connected stubs. In both cases, calls are carried out by the
+     * skeleton's worker threads. A skeleton bound to a Unix domain socket always uses the selector transport, with at least one
+     * I/O thread.
+     * 
+     * <p>
+     * The default is taken from the system property <code>rmi.skeleton.iothreads</code>, and is zero if the property is not set.
+     * 
+     * @param ioThreads
+     *            The number of selector I/O threads, or zero for the blocking thread-per-connection transport.
+     * @throws IllegalArgumentException
+     *             If <code>ioThreads</code> is negative.
+     */
+    public synchronized void setIoThreads(int ioThreads) {
+        if (ioThreads < 0) throw new IllegalArgumentException("ioThreads must not be negative");
+        this.ioThreads = ioThreads;
+    }
+
+    public synchronized int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Bounds the pool of worker threads that carry out calls, taking effect the next time the skeleton is started.
+     * 
+     * <p>
+     * The pool keeps <code>coreThreads</code> threads. Calls arriving while they are all busy wait in a queue of at most
+     * <code>queueCapacity</code> calls; only when the queue is full are further threads created, up to <code>maxThreads</code>.
+     * A call arriving when the queue is full and <code>maxThreads</code> threads are busy is refused at once: it is not carried
+     * out, and the stub throws an <code>OverloadException</code>.
+     * 
+     * <p>
+     * By default the pool is unbounded: no threads are kept, calls are never queued, and a new thread is created whenever all
+     * existing threads are busy.
+     * 
+     * @param coreThreads
+     *            Number of threads kept even when idle.
+     * @param maxThreads
+     *            Largest number of threads.
+     * @param queueCapacity
+     *            Largest number of calls waiting for a thread. With zero, each call is handed directly to a thread.
+     * @throws IllegalArgumentException
+     *             If <code>coreThreads</code> or <code>queueCapacity</code> is negative, or if <code>maxThreads</code> is not
+     *             positive or is less than <code>coreThreads</code>.
+     */
+    public synchronized void setWorkerPool(int coreThreads, int maxThreads, int queueCapacity) {
+        if (coreThreads < 0 || queueCapacity < 0 || maxThreads <= 0 || maxThreads < coreThreads) {
+            throw new IllegalArgumentException("invalid worker pool limits");
+        }
+        coreWorkers = coreThreads;
+        maxWorkers = maxThreads;
+        workerQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Chooses whether calls are carried out on virtual threads, taking effect the next time the skeleton is started.
+     * 
+     * <p>
+     * In virtual thread mode, each call runs on a virtual thread of its own, and with the default transport each connection is
+     * also read by a virtual thread. This suits servers whose methods spend most of their time blocked, for example on
+     * downstream I/O: many thousands of such calls can be in progress at a small memory cost. The limits set with
+     * <code>setWorkerPool</code> then bound the number of calls in progress at once to <code>maxThreads + queueCapacity</code>.
+     * 
+     * @param enabled
+     *            <code>true</code> to use virtual threads, <code>false</code> to use platform threads.
+     * @throws UnsupportedOperationException
+     *             If <code>enabled</code> is <code>true</code> and the JVM does not support virtual threads.
+     */
+    public synchronized void setVirtualThreads(boolean enabled) {
+        if (enabled && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("virtual threads are not supported by this JVM");
+        }
+        virtualThreads = enabled;
+    }
+
+    /** Returns <code>true</code> if the JVM supports the virtual thread mode of <code>setVirtualThreads</code>. */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /** Returns the number of calls waiting for a worker thread. */
+    public synchronized int getQueueDepth() {
+        return workers == null ? 0 : workers.getQueueDepth();
+    }
+
+    /** Returns the number of worker threads currently carrying out calls. */
+    public synchronized int getActiveWorkers() {
+        return workers == null ? 0 : workers.getActiveCount();
+    }
+
+    /** Returns the number of calls refused because the worker pool was saturated, since the skeleton was last started. */
+    public synchronized long getRejectedCount() {
+        return workers == null ? 0 : workers.getRejectedCount();
+    }
+
+    /**
+     * Removes the memoized result of a call of a <code>Memoized</code> method, so that the next such call reaches the server
+     * object. The call is named by calling the method on the object given to <code>call</code>, as in
+     * <code>skeleton.invalidateMemoized(s -&gt; s.lookup("key"))</code>.
+     * 
+     * @param call
+     *            The call, which must call exactly one method of the remote interface on the object it is given.
+     * @return <code>true</code> if a result was removed.
+     * @throws IllegalArgumentException
+     *             If <code>call</code> does not call exactly one remote method.
+     * @throws NullPointerException
+     *             If <code>call</code> is <code>null</code>.
+     */
+    public boolean invalidateMemoized(RemoteCall<T, ?> call) {
+        if (call == null) throw new NullPointerException();
+        CallRecorder.Invocation invocation = new CallRecorder<T>(myInterface).record(call);
+        return dispatcher.invalidateMemoized(invocation.method, invocation.args);
+    }
+
+    /** Removes every memoized result. */
+    public void invalidateMemoized() {
+        dispatcher.invalidateMemoized();
+    }
+
+    /** Returns the number of calls of <code>Memoized</code> methods answered from memoized results. */
+    public long getMemoizedHits() {
+        return dispatcher.getMemoizedResults().getHits();
+    }
+
+    /** Returns the number of calls of <code>Memoized</code> methods that found no memoized result. */
+    public long getMemoizedMisses() {
+        return dispatcher.getMemoizedResults().getMisses();
+    }
+
+    /** Returns the number of memoized results removed because they expired or the memoized results were too many or too large. */
+    public long getMemoizedEvictions() {
+        return dispatcher.getMemoizedResults().getEvictions();
+    }
+
+    /**
+     * Returns the number of results removed from stubs' caches because an <code>Invalidates</code> method changed them, counting
+     * a result once for each connection that held it.
+     */
+    public long getInvalidationsSent() {
+        return dispatcher.getCacheDirectory().getInvalidationsSent();
+    }
+
+    /**
+     * Returns the number of distinct results of <code>Cached</code> methods named by <code>Invalidates</code> methods that stubs
+     * connected to this skeleton may hold.
+     */
+    public int getHeldResultCount() {
+        return dispatcher.getCacheDirectory().size();
+    }
+
+    /** Returns the number of stub connections currently open to this skeleton. */
+    public synchronized int getConnectionCount() {
+        return listener == null ? 0 : listener.getConnectionCount();
+    }
+
+    /** Returns <code>true</code> if the skeleton has been started and has not since stopped. */
+    boolean isRunning() {
+        Listener current = listener;
+        return current != null && current.isRunning();
+    }
+
+    /** Returns the pool of worker threads of the running skeleton, or <code>null</code> if it has not been started. */
+    WorkerPool getWorkers() {
+        return workers;
+    }
+
+    /** Returns the dispatcher carrying out calls for every transport, and for stubs in the same JVM. */
+    Dispatcher<T> getDispatcher() {
+        return dispatcher;
+    }
+
+    /** Returns the TCP address of the skeleton, or <code>null</code> if it has none yet or does not use TCP. */
     public InetSocketAddress getSockAddr(){
     	return sockAddr;
     }
+
+    /** Returns the address of the skeleton, of whichever type it was created with. */
+    public SocketAddress getAddress(){
+    	if(sharedMemory != null) return sharedMemory;
+    	return socketPath != null ? socketPath : sockAddr;
+    }
     
     public ListenThread getListenThread(){
-    	return listenThread;
+    	return listener instanceof ListenThread ? (ListenThread) listener : null;
     }
 
 
@@ -9,6 +9,7 @@ import java.lang.reflect.Proxy;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 
@@ -23,6 +24,25 @@ import java.util.Arrays;
  * The network address of the remote server is set when a stub is created, and may not be modified afterwards. Two stubs are equal
  * if they implement the same interface and carry the same remote server address - and would therefore connect to the same
  * skeleton. Stubs are serializable.
+ * 
+ * <p>
+ * A remote method may return a stream of results, as a <code>java.util.Iterator</code> or a
+ * <code>java.util.concurrent.Flow.Publisher</code>. The stub then returns a stream whose elements are sent by the skeleton only
+ * as they are consumed, a window at a time, so that neither side holds the whole result. The stream should be closed, by casting
+ * it to <code>java.io.Closeable</code> or cancelling its subscription, if it is not consumed to its end: until then, the skeleton
+ * keeps the stream and the stub keeps a connection for it. A stream dropped without being closed is closed once it is garbage
+ * collected, which may be much later; a stream with a subscriber is kept for the subscriber until the subscription is cancelled.
+ * 
+ * <p>
+ * Likewise, a parameter may be a <code>java.io.InputStream</code> or a <code>java.nio.channels.ReadableByteChannel</code>. The
+ * stub then sends the argument's bytes after the request, a window at a time as the server object reads them, instead of
+ * serializing them with the other arguments. The calling thread reads the argument while the call is in progress, and does not
+ * close it. Methods returning or taking streams cannot be called in a batch, and cannot be <code>Idempotent</code>: each call
+ * has its own stream.
+ * 
+ * <p>
+ * A parameter or return type may also be a <code>FileRegion</code>, whose bytes are sent straight from its file and received
+ * into a temporary file; see <code>FileRegion</code>. Such methods are treated as taking or returning streams.
  */
 public abstract class Stub {
     /**
@@ -30,12 +50,17 @@ public abstract class Stub {
      * 
      * <p>
      * The stub is assigned the address of the skeleton. The skeleton must either have been created with a fixed address, or else
-     * it must have already been started.
+     * it must have already been started. If the skeleton uses a Unix domain socket or shared memory, so does the stub.
      * 
      * <p>
      * This method should be used when the stub is created together with the skeleton. The stub may then be transmitted over the
      * network to enable communication with the skeleton.
      * 
+     * <p>
+     * While the skeleton is running, calls made through the stub itself do not use the network: they are passed directly to the
+     * skeleton's server object, on the calling thread, with arguments, results and exceptions copied as a remote call would copy
+     * them. Copies of the stub obtained by serialization always use the network.
+     * 
      * @param c
      *            A <code>Class</code> object representing the interface implemented by the remote object.
      * @param skeleton
@@ -56,9 +81,14 @@ public abstract class Stub {
         if (c == null || skeleton == null) {
             throw new NullPointerException("One or more arguments are null");
         }
-        if (skeleton.getSockAddr() == null) {
+        if (skeleton.getAddress() == null) {
             throw new IllegalStateException("Skeleton has not been assigned an address and has not yet been started");
         }
+        if (!(skeleton.getAddress() instanceof InetSocketAddress)) {
+            if (!c.isInterface() || !exceptionCheck(c)) throw new Error("not an remote interface");
+            ClientHandler<T> handler = new ClientHandler<T>(skeleton.getAddress(), c, TransportOptions.defaults(), skeleton);
+            return (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler));
+        }
         
         if ((skeleton.getSockAddr().getAddress().isAnyLocalAddress()) && ((Integer) skeleton.getSockAddr().getPort() != null)
                 && (skeleton.getSockAddr().getHostName() == null)) {
@@ -71,7 +101,7 @@ public abstract class Stub {
 //        System.out.println("socket address:" + skeleton.getSockAddr().toString());
 
     	InetSocketAddress address = new InetSocketAddress(skeleton.getSockAddr().getHostName(), skeleton.getSockAddr().getPort());
-    	InvocationHandler handler = new ClientHandler(address, c);
+    	InvocationHandler handler = new ClientHandler<T>(address, c, TransportOptions.defaults(), skeleton);
 
      	T result = (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[]{c}, handler));
 
@@ -100,7 +130,7 @@ public abstract class Stub {
      *            The hostname with which the stub will be created.
      * @return The stub created.
      * @throws IllegalStateException
-     *             If the skeleton has not been assigned a port.
+     *             If the skeleton has not been assigned a port, or does not use TCP.
      * @throws NullPointerException
      *             If any argument is <code>null</code>.
      * @throws Error
@@ -144,22 +174,244 @@ public abstract class Stub {
      *             throwing <code>RMIException</code>, or if an object implementing this interface cannot be dynamically created.
      */
     public static <T> T create(Class<T> c, InetSocketAddress address) {
-        if (c == null || address == null) throw new NullPointerException("One or more arguments are null");
+        return create(c, address, TransportOptions.defaults());
+    }
+
+    /**
+     * Creates a stub, given the address of a remote server and the transport options for the stub's connections.
+     * 
+     * <p>
+     * The options are carried with the stub when it is serialized. They do not affect stub equality: stubs for the same interface
+     * and address are equal whatever their options.
+     * 
+     * @param c
+     *            A <code>Class</code> object representing the interface implemented by the remote object.
+     * @param address
+     *            The network address of the remote skeleton.
+     * @param options
+     *            The transport options of the stub.
+     * @return The stub created.
+     * @throws NullPointerException
+     *             If any argument is <code>null</code>.
+     * @throws Error
+     *             If <code>c</code> does not represent a remote interface - an interface in which each method is marked as
+     *             throwing <code>RMIException</code>, or if an object implementing this interface cannot be dynamically created.
+     */
+    public static <T> T create(Class<T> c, InetSocketAddress address, TransportOptions options) {
+        if (c == null || address == null || options == null) throw new NullPointerException("One or more arguments are null");
        	if(!c.isInterface() || !exceptionCheck(c)) throw new Error("not an remote interface");
-        T result = (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, new ClientHandler<T>(address, c)));
+        T result = (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, new ClientHandler<T>(address, c, options)));
+        return result;
+    }
+
+    /**
+     * Creates a stub, given the path of the Unix domain socket of a skeleton on the same host.
+     * 
+     * <p>
+     * Calls made through the stub travel over the Unix domain socket rather than the loopback network. Such stubs may be
+     * serialized like any other, but are only usable on the host where the socket file exists.
+     * 
+     * @param c
+     *            A <code>Class</code> object representing the interface implemented by the remote object.
+     * @param path
+     *            The address of the skeleton's Unix domain socket.
+     * @return The stub created.
+     * @throws NullPointerException
+     *             If any argument is <code>null</code>.
+     * @throws Error
+     *             If <code>c</code> does not represent a remote interface - an interface in which each method is marked as
+     *             throwing <code>RMIException</code>, or if an object implementing this interface cannot be dynamically created.
+     */
+    public static <T> T create(Class<T> c, UnixDomainSocketAddress path) {
+        if (c == null || path == null) throw new NullPointerException("One or more arguments are null");
+        if (!c.isInterface() || !exceptionCheck(c)) throw new Error("not an remote interface");
+        T result = (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, new ClientHandler<T>(path, c)));
         return result;
     }
     
-    
+    /**
+     * Creates a stub, given the shared memory address of a skeleton on the same host.
+     * 
+     * <p>
+     * Calls made through the stub are exchanged with the skeleton through memory-mapped ring buffers, using the wait strategy and
+     * ring capacity given by the address.
+     * 
+     * @param c
+     *            A <code>Class</code> object representing the interface implemented by the remote object.
+     * @param address
+     *            The shared memory address of the skeleton.
+     * @return The stub created.
+     * @throws NullPointerException
+     *             If any argument is <code>null</code>.
+     * @throws Error
+     *             If <code>c</code> does not represent a remote interface - an interface in which each method is marked as
+     *             throwing <code>RMIException</code>, or if an object implementing this interface cannot be dynamically created.
+     */
+    public static <T> T create(Class<T> c, SharedMemoryAddress address) {
+        if (c == null || address == null) throw new NullPointerException("One or more arguments are null");
+        if (!c.isInterface() || !exceptionCheck(c)) throw new Error("not an remote interface");
+        T result = (T) (Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, new ClientHandler<T>(address, c)));
+        return result;
+    }
+
+    /**
+     * Returns an asynchronous view of a stub.
+     * 
+     * <p>
+     * Calls made through the view return a <code>CompletableFuture</code> at once instead of waiting for the skeleton, so that a
+     * thread may have many calls in flight on the stub's connections. Each call is given as a function calling one method on the
+     * stub:
+     * 
+     * <pre>
+     * CompletableFuture&lt;String&gt; pong = Stub.async(stub).call(s -&gt; s.pingpong("ping", 1));
+     * </pre>
+     * 
+     * <p>
+     * The view completes futures on the common fork-join pool and fails calls that take longer than the read timeout of the stub's
+     * transport options; <code>AsyncStub.withExecutor</code> and <code>AsyncStub.withTimeout</code> return views with other
+     * settings.
+     * 
+     * @param stub
+     *            A stub created by one of the <code>create</code> methods, or a copy of one.
+     * @return The asynchronous view.
+     * @throws IllegalArgumentException
+     *             If <code>stub</code> is not a stub.
+     * @throws NullPointerException
+     *             If <code>stub</code> is <code>null</code>.
+     */
+    public static <T> AsyncStub<T> async(T stub) {
+        return new AsyncStub<T>(stub, handler(stub));
+    }
+
+    /**
+     * Returns a batching view of a stub, whose calls the skeleton carries out in order.
+     * 
+     * <p>
+     * Calls added to the view are sent together, in one frame, when <code>BatchStub.send</code> is called, turning a round trip
+     * per call into one round trip per batch.
+     * 
+     * @param stub
+     *            A stub created by one of the <code>create</code> methods, or a copy of one.
+     * @return The batching view.
+     * @throws IllegalArgumentException
+     *             If <code>stub</code> is not a stub.
+     * @throws NullPointerException
+     *             If <code>stub</code> is <code>null</code>.
+     */
+    public static <T> BatchStub<T> batch(T stub) {
+        return batch(stub, false);
+    }
+
+    /**
+     * Returns a batching view of a stub.
+     * 
+     * @param stub
+     *            A stub created by one of the <code>create</code> methods, or a copy of one.
+     * @param parallel
+     *            <code>true</code> if the skeleton may carry out the calls of a batch concurrently, <code>false</code> if it must
+     *            carry them out one after another, in order.
+     * @return The batching view.
+     * @throws IllegalArgumentException
+     *             If <code>stub</code> is not a stub.
+     * @throws NullPointerException
+     *             If <code>stub</code> is <code>null</code>.
+     */
+    public static <T> BatchStub<T> batch(T stub, boolean parallel) {
+        return new BatchStub<T>(stub, handler(stub), parallel);
+    }
+
+    /**
+     * Returns a view of the results cached for a stub.
+     * 
+     * <p>
+     * The view removes cached results of <code>Cached</code> methods and counts cache hits, misses, evictions and removals by the
+     * skeleton, for every stub of the same remote interface and skeleton address.
+     * 
+     * @param stub
+     *            A stub created by one of the <code>create</code> methods, or a copy of one.
+     * @return The view of the cache.
+     * @throws IllegalArgumentException
+     *             If <code>stub</code> is not a stub.
+     * @throws NullPointerException
+     *             If <code>stub</code> is <code>null</code>.
+     */
+    public static <T> StubCache<T> cache(T stub) {
+        return new StubCache<T>(handler(stub));
+    }
+
+    /** Returns the handler of a stub. */
+    @SuppressWarnings("unchecked")
+    private static <T> ClientHandler<T> handler(T stub) {
+        if (stub == null) throw new NullPointerException();
+        if (!Proxy.isProxyClass(stub.getClass()) || !(Proxy.getInvocationHandler(stub) instanceof ClientHandler)) {
+            throw new IllegalArgumentException("not a stub");
+        }
+        return (ClientHandler<T>) Proxy.getInvocationHandler(stub);
+    }
+
+    /**
+     * Remote interfaces checked so far. Checking an interface also computes the identifiers of its methods, so that calls on its
+     * stubs find them ready.
+     */
+    private static final ClassValue<Boolean> remoteInterfaces = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> c) {
+            for (Method method : c.getMethods()) {
+                boolean flag = false;
+                for (Class<?> exception : method.getExceptionTypes()) {
+                    if (exception.getName().contains("RMIException")) flag = true;
+                }
+                if (!flag) return false;
+                if (method.isAnnotationPresent(OneWay.class) && method.getReturnType() != void.class) return false;
+                Cached cached = method.getAnnotation(Cached.class);
+                if (cached != null && (method.getReturnType() == void.class || method.isAnnotationPresent(OneWay.class)
+                        || cached.ttl() <= 0 || cached.maxEntries() <= 0 || cached.maxBytes() <= 0)) {
+                    return false;
+                }
+                Memoized memoized = method.getAnnotation(Memoized.class);
+                if (memoized != null && (method.getReturnType() == void.class || method.isAnnotationPresent(OneWay.class)
+                        || memoized.ttl() <= 0 || memoized.maxEntries() <= 0 || memoized.maxBytes() <= 0)) {
+                    return false;
+                }
+                Invalidates invalidates = method.getAnnotation(Invalidates.class);
+                if (invalidates != null && !CacheDirectory.check(c, invalidates)) return false;
+                Versioned versioned = method.getAnnotation(Versioned.class);
+                if (versioned != null && !checkVersioned(c, method, versioned)) return false;
+                boolean streamed = ResultStream.isStream(method) || UploadStream.hasUploads(method);
+                boolean oneWay = method.isAnnotationPresent(OneWay.class);
+                boolean idempotent = method.isAnnotationPresent(Idempotent.class);
+                if (streamed && (cached != null || memoized != null || versioned != null || oneWay || idempotent)) return false;
+            }
+            for (Method method : c.getMethods()) {
+                WireCodec.methodId(method);
+            }
+            return true;
+        }
+    };
+
+    /** Returns <code>true</code> if a <code>Versioned</code> method returns a value, and so does the version method it names. */
+    private static boolean checkVersioned(Class<?> c, Method method, Versioned versioned) {
+        if (method.getReturnType() == void.class || method.isAnnotationPresent(OneWay.class) || versioned.maxEntries() <= 0
+                || versioned.maxBytes() <= 0) {
+            return false;
+        }
+        try {
+            return c.getMethod(versioned.value(), method.getParameterTypes()).getReturnType() != void.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if every method of the interface is declared to throw <code>RMIException</code>, every
+     * <code>OneWay</code> method returns <code>void</code>, every <code>Cached</code> or <code>Memoized</code> method returns a
+     * value and has positive limits, every <code>Invalidates</code> method names cached methods, and every
+     * <code>Versioned</code> method returns a value, has positive limits and names a version method returning one. Methods
+     * returning an <code>Iterator</code>, <code>Flow.Publisher</code> or <code>FileRegion</code>, or taking an
+     * <code>InputStream</code>, <code>ReadableByteChannel</code> or <code>FileRegion</code>, may be none of these, nor
+     * <code>Idempotent</code>.
+     */
     public static boolean exceptionCheck(Class c){
-    	for(Method method: c.getMethods()){
-    		Class[] exceptions = method.getExceptionTypes();
-    		boolean flag = false;
-    		for(Class exception:exceptions){
-    			if(exception.getName().contains("RMIException") == true) flag = true;
-    		}
-    		if(!flag) return false;
-    	}
-    	return true;
+        return remoteInterfaces.get(c);
     }
 }
@@ -0,0 +1,107 @@
+package rmi;
+
+import java.io.IOException;
+
+/**
+ * View of the results cached for a stub.
+ *
+ * <p>
+ * Results of <code>Cached</code> methods are kept per skeleton address and remote interface, so the view shows, and removes,
+ * results cached through any stub for the same skeleton and interface. Single results are named by a call, as in
+ *
+ * <pre>
+ * Stub.cache(stub).invalidate(s -&gt; s.lookup("key"));
+ * </pre>
+ *
+ * <p>
+ * The counts are kept from when the cache was created. An expired result found by a call counts as both an eviction and a miss.
+ * Results removed by the skeleton, or because a connection to it closed, are not counted as evictions.
+ */
+public final class StubCache<T> {
+    private final ResultCache cache;
+    private final CallRecorder<T> recorder;
+
+    StubCache(ClientHandler<T> handler) {
+        this.cache = handler.getCache();
+        this.recorder = new CallRecorder<T>(handler.getMyClass());
+    }
+
+    /**
+     * Removes the cached result of a call, if there is one.
+     *
+     * @param call
+     *            The call, which must call exactly one method of the remote interface on the object it is given.
+     * @return <code>true</code> if a result was removed.
+     * @throws IllegalArgumentException
+     *             If <code>call</code> does not call exactly one remote method.
+     */
+    public boolean invalidate(RemoteCall<T, ?> call) {
+        if (call == null) throw new NullPointerException();
+        CallRecorder.Invocation invocation = recorder.record(call);
+        try {
+            return cache.invalidate(invocation.method, WireCodec.encodeRequest(invocation.method, invocation.args));
+        } catch (IOException e) {
+            // A call whose arguments cannot be encoded is never made, so its result cannot be cached.
+            return false;
+        }
+    }
+
+    /** Removes every cached result. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /** Returns the number of calls served from the cache. */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /** Returns the number of calls of cached methods that found no result in the cache. */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /** Returns the fraction of calls of cached methods served from the cache, or zero if there have been none. */
+    public double getHitRatio() {
+        long hits = cache.getHits();
+        long calls = hits + cache.getMisses();
+        return calls == 0 ? 0 : (double) hits / calls;
+    }
+
+    /** Returns the number of results removed because they expired or the cache was full. */
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    /**
+     * Returns the number of results that the skeleton has removed because an <code>Invalidates</code> method changed them,
+     * whether or not they were still cached.
+     */
+    public long getInvalidations() {
+        return cache.getInvalidations();
+    }
+
+    /**
+     * Returns the mean time, in milliseconds, from the return of an <code>Invalidates</code> method on the skeleton until the
+     * results it changed were removed from the cache. The time is measured with the clocks of both hosts, and is only as accurate
+     * as they agree.
+     */
+    public double getMeanInvalidationLag() {
+        return cache.getMeanInvalidationLag();
+    }
+
+    /** Returns the longest time, in milliseconds, from a change on the skeleton until the results it changed were removed. */
+    public long getMaxInvalidationLag() {
+        return cache.getMaxInvalidationLag();
+    }
+
+    /** Returns the number of results cached. */
+    public int size() {
+        return cache.size();
+    }
+
+    /** Returns the total size, in bytes, of the results cached and of the arguments identifying them. */
+    public long getBytes() {
+        return cache.getBytes();
+    }
+}
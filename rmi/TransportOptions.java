@@ -0,0 +1,275 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Socket options for the connections between stubs and skeletons.
+ *
+ * <p>
+ * Options objects are immutable: each <code>with</code> method returns a copy with one option changed. The default options leave
+ * every socket option at the system default. Two presets are provided: <code>latency()</code> for chatty traffic of small calls,
+ * and <code>throughput()</code> for calls carrying large arguments or results.
+ *
+ * <p>
+ * On the skeleton side, the options apply to the listening socket and to every accepted connection, and the read timeout is the
+ * time a connection may stay idle - with no call in progress and no request arriving - before the skeleton closes it. On the stub
+ * side, the options apply to each connection the stub opens, and the read timeout is the time a call waits for its result
+ * before failing with an <code>RMIException</code>. Options that do not apply to a transport, such as <code>TCP_NODELAY</code> on a
+ * Unix domain socket, are ignored.
+ */
+public final class TransportOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final TransportOptions DEFAULTS = new TransportOptions(false, false, 0, 0, 0, 0, 0, 0, 0);
+
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int backlog;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int writeCoalescingWindow;
+    private final int writeCoalescingLimit;
+
+    private TransportOptions(boolean tcpNoDelay, boolean keepAlive, int sendBufferSize, int receiveBufferSize, int backlog,
+                             int connectTimeout, int readTimeout, int writeCoalescingWindow, int writeCoalescingLimit) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.backlog = backlog;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.writeCoalescingWindow = writeCoalescingWindow;
+        this.writeCoalescingLimit = writeCoalescingLimit;
+    }
+
+    /** Returns the default options, which leave every socket option at the system default and set no timeouts. */
+    public static TransportOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns options for low call latency: Nagle's algorithm is disabled, so that small frames are sent at once rather than held
+     * back waiting for the acknowledgement of earlier ones, and dead connections are detected with keep-alive probes.
+     */
+    public static TransportOptions latency() {
+        return DEFAULTS.withTcpNoDelay(true).withKeepAlive(true);
+    }
+
+    /**
+     * Returns options for high throughput of large calls: send and receive buffers of 1 MB, allowing large TCP windows, and an
+     * accept backlog of 1024 connections. Nagle's algorithm is left enabled so that small writes are coalesced.
+     */
+    public static TransportOptions throughput() {
+        return DEFAULTS.withSendBufferSize(1 << 20).withReceiveBufferSize(1 << 20).withBacklog(1024).withKeepAlive(true);
+    }
+
+    /** Returns a copy of these options with <code>TCP_NODELAY</code> set as given. */
+    public TransportOptions withTcpNoDelay(boolean enabled) {
+        return new TransportOptions(enabled, keepAlive, sendBufferSize, receiveBufferSize, backlog, connectTimeout, readTimeout,
+                                    writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /** Returns a copy of these options with <code>SO_KEEPALIVE</code> set as given. */
+    public TransportOptions withKeepAlive(boolean enabled) {
+        return new TransportOptions(tcpNoDelay, enabled, sendBufferSize, receiveBufferSize, backlog, connectTimeout, readTimeout,
+                                    writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given <code>SO_SNDBUF</code> size.
+     *
+     * @param bytes
+     *            The buffer size, or zero for the system default.
+     * @throws IllegalArgumentException
+     *             If <code>bytes</code> is negative.
+     */
+    public TransportOptions withSendBufferSize(int bytes) {
+        return new TransportOptions(tcpNoDelay, keepAlive, nonNegative(bytes), receiveBufferSize, backlog, connectTimeout,
+                                    readTimeout, writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given <code>SO_RCVBUF</code> size.
+     *
+     * @param bytes
+     *            The buffer size, or zero for the system default.
+     * @throws IllegalArgumentException
+     *             If <code>bytes</code> is negative.
+     */
+    public TransportOptions withReceiveBufferSize(int bytes) {
+        return new TransportOptions(tcpNoDelay, keepAlive, sendBufferSize, nonNegative(bytes), backlog, connectTimeout,
+                                    readTimeout, writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given accept backlog, used by skeletons.
+     *
+     * @param connections
+     *            The maximum number of pending connections, or zero for the system default.
+     * @throws IllegalArgumentException
+     *             If <code>connections</code> is negative.
+     */
+    public TransportOptions withBacklog(int connections) {
+        return new TransportOptions(tcpNoDelay, keepAlive, sendBufferSize, receiveBufferSize, nonNegative(connections),
+                                    connectTimeout, readTimeout, writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given connect timeout, used by stubs.
+     *
+     * @param millis
+     *            The timeout in milliseconds, or zero to wait as long as the system allows.
+     * @throws IllegalArgumentException
+     *             If <code>millis</code> is negative.
+     */
+    public TransportOptions withConnectTimeout(int millis) {
+        return new TransportOptions(tcpNoDelay, keepAlive, sendBufferSize, receiveBufferSize, backlog, nonNegative(millis),
+                                    readTimeout, writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given read timeout.
+     *
+     * @param millis
+     *            The timeout in milliseconds, or zero for no timeout.
+     * @throws IllegalArgumentException
+     *             If <code>millis</code> is negative.
+     */
+    public TransportOptions withReadTimeout(int millis) {
+        return new TransportOptions(tcpNoDelay, keepAlive, sendBufferSize, receiveBufferSize, backlog, connectTimeout,
+                                    nonNegative(millis), writeCoalescingWindow, writeCoalescingLimit);
+    }
+
+    /**
+     * Returns a copy of these options with the given write coalescing, used by stubs.
+     *
+     * <p>
+     * Without coalescing, each request is written and flushed to the connection by the calling thread, costing a system call per
+     * call. With coalescing, the first request written to an idle connection is held back for up to <code>windowMicros</code>
+     * microseconds, and requests from other threads arriving in that time are written behind it and flushed with it, sending
+     * many calls in one system call and often one packet. The buffered requests are flushed early once they reach
+     * <code>maxBytes</code>. A longer window and larger limit raise the throughput of many concurrent callers at the cost of up to
+     * one window of latency for each call; the thread whose request opened the window waits it out before returning.
+     *
+     * @param windowMicros
+     *            The longest time a request is held back, in microseconds, or zero to flush each request at once.
+     * @param maxBytes
+     *            The number of buffered bytes at which requests are flushed without waiting for the window to end.
+     * @throws IllegalArgumentException
+     *             If either value is negative, or <code>maxBytes</code> is zero while <code>windowMicros</code> is not.
+     */
+    public TransportOptions withWriteCoalescing(int windowMicros, int maxBytes) {
+        if (nonNegative(windowMicros) > 0 && nonNegative(maxBytes) == 0) {
+            throw new IllegalArgumentException("coalescing limit must be positive");
+        }
+        return new TransportOptions(tcpNoDelay, keepAlive, sendBufferSize, receiveBufferSize, backlog, connectTimeout,
+                                    readTimeout, windowMicros, windowMicros == 0 ? 0 : maxBytes);
+    }
+
+    public boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /** Returns the write coalescing window in microseconds, or zero if requests are flushed at once. */
+    public int getWriteCoalescingWindow() {
+        return writeCoalescingWindow;
+    }
+
+    /** Returns the number of buffered bytes at which coalesced requests are flushed. */
+    public int getWriteCoalescingLimit() {
+        return writeCoalescingLimit;
+    }
+
+    /** Applies the options to a connected or unconnected TCP socket. The read timeout is not set as a socket option. */
+    void apply(Socket socket) throws IOException {
+        if (tcpNoDelay) socket.setTcpNoDelay(true);
+        if (keepAlive) socket.setKeepAlive(true);
+        if (sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+        if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    /** Applies the options that must be set before a listening socket is bound. */
+    void apply(ServerSocket serverSocket) throws IOException {
+        if (receiveBufferSize > 0) serverSocket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    /** Applies the options supported by a channel. */
+    void apply(NetworkChannel channel) throws IOException {
+        if (tcpNoDelay) setIfSupported(channel, StandardSocketOptions.TCP_NODELAY, true);
+        if (keepAlive) setIfSupported(channel, StandardSocketOptions.SO_KEEPALIVE, true);
+        if (sendBufferSize > 0) setIfSupported(channel, StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        if (receiveBufferSize > 0) setIfSupported(channel, StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+    }
+
+    private static <V> void setIfSupported(NetworkChannel channel, SocketOption<V> option, V value) throws IOException {
+        if (channel.supportedOptions().contains(option)) channel.setOption(option, value);
+    }
+
+    private static int nonNegative(int value) {
+        if (value < 0) throw new IllegalArgumentException("option value must not be negative");
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TransportOptions)) return false;
+        TransportOptions options = (TransportOptions) other;
+        return tcpNoDelay == options.tcpNoDelay && keepAlive == options.keepAlive && sendBufferSize == options.sendBufferSize
+                && receiveBufferSize == options.receiveBufferSize && backlog == options.backlog
+                && connectTimeout == options.connectTimeout && readTimeout == options.readTimeout
+                && writeCoalescingWindow == options.writeCoalescingWindow && writeCoalescingLimit == options.writeCoalescingLimit;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (tcpNoDelay ? 1 : 0) + (keepAlive ? 2 : 0);
+        hash = 31 * hash + sendBufferSize;
+        hash = 31 * hash + receiveBufferSize;
+        hash = 31 * hash + backlog;
+        hash = 31 * hash + connectTimeout;
+        hash = 31 * hash + readTimeout;
+        hash = 31 * hash + writeCoalescingWindow;
+        return 31 * hash + writeCoalescingLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportOptions[tcpNoDelay=" + tcpNoDelay + ", keepAlive=" + keepAlive + ", sendBufferSize=" + sendBufferSize
+                + ", receiveBufferSize=" + receiveBufferSize + ", backlog=" + backlog + ", connectTimeout=" + connectTimeout
+                + ", readTimeout=" + readTimeout + ", writeCoalescingWindow=" + writeCoalescingWindow + ", writeCoalescingLimit="
+                + writeCoalescingLimit + "]";
+    }
+}
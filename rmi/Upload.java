@@ -0,0 +1,229 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stub side of the stream arguments of a call: sends their bytes to the skeleton as it asks for them.
+ *
+ * <p>
+ * The request carries <code>Boolean.TRUE</code> in place of each stream argument that is not <code>null</code>; see
+ * <code>UploadStream</code>. Once the request is sent, the calling thread reads each argument in chunks of up to
+ * <code>CHUNK_BYTES</code> bytes and sends them in <code>UPLOAD</code> frames, never more than the skeleton has asked for.
+ * Arguments are sent in whatever order the server object reads them. Sending stops once every argument has been read to its end,
+ * or as soon as the call returns. The arguments are not closed.
+ *
+ * <p>
+ * A <code>FileRegion</code> argument is sent in the same way, in frames of up to <code>FileRegion.CHUNK_BYTES</code> bytes, each
+ * written from the file to the connection with <code>Connection.transfer</code>, so that its bytes are not copied through the
+ * heap where the connection is a socket channel. The file is opened when the skeleton first asks for its bytes and closed once
+ * the upload ends.
+ */
+class Upload {
+    /** Largest number of bytes sent in one frame. */
+    static final int CHUNK_BYTES = 32 * 1024;
+
+    private final Connection connection;
+    private final InputStream[] sources;
+    private final FileRegion[] regions;
+    /** Open files of the region arguments, by argument position. */
+    private final FileChannel[] files;
+    /** Bytes of each region argument sent so far. */
+    private final long[] sent;
+    /** Guards the credit and the state of the upload. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /** Bytes of each argument asked for and not yet sent. */
+    private final long[] credit;
+    /** Whether each argument has been sent to its end. */
+    private final boolean[] done;
+    /** Call identifier of the call, learned from the skeleton's first demand. */
+    private long callId = -1;
+    /** Whether the connection has closed. */
+    private boolean closed = false;
+
+    /**
+     * Prepares to send the stream arguments of a call.
+     *
+     * @param connection
+     *            The connection the call is sent on.
+     * @param method
+     *            The method called.
+     * @param arguments
+     *            The arguments of the call.
+     */
+    Upload(Connection connection, Method method, Object[] arguments) {
+        this.connection = connection;
+        Class<?>[] types = method.getParameterTypes();
+        sources = new InputStream[types.length];
+        regions = new FileRegion[types.length];
+        files = new FileChannel[types.length];
+        sent = new long[types.length];
+        credit = new long[types.length];
+        done = new boolean[types.length];
+        for (int index = 0; index < types.length; ++index) {
+            if (!UploadStream.isUpload(types[index]) || arguments[index] == null) continue;
+            Object argument = arguments[index];
+            if (argument instanceof FileRegion) {
+                regions[index] = (FileRegion) argument;
+            } else if (argument instanceof ReadableByteChannel) {
+                sources[index] = Channels.newInputStream((ReadableByteChannel) argument);
+            } else {
+                sources[index] = (InputStream) argument;
+            }
+        }
+    }
+
+    /** Returns a copy of the arguments of a call in which each stream argument is replaced by its mark. */
+    static Object[] marked(Method method, Object[] arguments) {
+        Object[] marked = arguments.clone();
+        Class<?>[] types = method.getParameterTypes();
+        for (int index = 0; index < types.length; ++index) {
+            if (UploadStream.isUpload(types[index]) && marked[index] != null) marked[index] = Boolean.TRUE;
+        }
+        return marked;
+    }
+
+    /** Receives a demand for bytes of an argument, or <code>null</code> if the connection has closed, on the reader thread. */
+    void receive(Frame frame) {
+        lock.lock();
+        try {
+            if (frame == null) {
+                closed = true;
+            } else if (frame.payload.length == 5) {
+                ByteBuffer demand = ByteBuffer.wrap(frame.payload);
+                int index = demand.get() & 0xff;
+                int bytes = demand.getInt();
+                if (index < credit.length && bytes > 0) credit[index] += bytes;
+                callId = frame.callId;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the arguments as the skeleton asks for them, until each has been sent to its end or the call has returned.
+     *
+     * @param response
+     *            The future for the response to the call.
+     * @throws RMIException
+     *             If an argument cannot be read. The skeleton is told, so that the server object's reads fail, as it is if reading
+     *             an argument throws an unchecked exception, which is thrown as it is.
+     * @throws IOException
+     *             If the connection fails.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting for the skeleton to ask for bytes.
+     */
+    void send(CompletableFuture<Frame> response) throws RMIException, IOException, InterruptedException {
+        try {
+            sendAll(response);
+        } finally {
+            for (FileChannel file : files) {
+                if (file != null) file.close();
+            }
+        }
+    }
+
+    private void sendAll(CompletableFuture<Frame> response) throws RMIException, IOException, InterruptedException {
+        response.whenComplete((frame, error) -> signal());
+        while (true) {
+            int index = -1;
+            int length;
+            lock.lock();
+            try {
+                while (true) {
+                    if (response.isDone()) return;
+                    if (closed) throw new IOException("connection closed");
+                    boolean remaining = false;
+                    for (int argument = 0; argument < sources.length; ++argument) {
+                        if ((sources[argument] == null && regions[argument] == null) || done[argument]) continue;
+                        remaining = true;
+                        if (index < 0 && credit[argument] > 0) index = argument;
+                    }
+                    if (!remaining) return;
+                    if (index >= 0) break;
+                    changed.await();
+                }
+                length = (int) Math.min(credit[index], regions[index] == null ? CHUNK_BYTES : FileRegion.CHUNK_BYTES);
+            } finally {
+                lock.unlock();
+            }
+            if (regions[index] != null) {
+                sendRegion(index, length);
+                continue;
+            }
+
+            byte[] payload = new byte[2 + length];
+            payload[1] = (byte) index;
+            int count;
+            try {
+                count = sources[index].read(payload, 2, length);
+            } catch (IOException | RuntimeException e) {
+                connection.control(Frame.UPLOAD, callId, new byte[] { Frame.UPLOAD_FAILED, payload[1] });
+                if (e instanceof RuntimeException) throw (RuntimeException) e;
+                throw new RMIException("unable to read stream argument", e);
+            }
+            if (count < 0) {
+                connection.control(Frame.UPLOAD, callId, new byte[] { Frame.STREAM_END, payload[1] });
+                done[index] = true;
+                continue;
+            }
+            if (count < length) {
+                byte[] shorter = new byte[2 + count];
+                System.arraycopy(payload, 0, shorter, 0, shorter.length);
+                payload = shorter;
+            }
+            connection.control(Frame.UPLOAD, callId, payload);
+            lock.lock();
+            try {
+                credit[index] -= count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Sends up to <code>length</code> bytes of a region argument straight from its file, opening the file first if need be. */
+    private void sendRegion(int index, int length) throws RMIException, IOException {
+        FileRegion region = regions[index];
+        if (files[index] == null) {
+            try {
+                files[index] = region.open();
+            } catch (IOException e) {
+                connection.control(Frame.UPLOAD, callId, new byte[] { Frame.UPLOAD_FAILED, (byte) index });
+                throw new RMIException("unable to read file region argument", e);
+            }
+        }
+        int count = (int) Math.min(length, region.getLength() - sent[index]);
+        boolean last = sent[index] + count == region.getLength();
+        byte[] head = new byte[] { last ? Frame.STREAM_END : 0, (byte) index };
+        connection.transfer(Frame.UPLOAD, callId, head, files[index], region.getOffset() + sent[index], count);
+        sent[index] += count;
+        lock.lock();
+        try {
+            credit[index] -= count;
+            done[index] = last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
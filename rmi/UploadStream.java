@@ -0,0 +1,226 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Skeleton side of a stream argument: an input stream over bytes received from the stub as the server object reads them.
+ *
+ * <p>
+ * A parameter of type <code>InputStream</code> or <code>ReadableByteChannel</code> is sent in the request only as a mark saying
+ * whether the argument is <code>null</code>. Its bytes follow in <code>UPLOAD</code> frames, which the stub sends only as the
+ * skeleton grants it credit with <code>DEMAND</code> frames. Each stream first asks for <code>WINDOW</code> bytes and then, each
+ * time the server object has read half that many, for as many again, so no more than a window of each argument is held, however
+ * long the stream. Reads block until bytes arrive. Once the call returns, the stream ends and further bytes are discarded; if the
+ * connection closes or the stub cannot read the argument, reads fail with an <code>IOException</code>.
+ *
+ * <p>
+ * A <code>FileRegion</code> argument is received in the same way, with a window of <code>FileRegion.WINDOW</code> bytes, and
+ * written to a temporary file before the server object is called. The file is deleted once the call returns.
+ */
+class UploadStream extends InputStream {
+    /** Number of bytes of an argument the skeleton asks for ahead of the server object. */
+    static final int WINDOW = 256 * 1024;
+
+    private final Consumer<Frame> holder;
+    private final long callId;
+    private final int index;
+    private final int window;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+    /** Position of the next byte to read in the first chunk. */
+    private int position = 0;
+    /** Bytes asked for and not yet received. Guarded by <code>this</code>. */
+    private long credit;
+    /** Bytes read since the stub was last asked for more. Guarded by <code>this</code>. */
+    private int consumed = 0;
+    private boolean ended = false;
+    private IOException failure = null;
+    /** Temporary file holding a <code>FileRegion</code> argument, if any. */
+    private Path temporary = null;
+
+    /**
+     * Creates the stream of an argument, which receives nothing until <code>start</code> asks the stub for bytes.
+     *
+     * @param holder
+     *            Sends frames to the stub's connection.
+     * @param callId
+     *            The call identifier of the request.
+     * @param index
+     *            The position of the argument.
+     * @param type
+     *            The type of the parameter.
+     */
+    UploadStream(Consumer<Frame> holder, long callId, int index, Class<?> type) {
+        this.holder = holder;
+        this.callId = callId;
+        this.index = index;
+        this.window = type == FileRegion.class ? FileRegion.WINDOW : WINDOW;
+        this.credit = window;
+    }
+
+    /** Returns <code>true</code> if arguments of a parameter type are sent as streams. */
+    static boolean isUpload(Class<?> type) {
+        return type == InputStream.class || type == ReadableByteChannel.class || type == FileRegion.class;
+    }
+
+    /** Returns <code>true</code> if a method has parameters whose arguments are sent as streams. */
+    static boolean hasUploads(Method method) {
+        for (Class<?> type : method.getParameterTypes()) {
+            if (isUpload(type)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the argument to pass to the server object for a parameter of the given type: this stream, a channel over it, or,
+     * once every byte has been received into a temporary file, a region covering the file.
+     *
+     * @throws IOException
+     *             If the bytes of a region cannot be received or written.
+     */
+    Object argument(Class<?> type) throws IOException {
+        if (type == ReadableByteChannel.class) return Channels.newChannel(this);
+        if (type != FileRegion.class) return this;
+        temporary = Files.createTempFile("rmi-region", null);
+        long length = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            for (int count; (count = read(buffer, 0, buffer.length)) >= 0; ) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+                while (bytes.hasRemaining()) {
+                    file.write(bytes);
+                }
+                length += count;
+            }
+        }
+        return new FileRegion(temporary, 0, length);
+    }
+
+    /** Asks the stub for the first window of bytes. */
+    void start() {
+        demand(window);
+    }
+
+    /**
+     * Receives bytes of the argument from an <code>UPLOAD</code> frame, on the connection's reader thread.
+     *
+     * @return <code>false</code> if the stub sent more bytes than it was asked for, which fails the stream.
+     */
+    synchronized boolean receive(byte[] payload) {
+        if (ended || failure != null) return true;
+        int length = payload.length - 2;
+        if (length > credit) {
+            fail(new IOException("stub sent more of the stream argument than asked for"));
+            return false;
+        }
+        credit -= length;
+        if (length > 0) {
+            byte[] chunk = new byte[length];
+            System.arraycopy(payload, 2, chunk, 0, length);
+            chunks.add(chunk);
+        }
+        if ((payload[0] & Frame.UPLOAD_FAILED) != 0) failure = new IOException("stub unable to read stream argument");
+        else if ((payload[0] & Frame.STREAM_END) != 0) ended = true;
+        notifyAll();
+        return true;
+    }
+
+    /** Ends the stream with an exception, which reads throw once the bytes received are used up. */
+    synchronized void fail(IOException error) {
+        if (failure == null && !ended) failure = error;
+        notifyAll();
+    }
+
+    /** Ends the stream once the call has returned, deleting the temporary file of a region. Reads then find its end. */
+    void finish() {
+        synchronized (this) {
+            ended = true;
+            chunks.clear();
+            notifyAll();
+        }
+        if (temporary == null) return;
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // Left for the system to clean up with its other temporary files.
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > buffer.length - offset) throw new IndexOutOfBoundsException();
+        if (length == 0) return 0;
+        int count = 0;
+        int demand = 0;
+        synchronized (this) {
+            try {
+                while (chunks.isEmpty() && !ended && failure == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for stream argument", e);
+            }
+            if (chunks.isEmpty()) {
+                if (failure != null) throw failure;
+                return -1;
+            }
+            while (count < length && !chunks.isEmpty()) {
+                byte[] chunk = chunks.peek();
+                int copied = Math.min(length - count, chunk.length - position);
+                System.arraycopy(chunk, position, buffer, offset + count, copied);
+                count += copied;
+                position += copied;
+                if (position == chunk.length) {
+                    chunks.poll();
+                    position = 0;
+                }
+            }
+            consumed += count;
+            if (consumed >= window / 2 && !ended && failure == null) {
+                demand = consumed;
+                credit += demand;
+                consumed = 0;
+            }
+        }
+        if (demand > 0) demand(demand);
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        int available = 0;
+        for (byte[] chunk : chunks) {
+            available += chunk.length;
+        }
+        return available - position;
+    }
+
+    /** Discards the rest of the argument. The stub keeps sending what it has been asked for, which is then ignored. */
+    @Override
+    public synchronized void close() {
+        ended = true;
+        chunks.clear();
+        notifyAll();
+    }
+
+    private void demand(int bytes) {
+        holder.accept(new Frame(Frame.DEMAND, callId, ByteBuffer.allocate(5).put((byte) index).putInt(bytes).array()));
+    }
+}
@@ -0,0 +1,128 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Deep copies of call arguments and results for calls that do not leave the JVM.
+ *
+ * <p>
+ * A copy has the same effect as sending a value through Java serialization and reading it back, which is what a remote call does,
+ * but common values are copied directly: immutable values are shared, and arrays and the standard list, set and map classes are
+ * copied element by element, preserving shared references and cycles. As soon as any other object is found in the graph, the
+ * whole graph is copied by serialization instead, so that custom serialization methods and shared references between such
+ * objects behave exactly as they would remotely.
+ *
+ * <p>
+ * <code>LinkedHashMap</code> counts as such an object: whether it is ordered by access is not visible through its public methods,
+ * and serialization is the only way to copy it that keeps the ordering.
+ */
+class ValueCopier {
+    /** Thrown internally when the graph contains an object that must be copied by serialization. */
+    private static class NeedsSerialization extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NeedsSerialization() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final NeedsSerialization NEEDS_SERIALIZATION = new NeedsSerialization();
+
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    private ValueCopier() {
+    }
+
+    /**
+     * Copies an object graph.
+     *
+     * @param value
+     *            The value to copy; may be <code>null</code>.
+     * @return A copy of the value, sharing no mutable state with it.
+     * @throws IOException
+     *             If the graph contains an object that cannot be serialized.
+     * @throws ClassNotFoundException
+     *             If a class in the graph cannot be resolved when the copy is read back.
+     */
+    static Object copy(Object value) throws IOException, ClassNotFoundException {
+        try {
+            return new ValueCopier().copyValue(value);
+        } catch (NeedsSerialization e) {
+            return serializedCopy(value);
+        }
+    }
+
+    private Object copyValue(Object value) throws NeedsSerialization {
+        if (value == null || isImmutable(value.getClass())) return value;
+
+        Object copy = copies.get(value);
+        if (copy != null) return copy;
+
+        Class<?> type = value.getClass();
+        if (type.isArray()) {
+            int length = Array.getLength(value);
+            if (type.getComponentType().isPrimitive()) {
+                copy = Array.newInstance(type.getComponentType(), length);
+                System.arraycopy(value, 0, copy, 0, length);
+                copies.put(value, copy);
+                return copy;
+            }
+            Object[] source = (Object[]) value;
+            Object[] target = (Object[]) Array.newInstance(type.getComponentType(), length);
+            copies.put(value, target);
+            for (int i = 0; i < length; i++) {
+                target[i] = copyValue(source[i]);
+            }
+            return target;
+        }
+
+        if (type == ArrayList.class || type == LinkedList.class || type == HashSet.class || type == LinkedHashSet.class) {
+            Collection<Object> target = newCollection(type, ((Collection<?>) value).size());
+            copies.put(value, target);
+            for (Object element : (Collection<?>) value) {
+                target.add(copyValue(element));
+            }
+            return target;
+        }
+
+        if (type == HashMap.class) {
+            Map<?, ?> source = (Map<?, ?>) value;
+            Map<Object, Object> target = new HashMap<Object, Object>(source.size() * 2);
+            copies.put(value, target);
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                target.put(copyValue(entry.getKey()), copyValue(entry.getValue()));
+            }
+            return target;
+        }
+
+        throw NEEDS_SERIALIZATION;
+    }
+
+    private static Collection<Object> newCollection(Class<?> type, int size) {
+        if (type == ArrayList.class) return new ArrayList<Object>(size);
+        if (type == LinkedList.class) return new LinkedList<Object>();
+        if (type == HashSet.class) return new HashSet<Object>(size * 2);
+        return new LinkedHashSet<Object>(size * 2);
+    }
+
+    /** Returns <code>true</code> for classes whose instances may be shared between caller and callee. */
+    private static boolean isImmutable(Class<?> type) {
+        return type == String.class || type == Integer.class || type == Long.class || type == Boolean.class
+                || type == Double.class || type == Float.class || type == Short.class || type == Byte.class
+                || type == Character.class || type == Class.class || type.isEnum()
+                || (type.getSuperclass() != null && type.getSuperclass().isEnum());
+    }
+
+    private static Object serializedCopy(Object value) throws IOException, ClassNotFoundException {
+        return Frame.deserialize(Frame.serialize(value));
+    }
+}
@@ -0,0 +1,59 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface whose results carry a version
+    tag, so that unchanged results are not sent again.
+
+    <p>
+    The value names another method of the same interface, with the same
+    parameter types, that returns the version of the result the marked
+    method would return for the same arguments: any value that changes
+    whenever the result does, such as a revision number or a checksum.
+    Tags are equal if they are encoded to the same bytes for transmission.
+
+    <p>
+    The stub retains the last result of each call of the method with equal
+    arguments, along with its tag, and sends the tag with the next such
+    call. The skeleton first calls the version method; if the tag is
+    unchanged, it answers with a short frame saying so, without calling the
+    marked method, and the stub returns a fresh copy of the retained result.
+    Otherwise the marked method is called and its result sent with the new
+    tag. The version is obtained before the result, so that a change made
+    between the two can only cause a result to be sent again, never an old
+    result to be kept. Exceptions are not retained.
+
+    <p>
+    Retained results are kept per skeleton address and remote interface,
+    and shared by every stub for them in the JVM. Once a method has
+    <code>maxEntries</code> results, or they take more than
+    <code>maxBytes</code> bytes, the least recently used are dropped.
+    Retained results do not expire: a dropped result is simply sent in full
+    next time. Only synchronous calls through a stub send tags; other calls
+    always receive the full result.
+
+    <p>
+    An interface with a versioned method that returns <code>void</code> or
+    is <code>OneWay</code>, whose version method is missing or returns
+    <code>void</code>, or with limits that are not positive, is not a remote
+    interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Versioned
+{
+    /** Name of the method returning the version of a result. */
+    String value();
+
+    /** Largest number of results retained for the method. */
+    int maxEntries() default 1024;
+
+    /** Largest total size, in bytes, of the results retained for the
+        method, of their tags and of the arguments that identify them. */
+    long maxBytes() default 1 << 20;
+}
@@ -0,0 +1,66 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads on runtimes that provide them.
+ *
+ * <p>
+ * The library is compiled for runtimes that predate virtual threads, so the virtual thread builder is looked up reflectively.
+ * On a runtime without virtual threads, <code>isSupported</code> returns <code>false</code>.
+ */
+class VirtualThreads {
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            nameMethod = builder.getMethod("name", String.class, long.class);
+            factoryMethod = builder.getMethod("factory");
+            // Preview implementations may refuse to create virtual threads at run time.
+            ((ThreadFactory) factoryMethod.invoke(ofVirtualMethod.invoke(null))).newThread(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        } catch (Throwable t) {
+            ofVirtualMethod = null;
+        }
+        ofVirtual = ofVirtualMethod;
+        name = nameMethod;
+        factory = factoryMethod;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /** Returns <code>true</code> if the running JVM can create virtual threads. */
+    static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns a factory creating virtual threads named with the given prefix followed by a sequence number.
+     *
+     * @param prefix
+     *            Prefix of the thread names.
+     * @return The thread factory.
+     * @throws UnsupportedOperationException
+     *             If the running JVM does not support virtual threads.
+     */
+    static ThreadFactory factory(String prefix) {
+        if (ofVirtual == null) throw new UnsupportedOperationException("virtual threads are not supported by this JVM");
+        try {
+            return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(null), prefix, 0L));
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("unable to create virtual thread factory", e);
+        }
+    }
+}
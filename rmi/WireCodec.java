@@ -0,0 +1,466 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary encoding of frame payloads.
+ *
+ * <p>
+ * A request names the method called by a 64-bit method identifier: a hash of the method's name and parameter types, computed
+ * independently by the stub and the skeleton from the remote interface. Identifiers do not depend on the order in which reflection
+ * lists the methods of an interface, so stub and skeleton agree on them without exchanging anything, and overloads of one name
+ * have distinct identifiers.
+ *
+ * <p>
+ * Values - the arguments of a request and the value carried by a response - are encoded natively when they are <code>null</code>,
+ * strings or boxed primitives. Any other value is written with Java serialization. All serialized values of one payload share a
+ * single object stream, so that references shared between the arguments of a call are preserved as they were when the whole call
+ * was serialized.
+ *
+ * <p>
+ * A payload is laid out as the length of its native section, written as a variable-length integer, then the native section, then
+ * the object stream if any value needed one. The native section of a request holds the method identifier as eight bytes, the
+ * number of arguments, and one value per argument; that of a response holds one value. Each value is a one-byte tag followed by
+ * the value's encoding: variable-length zigzag integers for integral types, IEEE 754 bits for floating point types, and the length
+ * and characters of strings, each character in one to three bytes as in modified UTF-8. A value read from the object stream has
+ * only its tag in the native section.
+ */
+final class WireCodec {
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte OBJECT = 11;
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private static final ConcurrentHashMap<Method, Long> methodIds = new ConcurrentHashMap<Method, Long>();
+
+    private WireCodec() {
+    }
+
+    /** A decoded request. */
+    static final class Request {
+        final long methodId;
+        final Object[] arguments;
+
+        private Request(long methodId, Object[] arguments) {
+            this.methodId = methodId;
+            this.arguments = arguments;
+        }
+    }
+
+    /**
+     * Returns the identifier of a method: the 64-bit FNV-1a hash of its name and parameter type descriptors. The return type and
+     * the declaring interface do not take part, so a method inherited from several interfaces has one identifier.
+     */
+    static long methodId(Method method) {
+        Long id = methodIds.get(method);
+        if (id == null) {
+            StringBuilder signature = new StringBuilder(method.getName()).append('(');
+            for (Class<?> type : method.getParameterTypes()) {
+                signature.append(type.descriptorString());
+            }
+            signature.append(')');
+            long hash = 0xcbf29ce484222325L;
+            for (int index = 0; index < signature.length(); ++index) {
+                hash = (hash ^ signature.charAt(index)) * 0x100000001b3L;
+            }
+            id = hash;
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    /**
+     * Encodes a request.
+     *
+     * @param method
+     *            The method called.
+     * @param arguments
+     *            The arguments of the call, or <code>null</code> if the method takes none.
+     * @return The payload of the request frame.
+     * @throws IOException
+     *             If an argument cannot be serialized.
+     */
+    static byte[] encodeRequest(Method method, Object[] arguments) throws IOException {
+        Output out = new Output();
+        out.writeLong(methodId(method));
+        if (arguments == null) {
+            out.writeVarLong(0);
+        } else {
+            out.writeVarLong(arguments.length);
+            for (Object argument : arguments) {
+                out.writeValue(argument);
+            }
+        }
+        return out.toPayload();
+    }
+
+    /**
+     * Decodes a request.
+     *
+     * @param payload
+     *            The payload of the request frame.
+     * @return The method identifier and the arguments.
+     * @throws IOException
+     *             If the payload is malformed.
+     * @throws ClassNotFoundException
+     *             If the class of a serialized argument cannot be found.
+     */
+    static Request decodeRequest(byte[] payload) throws IOException, ClassNotFoundException {
+        Input in = new Input(payload);
+        long methodId = in.readLong();
+        long count = in.readVarLong();
+        if (count < 0 || count > 255) throw new IOException("invalid argument count " + count);
+        Object[] arguments = count == 0 ? NO_ARGUMENTS : new Object[(int) count];
+        for (int index = 0; index < arguments.length; ++index) {
+            arguments[index] = in.readValue();
+        }
+        in.finish();
+        return new Request(methodId, arguments);
+    }
+
+    /**
+     * Reads the method identifier of a request without decoding its arguments.
+     *
+     * @param payload
+     *            The payload of the request frame.
+     * @return The identifier of the method called.
+     * @throws IOException
+     *             If the payload is too short to hold a method identifier.
+     */
+    static long peekMethodId(byte[] payload) throws IOException {
+        return new Input(payload).readLong();
+    }
+
+    /**
+     * Encodes the value carried by a response.
+     *
+     * @param value
+     *            The value, which may be <code>null</code>.
+     * @return The payload of the response frame.
+     * @throws IOException
+     *             If the value cannot be serialized.
+     */
+    static byte[] encodeValue(Object value) throws IOException {
+        Output out = new Output();
+        out.writeValue(value);
+        return out.toPayload();
+    }
+
+    /**
+     * Decodes the value carried by a response.
+     *
+     * @param payload
+     *            The payload of the response frame.
+     * @return The value.
+     * @throws IOException
+     *             If the payload is malformed.
+     * @throws ClassNotFoundException
+     *             If the class of a serialized value cannot be found.
+     */
+    static Object decodeValue(byte[] payload) throws IOException, ClassNotFoundException {
+        Input in = new Input(payload);
+        Object value = in.readValue();
+        in.finish();
+        return value;
+    }
+
+    /** Writer of the native section of a payload, with the object stream alongside it. */
+    private static final class Output {
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+        private ByteArrayOutputStream objectBytes = null;
+        private ObjectOutputStream objects = null;
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                byte[] larger = new byte[Math.max(bytes.length * 2, length + more)];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        /** Writes an unsigned variable-length integer, seven bits per byte, least significant first. */
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            int count = value.length();
+            writeVarLong(count);
+            ensure(3 * count);
+            for (int index = 0; index < count; ++index) {
+                char c = value.charAt(index);
+                if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xc0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3f));
+                } else {
+                    bytes[length++] = (byte) (0xe0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                writeByte(NULL);
+                return;
+            }
+            Class<?> type = value.getClass();
+            if (type == String.class) {
+                writeByte(STRING);
+                writeString((String) value);
+            } else if (type == Integer.class) {
+                writeByte(INT);
+                writeZigZag((Integer) value);
+            } else if (type == Long.class) {
+                writeByte(LONG);
+                writeZigZag((Long) value);
+            } else if (type == Boolean.class) {
+                writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (type == Double.class) {
+                writeByte(DOUBLE);
+                writeLong(Double.doubleToRawLongBits((Double) value));
+            } else if (type == Float.class) {
+                writeByte(FLOAT);
+                writeInt(Float.floatToRawIntBits((Float) value));
+            } else if (type == Byte.class) {
+                writeByte(BYTE);
+                writeByte((Byte) value);
+            } else if (type == Short.class) {
+                writeByte(SHORT);
+                writeZigZag((Short) value);
+            } else if (type == Character.class) {
+                writeByte(CHAR);
+                writeVarLong((Character) value);
+            } else {
+                writeByte(OBJECT);
+                if (objects == null) {
+                    objectBytes = new ByteArrayOutputStream();
+                    objects = new ObjectOutputStream(objectBytes);
+                }
+                objects.writeObject(value);
+            }
+        }
+
+        /** Returns the complete payload: the length of the native section, the native section and the object stream. */
+        byte[] toPayload() throws IOException {
+            byte[] header = new byte[10];
+            int headerLength = 0;
+            long value = length;
+            while ((value & ~0x7fL) != 0) {
+                header[headerLength++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            header[headerLength++] = (byte) value;
+
+            int objectLength = 0;
+            if (objects != null) {
+                objects.close();
+                objectLength = objectBytes.size();
+            }
+            byte[] payload = new byte[headerLength + length + objectLength];
+            System.arraycopy(header, 0, payload, 0, headerLength);
+            System.arraycopy(bytes, 0, payload, headerLength, length);
+            if (objects != null) {
+                objectBytes.writeTo(new ArrayWriter(payload, headerLength + length));
+            }
+            return payload;
+        }
+    }
+
+    /** Stream writing into a region of an array known to be large enough. */
+    private static final class ArrayWriter extends OutputStream {
+        private final byte[] target;
+        private int position;
+
+        ArrayWriter(byte[] target, int position) {
+            this.target = target;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) {
+            target[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, target, position, len);
+            position += len;
+        }
+    }
+
+    /** Reader of a payload. The object stream is opened when the first serialized value is read. */
+    private static final class Input {
+        private final byte[] bytes;
+        private int position = 0;
+        /** End of the native section; the end of the payload until the section length has been read. */
+        private int end;
+        private ObjectInputStream objects = null;
+
+        Input(byte[] payload) throws IOException {
+            bytes = payload;
+            end = payload.length;
+            long nativeLength = readVarLong();
+            if (nativeLength < 0 || nativeLength > payload.length - position) {
+                throw new IOException("invalid payload section length " + nativeLength);
+            }
+            end = position + (int) nativeLength;
+        }
+
+        private void require(int count) throws EOFException {
+            if (count > end - position) throw new EOFException("truncated payload");
+        }
+
+        int readByte() throws EOFException {
+            require(1);
+            return bytes[position++];
+        }
+
+        long readLong() throws EOFException {
+            require(8);
+            long value = 0;
+            for (int index = 0; index < 8; ++index) {
+                value = (value << 8) | (bytes[position++] & 0xff);
+            }
+            return value;
+        }
+
+        int readInt() throws EOFException {
+            require(4);
+            int value = 0;
+            for (int index = 0; index < 4; ++index) {
+                value = (value << 8) | (bytes[position++] & 0xff);
+            }
+            return value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("malformed variable-length integer");
+        }
+
+        long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            long count = readVarLong();
+            if (count < 0 || count > end - position) throw new IOException("invalid string length " + count);
+            char[] chars = new char[(int) count];
+            for (int index = 0; index < chars.length; ++index) {
+                int b = readByte() & 0xff;
+                if (b < 0x80) {
+                    chars[index] = (char) b;
+                } else if (b < 0xe0) {
+                    chars[index] = (char) (((b & 0x1f) << 6) | continuation());
+                } else {
+                    chars[index] = (char) (((b & 0x0f) << 12) | (continuation() << 6) | continuation());
+                }
+            }
+            return new String(chars);
+        }
+
+        private int continuation() throws IOException {
+            int b = readByte() & 0xff;
+            if ((b & 0xc0) != 0x80) throw new IOException("malformed string");
+            return b & 0x3f;
+        }
+
+        Object readValue() throws IOException, ClassNotFoundException {
+            byte tag = (byte) readByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return (byte) readByte();
+            case SHORT:
+                return (short) readZigZag();
+            case CHAR:
+                return (char) readVarLong();
+            case INT:
+                return (int) readZigZag();
+            case LONG:
+                return readZigZag();
+            case FLOAT:
+                return Float.intBitsToFloat(readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case STRING:
+                return readString();
+            case OBJECT:
+                if (objects == null) {
+                    objects = new ObjectInputStream(new ByteArrayInputStream(bytes, end, bytes.length - end));
+                }
+                return objects.readObject();
+            default:
+                throw new IOException("unknown value tag " + tag);
+            }
+        }
+
+        /** Checks that the whole native section has been read. */
+        void finish() throws IOException {
+            if (position != end) throw new IOException("unexpected data after payload");
+            if (objects != null) objects.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package rmi;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads carrying out calls for a skeleton.
+ *
+ * <p>
+ * With platform threads, the pool keeps <code>coreThreads</code> threads, creates more up to <code>maxThreads</code> only when its
+ * queue of waiting calls is full, and refuses calls once both the threads and the queue are exhausted. With virtual threads, every
+ * call is run on a new virtual thread and nothing is queued; at most <code>maxThreads + queueCapacity</code> calls may be in
+ * progress at once.
+ *
+ * <p>
+ * A refused call is not queued: the transport answers it immediately with an <code>OVERLOADED</code> frame, which the stub
+ * reports as an <code>OverloadException</code>.
+ */
+class WorkerPool {
+    private final ThreadPoolExecutor executor;
+    private final ThreadFactory virtualThreads;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a worker pool.
+     *
+     * @param name
+     *            Name used for the pool's threads.
+     * @param coreThreads
+     *            Number of threads kept even when idle. Ignored for virtual threads.
+     * @param maxThreads
+     *            Largest number of threads.
+     * @param queueCapacity
+     *            Number of calls that may wait for a thread. With zero, calls are handed directly to a thread.
+     * @param virtual
+     *            <code>true</code> to run each call on a virtual thread of its own.
+     * @throws UnsupportedOperationException
+     *             If <code>virtual</code> is <code>true</code> and the JVM does not support virtual threads.
+     */
+    WorkerPool(final String name, int coreThreads, int maxThreads, int queueCapacity, boolean virtual) {
+        if (virtual) {
+            executor = null;
+            virtualThreads = VirtualThreads.factory("rmi-worker-" + name + "-");
+            long limit = (long) maxThreads + queueCapacity;
+            permits = new Semaphore((int) Math.min(limit, Integer.MAX_VALUE));
+            return;
+        }
+        virtualThreads = null;
+        permits = null;
+
+        BlockingQueue<Runnable> queue;
+        if (queueCapacity == 0) queue = new SynchronousQueue<Runnable>();
+        else queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+
+        executor = new ThreadPoolExecutor(coreThreads, maxThreads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rmi-worker-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                throw new RejectedExecutionException();
+            }
+        });
+    }
+
+    /**
+     * Submits a call for execution.
+     *
+     * @param call
+     *            The call.
+     * @return <code>true</code> if the call was accepted, <code>false</code> if the pool is saturated.
+     * @throws RejectedExecutionException
+     *             If the pool has been shut down.
+     */
+    boolean submit(Runnable call) {
+        if (shutdown) throw new RejectedExecutionException("worker pool shut down");
+        if (offer(call)) return true;
+        if (executor != null && executor.isShutdown()) throw new RejectedExecutionException("worker pool shut down");
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Runs a task on the pool if a thread, or a place in the queue, is free for it, without counting a refusal. Used for work
+     * that the caller will do itself if the pool cannot take it.
+     *
+     * @param task
+     *            The task.
+     * @return <code>true</code> if the task was accepted.
+     */
+    boolean offer(final Runnable task) {
+        if (shutdown) return false;
+        if (executor == null) {
+            if (!permits.tryAcquire()) return false;
+            active.incrementAndGet();
+            virtualThreads.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        active.decrementAndGet();
+                        permits.release();
+                    }
+                }
+            }).start();
+            return true;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /** Lets calls already accepted complete, and refuses new ones. */
+    void shutdown() {
+        shutdown = true;
+        if (executor != null) executor.shutdown();
+    }
+
+    int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    int getActiveCount() {
+        return executor == null ? active.get() : executor.getActiveCount();
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+}
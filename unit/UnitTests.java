@@ -8,6 +8,30 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.ConnectionPoolTest}</li>
+    <li>{@link rmi.MultiplexTest}</li>
+    <li>{@link rmi.SelectorListenerTest}</li>
+    <li>{@link rmi.WorkerPoolTest}</li>
+    <li>{@link rmi.UnixSocketTest}</li>
+    <li>{@link rmi.LocalCallTest}</li>
+    <li>{@link rmi.SharedMemoryTest}</li>
+    <li>{@link rmi.TransportOptionsTest}</li>
+    <li>{@link rmi.WireCodecTest}</li>
+    <li>{@link rmi.MethodInvokerTest}</li>
+    <li>{@link rmi.DispatchTableTest}</li>
+    <li>{@link rmi.ObjectMethodTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.OneWayTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.SingleFlightTest}</li>
+    <li>{@link rmi.ResultCacheTest}</li>
+    <li>{@link rmi.MemoizedTest}</li>
+    <li>{@link rmi.NearCacheTest}</li>
+    <li>{@link rmi.VersionedTest}</li>
+    <li>{@link rmi.StreamTest}</li>
+    <li>{@link rmi.UploadTest}</li>
+    <li>{@link rmi.FileRegionTest}</li>
+    <li>{@link rmi.VirtualThreadTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +45,31 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.ConnectionPoolTest.class,
+                         rmi.MultiplexTest.class,
+                         rmi.SelectorListenerTest.class,
+                         rmi.WorkerPoolTest.class,
+                         rmi.UnixSocketTest.class,
+                         rmi.LocalCallTest.class,
+                         rmi.SharedMemoryTest.class,
+                         rmi.TransportOptionsTest.class,
+                         rmi.WireCodecTest.class,
+                         rmi.MethodInvokerTest.class,
+                         rmi.DispatchTableTest.class,
+                         rmi.ObjectMethodTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.OneWayTest.class,
+                         rmi.BatchTest.class,
+                         rmi.SingleFlightTest.class,
+                         rmi.ResultCacheTest.class,
+                         rmi.MemoizedTest.class,
+                         rmi.NearCacheTest.class,
+                         rmi.VersionedTest.class,
+                         rmi.StreamTest.class,
+                         rmi.UploadTest.class,
+                         rmi.FileRegionTest.class,
+                         rmi.VirtualThreadTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,220 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for asynchronous stubs.
+
+    <p>
+    Many calls are started from the test thread through the asynchronous
+    view of a stub before any result is waited for; every future must
+    complete with the result of its own call. Exceptions thrown by the server
+    must complete futures exceptionally, futures must be completed on the
+    executor of the view, and a call taking longer than the view's timeout
+    must fail with <code>RMIException</code>. Calls that do not call exactly
+    one remote method must be rejected.
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking asynchronous stubs";
+
+    /** Number of calls kept in flight at once. */
+    private static final int            CALLS = 64;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7107);
+    /** Test skeleton. */
+    private Skeleton<DelayInterface>    skeleton = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<DelayInterface>(DelayInterface.class,
+                                                new DelayServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        DelayInterface              stub =
+            Stub.create(DelayInterface.class, address);
+        AsyncStub<DelayInterface>   async = Stub.async(stub);
+
+        task("keeping many calls in flight");
+
+        List<CompletableFuture<Integer>>    futures =
+            new ArrayList<CompletableFuture<Integer>>();
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = index;
+            futures.add(async.call(s -> s.echo(value, 10)));
+        }
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            if(result(futures.get(index)) != index)
+                throw new TestFailed("incorrect result from call");
+        }
+
+        task("completing futures with remote exceptions");
+
+        try
+        {
+            async.call(s -> s.fail("expected")).get(1, TimeUnit.SECONDS);
+            throw new TestFailed("exception from server not propagated");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof IllegalStateException) ||
+               !"expected".equals(e.getCause().getMessage()))
+            {
+                throw new TestFailed("wrong exception from server", e);
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("completing futures on the given executor");
+
+        final AtomicInteger executed = new AtomicInteger();
+        Executor            executor = runnable ->
+        {
+            executed.incrementAndGet();
+            new Thread(runnable).start();
+        };
+
+        if(result(async.withExecutor(executor).call(s -> s.echo(1, 0))) != 1)
+            throw new TestFailed("incorrect result from call");
+
+        if(executed.get() == 0)
+            throw new TestFailed("future not completed on executor");
+
+        task("timing out a slow call");
+
+        long            begin = System.currentTimeMillis();
+
+        try
+        {
+            async.withTimeout(100, TimeUnit.MILLISECONDS)
+                .call(s -> s.echo(0, 600)).get(2, TimeUnit.SECONDS);
+            throw new TestFailed("slow call did not time out");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+                throw new TestFailed("wrong exception from timeout", e);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        if(System.currentTimeMillis() - begin >= 600)
+            throw new TestFailed("call timed out too late");
+
+        task("rejecting calls of no or several methods");
+
+        try
+        {
+            async.call(s -> 0);
+            throw new TestFailed("call of no method accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            async.call(s -> s.echo(s.echo(0, 0), 0));
+            throw new TestFailed("call of two methods accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task();
+    }
+
+    /** Waits for a call expected to succeed.
+
+        @param future The future of the call.
+        @return The result of the call.
+        @throws TestFailed If the call fails.
+     */
+    private int result(CompletableFuture<Integer> future) throws TestFailed
+    {
+        try
+        {
+            return future.get(1, TimeUnit.SECONDS);
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface DelayInterface
+    {
+        public int echo(int value, int millis) throws RMIException;
+        public int fail(String message) throws RMIException;
+    }
+
+    /** Server returning its arguments after a delay. */
+    private static class DelayServer implements DelayInterface
+    {
+        @Override
+        public int echo(int value, int millis)
+        {
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+
+            return value;
+        }
+
+        @Override
+        public int fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for batched calls.
+
+    <p>
+    The calls of a sequential batch must be carried out in the order in which
+    they were added, and each future must complete with the result or
+    exception of its own call. The calls of a parallel batch must be carried
+    out concurrently: each call waits until all have started. A batch that
+    cannot be sent must fail as a whole.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking batched calls";
+
+    /** Number of calls in the sequential batch. */
+    private static final int            CALLS = 10;
+    /** Number of calls in the parallel batch. */
+    private static final int            PARALLEL_CALLS = 3;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7109);
+    /** Address at which no skeleton is listening. */
+    private final InetSocketAddress     deadAddress =
+        new InetSocketAddress(7110);
+    /** Test skeleton. */
+    private Skeleton<BatchInterface>    skeleton = null;
+    /** Arguments of the calls received by the server, in order. */
+    private final List<Integer>         received =
+        Collections.synchronizedList(new ArrayList<Integer>());
+    /** Released once every call of the parallel batch has started. */
+    private final CountDownLatch        started =
+        new CountDownLatch(PARALLEL_CALLS);
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<BatchInterface>(BatchInterface.class,
+                                                new BatchServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        BatchInterface  stub = Stub.create(BatchInterface.class, address);
+
+        task("carrying out a sequential batch in order");
+
+        BatchStub<BatchInterface>           batch = Stub.batch(stub);
+        List<CompletableFuture<Integer>>    futures =
+            new ArrayList<CompletableFuture<Integer>>();
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = index;
+
+            if(index == CALLS / 2)
+                futures.add(batch.add(s -> s.fail(value)));
+            else
+                futures.add(batch.add(s -> s.echo(value)));
+        }
+
+        if(batch.size() != CALLS)
+            throw new TestFailed("calls not recorded");
+
+        send(batch);
+
+        if(batch.size() != 0)
+            throw new TestFailed("batch not emptied after sending");
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            if(received.get(index) != index)
+                throw new TestFailed("calls carried out out of order");
+        }
+
+        task("completing each call with its own outcome");
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            CompletableFuture<Integer>  future = futures.get(index);
+
+            if(index == CALLS / 2)
+            {
+                try
+                {
+                    future.getNow(-1);
+                    throw new TestFailed("exception from server not returned");
+                }
+                catch(CompletionException e)
+                {
+                    if(!(e.getCause() instanceof IllegalStateException))
+                        throw new TestFailed("wrong exception from server", e);
+                }
+            }
+            else if(result(future) != index)
+                throw new TestFailed("incorrect result from call");
+        }
+
+        task("carrying out a parallel batch concurrently");
+
+        BatchStub<BatchInterface>           parallel = Stub.batch(stub, true);
+        List<CompletableFuture<Boolean>>    together =
+            new ArrayList<CompletableFuture<Boolean>>();
+
+        for(int index = 0; index < PARALLEL_CALLS; ++index)
+            together.add(parallel.add(s -> s.meet()));
+
+        send(parallel);
+
+        for(CompletableFuture<Boolean> future : together)
+        {
+            if(!future.getNow(false))
+                throw new TestFailed("parallel calls not concurrent");
+        }
+
+        task("failing a batch that cannot be sent");
+
+        BatchStub<BatchInterface>   dead =
+            Stub.batch(Stub.create(BatchInterface.class, deadAddress));
+        CompletableFuture<Integer>  lost = dead.add(s -> s.echo(0));
+
+        try
+        {
+            dead.send();
+            throw new TestFailed("batch sent to missing skeleton");
+        }
+        catch(RMIException e) { }
+
+        try
+        {
+            lost.getNow(0);
+            throw new TestFailed("call of failed batch completed normally");
+        }
+        catch(CompletionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+                throw new TestFailed("wrong exception from failed batch", e);
+        }
+
+        task();
+    }
+
+    /** Returns the result of a call that is expected to have succeeded.
+
+        @param future The future of the call.
+        @return The result of the call.
+        @throws TestFailed If the call has not completed, or failed.
+     */
+    private int result(CompletableFuture<Integer> future) throws TestFailed
+    {
+        try
+        {
+            return future.getNow(null);
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception from call", e);
+        }
+    }
+
+    /** Sends a batch that is expected to be carried out.
+
+        @param batch The batch.
+        @throws TestFailed If the batch fails as a whole.
+     */
+    private void send(BatchStub<BatchInterface> batch) throws TestFailed
+    {
+        try
+        {
+            batch.send();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to send batch", e);
+        }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface BatchInterface
+    {
+        public int echo(int value) throws RMIException;
+        public int fail(int value) throws RMIException;
+        public boolean meet() throws RMIException;
+    }
+
+    /** Server recording the calls it receives. */
+    private class BatchServer implements BatchInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            received.add(value);
+            return value;
+        }
+
+        @Override
+        public int fail(int value)
+        {
+            received.add(value);
+            throw new IllegalStateException("expected");
+        }
+
+        @Override
+        public boolean meet()
+        {
+            started.countDown();
+
+            try
+            {
+                return started.await(1, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+        }
+    }
+}
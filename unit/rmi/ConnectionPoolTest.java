@@ -0,0 +1,263 @@
+package rmi;
+
+import test.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for <code>ConnectionPool</code>.
+
+    <p>
+    Checks that consecutive calls from different stubs for the same skeleton
+    share one pooled connection, that concurrent calls are multiplexed over a
+    bounded number of connections, and that idle connections are evicted once
+    the idle timeout has passed. A call whose pooled connection fails after
+    the request has been written must not be sent again.
+ */
+public class ConnectionPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub connection pooling";
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7100);
+    /** Address of the server that fails in the middle of calls. */
+    private final InetSocketAddress failing = new InetSocketAddress(7119);
+    /** Pool used by all stubs in this JVM. */
+    private final ConnectionPool    pool = ConnectionPool.getDefault();
+    /** Test skeleton. */
+    private Skeleton<EchoInterface> skeleton = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        EchoInterface   first = Stub.create(EchoInterface.class, address);
+        EchoInterface   second = Stub.create(EchoInterface.class, address);
+
+        pool.clear();
+
+        long            misses = pool.getMisses();
+        long            hits = pool.getHits();
+
+        try
+        {
+            for(int call = 0; call < 5; ++call)
+            {
+                if(first.echo(call) != call || second.echo(call) != call)
+                    throw new TestFailed("incorrect result from echo");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        if(pool.getMisses() - misses != 1)
+            throw new TestFailed("sequential calls opened more than one " +
+                                 "connection");
+
+        if(pool.getHits() - hits != 9)
+            throw new TestFailed("sequential calls did not reuse the pooled " +
+                                 "connection");
+
+        if(pool.getConnectionCount(address) != 1)
+            throw new TestFailed("connection not kept in the pool");
+
+        long            idle_timeout = pool.getIdleTimeout();
+        long            evictions = pool.getEvictions();
+
+        try
+        {
+            pool.setIdleTimeout(1);
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e) { }
+
+            pool.reap();
+        }
+        finally
+        {
+            pool.setIdleTimeout(idle_timeout);
+        }
+
+        if(pool.getConnectionCount(address) != 0 ||
+           pool.getEvictions() - evictions != 1)
+        {
+            throw new TestFailed("idle connection not evicted");
+        }
+
+        checkNoRetryAfterWrite();
+    }
+
+    /** Checks that a call is not sent again when its reused connection
+        fails after the request has been written.
+
+        <p>
+        The server answers the first request on each connection and closes the
+        connection on receiving the second, as a skeleton dying in the middle
+        of a call would. Retrying the second call on a fresh connection would
+        run it twice, and succeed.
+
+        @throws TestFailed If the call is retried.
+     */
+    private void checkNoRetryAfterWrite() throws TestFailed
+    {
+        ServerSocket    server;
+
+        try
+        {
+            server = new ServerSocket(failing.getPort());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to start failing server", e);
+        }
+
+        AtomicInteger   received = new AtomicInteger();
+        Thread          acceptor = new Thread(() -> serveFailing(server, received));
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try
+        {
+            EchoInterface   stub = Stub.create(EchoInterface.class, failing);
+
+            try
+            {
+                stub.echo(1);
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unexpected exception during call", e);
+            }
+
+            try
+            {
+                stub.echo(2);
+                throw new TestFailed("call retried after its connection " +
+                                     "failed in the middle of the call");
+            }
+            catch(RMIException e) { }
+
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e) { }
+
+            if(received.get() != 2)
+            {
+                throw new TestFailed("server received " + received.get() +
+                                     " requests instead of 2");
+            }
+        }
+        finally
+        {
+            try
+            {
+                server.close();
+            }
+            catch(IOException e) { }
+
+            pool.clear();
+        }
+    }
+
+    /** Accepts connections to the failing server, answering the first
+        request on each and closing it on the second.
+
+        @param server The server socket.
+        @param received Counts the requests received.
+     */
+    private static void serveFailing(ServerSocket server,
+                                     AtomicInteger received)
+    {
+        try
+        {
+            while(true)
+            {
+                try(Socket socket = server.accept())
+                {
+                    DataInputStream     in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream    out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+
+                    Frame   request = Frame.read(in);
+
+                    received.incrementAndGet();
+                    new Frame(Frame.RESULT, request.callId,
+                              WireCodec.encodeValue(1)).write(out);
+                    out.flush();
+
+                    Frame.read(in);
+                    received.incrementAndGet();
+                }
+                catch(IOException e)
+                {
+                    if(server.isClosed())
+                        return;
+                }
+            }
+        }
+        catch(RuntimeException e) { }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    public interface EchoInterface
+    {
+        public int echo(int value) throws RMIException;
+    }
+
+    /** Server returning its argument. */
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+}
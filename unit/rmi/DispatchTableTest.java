@@ -0,0 +1,283 @@
+package rmi;
+
+import test.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/** Unit test for dispatch tables.
+
+    <p>
+    The table of a remote interface must map the identifier of each of the
+    interface's methods, overloaded and inherited methods included, to the
+    invoker of that method, and must return <code>null</code> for any other
+    identifier. A method declared with the same signature by two
+    superinterfaces must have a single entry, for the first declaration
+    found, while two methods with different signatures and the same
+    identifier must be rejected with an <code>Error</code>. Because
+    identifiers are 64-bit hashes, the test forces such a collision by
+    seeding the identifier cache of <code>WireCodec</code>.
+ */
+public class DispatchTableTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking dispatch tables";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("finding methods");
+
+        DispatchTable   table = new DispatchTable(DispatchInterface.class,
+                                                  new DispatchServer());
+        Set<Long>       ids = new HashSet<Long>();
+
+        for(Method method : DispatchInterface.class.getMethods())
+        {
+            long            id = WireCodec.methodId(method);
+            MethodInvoker   invoker = table.get(id);
+
+            if(invoker == null)
+                throw new TestFailed("no entry for " + method);
+
+            if(!invoker.getMethod().equals(method))
+            {
+                throw new TestFailed("entry for " + method + " invokes " +
+                                     invoker.getMethod());
+            }
+
+            ids.add(id);
+        }
+
+        if(!"string".equals(call(table, "pingpong", new Object[] {"x"},
+                                 String.class)) ||
+           !"int".equals(call(table, "pingpong", new Object[] {1},
+                              int.class)) ||
+           !"both".equals(call(table, "pingpong", new Object[] {"x", 1},
+                               String.class, int.class)))
+        {
+            throw new TestFailed("overload called incorrectly");
+        }
+
+        task("missing methods");
+
+        try
+        {
+            if(table.get(WireCodec.methodId(
+                    Object.class.getMethod("toString"))) != null)
+            {
+                throw new TestFailed("entry for method not in interface");
+            }
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find toString", e);
+        }
+
+        Random          random = new Random(1);
+
+        for(int probe = 0; probe < 10000; ++probe)
+        {
+            long            id = random.nextLong();
+
+            if(!ids.contains(id) && table.get(id) != null)
+                throw new TestFailed("entry for unknown identifier " + id);
+        }
+
+        task("methods declared twice");
+
+        DispatchTable   both = new DispatchTable(BothInterface.class,
+                                                 new BothServer());
+        Method          first = null;
+        int             declarations = 0;
+
+        for(Method method : BothInterface.class.getMethods())
+        {
+            if(method.getName().equals("name"))
+            {
+                if(first == null)
+                    first = method;
+                ++declarations;
+            }
+        }
+
+        if(declarations != 2)
+            throw new TestFailed("interface does not declare method twice");
+
+        MethodInvoker   invoker = both.get(WireCodec.methodId(first));
+
+        if(invoker == null || !invoker.getMethod().equals(first))
+            throw new TestFailed("first declaration not in table");
+
+        try
+        {
+            if(!"both".equals(invoker.invoke(null)))
+                throw new TestFailed("incorrect result from name");
+        }
+        catch(InvocationTargetException e)
+        {
+            throw new TestFailed("unexpected exception from server", e);
+        }
+
+        task("colliding identifiers");
+
+        collide(CollidingInterface.class, "first", "second");
+
+        try
+        {
+            new DispatchTable(CollidingInterface.class,
+                              new CollidingServer());
+            throw new TestFailed("colliding identifiers accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Calls a method through the table and returns the result.
+
+        @throws TestFailed If the method cannot be found or called.
+     */
+    private Object call(DispatchTable table, String name, Object[] arguments,
+                        Class<?>... types) throws TestFailed
+    {
+        try
+        {
+            Method          method =
+                DispatchInterface.class.getMethod(name, types);
+
+            return table.get(WireCodec.methodId(method)).invoke(arguments);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find " + name, e);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw new TestFailed("unexpected exception from server", e);
+        }
+    }
+
+    /** Gives the second method the identifier of the first.
+
+        @throws TestFailed If the identifier cache cannot be seeded.
+     */
+    @SuppressWarnings("unchecked")
+    private void collide(Class<?> c, String first, String second)
+        throws TestFailed
+    {
+        try
+        {
+            Field           field =
+                WireCodec.class.getDeclaredField("methodIds");
+            field.setAccessible(true);
+
+            Map<Method, Long>   methodIds =
+                (Map<Method, Long>) field.get(null);
+
+            methodIds.put(c.getMethod(second, String.class),
+                          WireCodec.methodId(c.getMethod(first, int.class)));
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to seed identifier cache", e);
+        }
+    }
+
+    /** Interface with overloaded methods. */
+    public interface BaseInterface
+    {
+        public String pingpong(String ping) throws RMIException;
+        public String pingpong(int ping) throws RMIException;
+    }
+
+    /** Interface with overloaded and inherited methods. */
+    public interface DispatchInterface extends BaseInterface
+    {
+        public String pingpong(String ping, int num) throws RMIException;
+        public void reset() throws RMIException;
+    }
+
+    /** Server object for the dispatch interface. */
+    private static class DispatchServer implements DispatchInterface
+    {
+        @Override
+        public String pingpong(String ping)
+        {
+            return "string";
+        }
+
+        @Override
+        public String pingpong(int ping)
+        {
+            return "int";
+        }
+
+        @Override
+        public String pingpong(String ping, int num)
+        {
+            return "both";
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+    }
+
+    /** First interface declaring <code>name</code>. */
+    public interface LeftInterface
+    {
+        public String name() throws RMIException;
+    }
+
+    /** Second interface declaring <code>name</code>. */
+    public interface RightInterface
+    {
+        public String name() throws RMIException;
+    }
+
+    /** Interface inheriting <code>name</code> from both superinterfaces. */
+    public interface BothInterface extends LeftInterface, RightInterface
+    {
+    }
+
+    /** Server object for the interface inheriting from both. */
+    private static class BothServer implements BothInterface
+    {
+        @Override
+        public String name()
+        {
+            return "both";
+        }
+    }
+
+    /** Interface whose methods are given the same identifier. */
+    public interface CollidingInterface
+    {
+        public void first(int value) throws RMIException;
+        public void second(String value) throws RMIException;
+    }
+
+    /** Server object for the colliding interface. */
+    private static class CollidingServer implements CollidingInterface
+    {
+        @Override
+        public void first(int value)
+        {
+        }
+
+        @Override
+        public void second(String value)
+        {
+        }
+    }
+}
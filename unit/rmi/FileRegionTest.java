@@ -0,0 +1,235 @@
+package rmi;
+
+import test.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Unit test for file region arguments and results.
+
+    <p>
+    The bytes of a <code>FileRegion</code> argument must reach the server
+    object in a temporary file, which is deleted once the call returns, and
+    the bytes of a region result must reach the caller in a temporary file of
+    its own. Regions extending past the end of their file must fail the call.
+    Interfaces whose cached methods return regions must be rejected.
+ */
+public class FileRegionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking file region transfer";
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7118);
+    /** Test skeleton. */
+    private Skeleton<RegionInterface>   skeleton = null;
+    /** File from which regions are sent. */
+    private Path                        source = null;
+    /** File of the last region argument received by the server object. */
+    private final AtomicReference<Path> received = new AtomicReference<>();
+
+    /** Size of the source file. */
+    private static final int            SIZE = 3 * 1024 * 1024 + 41;
+
+    /** Creates the source file and starts the test skeleton.
+
+        @throws TestFailed If the file cannot be written or the skeleton
+                           cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        byte[]  bytes = new byte[SIZE];
+
+        for(int index = 0; index < SIZE; ++index)
+            bytes[index] = (byte)(index % 251);
+
+        try
+        {
+            source = Files.createTempFile("region-test", null);
+            Files.write(source, bytes);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to write source file", e);
+        }
+
+        skeleton = new Skeleton<RegionInterface>(RegionInterface.class,
+                                                 new RegionServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        RegionInterface stub = Stub.create(RegionInterface.class, address);
+
+        try
+        {
+            task("receiving a region argument");
+
+            long    offset = 1000;
+            long    length = 2 * 1024 * 1024 + 17;
+
+            if(stub.checksum(new FileRegion(source, offset, length)) !=
+               checksum(new FileRegion(source, offset, length)))
+            {
+                throw new TestFailed("region argument received incorrectly");
+            }
+
+            if(received.get() == null || received.get().equals(source))
+                throw new TestFailed("region argument not received into a file");
+
+            if(Files.exists(received.get()))
+                throw new TestFailed("region argument not deleted");
+
+            task("receiving an empty region argument");
+
+            if(stub.checksum(new FileRegion(source, SIZE, 0)) != 0)
+                throw new TestFailed("empty region received incorrectly");
+
+            task("receiving a region result");
+
+            FileRegion  result = stub.region(100, SIZE - 200);
+
+            try
+            {
+                if(result.getPath().equals(source))
+                    throw new TestFailed("region result not received into a file");
+
+                if(result.getLength() != SIZE - 200 ||
+                   checksum(result) != checksum(new FileRegion(source, 100,
+                                                               SIZE - 200)))
+                {
+                    throw new TestFailed("region result received incorrectly");
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists(result.getPath());
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read region", e);
+        }
+
+        task("failing a call whose region argument is past the end of its " +
+             "file");
+
+        try
+        {
+            stub.checksum(new FileRegion(source, 0, SIZE + 1));
+            throw new TestFailed("call with region past end of file returned");
+        }
+        catch(RMIException e) { }
+
+        task("failing a call whose region result is past the end of its file");
+
+        try
+        {
+            stub.region(SIZE - 10, 11);
+            throw new TestFailed("call returning region past end of file " +
+                                 "returned");
+        }
+        catch(RMIException e) { }
+
+        task("rejecting cached methods returning regions");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("cached method returning a region accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Stops the test skeleton and deletes the source file. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+
+        try
+        {
+            if(source != null)
+                Files.deleteIfExists(source);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Returns the checksum of the bytes of a region. */
+    private static long checksum(FileRegion region) throws IOException
+    {
+        ByteBuffer  bytes = region.map();
+        long        checksum = 0;
+
+        while(bytes.hasRemaining())
+            checksum = checksum * 31 + bytes.get();
+
+        return checksum;
+    }
+
+    /** Remote interface used by the test. */
+    public interface RegionInterface
+    {
+        public long checksum(FileRegion region) throws RMIException;
+        public FileRegion region(long offset, long length) throws RMIException;
+    }
+
+    /** Interface with a cached method returning a region. */
+    public interface BadInterface
+    {
+        @Cached
+        public FileRegion region() throws RMIException;
+    }
+
+    /** Server reading and returning regions of the source file. */
+    private class RegionServer implements RegionInterface
+    {
+        @Override
+        public long checksum(FileRegion region)
+        {
+            received.set(region.getPath());
+
+            try
+            {
+                return FileRegionTest.checksum(region);
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public FileRegion region(long offset, long length)
+        {
+            return new FileRegion(source, offset, length);
+        }
+    }
+}
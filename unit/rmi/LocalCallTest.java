@@ -0,0 +1,205 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/** Unit test for calls from stubs to skeletons in the same JVM.
+
+    <p>
+    A stub created from a running skeleton must call the server object
+    directly, on the calling thread, while keeping the semantics of a remote
+    call: arguments and results are copied, exceptions thrown by the server
+    reach the caller, and calls fail with <code>RMIException</code> once the
+    skeleton has stopped. Copies of access-ordered maps must remain ordered
+    by access.
+ */
+public class LocalCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking calls to skeletons in the same JVM";
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7104);
+    /** Test skeleton. */
+    private Skeleton<LocalInterface>    skeleton = null;
+    /** Thread that ran the most recent call in the server. */
+    private volatile Thread             serviceThread = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<LocalInterface>(LocalInterface.class,
+                                                new LocalServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LocalInterface  stub;
+
+        try
+        {
+            stub = Stub.create(LocalInterface.class, skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        task("calling the skeleton through the local path");
+
+        int[]           values = new int[] {1, 2, 3};
+        List<String>    names = new ArrayList<String>();
+        names.add("a");
+
+        try
+        {
+            int[]       result = stub.clear(values, names);
+
+            if(serviceThread != Thread.currentThread())
+                throw new TestFailed("call did not run on the calling thread");
+
+            if(values[0] != 1 || names.size() != 1)
+                throw new TestFailed("arguments were not copied");
+
+            if(result.length != 3 || result[0] != 0)
+                throw new TestFailed("incorrect result");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("copying an access-ordered map");
+
+        LinkedHashMap<String, Integer>  map =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true);
+        map.put("a", 1);
+        map.put("b", 2);
+
+        try
+        {
+            List<String>    keys = stub.touch(map, "a");
+
+            if(keys.size() != 2 || !keys.get(0).equals("b") ||
+               !keys.get(1).equals("a"))
+            {
+                throw new TestFailed("copied map not ordered by access: " +
+                                     keys);
+            }
+
+            if(!map.keySet().iterator().next().equals("a"))
+                throw new TestFailed("map argument was not copied");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("throwing an exception from the server");
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("exception not thrown to caller");
+        }
+        catch(IllegalStateException e)
+        {
+            if(!"local".equals(e.getMessage()))
+                throw new TestFailed("incorrect exception thrown", e);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception thrown", t);
+        }
+
+        task("calling the stopped skeleton");
+
+        skeleton.stop();
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("call to stopped skeleton succeeded");
+        }
+        catch(RMIException e) { }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from stopped " +
+                                 "skeleton", t);
+        }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    public interface LocalInterface
+    {
+        public int[] clear(int[] values, List<String> names)
+            throws RMIException;
+        public List<String> touch(LinkedHashMap<String, Integer> map,
+                                  String key) throws RMIException;
+        public void fail() throws RMIException;
+    }
+
+    /** Server that modifies its arguments and records its thread. */
+    private class LocalServer implements LocalInterface
+    {
+        @Override
+        public int[] clear(int[] values, List<String> names)
+        {
+            serviceThread = Thread.currentThread();
+
+            for(int index = 0; index < values.length; ++index)
+                values[index] = 0;
+
+            names.clear();
+            return values;
+        }
+
+        @Override
+        public List<String> touch(LinkedHashMap<String, Integer> map,
+                                  String key)
+        {
+            map.get(key);
+            return new ArrayList<String>(map.keySet());
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("local");
+        }
+    }
+}
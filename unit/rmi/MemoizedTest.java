@@ -0,0 +1,284 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for memoization by skeletons.
+
+    <p>
+    Repeated calls of a memoized method with equal arguments must reach the
+    server object once, whether made over the network or by a stub in the
+    same JVM. Exceptions must not be memoized. Results must be evicted when
+    too many are kept, and must be removable with
+    <code>Skeleton.invalidateMemoized</code>. A call in progress when results
+    are removed must not keep its result, which may be older than the removal.
+ */
+public class MemoizedTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking memoization by skeletons";
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7113);
+    /** Test skeleton. */
+    private Skeleton<ComputeInterface>  skeleton = null;
+    /** Number of calls that reached the server object. */
+    private final AtomicInteger         calls = new AtomicInteger();
+    /** Value returned by <code>read</code>. */
+    private volatile int                state = 0;
+    /** Counted down by <code>read</code> once it has read the state, if
+        not <code>null</code>. */
+    private volatile CountDownLatch     entered = null;
+    /** Awaited by <code>read</code> before returning, if not
+        <code>null</code>. */
+    private volatile CountDownLatch     release = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<ComputeInterface>(ComputeInterface.class,
+                                                  new ComputeServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ComputeInterface    stub = Stub.create(ComputeInterface.class, address);
+        ComputeInterface    localStub;
+
+        try
+        {
+            localStub = Stub.create(ComputeInterface.class, skeleton);
+        }
+        catch(UnknownHostException e)
+        {
+            throw new TestFailed("unable to create stub", e);
+        }
+
+        task("answering repeated calls from memoized results");
+
+        compute(stub, 1);
+        compute(stub, 1);
+
+        if(calls.get() != 1)
+            throw new TestFailed("repeated call reached the server");
+
+        if(skeleton.getMemoizedHits() != 1 ||
+           skeleton.getMemoizedMisses() != 1)
+        {
+            throw new TestFailed("incorrect hit and miss counts");
+        }
+
+        task("sharing results with calls from the same JVM");
+
+        compute(localStub, 1);
+
+        if(calls.get() != 1)
+            throw new TestFailed("local call reached the server");
+
+        task("not memoizing exceptions");
+
+        calls.set(0);
+
+        for(int attempt = 0; attempt < 2; ++attempt)
+        {
+            try
+            {
+                stub.compute(-1);
+                throw new TestFailed("exception from server not propagated");
+            }
+            catch(IllegalArgumentException e) { }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unexpected exception during call", e);
+            }
+        }
+
+        if(calls.get() != 2)
+            throw new TestFailed("exception memoized");
+
+        task("evicting results");
+
+        compute(stub, 2);
+        compute(stub, 3);
+
+        if(skeleton.getMemoizedEvictions() != 1)
+            throw new TestFailed("too many results kept");
+
+        task("invalidating results");
+
+        if(!skeleton.invalidateMemoized(s -> s.compute(3)))
+            throw new TestFailed("memoized result not invalidated");
+
+        calls.set(0);
+        compute(stub, 3);
+
+        if(calls.get() != 1)
+            throw new TestFailed("invalidated result used");
+
+        skeleton.invalidateMemoized();
+        calls.set(0);
+        compute(stub, 2);
+
+        if(calls.get() != 1)
+            throw new TestFailed("result used after invalidating all");
+
+        task("invalidating results while a call is in progress");
+
+        invalidateDuringCall(stub);
+
+        task("invalidating results while a call from the same JVM is in " +
+             "progress");
+
+        invalidateDuringCall(localStub);
+
+        task();
+    }
+
+    /** Makes a call that is expected to succeed.
+
+        @param stub The stub.
+        @param value The argument of the call.
+        @throws TestFailed If the call fails or returns a wrong result.
+     */
+    private void compute(ComputeInterface stub, int value) throws TestFailed
+    {
+        try
+        {
+            if(!("result " + value).equals(stub.compute(value)))
+                throw new TestFailed("incorrect result from call");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+    }
+
+    /** Removes every memoized result while a call of <code>read</code> is
+        between reading the state and returning it, then checks that the
+        next call reads the state again.
+
+        @param stub The stub making the calls.
+        @throws TestFailed If the result of the call in progress is kept.
+     */
+    private void invalidateDuringCall(final ComputeInterface stub)
+        throws TestFailed
+    {
+        skeleton.invalidateMemoized();
+        state = state + 1;
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+
+        Thread  caller = new Thread(() -> {
+            try
+            {
+                stub.read(0);
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("call in progress failed", t));
+            }
+        });
+        caller.start();
+
+        try
+        {
+            if(!entered.await(2, TimeUnit.SECONDS))
+                throw new TestFailed("call did not reach the server");
+
+            entered = null;
+            state = state + 1;
+            skeleton.invalidateMemoized();
+            release.countDown();
+            caller.join();
+            release = null;
+
+            if(stub.read(0) != state)
+                throw new TestFailed("result of call in progress kept");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface ComputeInterface
+    {
+        @Memoized(maxEntries = 2)
+        public String compute(int value) throws RMIException;
+
+        @Memoized
+        public int read(int key) throws RMIException;
+    }
+
+    /** Server counting its calls. */
+    private class ComputeServer implements ComputeInterface
+    {
+        @Override
+        public String compute(int value)
+        {
+            calls.incrementAndGet();
+
+            if(value < 0)
+                throw new IllegalArgumentException("negative value");
+
+            return "result " + value;
+        }
+
+        @Override
+        public int read(int key)
+        {
+            int             value = state;
+            CountDownLatch  entered = MemoizedTest.this.entered;
+            CountDownLatch  release = MemoizedTest.this.release;
+
+            if(entered != null)
+                entered.countDown();
+
+            try
+            {
+                if(release != null)
+                    release.await();
+            }
+            catch(InterruptedException e) { }
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package rmi;
+
+import test.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/** Unit test for method invokers.
+
+    <p>
+    Invokers must return the results of methods, boxed if primitive and
+    <code>null</code> for <code>void</code> methods, whether the methods are
+    called through spun classes or, as <code>void</code> methods are, through
+    method handles. Exceptions thrown by the server object must be wrapped in
+    <code>InvocationTargetException</code>, and arguments of the wrong type
+    or number must be rejected with <code>IllegalArgumentException</code>
+    without calling the method. Methods of interfaces that this package
+    cannot access are exercised by the conformance tests.
+ */
+public class MethodInvokerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking method invokers";
+
+    /** Number of calls that reached the server object. */
+    private int                 calls = 0;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Class<?>        c = InvokerInterface.class;
+        Object          server = new InvokerServer();
+
+        task("calling methods");
+
+        MethodInvoker   add = invoker(c, server, "add", int.class, int.class);
+        MethodInvoker   reset = invoker(c, server, "reset");
+        MethodInvoker   fail = invoker(c, server, "fail", String.class);
+
+        try
+        {
+            if(!Integer.valueOf(5).equals(add.invoke(new Object[] {2, 3})))
+                throw new TestFailed("incorrect result from add");
+
+            if(reset.invoke(null) != null)
+                throw new TestFailed("void method returned a value");
+        }
+        catch(InvocationTargetException e)
+        {
+            throw new TestFailed("unexpected exception from server", e);
+        }
+
+        try
+        {
+            fail.invoke(new Object[] {"expected"});
+            throw new TestFailed("exception from server not propagated");
+        }
+        catch(InvocationTargetException e)
+        {
+            if(!(e.getCause() instanceof IllegalStateException) ||
+               !"expected".equals(e.getCause().getMessage()))
+            {
+                throw new TestFailed("wrong exception from server", e);
+            }
+        }
+
+        task("rejecting wrong arguments");
+
+        int             before = calls;
+        Object[][]      wrong = new Object[][]
+            {{2}, {2, 3, 4}, {2, null}, {2, 3L}, {"2", 3}};
+
+        for(Object[] args : wrong)
+        {
+            try
+            {
+                add.invoke(args);
+                throw new TestFailed("wrong arguments accepted");
+            }
+            catch(IllegalArgumentException e) { }
+            catch(InvocationTargetException e)
+            {
+                throw new TestFailed("wrong arguments reached server", e);
+            }
+        }
+
+        if(calls != before)
+            throw new TestFailed("method called with wrong arguments");
+
+        task();
+    }
+
+    /** Creates the invoker of a method.
+
+        @throws TestFailed If the method cannot be found.
+     */
+    private MethodInvoker invoker(Class<?> c, Object server, String name,
+                                  Class<?>... types) throws TestFailed
+    {
+        try
+        {
+            Method      method = c.getMethod(name, types);
+            method.setAccessible(true);
+            return new MethodInvoker(method, server);
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to create invoker", e);
+        }
+    }
+
+    /** Interface whose methods are invoked by the test. */
+    public interface InvokerInterface
+    {
+        public int add(int a, int b) throws RMIException;
+        public void reset() throws RMIException;
+        public String fail(String message) throws RMIException;
+    }
+
+    /** Server object called by the test. */
+    private class InvokerServer implements InvokerInterface
+    {
+        @Override
+        public int add(int a, int b)
+        {
+            ++calls;
+            return a + b;
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+
+        @Override
+        public String fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+
+/** Unit test for call multiplexing on a single connection.
+
+    <p>
+    The pool is limited to one connection per address. A first thread makes a
+    call that blocks inside the server; a second call, made on the same
+    connection while the first is still in progress, must complete without
+    waiting for it.
+ */
+public class MultiplexTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking that calls on one connection do not block each other";
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7101);
+    /** Pool used by all stubs in this JVM. */
+    private final ConnectionPool    pool = ConnectionPool.getDefault();
+    /** Connection limit in effect before the test. */
+    private int                     max_connections;
+    /** Test skeleton. */
+    private Skeleton<SlowInterface> skeleton = null;
+    /** Set when the slow call may return. */
+    private boolean                 released = false;
+    /** Number of threads blocked in the slow method. */
+    private int                     waiting = 0;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        max_connections = pool.getMaxConnections();
+        pool.setMaxConnections(1);
+
+        skeleton = new Skeleton<SlowInterface>(SlowInterface.class,
+                                               new SlowServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        final SlowInterface stub = Stub.create(SlowInterface.class, address);
+
+        task("making a call that blocks in the server");
+
+        Thread          slow_caller = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    stub.slow();
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("slow call failed", t));
+                }
+            }
+        });
+
+        slow_caller.start();
+
+        synchronized(this)
+        {
+            while(!released && waiting == 0)
+            {
+                try
+                {
+                    wait();
+                }
+                catch(InterruptedException e) { }
+            }
+        }
+
+        task("making a fast call while the slow call is in progress");
+
+        try
+        {
+            if(stub.fast(5) != 5)
+                throw new TestFailed("incorrect result from fast call");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("fast call failed", e);
+        }
+
+        if(pool.getConnectionCount(address) != 1)
+            throw new TestFailed("calls were not made on a single connection");
+
+        task("releasing the slow call");
+
+        synchronized(this)
+        {
+            released = true;
+            notifyAll();
+        }
+
+        try
+        {
+            slow_caller.join();
+        }
+        catch(InterruptedException e) { }
+
+        task();
+    }
+
+    /** Stops the test skeleton and restores the pool limit. */
+    @Override
+    protected void clean()
+    {
+        synchronized(this)
+        {
+            released = true;
+            notifyAll();
+        }
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        pool.setMaxConnections(max_connections);
+        pool.clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface SlowInterface
+    {
+        public void slow() throws RMIException;
+        public int fast(int value) throws RMIException;
+    }
+
+    /** Server whose <code>slow</code> method blocks until released. */
+    private class SlowServer implements SlowInterface
+    {
+        @Override
+        public void slow()
+        {
+            synchronized(MultiplexTest.this)
+            {
+                ++waiting;
+                MultiplexTest.this.notifyAll();
+
+                while(!released)
+                {
+                    try
+                    {
+                        MultiplexTest.this.wait();
+                    }
+                    catch(InterruptedException e) { }
+                }
+            }
+        }
+
+        @Override
+        public int fast(int value)
+        {
+            return value;
+        }
+    }
+}
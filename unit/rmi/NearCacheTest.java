@@ -0,0 +1,364 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for cached results removed by the skeleton.
+
+    <p>
+    A call of an <code>Invalidates</code> method must remove the results it
+    changes from the caches of every stub holding them, including stubs
+    whose connections did not carry the call, and must do so before the
+    caller sees its own result, whichever connections the caller's stubs
+    use. Results must also be removed when the connection over which they
+    were obtained closes. Results of memoized methods must be removed from
+    the skeleton, and calls of them in progress must not keep their results.
+    The skeleton must record no more results of a method for a connection
+    than the method's stubs may keep, and none for calls that throw.
+    Interfaces naming methods that are not cached must be rejected.
+ */
+public class NearCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking cached results removed by the skeleton";
+
+    /** Longest time, in milliseconds, allowed for a removal to arrive. */
+    private static final int            LAG = 1000;
+    /** Largest number of results of <code>bounded</code> kept. */
+    private static final int            BOUND = 4;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7114);
+    /** Test skeleton. */
+    private Skeleton<StoreInterface>    skeleton = null;
+    /** Number of calls of <code>get</code> that reached the server object. */
+    private final AtomicInteger         reads = new AtomicInteger();
+    /** Counted down by <code>slowGet</code> once it has read its value, if
+        not <code>null</code>. */
+    private volatile CountDownLatch     entered = null;
+    /** Awaited by <code>slowGet</code> before returning, if not
+        <code>null</code>. */
+    private volatile CountDownLatch     release = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<StoreInterface>(StoreInterface.class,
+                                                new StoreServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        // The writer uses different options, and therefore its own
+        // connection, but shares the reader's cache.
+        StoreInterface              reader =
+            Stub.create(StoreInterface.class, address);
+        StoreInterface              writer =
+            Stub.create(StoreInterface.class, address,
+                        TransportOptions.latency());
+        StubCache<StoreInterface>   cache = Stub.cache(reader);
+
+        try
+        {
+            task("removing results changed through the same stub");
+
+            reader.put("a", "1");
+            expect(reader, "a", "1");
+            expect(reader, "a", "1");
+
+            if(reads.get() != 1)
+                throw new TestFailed("repeated call reached the server");
+
+            reader.put("a", "2");
+
+            if(cache.size() != 0)
+                throw new TestFailed("result not removed before the " +
+                                     "change returned");
+
+            expect(reader, "a", "2");
+
+            task("removing results changed through another connection");
+
+            writer.put("a", "3");
+
+            if(cache.size() != 0)
+                throw new TestFailed("result not removed before the " +
+                                     "change returned through another " +
+                                     "connection");
+
+            awaitInvalidations(cache, 2);
+            expect(reader, "a", "3");
+
+            if(skeleton.getInvalidationsSent() != 2)
+                throw new TestFailed("incorrect count of removals sent");
+
+            if(cache.getInvalidations() != 2)
+                throw new TestFailed("incorrect count of removals received");
+
+            if(cache.getMaxInvalidationLag() > LAG)
+                throw new TestFailed("removal lag not measured");
+
+            if(cache.getHitRatio() != 0.25)
+                throw new TestFailed("incorrect hit ratio");
+
+            task("removing results when the connection closes");
+
+            expect(reader, "b", null);
+
+            if(cache.size() != 2 || skeleton.getHeldResultCount() != 2)
+                throw new TestFailed("result not recorded");
+
+            ConnectionPool.getDefault().clear();
+
+            if(cache.size() != 0)
+                throw new TestFailed("result kept after connection closed");
+
+            task("removing memoized results while a call is in progress");
+
+            removeDuringCall(reader, writer);
+
+            task("bounding the results recorded for a connection");
+
+            int     held = skeleton.getHeldResultCount();
+
+            for(int index = 0; index < 4 * BOUND; ++index)
+                reader.bounded("k" + index);
+
+            if(skeleton.getHeldResultCount() != held + BOUND)
+                throw new TestFailed("results recorded beyond the bound");
+
+            held = skeleton.getHeldResultCount();
+
+            for(int index = 0; index < 4 * BOUND; ++index)
+            {
+                try
+                {
+                    reader.failing("k" + index);
+                    throw new TestFailed("exception not thrown");
+                }
+                catch(IllegalStateException e) { }
+            }
+
+            if(skeleton.getHeldResultCount() != held)
+                throw new TestFailed("results recorded for failed calls");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("rejecting interfaces naming methods that are not cached");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("interface naming uncached method accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Checks the result of a call of <code>get</code>.
+
+        @param stub The stub through which to call.
+        @param key The key to look up.
+        @param expected The expected result.
+        @throws TestFailed If the result is not as expected.
+        @throws RMIException If the call fails.
+     */
+    private void expect(StoreInterface stub, String key, String expected)
+        throws TestFailed, RMIException
+    {
+        String  value = stub.get(key);
+
+        if(expected == null ? value != null : !expected.equals(value))
+            throw new TestFailed("stale result returned");
+    }
+
+    /** Changes a value while a call of <code>slowGet</code> for it is
+        between reading the value and returning it, then checks that the
+        next call reads the value again.
+
+        @param reader The stub making the calls of <code>slowGet</code>.
+        @param writer The stub changing the value.
+        @throws TestFailed If the result of the call in progress is kept.
+        @throws RMIException If a call fails.
+     */
+    private void removeDuringCall(final StoreInterface reader,
+                                  StoreInterface writer)
+        throws TestFailed, RMIException
+    {
+        writer.put("c", "1");
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+
+        Thread  caller = new Thread(() -> {
+            try
+            {
+                reader.slowGet("c");
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("call in progress failed", t));
+            }
+        });
+        caller.start();
+
+        try
+        {
+            if(!entered.await(2, TimeUnit.SECONDS))
+                throw new TestFailed("call did not reach the server");
+
+            entered = null;
+            writer.put("c", "2");
+            release.countDown();
+            caller.join();
+            release = null;
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        if(!"2".equals(reader.slowGet("c")))
+            throw new TestFailed("result of call in progress kept");
+    }
+
+    /** Waits for a cache to have received a number of removals.
+
+        @param cache The cache.
+        @param count The number of removals.
+        @throws TestFailed If the removals are not received in time.
+     */
+    private void awaitInvalidations(StubCache<StoreInterface> cache,
+                                    long count)
+        throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + LAG;
+
+        while(cache.getInvalidations() < count)
+        {
+            if(System.currentTimeMillis() >= deadline)
+                throw new TestFailed("removal not received");
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting", e);
+            }
+        }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface StoreInterface
+    {
+        @Cached
+        public String get(String key) throws RMIException;
+        @Cached @Memoized
+        public String slowGet(String key) throws RMIException;
+        @Cached(maxEntries = BOUND)
+        public String bounded(String key) throws RMIException;
+        @Cached
+        public String failing(String key) throws RMIException;
+        @Invalidates({"get", "slowGet", "bounded", "failing"})
+        public void put(String key, String value) throws RMIException;
+    }
+
+    /** Interface naming a method that is not cached. */
+    public interface BadInterface
+    {
+        public String get(String key) throws RMIException;
+        @Invalidates("get")
+        public void put(String key, String value) throws RMIException;
+    }
+
+    /** Server storing values in a map. */
+    private class StoreServer implements StoreInterface
+    {
+        private final Map<String, String>   values =
+            new ConcurrentHashMap<String, String>();
+
+        @Override
+        public String get(String key)
+        {
+            reads.incrementAndGet();
+            return values.get(key);
+        }
+
+        @Override
+        public String slowGet(String key)
+        {
+            String          value = values.get(key);
+            CountDownLatch  entered = NearCacheTest.this.entered;
+            CountDownLatch  release = NearCacheTest.this.release;
+
+            if(entered != null)
+                entered.countDown();
+
+            try
+            {
+                if(release != null)
+                    release.await();
+            }
+            catch(InterruptedException e) { }
+
+            return value;
+        }
+
+        @Override
+        public String bounded(String key)
+        {
+            return key;
+        }
+
+        @Override
+        public String failing(String key)
+        {
+            throw new IllegalStateException(key);
+        }
+
+        @Override
+        public void put(String key, String value)
+        {
+            values.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package rmi;
+
+import test.*;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+
+/** Unit test for the methods of <code>Object</code> called on stubs.
+
+    <p>
+    Stubs for the same interface and address must be equal and have equal
+    hash codes, whatever their transport options. A stub must not be equal
+    to a stub for another address or interface, to an object that is not a
+    proxy, to <code>null</code>, or to a proxy with some other invocation
+    handler, and comparing it with any of these must not throw. The string
+    form of a stub must name its interface and address, and producing it
+    must not write to standard output. None of these methods contacts the
+    server, so no skeleton is started. Finally, stubs must not be created
+    for an interface with a method that does not throw
+    <code>RMIException</code>.
+ */
+public class ObjectMethodTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub object methods";
+    /** Address of the stubs. No skeleton listens on it. */
+    private static final InetSocketAddress  address =
+        new InetSocketAddress("localhost", 7121);
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("comparing stubs for the same address");
+
+        EchoInterface   stub = Stub.create(EchoInterface.class, address);
+        EchoInterface   same = Stub.create(EchoInterface.class, address,
+            TransportOptions.defaults().withConnectTimeout(100));
+
+        if(!stub.equals(same) || !same.equals(stub))
+            throw new TestFailed("stubs for the same address not equal");
+
+        if(stub.hashCode() != same.hashCode())
+            throw new TestFailed("equal stubs have different hash codes");
+
+        task("comparing stubs with other objects");
+
+        EchoInterface   other = Stub.create(EchoInterface.class,
+            new InetSocketAddress("localhost", 7122));
+        OtherInterface  otherInterface =
+            Stub.create(OtherInterface.class, address);
+
+        if(stub.equals(other))
+            throw new TestFailed("stubs for different addresses equal");
+
+        if(stub.equals(otherInterface))
+            throw new TestFailed("stubs for different interfaces equal");
+
+        if(stub.equals(null) || stub.equals(address))
+            throw new TestFailed("stub equal to object that is not a stub");
+
+        InvocationHandler   handler = (proxy, method, args) ->
+        {
+            throw new IllegalStateException("foreign proxy called");
+        };
+        EchoInterface   foreign = (EchoInterface) Proxy.newProxyInstance(
+            EchoInterface.class.getClassLoader(),
+            new Class<?>[] {EchoInterface.class}, handler);
+
+        try
+        {
+            if(stub.equals(foreign))
+                throw new TestFailed("stub equal to foreign proxy");
+        }
+        catch(RuntimeException e)
+        {
+            throw new TestFailed("comparison with foreign proxy failed", e);
+        }
+
+        task("converting stubs to strings");
+
+        PrintStream             out = System.out;
+        ByteArrayOutputStream   printed = new ByteArrayOutputStream();
+        String                  string;
+
+        System.setOut(new PrintStream(printed, true));
+        try
+        {
+            string = stub.toString();
+        }
+        finally
+        {
+            System.setOut(out);
+        }
+
+        if(printed.size() != 0)
+            throw new TestFailed("toString wrote to standard output");
+
+        if(!string.contains(EchoInterface.class.getName()) ||
+           !string.contains(address.toString()))
+        {
+            throw new TestFailed("string does not name interface and " +
+                                 "address: " + string);
+        }
+
+        task("rejecting interfaces that are not remote");
+
+        if(Stub.exceptionCheck(BadInterface.class))
+            throw new TestFailed("interface without RMIException accepted");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("stub created for interface without " +
+                                 "RMIException");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Interface of the stubs compared. */
+    public interface EchoInterface
+    {
+        public String echo(String message) throws RMIException;
+    }
+
+    /** Second remote interface. */
+    public interface OtherInterface
+    {
+        public String echo(String message) throws RMIException;
+    }
+
+    /** Interface with a method that does not throw <code>RMIException</code>. */
+    public interface BadInterface
+    {
+        public String echo(String message) throws RMIException;
+        public void reset();
+    }
+}
@@ -0,0 +1,198 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for one-way methods.
+
+    <p>
+    A call to a one-way method must return without waiting for the server
+    object, which must nevertheless be called. An exception thrown by a
+    one-way method must be reported to the skeleton's
+    <code>service_error</code> method rather than to the caller. Interfaces
+    with one-way methods returning values must be rejected.
+ */
+public class OneWayTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking one-way methods";
+
+    /** Time, in milliseconds, for which the slow one-way method blocks. */
+    private static final int            DELAY = 500;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7108);
+    /** Test skeleton. */
+    private ReportingSkeleton           skeleton = null;
+    /** Released once the server object has been called. */
+    private final CountDownLatch        called = new CountDownLatch(1);
+    /** Errors reported to the skeleton. */
+    private final BlockingQueue<RMIException>   errors =
+        new ArrayBlockingQueue<RMIException>(16);
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new ReportingSkeleton();
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LogInterface    stub = Stub.create(LogInterface.class, address);
+
+        task("returning before the server object completes");
+
+        long            begin = System.currentTimeMillis();
+
+        try
+        {
+            stub.log("slow");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        if(System.currentTimeMillis() - begin >= DELAY)
+            throw new TestFailed("one-way call waited for the server");
+
+        task("calling the server object");
+
+        try
+        {
+            if(!called.await(1, TimeUnit.SECONDS))
+                throw new TestFailed("server object not called");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for call", e);
+        }
+
+        task("reporting exceptions to the skeleton");
+
+        try
+        {
+            stub.fail("expected");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("exception from server reached stub", e);
+        }
+
+        RMIException    error;
+
+        try
+        {
+            error = errors.poll(1, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for error", e);
+        }
+
+        if(error == null)
+            throw new TestFailed("exception from server not reported");
+
+        if(!(error.getCause() instanceof IllegalStateException) ||
+           !"expected".equals(error.getCause().getMessage()))
+        {
+            throw new TestFailed("wrong exception reported", error);
+        }
+
+        task("rejecting one-way methods returning values");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("one-way method returning a value accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface LogInterface
+    {
+        @OneWay
+        public void log(String message) throws RMIException;
+        @OneWay
+        public void fail(String message) throws RMIException;
+    }
+
+    /** Interface with a one-way method that returns a value. */
+    public interface BadInterface
+    {
+        @OneWay
+        public int count() throws RMIException;
+    }
+
+    /** Server object blocking in <code>log</code>. */
+    private class LogServer implements LogInterface
+    {
+        @Override
+        public void log(String message)
+        {
+            try
+            {
+                Thread.sleep(DELAY);
+            }
+            catch(InterruptedException e) { }
+
+            called.countDown();
+        }
+
+        @Override
+        public void fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /** Skeleton recording the errors reported to it. */
+    private class ReportingSkeleton extends Skeleton<LogInterface>
+    {
+        ReportingSkeleton()
+        {
+            super(LogInterface.class, new LogServer(), address);
+        }
+
+        @Override
+        protected void service_error(RMIException exception)
+        {
+            errors.offer(exception);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the stub result cache.
+
+    <p>
+    Repeated calls of a cached method with equal arguments must be served
+    from the cache, each with its own copy of the result. Results must be
+    evicted once they expire or when the least recently used must make room
+    for new ones, and must be removable through <code>Stub.cache</code>.
+    Interfaces with invalid cached methods must be rejected.
+ */
+public class ResultCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the stub result cache";
+
+    /** Time, in milliseconds, for which results are cached. */
+    private static final int            TTL = 300;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7112);
+    /** Test skeleton. */
+    private Skeleton<SquareInterface>   skeleton = null;
+    /** Number of calls that reached the server object. */
+    private final AtomicInteger         calls = new AtomicInteger();
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SquareInterface>(SquareInterface.class,
+                                                 new SquareServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        SquareInterface             stub =
+            Stub.create(SquareInterface.class, address);
+        StubCache<SquareInterface>  cache = Stub.cache(stub);
+
+        task("serving repeated calls from the cache");
+
+        square(stub, 1);
+        square(stub, 1);
+
+        if(calls.get() != 1)
+            throw new TestFailed("repeated call reached the server");
+
+        if(cache.getHits() != 1 || cache.getMisses() != 1)
+            throw new TestFailed("incorrect hit and miss counts");
+
+        task("copying cached results");
+
+        square(stub, 1)[0] = -1;
+
+        if(square(stub, 1)[0] != 1)
+            throw new TestFailed("cached result modified by caller");
+
+        task("evicting the least recently used result");
+
+        square(stub, 2);
+        square(stub, 1);
+        square(stub, 3);
+
+        if(cache.getEvictions() != 1 || cache.size() != 2)
+            throw new TestFailed("full cache not evicted");
+
+        calls.set(0);
+        square(stub, 1);
+        square(stub, 2);
+
+        if(calls.get() != 1)
+            throw new TestFailed("wrong result evicted");
+
+        task("expiring results");
+
+        try
+        {
+            Thread.sleep(TTL + 50);
+        }
+        catch(InterruptedException e) { }
+
+        calls.set(0);
+        square(stub, 2);
+
+        if(calls.get() != 1)
+            throw new TestFailed("expired result returned");
+
+        task("invalidating results");
+
+        if(!cache.invalidate(s -> s.square(2)))
+            throw new TestFailed("cached result not invalidated");
+
+        calls.set(0);
+        square(stub, 2);
+
+        if(calls.get() != 1)
+            throw new TestFailed("invalidated result returned");
+
+        cache.invalidateAll();
+
+        if(cache.size() != 0 || cache.getBytes() != 0)
+            throw new TestFailed("results remain after invalidating all");
+
+        task("rejecting cached methods without results");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("cached void method accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Makes a call that is expected to succeed.
+
+        @param stub The stub.
+        @param value The value to square.
+        @return The result of the call.
+        @throws TestFailed If the call fails or returns a wrong result.
+     */
+    private int[] square(SquareInterface stub, int value) throws TestFailed
+    {
+        int[]       result;
+
+        try
+        {
+            result = stub.square(value);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        if(result.length != 1 || result[0] != value * value)
+            throw new TestFailed("incorrect result from call");
+
+        return result;
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface SquareInterface
+    {
+        @Cached(ttl = TTL, maxEntries = 2)
+        public int[] square(int value) throws RMIException;
+    }
+
+    /** Interface with a cached method that returns no value. */
+    public interface BadInterface
+    {
+        @Cached
+        public void clear() throws RMIException;
+    }
+
+    /** Server counting its calls. */
+    private class SquareServer implements SquareInterface
+    {
+        @Override
+        public int[] square(int value)
+        {
+            calls.incrementAndGet();
+            return new int[] {value * value};
+        }
+    }
+}
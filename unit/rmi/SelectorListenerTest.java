@@ -0,0 +1,265 @@
+package rmi;
+
+import test.*;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the selector-based skeleton transport.
+
+    <p>
+    Opens many idle connections to a skeleton using two I/O threads, and checks
+    that the skeleton holds them all open without creating a thread for each,
+    and still answers calls while they are open. A stub that sends requests
+    without reading the responses must make the skeleton stop reading its
+    requests, rather than queue every response, and must still receive every
+    response once it reads them.
+ */
+public class SelectorListenerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking that the selector transport serves idle connections " +
+        "without a thread per connection";
+
+    /** Number of idle connections opened. */
+    private static final int        CONNECTIONS = 200;
+    /** Number of requests sent without reading their responses. */
+    private static final int        PIPELINED = 48;
+    /** Size of the argument, and result, of each of those requests. */
+    private static final int        PIPELINED_SIZE = 256 * 1024;
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7102);
+    /** Test skeleton. */
+    private Skeleton<EchoInterface> skeleton = null;
+    /** Number of calls made to the server object. */
+    private final AtomicInteger     calls = new AtomicInteger();
+    /** Idle connections. */
+    private final List<Socket>      sockets = new ArrayList<Socket>();
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        // The backlog must hold every idle connection: connections beyond
+        // it are only retried by the client after a second.
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(calls), address,
+                                               TransportOptions.defaults()
+                                                   .withBacklog(CONNECTIONS));
+        skeleton.setIoThreads(2);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        int             threads_before = Thread.activeCount();
+
+        task("opening idle connections");
+
+        for(int index = 0; index < CONNECTIONS; ++index)
+        {
+            try
+            {
+                sockets.add(new Socket(address.getHostName(),
+                                       address.getPort()));
+            }
+            catch(Throwable t)
+            {
+                throw new TestFailed("unable to open connection", t);
+            }
+        }
+
+        task("waiting for the skeleton to accept the connections");
+
+        while(skeleton.getConnectionCount() < CONNECTIONS)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        if(Thread.activeCount() - threads_before > 10)
+            throw new TestFailed("thread count grew with connection count");
+
+        task("calling the skeleton while the connections are open");
+
+        EchoInterface   stub = Stub.create(EchoInterface.class, address);
+
+        try
+        {
+            if(stub.echo("selector") == null ||
+               !stub.echo("selector").equals("selector"))
+            {
+                throw new TestFailed("incorrect result from echo");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task("pausing reads while responses are queued");
+
+        checkBackpressure();
+
+        task();
+    }
+
+    /** Sends large requests on one connection without reading the
+        responses, and checks that the skeleton stops reading requests before
+        it has carried them all out, then that every response arrives.
+
+        @throws TestFailed If the skeleton reads every request, or a response
+                           is lost.
+     */
+    private void checkBackpressure() throws TestFailed
+    {
+        char[]          characters = new char[PIPELINED_SIZE];
+
+        Arrays.fill(characters, 'x');
+
+        String          value = new String(characters);
+        byte[]          request;
+
+        try
+        {
+            Method      echo = EchoInterface.class.getMethod("echo",
+                                                             String.class);
+            request = WireCodec.encodeRequest(echo, new Object[] {value});
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode request", e);
+        }
+
+        calls.set(0);
+
+        try(Socket socket = new Socket())
+        {
+            // A fixed receive buffer stops the kernel absorbing the responses.
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.connect(address);
+
+            final DataOutputStream  out =
+                new DataOutputStream(socket.getOutputStream());
+            Thread                  writer = new Thread(() -> {
+                try
+                {
+                    for(int index = 0; index < PIPELINED; ++index)
+                        new Frame(Frame.REQUEST, index + 1, request).write(out);
+
+                    out.flush();
+                }
+                catch(IOException e) { }
+            });
+
+            writer.setDaemon(true);
+            writer.start();
+
+            try
+            {
+                Thread.sleep(500);
+            }
+            catch(InterruptedException e) { }
+
+            if(calls.get() >= PIPELINED * 3 / 4)
+            {
+                throw new TestFailed(calls.get() + " requests read while " +
+                                     "their responses were not");
+            }
+
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+
+            for(int index = 0; index < PIPELINED; ++index)
+            {
+                Frame   response = Frame.read(in);
+
+                if(response.type != Frame.RESULT ||
+                   !value.equals(WireCodec.decodeValue(response.payload)))
+                {
+                    throw new TestFailed("incorrect response to pipelined " +
+                                         "request");
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("pipelined requests failed", e);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to decode response", e);
+        }
+    }
+
+    /** Closes the idle connections and stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        for(Socket socket : sockets)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(Throwable t) { }
+        }
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    public interface EchoInterface
+    {
+        public String echo(String value) throws RMIException;
+    }
+
+    /** Server returning its argument. */
+    private static class EchoServer implements EchoInterface
+    {
+        /** Counts the calls made. */
+        private final AtomicInteger calls;
+
+        EchoServer(AtomicInteger calls)
+        {
+            this.calls = calls;
+        }
+
+        @Override
+        public String echo(String value)
+        {
+            calls.incrementAndGet();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package rmi;
+
+import test.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** Unit test for the shared memory transport.
+
+    <p>
+    The stubs use ring buffers much smaller than some of the frames they
+    exchange, so that frames wrap around the rings and must be streamed
+    through them. Calls are made from several threads at once. Once the
+    skeleton has stopped, calls must fail with <code>RMIException</code>.
+ */
+public class SharedMemoryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking the shared memory transport";
+
+    /** Number of threads making calls at once. */
+    private static final int    THREADS = 4;
+    /** Number of calls made by each thread. */
+    private static final int    CALLS = 50;
+
+    /** Directory of the test skeleton. */
+    private Path                    directory = null;
+    /** Address of the test skeleton. */
+    private SharedMemoryAddress     address = null;
+    /** Test skeleton. */
+    private Skeleton<EchoInterface> skeleton = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create skeleton directory", e);
+        }
+
+        address = new SharedMemoryAddress(directory,
+                                          SharedMemoryAddress.WaitStrategy.PARK,
+                                          1024);
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        final EchoInterface stub = Stub.create(EchoInterface.class, address);
+
+        task("exchanging frames larger than the ring buffers");
+
+        Thread[]        callers = new Thread[THREADS];
+
+        for(int index = 0; index < THREADS; ++index)
+        {
+            final int   seed = index;
+
+            callers[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for(int call = 0; call < CALLS; ++call)
+                        {
+                            byte[]  data = new byte[(seed + 1) * call * 100];
+                            Arrays.fill(data, (byte)call);
+
+                            if(!Arrays.equals(stub.echo(data), data))
+                            {
+                                failure(new TestFailed("incorrect result " +
+                                                       "from echo"));
+                                return;
+                            }
+                        }
+                    }
+                    catch(Throwable t)
+                    {
+                        failure(new TestFailed("unexpected exception " +
+                                               "during call", t));
+                    }
+                }
+            };
+
+            callers[index].start();
+        }
+
+        for(Thread caller : callers)
+        {
+            try
+            {
+                caller.join();
+            }
+            catch(InterruptedException e) { }
+        }
+
+        task("calling the stopped skeleton");
+
+        skeleton.stop();
+
+        if(Files.exists(address.getSocketPath()))
+            throw new TestFailed("skeleton socket not removed");
+
+        try
+        {
+            stub.echo(new byte[1]);
+            throw new TestFailed("call to stopped skeleton succeeded");
+        }
+        catch(RMIException e) { }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from stopped " +
+                                 "skeleton", t);
+        }
+
+        task();
+    }
+
+    /** Stops the test skeleton and removes its directory. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Remote interface used by the test. */
+    public interface EchoInterface
+    {
+        public byte[] echo(byte[] data) throws RMIException;
+    }
+
+    /** Server returning its argument. */
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public byte[] echo(byte[] data)
+        {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the combining of idempotent calls.
+
+    <p>
+    Several threads call a slow method at once. Calls of an idempotent method
+    with equal arguments must reach the server object once, and every caller
+    must receive the result. Calls with different arguments, and calls of a
+    method that is not idempotent, must each reach the server object.
+ */
+public class SingleFlightTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking combining of idempotent calls";
+
+    /** Number of concurrent callers. */
+    private static final int            CALLERS = 8;
+    /** Time, in milliseconds, for which the server blocks in each call. */
+    private static final int            DELAY = 300;
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7111);
+    /** Test skeleton. */
+    private Skeleton<LookupInterface>   skeleton = null;
+    /** Number of calls that reached the server object. */
+    private final AtomicInteger         calls = new AtomicInteger();
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<LookupInterface>(LookupInterface.class,
+                                                 new LookupServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LookupInterface stub = Stub.create(LookupInterface.class, address);
+
+        task("combining concurrent equal calls");
+
+        callConcurrently(stub, true, false);
+
+        if(calls.get() != 1)
+        {
+            throw new TestFailed("server called " + calls.get() +
+                                 " times for equal calls");
+        }
+
+        task("keeping calls with different arguments apart");
+
+        calls.set(0);
+        callConcurrently(stub, true, true);
+
+        if(calls.get() != CALLERS)
+            throw new TestFailed("calls with different arguments combined");
+
+        task("keeping calls of other methods apart");
+
+        calls.set(0);
+        callConcurrently(stub, false, false);
+
+        if(calls.get() != CALLERS)
+            throw new TestFailed("calls of non-idempotent method combined");
+
+        task();
+    }
+
+    /** Makes calls from several threads at once, and checks their results.
+
+        @param stub The stub.
+        @param idempotent Whether to call the idempotent method.
+        @param distinct Whether each thread passes a different argument.
+        @throws TestFailed If a call fails or returns a wrong result.
+     */
+    private void callConcurrently(final LookupInterface stub,
+                                  final boolean idempotent,
+                                  final boolean distinct) throws TestFailed
+    {
+        final Throwable[]   failures = new Throwable[CALLERS];
+        Thread[]            callers = new Thread[CALLERS];
+
+        for(int index = 0; index < CALLERS; ++index)
+        {
+            final int   caller = index;
+            final int   key = distinct ? index : 0;
+
+            callers[index] = new Thread(() ->
+            {
+                try
+                {
+                    int     value = idempotent ? stub.lookup(key)
+                                               : stub.update(key);
+
+                    if(value != key * 2)
+                        throw new RMIException("incorrect result");
+                }
+                catch(Throwable t)
+                {
+                    failures[caller] = t;
+                }
+            });
+            callers[index].start();
+        }
+
+        for(Thread caller : callers)
+        {
+            try
+            {
+                caller.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for callers");
+            }
+        }
+
+        for(Throwable failure : failures)
+        {
+            if(failure != null)
+                throw new TestFailed("call failed", failure);
+        }
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface LookupInterface
+    {
+        @Idempotent
+        public int lookup(int key) throws RMIException;
+        public int update(int key) throws RMIException;
+    }
+
+    /** Slow server counting its calls. */
+    private class LookupServer implements LookupInterface
+    {
+        @Override
+        public int lookup(int key)
+        {
+            return slow(key);
+        }
+
+        @Override
+        public int update(int key)
+        {
+            return slow(key);
+        }
+
+        private int slow(int key)
+        {
+            calls.incrementAndGet();
+
+            try
+            {
+                Thread.sleep(DELAY);
+            }
+            catch(InterruptedException e) { }
+
+            return key * 2;
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package rmi;
+
+import test.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Unit test for methods returning streams.
+
+    <p>
+    Elements of an <code>Iterator</code> or <code>Flow.Publisher</code>
+    returned by a remote method must reach the stub in order. The skeleton
+    must take no more elements than the stub has asked for, exceptions
+    thrown while the stream is sent must reach the consumer after the
+    elements before them, and closing a stream must stop the skeleton
+    taking elements, as must dropping a stream without closing it, and
+    cancelling a publisher that has stalled must free the worker waiting
+    for its next element. A request for no elements must fail the
+    subscription and stop the skeleton sending the stream. Concurrent
+    identical calls must each receive a whole stream of their own. Interfaces whose stream methods are cached or
+    idempotent must be rejected.
+ */
+public class StreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking methods returning streams";
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7116);
+    /** Test skeleton. */
+    private Skeleton<StreamInterface>   skeleton = null;
+    /** Number of elements taken from the last iterator returned. */
+    private final AtomicInteger         taken = new AtomicInteger();
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<StreamInterface>(StreamInterface.class,
+                                                 new StreamServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        StreamInterface stub = Stub.create(StreamInterface.class, address);
+
+        try
+        {
+            task("receiving the elements of an iterator in order");
+
+            Iterator<Integer>   numbers = stub.numbers(10000, -1);
+            int                 count = 0;
+
+            while(numbers.hasNext())
+            {
+                if(numbers.next() != count)
+                    throw new TestFailed("element out of order");
+                ++count;
+            }
+
+            if(count != 10000)
+                throw new TestFailed("received " + count + " elements");
+
+            task("taking no more elements than asked for");
+
+            numbers = stub.numbers(100000, -1);
+            numbers.next();
+            Thread.sleep(200);
+
+            if(taken.get() > RemoteStream.WINDOW)
+            {
+                throw new TestFailed(taken.get() + " elements taken for a " +
+                                     "window of " + RemoteStream.WINDOW);
+            }
+
+            task("stopping the skeleton when the stream is closed");
+
+            ((Closeable)numbers).close();
+            Thread.sleep(200);
+            int                 stopped = taken.get();
+            Thread.sleep(200);
+
+            if(taken.get() != stopped || stopped >= 100000)
+                throw new TestFailed("skeleton still taking elements");
+
+            if(numbers.hasNext())
+                throw new TestFailed("closed stream has elements");
+
+            task("stopping the skeleton when the stream is dropped");
+
+            abandonStream(stub);
+
+            task("delivering an exception after the elements before it");
+
+            numbers = stub.numbers(100, 5);
+            count = 0;
+
+            try
+            {
+                while(numbers.hasNext())
+                {
+                    numbers.next();
+                    ++count;
+                }
+
+                throw new TestFailed("exception not delivered");
+            }
+            catch(IllegalArgumentException e)
+            {
+                if(count != 5)
+                    throw new TestFailed(count + " elements before exception");
+            }
+
+            task("receiving the elements of a publisher");
+
+            List<Integer>       received = receive(stub.range(1000));
+
+            if(received.size() != 1000 || received.get(999) != 999)
+                throw new TestFailed("publisher elements lost");
+
+            task("freeing the worker when a stalled publisher is cancelled");
+
+            cancelStalled(stub);
+
+            task("cancelling the stream on a request for no elements");
+
+            requestNone(stub);
+
+            task("receiving whole streams from concurrent identical calls");
+
+            concurrentCalls(stub);
+        }
+        catch(RMIException | IOException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task("rejecting interfaces with cached stream methods");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("cached stream method accepted");
+        }
+        catch(Error e) { }
+
+        task("rejecting interfaces with idempotent stream methods");
+
+        try
+        {
+            Stub.create(IdempotentInterface.class, address);
+            throw new TestFailed("idempotent stream method accepted by stub");
+        }
+        catch(Error e) { }
+
+        try
+        {
+            new Skeleton<IdempotentInterface>(IdempotentInterface.class,
+                                              count -> null);
+            throw new TestFailed("idempotent stream method accepted by " +
+                                 "skeleton");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Opens a stream and drops it without closing it, then waits for the
+        skeleton to stop sending it once it has been collected.
+
+        @param stub The stub.
+        @throws TestFailed If the skeleton keeps the stream.
+        @throws RMIException If the call fails.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private void abandonStream(StreamInterface stub)
+        throws TestFailed, RMIException, InterruptedException
+    {
+        Dispatcher<?>   dispatcher = skeleton.getDispatcher();
+
+        stub.numbers(100000, -1).next();
+
+        if(dispatcher.getOpenStreams() != 1)
+            throw new TestFailed("stream not open on the skeleton");
+
+        long            deadline = System.currentTimeMillis() + 1000;
+
+        while(dispatcher.getOpenStreams() != 0)
+        {
+            if(System.currentTimeMillis() >= deadline)
+                throw new TestFailed("dropped stream kept by the skeleton");
+
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+
+    /** Subscribes to a publisher that stalls after its first element, and
+        cancels the subscription once the skeleton's worker is waiting for
+        the next.
+
+        @param stub The stub.
+        @throws TestFailed If the worker is not freed.
+        @throws RMIException If the call fails.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private void cancelStalled(StreamInterface stub)
+        throws TestFailed, RMIException, InterruptedException
+    {
+        final CountDownLatch                        received =
+            new CountDownLatch(1);
+        final AtomicReference<Flow.Subscription>    subscription =
+            new AtomicReference<>();
+
+        stub.stalled(1).subscribe(new Flow.Subscriber<Integer>()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription current)
+            {
+                subscription.set(current);
+                current.request(2);
+            }
+
+            @Override
+            public void onNext(Integer element)
+            {
+                received.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                failure(new TestFailed("stalled publisher failed", throwable));
+            }
+
+            @Override
+            public void onComplete()
+            {
+                failure(new TestFailed("stalled publisher completed"));
+            }
+        });
+
+        if(!received.await(1, TimeUnit.SECONDS))
+            throw new TestFailed("first element not received");
+
+        awaitWorkers(1, "worker not waiting for the next element");
+        subscription.get().cancel();
+        awaitWorkers(0, "worker kept by cancelled publisher");
+    }
+
+    /** Subscribes to a publisher and requests no elements, then waits for
+        the skeleton to stop sending the stream.
+
+        @param stub The stub.
+        @throws TestFailed If the subscriber is not told of the error, or the
+                           skeleton keeps the stream.
+        @throws RMIException If the call fails.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private void requestNone(StreamInterface stub)
+        throws TestFailed, RMIException, InterruptedException
+    {
+        final AtomicReference<Throwable>    error = new AtomicReference<>();
+        final CountDownLatch                done = new CountDownLatch(1);
+        Dispatcher<?>                       dispatcher =
+            skeleton.getDispatcher();
+
+        stub.stalled(1).subscribe(new Flow.Subscriber<Integer>()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                subscription.request(0);
+            }
+
+            @Override
+            public void onNext(Integer element)
+            {
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                error.set(throwable);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete()
+            {
+                done.countDown();
+            }
+        });
+
+        if(!done.await(1, TimeUnit.SECONDS))
+            throw new TestFailed("subscriber not told of invalid request");
+
+        if(!(error.get() instanceof IllegalArgumentException))
+            throw new TestFailed("invalid request not reported", error.get());
+
+        long            deadline = System.currentTimeMillis() + 1000;
+
+        while(dispatcher.getOpenStreams() != 0)
+        {
+            if(System.currentTimeMillis() >= deadline)
+                throw new TestFailed("skeleton still sending the stream");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /** Waits for the skeleton to have a number of active workers.
+
+        @param count The number of workers.
+        @param message The message of the failure if they do not.
+        @throws TestFailed If the skeleton does not have that many workers
+                           within a second.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private void awaitWorkers(int count, String message)
+        throws TestFailed, InterruptedException
+    {
+        long    deadline = System.currentTimeMillis() + 1000;
+
+        while(skeleton.getActiveWorkers() != count)
+        {
+            if(System.currentTimeMillis() >= deadline)
+                throw new TestFailed(message);
+
+            Thread.sleep(10);
+        }
+    }
+
+    /** Makes identical calls of <code>delayed</code> from several threads
+        at once, so that they overlap on the skeleton, each consuming its
+        stream to the end.
+
+        @param stub The stub.
+        @throws TestFailed If a stream does not have all its elements.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private void concurrentCalls(final StreamInterface stub)
+        throws TestFailed, InterruptedException
+    {
+        final int           callers = 4;
+        final int           length = 4 * RemoteStream.WINDOW;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger complete = new AtomicInteger();
+        List<Thread>        threads = new ArrayList<Thread>();
+
+        for(int index = 0; index < callers; ++index)
+        {
+            Thread  thread = new Thread(() -> {
+                try
+                {
+                    start.await();
+                    Iterator<Integer>   numbers = stub.delayed(length, 100);
+                    int                 count = 0;
+
+                    while(numbers.hasNext())
+                    {
+                        if(numbers.next() != count)
+                            throw new TestFailed("element out of order");
+                        ++count;
+                    }
+
+                    if(count == length)
+                        complete.incrementAndGet();
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("concurrent call failed", t));
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for(Thread thread : threads)
+            thread.join();
+
+        if(complete.get() != callers)
+            throw new TestFailed("concurrent call received part of a stream");
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Subscribes to a publisher, requesting one element at a time, and
+        waits for it to complete.
+
+        @param publisher The publisher.
+        @return The elements received.
+        @throws TestFailed If the publisher fails or does not complete.
+        @throws InterruptedException If the thread is interrupted.
+     */
+    private List<Integer> receive(Flow.Publisher<Integer> publisher)
+        throws TestFailed, InterruptedException
+    {
+        final List<Integer>                 received = new ArrayList<>();
+        final AtomicReference<Throwable>    failure = new AtomicReference<>();
+        final CountDownLatch                done = new CountDownLatch(1);
+
+        publisher.subscribe(new Flow.Subscriber<Integer>()
+        {
+            private Flow.Subscription   subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Integer element)
+            {
+                synchronized(received)
+                {
+                    received.add(element);
+                }
+
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                failure.set(throwable);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete()
+            {
+                done.countDown();
+            }
+        });
+
+        if(!done.await(10, TimeUnit.SECONDS))
+            throw new TestFailed("publisher did not complete");
+
+        if(failure.get() != null)
+            throw new TestFailed("publisher failed", failure.get());
+
+        synchronized(received)
+        {
+            return new ArrayList<>(received);
+        }
+    }
+
+    /** Remote interface used by the test. */
+    public interface StreamInterface
+    {
+        public Iterator<Integer> numbers(int count, int failAt)
+            throws RMIException;
+        public Flow.Publisher<Integer> range(int count) throws RMIException;
+        public Flow.Publisher<Integer> stalled(int count)
+            throws RMIException;
+        public Iterator<Integer> delayed(int count, int delay)
+            throws RMIException;
+    }
+
+    /** Interface whose stream method is cached. */
+    public interface BadInterface
+    {
+        @Cached
+        public Iterator<Integer> numbers(int count) throws RMIException;
+    }
+
+    /** Interface whose stream method is idempotent. */
+    public interface IdempotentInterface
+    {
+        @Idempotent
+        public Iterator<Integer> numbers(int count) throws RMIException;
+    }
+
+    /** Server returning streams of consecutive numbers. */
+    private class StreamServer implements StreamInterface
+    {
+        @Override
+        public Iterator<Integer> numbers(final int count, final int failAt)
+        {
+            taken.set(0);
+
+            return new Iterator<Integer>()
+            {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < count;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    if(next == failAt)
+                        throw new IllegalArgumentException("failing");
+
+                    taken.incrementAndGet();
+                    return next++;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Integer> delayed(int count, int delay)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch(InterruptedException e) { }
+
+            return numbers(count, -1);
+        }
+
+        @Override
+        public Flow.Publisher<Integer> range(int count)
+        {
+            return new RangePublisher(count, true);
+        }
+
+        @Override
+        public Flow.Publisher<Integer> stalled(int count)
+        {
+            return new RangePublisher(count, false);
+        }
+    }
+
+    /** Publisher of consecutive numbers, emitted as they are requested. */
+    private static class RangePublisher implements Flow.Publisher<Integer>
+    {
+        /** Number of elements to publish. */
+        private final int       count;
+        /** Whether to complete after the last element, rather than stall. */
+        private final boolean   completes;
+
+        /** Creates the publisher.
+
+            @param count Number of elements to publish.
+            @param completes Whether to complete after the last element.
+         */
+        RangePublisher(int count, boolean completes)
+        {
+            this.count = count;
+            this.completes = completes;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super Integer> subscriber)
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                private int         next = 0;
+                private boolean     cancelled = false;
+
+                @Override
+                public synchronized void request(long n)
+                {
+                    for(long index = 0;
+                        index < n && next < count && !cancelled; ++index)
+                    {
+                        subscriber.onNext(next++);
+                    }
+
+                    if(next == count && completes && !cancelled)
+                    {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public synchronized void cancel()
+                {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
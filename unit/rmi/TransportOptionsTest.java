@@ -0,0 +1,420 @@
+package rmi;
+
+import test.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+
+/** Unit test for transport options.
+
+    <p>
+    Two skeletons are started with a read timeout, one serving each
+    connection on its own thread and one using the selector transport. Calls
+    made with the preset options must succeed. A stub with a read timeout
+    must give up on a call that takes longer, while a connection with a call
+    in progress must not be closed as idle by the skeleton, nor must one
+    whose request pauses part way through for longer than the read timeout,
+    nor one carrying a stream whose consumer pauses for that long. Stubs with
+    different options must not share connections, and idle connections must
+    be closed by the skeletons without affecting later calls. Concurrent calls
+    through a stub coalescing its writes must all complete.
+ */
+public class TransportOptionsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking transport options";
+
+    /** Idle time, in milliseconds, after which the skeletons close
+        connections. */
+    private static final int            IDLE_TIMEOUT = 200;
+
+    /** Address of the thread-per-connection skeleton. */
+    private final InetSocketAddress     threadAddress =
+        new InetSocketAddress(7105);
+    /** Address of the selector skeleton. */
+    private final InetSocketAddress     selectorAddress =
+        new InetSocketAddress(7106);
+    /** Thread-per-connection skeleton. */
+    private Skeleton<SleepInterface>    threadSkeleton = null;
+    /** Selector skeleton. */
+    private Skeleton<SleepInterface>    selectorSkeleton = null;
+
+    /** Starts the test skeletons.
+
+        @throws TestFailed If the skeletons cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        TransportOptions    options =
+            TransportOptions.throughput().withReadTimeout(IDLE_TIMEOUT);
+
+        threadSkeleton =
+            new Skeleton<SleepInterface>(SleepInterface.class,
+                                         new SleepServer(), threadAddress,
+                                         options);
+        selectorSkeleton =
+            new Skeleton<SleepInterface>(SleepInterface.class,
+                                         new SleepServer(), selectorAddress,
+                                         options);
+        selectorSkeleton.setIoThreads(1);
+
+        try
+        {
+            threadSkeleton.start();
+            selectorSkeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("rejecting negative option values");
+
+        try
+        {
+            TransportOptions.defaults().withReadTimeout(-1);
+            throw new TestFailed("negative read timeout accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            TransportOptions.defaults().withWriteCoalescing(100, 0);
+            throw new TestFailed("coalescing window without limit accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        checkSkeleton(threadSkeleton, threadAddress);
+        checkSkeleton(selectorSkeleton, selectorAddress);
+        checkCoalescing(selectorAddress);
+
+        task();
+    }
+
+    /** Checks that calls made concurrently through a stub coalescing its
+        writes all complete.
+
+        @param address The address of the skeleton.
+        @throws TestFailed If the test fails.
+     */
+    private void checkCoalescing(InetSocketAddress address) throws TestFailed
+    {
+        task("coalescing the writes of concurrent calls");
+
+        final SleepInterface    stub =
+            Stub.create(SleepInterface.class, address,
+                        TransportOptions.latency()
+                            .withWriteCoalescing(200, 256));
+        final int[]             failures = new int[1];
+        Thread[]                callers = new Thread[8];
+
+        for(int index = 0; index < callers.length; ++index)
+        {
+            callers[index] = new Thread(() ->
+            {
+                for(int call = 0; call < 20; ++call)
+                {
+                    try
+                    {
+                        if(stub.sleep(0) != 0)
+                            throw new RMIException("incorrect result");
+                    }
+                    catch(RMIException e)
+                    {
+                        synchronized(failures)
+                        {
+                            ++failures[0];
+                        }
+                    }
+                }
+            });
+            callers[index].start();
+        }
+
+        for(Thread caller : callers)
+        {
+            try
+            {
+                caller.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for callers");
+            }
+        }
+
+        synchronized(failures)
+        {
+            if(failures[0] > 0)
+                throw new TestFailed("calls failed with coalesced writes");
+        }
+    }
+
+    /** Checks the handling of options by one skeleton and its stubs.
+
+        @param skeleton The skeleton.
+        @param address The address of the skeleton.
+        @throws TestFailed If the test fails.
+     */
+    private void checkSkeleton(Skeleton<SleepInterface> skeleton,
+                               InetSocketAddress address) throws TestFailed
+    {
+        SleepInterface  latencyStub =
+            Stub.create(SleepInterface.class, address,
+                        TransportOptions.latency());
+        SleepInterface  timeoutStub =
+            Stub.create(SleepInterface.class, address,
+                        TransportOptions.latency().withReadTimeout(100));
+
+        task("calling with the latency preset");
+
+        if(call(latencyStub, 0) != 0)
+            throw new TestFailed("incorrect result from call");
+
+        task("timing out a slow call");
+
+        long            begin = System.currentTimeMillis();
+
+        try
+        {
+            timeoutStub.sleep(600);
+            throw new TestFailed("slow call did not time out");
+        }
+        catch(RMIException e) { }
+        catch(TestFailed e) { throw e; }
+
+        if(System.currentTimeMillis() - begin >= 600)
+            throw new TestFailed("call timed out too late");
+
+        task("keeping connections with a call in progress or an open " +
+             "stream open");
+
+        // The stream is consumed on a connection of its own, over which no
+        // call is in progress while its consumer pauses.
+        final SleepInterface    streamStub =
+            Stub.create(SleepInterface.class, address,
+                        TransportOptions.throughput());
+        Thread                  consumer = new Thread(() ->
+        {
+            try
+            {
+                checkPausedStream(streamStub);
+            }
+            catch(TestFailed e)
+            {
+                failure(e);
+            }
+        });
+
+        consumer.start();
+
+        if(call(latencyStub, 2 * IDLE_TIMEOUT) != 2 * IDLE_TIMEOUT)
+            throw new TestFailed("incorrect result from call");
+
+        try
+        {
+            consumer.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for consumer");
+        }
+
+        task("separating connections with different options");
+
+        if(ConnectionPool.getDefault().getConnectionCount(address) < 2)
+        {
+            throw new TestFailed("stubs with different options share a " +
+                                 "connection");
+        }
+
+        task("closing idle connections");
+
+        // Wait for the timed out call to finish, so that every connection is
+        // idle.
+        long            deadline = System.currentTimeMillis() + 2000;
+
+        while(skeleton.getConnectionCount() > 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("idle connections not closed");
+
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        if(call(latencyStub, 0) != 0)
+            throw new TestFailed("incorrect result from call");
+
+        task("reading a request that pauses part way through");
+
+        checkSlowRequest(address);
+    }
+
+    /** Consumes a stream, pausing for longer than the skeleton's read
+        timeout once the skeleton has sent all the elements asked for, and
+        checks that the rest of the stream arrives.
+
+        @param stub The stub.
+        @throws TestFailed If the stream does not arrive whole.
+     */
+    private void checkPausedStream(SleepInterface stub) throws TestFailed
+    {
+        int     length = 2 * RemoteStream.WINDOW;
+        int     count = 0;
+
+        try
+        {
+            Iterator<Integer>   numbers = stub.count(length);
+
+            numbers.next();
+            ++count;
+            Thread.sleep(2 * IDLE_TIMEOUT);
+
+            while(numbers.hasNext())
+            {
+                if(numbers.next() != count)
+                    throw new TestFailed("element out of order");
+                ++count;
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("paused stream failed", e);
+        }
+
+        if(count != length)
+            throw new TestFailed("paused stream cut short");
+    }
+
+    /** Sends a request, pausing for longer than the skeleton's read timeout
+        half way through the frame, and checks that it is answered.
+
+        @param address The address of the skeleton.
+        @throws TestFailed If the request is not answered.
+     */
+    private void checkSlowRequest(InetSocketAddress address)
+        throws TestFailed
+    {
+        try(Socket socket = new Socket("localhost", address.getPort()))
+        {
+            ByteArrayOutputStream   buffer = new ByteArrayOutputStream();
+            new Frame(Frame.REQUEST, 1, WireCodec.encodeRequest(
+                SleepInterface.class.getMethod("sleep", int.class),
+                new Object[] {0})).write(new DataOutputStream(buffer));
+            byte[]                  request = buffer.toByteArray();
+            OutputStream            out = socket.getOutputStream();
+
+            out.write(request, 0, request.length / 2);
+            out.flush();
+            Thread.sleep(2 * IDLE_TIMEOUT);
+            out.write(request, request.length / 2,
+                      request.length - request.length / 2);
+            out.flush();
+
+            Frame   response = Frame.read(
+                new DataInputStream(socket.getInputStream()));
+
+            if(response.type != Frame.RESULT || response.callId != 1)
+                throw new TestFailed("slow request not answered");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("slow request failed", e);
+        }
+    }
+
+    /** Makes a call that is expected to succeed.
+
+        @param stub The stub.
+        @param millis The time for which the server is to sleep.
+        @return The result of the call.
+        @throws TestFailed If the call fails.
+     */
+    private int call(SleepInterface stub, int millis) throws TestFailed
+    {
+        try
+        {
+            return stub.sleep(millis);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception during call", t);
+        }
+    }
+
+    /** Stops the test skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(threadSkeleton != null)
+            threadSkeleton.stop();
+
+        if(selectorSkeleton != null)
+            selectorSkeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface SleepInterface
+    {
+        public int sleep(int millis) throws RMIException;
+        public Iterator<Integer> count(int count) throws RMIException;
+    }
+
+    /** Server sleeping for the requested time. */
+    private static class SleepServer implements SleepInterface
+    {
+        @Override
+        public int sleep(int millis)
+        {
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+
+            return millis;
+        }
+
+        @Override
+        public Iterator<Integer> count(final int count)
+        {
+            return new Iterator<Integer>()
+            {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < count;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    return next++;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package rmi;
+
+import test.*;
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Unit test for skeletons bound to Unix domain sockets.
+
+    <p>
+    Checks that a stub created for the socket path can call the skeleton, that
+    stubs for the same path are equal and survive serialization, and that the
+    socket file is removed when the skeleton stops.
+ */
+public class UnixSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking the Unix domain socket transport";
+
+    /** Directory holding the socket file. */
+    private Path                    directory = null;
+    /** Address of the test skeleton. */
+    private UnixDomainSocketAddress address = null;
+    /** Test skeleton. */
+    private Skeleton<EchoInterface> skeleton = null;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create socket directory", e);
+        }
+
+        address = UnixDomainSocketAddress.of(directory.resolve("echo.sock"));
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling the skeleton over its socket");
+
+        EchoInterface   stub = Stub.create(EchoInterface.class, address);
+
+        try
+        {
+            if(stub.echo(7) != 7)
+                throw new TestFailed("incorrect result from echo");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("comparing stubs");
+
+        EchoInterface   other;
+
+        try
+        {
+            other = Stub.create(EchoInterface.class, skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub from skeleton", t);
+        }
+
+        if(!stub.equals(other) || stub.hashCode() != other.hashCode())
+            throw new TestFailed("stubs for the same socket are not equal");
+
+        task("serializing a stub");
+
+        EchoInterface   copy;
+
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            ObjectOutputStream      out = new ObjectOutputStream(bytes);
+            out.writeObject(stub);
+            out.close();
+
+            ObjectInputStream       in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+            copy = (EchoInterface)in.readObject();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to serialize stub", e);
+        }
+
+        if(!stub.equals(copy))
+            throw new TestFailed("deserialized stub is not equal");
+
+        try
+        {
+            if(copy.echo(11) != 11)
+                throw new TestFailed("incorrect result from echo");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call through " +
+                                 "deserialized stub", e);
+        }
+
+        task("stopping the skeleton");
+
+        skeleton.stop();
+
+        if(Files.exists(address.getPath()))
+            throw new TestFailed("socket file not removed");
+
+        task();
+    }
+
+    /** Stops the test skeleton and removes the socket directory. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(address != null)
+                Files.deleteIfExists(address.getPath());
+
+            if(directory != null)
+                Files.deleteIfExists(directory);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Remote interface used by the test. */
+    public interface EchoInterface
+    {
+        public int echo(int value) throws RMIException;
+    }
+
+    /** Server returning its argument. */
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package rmi;
+
+import test.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Unit test for stream arguments.
+
+    <p>
+    The bytes of an <code>InputStream</code> or
+    <code>ReadableByteChannel</code> argument must reach the server object in
+    order, whichever argument it reads first. The stub must read no more of
+    an argument than the skeleton has asked for, a call whose server object
+    stops reading early must still return, and an argument the stub cannot
+    read must fail both the server object's reads and the call. Interfaces
+    whose one-way methods take streams must be rejected.
+ */
+public class UploadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stream arguments";
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7117);
+    /** Test skeleton. */
+    private Skeleton<UploadInterface>   skeleton = null;
+    /** Exception thrown by the last read of the server object, if any. */
+    private final AtomicReference<IOException>  readFailure =
+        new AtomicReference<>();
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<UploadInterface>(UploadInterface.class,
+                                                 new UploadServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        UploadInterface stub = Stub.create(UploadInterface.class, address);
+
+        try
+        {
+            task("receiving a stream argument in order");
+
+            long    size = 8L * 1024 * 1024;
+
+            if(stub.checksum(new Pattern(size, -1)) != Pattern.checksum(size))
+                throw new TestFailed("stream argument received incorrectly");
+
+            task("receiving a null stream argument");
+
+            if(stub.checksum(null) != -1)
+                throw new TestFailed("null stream argument not passed");
+
+            task("reading arguments in any order");
+
+            long    first = 1024 * 1024;
+            long    second = 3 * 1024 * 1024 + 17;
+            long    result = stub.lengths(new Pattern(first, -1),
+                Channels.newChannel(new Pattern(second, -1)));
+
+            if(result != first * 1000000000L + second)
+                throw new TestFailed("arguments received incorrectly");
+
+            task("reading no more than the skeleton asked for");
+
+            Pattern     unread = new Pattern(64L * 1024 * 1024, -1);
+
+            if(stub.prefix(unread, 10) != 10)
+                throw new TestFailed("prefix not read");
+
+            if(unread.position() > UploadStream.WINDOW)
+            {
+                throw new TestFailed(unread.position() + " bytes read for " +
+                                     "a window of " + UploadStream.WINDOW);
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("failing the call when the argument cannot be read");
+
+        readFailure.set(null);
+
+        try
+        {
+            stub.checksum(new Pattern(1024 * 1024, 100000));
+            throw new TestFailed("call with unreadable argument returned");
+        }
+        catch(RMIException e) { }
+
+        try
+        {
+            Thread.sleep(200);
+        }
+        catch(InterruptedException e) { }
+
+        if(readFailure.get() == null)
+            throw new TestFailed("server read did not fail");
+
+        task("rejecting one-way methods taking streams");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("one-way method taking a stream accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface UploadInterface
+    {
+        public long checksum(InputStream in) throws RMIException;
+        public long lengths(InputStream first, ReadableByteChannel second)
+            throws RMIException;
+        public int prefix(InputStream in, int length) throws RMIException;
+    }
+
+    /** Interface with a one-way method taking a stream. */
+    public interface BadInterface
+    {
+        @OneWay
+        public void store(InputStream in) throws RMIException;
+    }
+
+    /** Server reading stream arguments. */
+    private class UploadServer implements UploadInterface
+    {
+        @Override
+        public long checksum(InputStream in)
+        {
+            if(in == null)
+                return -1;
+
+            long        checksum = 0;
+            byte[]      buffer = new byte[5000];
+
+            try
+            {
+                for(int count; (count = in.read(buffer)) >= 0; )
+                {
+                    for(int index = 0; index < count; ++index)
+                        checksum = checksum * 31 + buffer[index];
+                }
+            }
+            catch(IOException e)
+            {
+                readFailure.set(e);
+                throw new IllegalStateException(e);
+            }
+
+            return checksum;
+        }
+
+        @Override
+        public long lengths(InputStream first, ReadableByteChannel second)
+        {
+            ByteBuffer  buffer = ByteBuffer.allocate(7000);
+            long        secondLength = 0;
+            long        firstLength = 0;
+
+            try
+            {
+                for(int count; (count = second.read(buffer)) >= 0; )
+                {
+                    secondLength += count;
+                    buffer.clear();
+                }
+
+                for(int count; (count = first.read(buffer.array())) >= 0; )
+                    firstLength += count;
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+
+            return firstLength * 1000000000L + secondLength;
+        }
+
+        @Override
+        public int prefix(InputStream in, int length)
+        {
+            try
+            {
+                return in.readNBytes(length).length;
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** Stream of a repeating pattern of bytes, made as they are read. */
+    private static class Pattern extends InputStream
+    {
+        /** Number of bytes in the stream. */
+        private final long  size;
+        /** Position at which reads fail, or -1. */
+        private final long  failAt;
+        /** Number of bytes read so far. */
+        private long        position = 0;
+
+        /** Creates the stream.
+
+            @param size Number of bytes in the stream.
+            @param failAt Position at which reads fail, or -1 if they do not.
+         */
+        Pattern(long size, long failAt)
+        {
+            this.size = size;
+            this.failAt = failAt;
+        }
+
+        /** Returns the byte at a position of the pattern. */
+        static byte at(long position)
+        {
+            return (byte)(position % 251);
+        }
+
+        /** Returns the checksum computed by the server for a pattern of the
+            given size. */
+        static long checksum(long size)
+        {
+            long    checksum = 0;
+
+            for(long position = 0; position < size; ++position)
+                checksum = checksum * 31 + at(position);
+
+            return checksum;
+        }
+
+        /** Returns the number of bytes read so far. */
+        synchronized long position()
+        {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[]  one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length)
+            throws IOException
+        {
+            if(position >= size)
+                return -1;
+
+            if(failAt >= 0 && position >= failAt)
+                throw new IOException("unreadable");
+
+            int     count = (int)Math.min(length, size - position);
+
+            if(failAt >= 0)
+                count = (int)Math.min(count, failAt - position);
+
+            for(int index = 0; index < count; ++index)
+                buffer[offset + index] = at(position++);
+
+            return count;
+        }
+    }
+}
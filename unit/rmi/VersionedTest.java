@@ -0,0 +1,155 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for versioned methods.
+
+    <p>
+    A call of a versioned method whose result has not changed since the
+    stub last received it must not reach the server object, and must return
+    a copy of the retained result. Once the version changes, the new result
+    must be returned. Interfaces whose versioned methods name missing
+    version methods must be rejected.
+ */
+public class VersionedTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking versioned methods";
+
+    /** Address of the test skeleton. */
+    private final InetSocketAddress     address = new InetSocketAddress(7115);
+    /** Test skeleton. */
+    private Skeleton<ReportInterface>   skeleton = null;
+    /** Number of calls of <code>report</code> that reached the server. */
+    private final AtomicInteger         reports = new AtomicInteger();
+    /** Current revision of the server's data. */
+    private final AtomicInteger         revision = new AtomicInteger(1);
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<ReportInterface>(ReportInterface.class,
+                                                 new ReportServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ReportInterface stub = Stub.create(ReportInterface.class, address);
+
+        try
+        {
+            task("returning the retained result when unchanged");
+
+            int[]       first = stub.report(4);
+            first[0] = -1;
+            int[]       second = stub.report(4);
+
+            if(reports.get() != 1)
+                throw new TestFailed("unchanged result computed again");
+
+            if(!Arrays.equals(second, new int[] {1, 1, 1, 1}))
+                throw new TestFailed("retained result modified by caller");
+
+            task("keeping results for different arguments apart");
+
+            if(stub.report(2).length != 2 || reports.get() != 2)
+                throw new TestFailed("result for other arguments not sent");
+
+            task("returning the new result once the version changes");
+
+            revision.incrementAndGet();
+
+            if(!Arrays.equals(stub.report(4), new int[] {2, 2, 2, 2}))
+                throw new TestFailed("old result returned after change");
+
+            if(reports.get() != 3)
+                throw new TestFailed("changed result not computed");
+
+            stub.report(4);
+
+            if(reports.get() != 3)
+                throw new TestFailed("new result not retained");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception during call", e);
+        }
+
+        task("rejecting interfaces without version methods");
+
+        try
+        {
+            Stub.create(BadInterface.class, address);
+            throw new TestFailed("interface without version method accepted");
+        }
+        catch(Error e) { }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote interface used by the test. */
+    public interface ReportInterface
+    {
+        @Versioned("revision")
+        public int[] report(int size) throws RMIException;
+        public int revision(int size) throws RMIException;
+    }
+
+    /** Interface whose versioned method names no version method. */
+    public interface BadInterface
+    {
+        @Versioned("revision")
+        public int[] report(int size) throws RMIException;
+    }
+
+    /** Server returning arrays filled with the current revision. */
+    private class ReportServer implements ReportInterface
+    {
+        @Override
+        public int[] report(int size)
+        {
+            reports.incrementAndGet();
+
+            int[]   result = new int[size];
+            Arrays.fill(result, revision.get());
+            return result;
+        }
+
+        @Override
+        public int revision(int size)
+        {
+            return revision.get();
+        }
+    }
+}
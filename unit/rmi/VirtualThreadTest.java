@@ -0,0 +1,179 @@
+package rmi;
+
+import test.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit test for the virtual thread mode of skeletons.
+
+    <p>
+    On a JVM without virtual threads, <code>setVirtualThreads(true)</code>
+    must throw <code>UnsupportedOperationException</code> and leave the
+    skeleton serving calls on platform threads. On a JVM with them, calls must
+    complete, concurrently, on virtual threads.
+ */
+public class VirtualThreadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking virtual thread mode";
+
+    /** Number of concurrent calls made. */
+    private static final int        CALLS = 20;
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7120);
+    /** Test skeleton. */
+    private Skeleton<ThreadInterface>   skeleton = null;
+
+    /** Creates the test skeleton. */
+    @Override
+    protected void initialize()
+    {
+        skeleton = new Skeleton<ThreadInterface>(ThreadInterface.class,
+                                                 new ThreadServer(), address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        boolean     supported = Skeleton.isVirtualThreadSupported();
+
+        task("enabling virtual threads");
+
+        try
+        {
+            skeleton.setVirtualThreads(true);
+
+            if(!supported)
+            {
+                throw new TestFailed("virtual threads enabled on a JVM " +
+                                     "without them");
+            }
+        }
+        catch(UnsupportedOperationException e)
+        {
+            if(supported)
+                throw new TestFailed("virtual threads refused", e);
+
+            skeleton.setVirtualThreads(false);
+        }
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        task("making concurrent calls");
+
+        final ThreadInterface   stub = Stub.create(ThreadInterface.class,
+                                                   address);
+        final List<Boolean>     virtual = new ArrayList<Boolean>();
+        List<Thread>            callers = new ArrayList<Thread>();
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            Thread  caller = new Thread(() -> {
+                try
+                {
+                    boolean result = stub.isVirtual(50);
+
+                    synchronized(virtual)
+                    {
+                        virtual.add(result);
+                    }
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("call failed", t));
+                }
+            });
+
+            callers.add(caller);
+            caller.start();
+        }
+
+        for(Thread caller : callers)
+        {
+            try
+            {
+                caller.join();
+            }
+            catch(InterruptedException e) { }
+        }
+
+        if(virtual.size() != CALLS)
+            throw new TestFailed("calls did not complete");
+
+        for(boolean result : virtual)
+        {
+            if(result != supported)
+            {
+                throw new TestFailed("call ran on a " +
+                                     (result ? "virtual" : "platform") +
+                                     " thread");
+            }
+        }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Returns <code>true</code> if the current thread is a virtual thread.
+        Looked up reflectively, as the library is built for runtimes without
+        virtual threads. */
+    private static boolean currentThreadIsVirtual()
+    {
+        try
+        {
+            Method  isVirtual = Thread.class.getMethod("isVirtual");
+            return (Boolean)isVirtual.invoke(Thread.currentThread());
+        }
+        catch(NoSuchMethodException e)
+        {
+            return false;
+        }
+        catch(Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Remote interface used by the test. */
+    public interface ThreadInterface
+    {
+        public boolean isVirtual(int sleep) throws RMIException;
+    }
+
+    /** Server reporting the kind of thread that carries out its calls. */
+    private static class ThreadServer implements ThreadInterface
+    {
+        @Override
+        public boolean isVirtual(int sleep)
+        {
+            try
+            {
+                Thread.sleep(sleep);
+            }
+            catch(InterruptedException e) { }
+
+            return currentThreadIsVirtual();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package rmi;
+
+import test.*;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for the binary payload encoding.
+
+    <p>
+    Values of every natively encoded type, including strings that are not
+    valid UTF-16, must survive encoding and decoding unchanged, and other
+    values must be serialized. References shared between the arguments of
+    one call must remain shared. Overloaded methods must have distinct
+    identifiers, a call with a string and an integer must be encoded in a few
+    bytes, and malformed payloads must be rejected.
+ */
+public class WireCodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the binary payload encoding";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("encoding values");
+
+        Object[]        values = new Object[]
+            {null, true, false, (byte)-7, (short)-300, 'x', '\u20ac', 0, -1,
+             Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, 1.5f,
+             Double.NaN, -0.0, "", "ascii", "caf\u00e9 \u20ac",
+             "\ud800 unpaired", new int[] {1, 2, 3}};
+
+        for(Object value : values)
+        {
+            Object      copy = roundTrip(value);
+
+            if(value == null ? copy != null :
+               !Arrays.deepEquals(new Object[] {value}, new Object[] {copy}))
+            {
+                throw new TestFailed("value " + value + " changed by " +
+                                     "encoding");
+            }
+        }
+
+        task("preserving references shared between arguments");
+
+        List<String>    shared = new ArrayList<String>();
+        WireCodec.Request   request;
+
+        try
+        {
+            Method      method = CodecInterface.class.getMethod(
+                "call", String.class, int.class, List.class, List.class);
+            request = WireCodec.decodeRequest(
+                WireCodec.encodeRequest(method,
+                    new Object[] {"ping", 42, shared, shared}));
+
+            if(request.methodId != WireCodec.methodId(method))
+                throw new TestFailed("method identifier changed");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode request", e);
+        }
+
+        if(!"ping".equals(request.arguments[0]) ||
+           !Integer.valueOf(42).equals(request.arguments[1]))
+        {
+            throw new TestFailed("arguments changed by encoding");
+        }
+
+        if(request.arguments[2] != request.arguments[3])
+            throw new TestFailed("shared reference not preserved");
+
+        task("identifying overloaded methods");
+
+        try
+        {
+            long        first = WireCodec.methodId(
+                CodecInterface.class.getMethod("overload", int.class));
+            long        second = WireCodec.methodId(
+                CodecInterface.class.getMethod("overload", long.class));
+
+            if(first == second)
+                throw new TestFailed("overloads share an identifier");
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find method", e);
+        }
+
+        task("encoding a small call compactly");
+
+        try
+        {
+            byte[]      payload = WireCodec.encodeRequest(
+                CodecInterface.class.getMethod("pingpong", String.class,
+                                               int.class),
+                new Object[] {"ping", 1000});
+
+            if(payload.length > 24)
+            {
+                throw new TestFailed("small call encoded in " +
+                                     payload.length + " bytes");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode request", e);
+        }
+
+        task("rejecting malformed payloads");
+
+        byte[][]        malformed = new byte[][]
+            {{}, {5, 6}, {2, 99, 0}, {2, 10, 5}, {2, 0, 0}};
+
+        for(byte[] payload : malformed)
+        {
+            try
+            {
+                WireCodec.decodeValue(payload);
+                throw new TestFailed("malformed payload " +
+                                     Arrays.toString(payload) + " accepted");
+            }
+            catch(IOException e) { }
+            catch(TestFailed e) { throw e; }
+            catch(Exception e)
+            {
+                throw new TestFailed("unexpected exception for malformed " +
+                                     "payload", e);
+            }
+        }
+
+        task();
+    }
+
+    /** Encodes and decodes a value.
+
+        @param value The value.
+        @return The decoded copy of the value.
+        @throws TestFailed If the value cannot be encoded or decoded.
+     */
+    private Object roundTrip(Object value) throws TestFailed
+    {
+        try
+        {
+            return WireCodec.decodeValue(WireCodec.encodeValue(value));
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode " + value, e);
+        }
+    }
+
+    /** Interface whose methods are encoded by the test. */
+    private interface CodecInterface
+    {
+        public String pingpong(String ping, int num) throws RMIException;
+        public void call(String s, int i, List<String> a, List<String> b)
+            throws RMIException;
+        public void overload(int value) throws RMIException;
+        public void overload(long value) throws RMIException;
+    }
+}
@@ -0,0 +1,275 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+
+/** Unit test for the bounded skeleton worker pool.
+
+    <p>
+    The skeleton is given one worker thread and a queue of one call. With one
+    call blocked in the server and a second waiting in the queue, a third call
+    must be refused immediately with an <code>OverloadException</code>, and so
+    must a stream asking for more elements, rather than take a thread outside
+    the pool.
+ */
+public class WorkerPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking that a saturated skeleton refuses calls";
+
+    /** Number of elements in the test stream, more than one window. */
+    private static final int        STREAM_LENGTH = 4 * RemoteStream.WINDOW;
+
+    /** Address used by the test skeleton. */
+    private final InetSocketAddress address = new InetSocketAddress(7103);
+    /** Test skeleton. */
+    private Skeleton<SlowInterface> skeleton = null;
+    /** Set when blocked calls may return. */
+    private boolean                 released = false;
+    /** Number of threads blocked in the slow method. */
+    private int                     waiting = 0;
+
+    /** Starts the test skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SlowInterface>(SlowInterface.class,
+                                               new SlowServer(), address);
+        skeleton.setWorkerPool(1, 1, 1);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        final SlowInterface stub = Stub.create(SlowInterface.class, address);
+
+        task("opening a stream");
+
+        Iterator<Integer>   stream;
+
+        try
+        {
+            stream = stub.count(STREAM_LENGTH);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to open stream", e);
+        }
+
+        if(!stream.hasNext() || stream.next() != 0)
+            throw new TestFailed("stream returned incorrect element");
+
+        while(skeleton.getActiveWorkers() != 0)
+        {
+            try
+            {
+                Thread.sleep(5);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        task("occupying the only worker thread");
+
+        Thread          first = new SlowCaller(stub);
+        first.start();
+
+        synchronized(this)
+        {
+            while(waiting == 0)
+            {
+                try
+                {
+                    wait();
+                }
+                catch(InterruptedException e) { }
+            }
+        }
+
+        task("filling the queue");
+
+        Thread          second = new SlowCaller(stub);
+        second.start();
+
+        while(skeleton.getQueueDepth() == 0)
+        {
+            try
+            {
+                Thread.sleep(5);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        task("calling the saturated skeleton");
+
+        try
+        {
+            stub.fast();
+            throw new TestFailed("saturated skeleton accepted a call");
+        }
+        catch(OverloadException e) { }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from saturated " +
+                                 "skeleton", t);
+        }
+
+        if(skeleton.getRejectedCount() != 1)
+            throw new TestFailed("refused call not counted");
+
+        task("asking the saturated skeleton for stream elements");
+
+        try
+        {
+            for(int expected = 1; expected < STREAM_LENGTH; ++expected)
+            {
+                if(!stream.hasNext() || stream.next() != expected)
+                    throw new TestFailed("stream returned incorrect element");
+            }
+
+            throw new TestFailed("saturated skeleton sent a whole stream");
+        }
+        catch(IllegalStateException e)
+        {
+            if(!(e.getCause() instanceof OverloadException))
+                throw new TestFailed("stream failed unexpectedly", e);
+        }
+
+        if(skeleton.getRejectedCount() != 2)
+            throw new TestFailed("refused stream not counted");
+
+        task("releasing the blocked calls");
+
+        synchronized(this)
+        {
+            released = true;
+            notifyAll();
+        }
+
+        try
+        {
+            first.join();
+            second.join();
+            stub.fast();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("skeleton did not recover", t);
+        }
+
+        task();
+    }
+
+    /** Stops the test skeleton. */
+    @Override
+    protected void clean()
+    {
+        synchronized(this)
+        {
+            released = true;
+            notifyAll();
+        }
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Thread making one call to <code>slow</code>. */
+    private class SlowCaller extends Thread
+    {
+        private final SlowInterface stub;
+
+        SlowCaller(SlowInterface stub)
+        {
+            this.stub = stub;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                stub.slow();
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("blocked call failed", t));
+            }
+        }
+    }
+
+    /** Remote interface used by the test. */
+    public interface SlowInterface
+    {
+        public void slow() throws RMIException;
+        public void fast() throws RMIException;
+        public Iterator<Integer> count(int length) throws RMIException;
+    }
+
+    /** Server whose <code>slow</code> method blocks until released. */
+    private class SlowServer implements SlowInterface
+    {
+        @Override
+        public void slow()
+        {
+            synchronized(WorkerPoolTest.this)
+            {
+                ++waiting;
+                WorkerPoolTest.this.notifyAll();
+
+                while(!released)
+                {
+                    try
+                    {
+                        WorkerPoolTest.this.wait();
+                    }
+                    catch(InterruptedException e) { }
+                }
+            }
+        }
+
+        @Override
+        public void fast()
+        {
+        }
+
+        @Override
+        public Iterator<Integer> count(final int length)
+        {
+            return new Iterator<Integer>()
+            {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < length;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    return next++;
+                }
+            };
+        }
+    }
+}